@@ -15,6 +15,7 @@
  */
 package com.alibaba.csp.sentinel.dashboard.auth;
 
+import com.alibaba.csp.sentinel.dashboard.shard.ShardManager;
 import org.apache.commons.lang.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -34,8 +35,9 @@ import java.util.List;
  * <ul>
  * <li>index url: {@code /}</li>
  * <li>authentication request url: {@code /login}, {@code /logout}</li>
- * <li>machine registry: {@code /registry/machine}</li>
+ * <li>machine registry: {@code /registry/machine}, {@code /registry/machines}</li>
  * <li>static resources</li>
+ * <li>queries forwarded by another dashboard instance with the shard token</li>
  * </ul>
  * <p>
  * The excluded urls and urlSuffixes could be configured in {@code application.properties} file.
@@ -107,6 +109,12 @@ public class DefaultLoginAuthenticationFilter implements LoginAuthenticationFilt
             }
         }
 
+        // Queries forwarded by another dashboard instance of the same shard group
+        if (ShardManager.isForwarded(httpRequest)) {
+            chain.doFilter(request, response);
+            return;
+        }
+
         AuthService.AuthUser authUser = authService.getAuthUser(httpRequest);
 
         HttpServletResponse httpResponse = (HttpServletResponse) response;
@@ -0,0 +1,228 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultRedirectStrategy;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * <p>Owns the single pooled HTTP client used to talk to Sentinel clients, shared by the metric fetcher and
+ * {@link SentinelApiClient}.</p>
+ * <p>
+ * Connections are kept alive per route (machine) so that the metric fetch loop reuses sockets instead of
+ * opening a new connection to every machine every second. Expired and idle connections are evicted in the
+ * background. Limits and timeouts are read from {@link DashboardConfig}.
+ * </p>
+ */
+@Component
+public class HttpClientManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(HttpClientManager.class);
+
+    private static final long EVICTION_INTERVAL_MS = 5000;
+
+    private final PoolingNHttpClientConnectionManager connectionManager;
+    private final CloseableHttpAsyncClient httpClient;
+
+    private final RequestConfig metricRequestConfig;
+
+    /**
+     * {@code ip:port -> request stats}
+     */
+    private final ConcurrentMap<String, HttpRouteStats> routeStats = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("PMD.ThreadPoolCreationRule")
+    private final ScheduledExecutorService evictionService = Executors.newSingleThreadScheduledExecutor(
+        new NamedThreadFactory("sentinel-dashboard-http-connection-evictor", true));
+
+    public HttpClientManager() throws IOReactorException {
+        IOReactorConfig ioConfig = IOReactorConfig.custom()
+            .setConnectTimeout(DashboardConfig.getHttpConnectTimeoutMillis())
+            .setSoTimeout(DashboardConfig.getHttpCommandTimeoutMillis())
+            .setIoThreadCount(DashboardConfig.getHttpIoThreads())
+            .build();
+        connectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(ioConfig));
+        connectionManager.setMaxTotal(DashboardConfig.getHttpMaxConnTotal());
+        connectionManager.setDefaultMaxPerRoute(DashboardConfig.getHttpMaxConnPerRoute());
+
+        RequestConfig commandRequestConfig = requestConfig(DashboardConfig.getHttpCommandTimeoutMillis());
+        metricRequestConfig = requestConfig(DashboardConfig.getHttpMetricTimeoutMillis());
+
+        final long keepAliveMs = DashboardConfig.getHttpKeepAliveMillis();
+        ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+            long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return duration > 0 ? Math.min(duration, keepAliveMs) : keepAliveMs;
+        };
+        httpClient = HttpAsyncClients.custom()
+            .setRedirectStrategy(new DefaultRedirectStrategy() {
+                @Override
+                protected boolean isRedirectable(final String method) {
+                    return false;
+                }
+            })
+            .setConnectionManager(connectionManager)
+            .setKeepAliveStrategy(keepAliveStrategy)
+            .setDefaultRequestConfig(commandRequestConfig)
+            .build();
+        httpClient.start();
+
+        final long maxIdleMs = DashboardConfig.getHttpMaxIdleMillis();
+        evictionService.scheduleWithFixedDelay(() -> {
+            try {
+                connectionManager.closeExpiredConnections();
+                connectionManager.closeIdleConnections(maxIdleMs, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                logger.warn("Failed to evict idle HTTP connections", e);
+            }
+        }, EVICTION_INTERVAL_MS, EVICTION_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private static RequestConfig requestConfig(int socketTimeoutMs) {
+        return RequestConfig.custom()
+            .setConnectTimeout(DashboardConfig.getHttpConnectTimeoutMillis())
+            .setConnectionRequestTimeout(DashboardConfig.getHttpConnectTimeoutMillis())
+            .setSocketTimeout(socketTimeoutMs)
+            .build();
+    }
+
+    /**
+     * Execute a command request with the command timeouts.
+     *
+     * @param callback callback of the response, may be null if the caller waits on the returned future
+     */
+    public Future<HttpResponse> execute(HttpUriRequest request, FutureCallback<HttpResponse> callback) {
+        return doExecute(request, callback);
+    }
+
+    /**
+     * Execute a metric request with the (shorter) metric timeouts.
+     */
+    public Future<HttpResponse> executeMetric(HttpRequestBase request, FutureCallback<HttpResponse> callback) {
+        request.setConfig(metricRequestConfig);
+        return doExecute(request, callback);
+    }
+
+    private Future<HttpResponse> doExecute(HttpUriRequest request, FutureCallback<HttpResponse> callback) {
+        final HttpRouteStats stats = statsOf(request);
+        stats.onRequest();
+        return httpClient.execute(request, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse result) {
+                stats.onCompleted();
+                if (callback != null) {
+                    callback.completed(result);
+                }
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                stats.onFailed();
+                if (callback != null) {
+                    callback.failed(ex);
+                }
+            }
+
+            @Override
+            public void cancelled() {
+                stats.onCancelled();
+                if (callback != null) {
+                    callback.cancelled();
+                }
+            }
+        });
+    }
+
+    private HttpRouteStats statsOf(HttpUriRequest request) {
+        String route = request.getURI().getHost() + ":" + request.getURI().getPort();
+        HttpRouteStats stats = routeStats.get(route);
+        if (stats == null) {
+            HttpRouteStats newStats = new HttpRouteStats(route);
+            stats = routeStats.putIfAbsent(route, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Drop the request stats of a machine which has been removed.
+     */
+    public void removeRoute(String ip, int port) {
+        routeStats.remove(ip + ":" + port);
+    }
+
+    /**
+     * @return request and connection pool stats of every route seen so far
+     */
+    public List<HttpRouteStats> getRouteStats() {
+        List<HttpRouteStats> list = new ArrayList<>(routeStats.size());
+        for (HttpRoute route : connectionManager.getRoutes()) {
+            HttpHost host = route.getTargetHost();
+            HttpRouteStats stats = routeStats.get(host.getHostName() + ":" + host.getPort());
+            if (stats != null) {
+                stats.setPoolStats(connectionManager.getStats(route));
+            }
+        }
+        list.addAll(routeStats.values());
+        return list;
+    }
+
+    /**
+     * @return stats of the whole connection pool
+     */
+    public PoolStats getTotalStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    @PreDestroy
+    public void close() throws Exception {
+        evictionService.shutdownNow();
+        httpClient.close();
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.client;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.http.pool.PoolStats;
+
+/**
+ * Request and connection stats of one route ({@code ip:port}) of the shared HTTP client.
+ */
+public class HttpRouteStats {
+
+    private final String route;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+
+    private volatile int leased;
+    private volatile int pending;
+    private volatile int available;
+    private volatile int max;
+
+    public HttpRouteStats(String route) {
+        this.route = route;
+    }
+
+    void onRequest() {
+        requests.increment();
+    }
+
+    void onCompleted() {
+        completed.increment();
+    }
+
+    void onFailed() {
+        failed.increment();
+    }
+
+    void onCancelled() {
+        cancelled.increment();
+    }
+
+    void setPoolStats(PoolStats stats) {
+        this.leased = stats.getLeased();
+        this.pending = stats.getPending();
+        this.available = stats.getAvailable();
+        this.max = stats.getMax();
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getCancelled() {
+        return cancelled.sum();
+    }
+
+    /**
+     * @return connections currently in use
+     */
+    public int getLeased() {
+        return leased;
+    }
+
+    /**
+     * @return requests waiting for a connection
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    /**
+     * @return idle keep-alive connections ready for reuse
+     */
+    public int getAvailable() {
+        return available;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "HttpRouteStats{" +
+            "route='" + route + '\'' +
+            ", requests=" + getRequests() +
+            ", completed=" + getCompleted() +
+            ", failed=" + getFailed() +
+            ", cancelled=" + getCancelled() +
+            ", leased=" + leased +
+            ", pending=" + pending +
+            ", available=" + available +
+            ", max=" + max +
+            '}';
+    }
+}
@@ -73,10 +73,6 @@ import org.apache.http.client.utils.URLEncodedUtils;
 import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.conn.util.InetAddressUtils;
 import org.apache.http.entity.ContentType;
-import org.apache.http.impl.client.DefaultRedirectStrategy;
-import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
-import org.apache.http.impl.nio.client.HttpAsyncClients;
-import org.apache.http.impl.nio.reactor.IOReactorConfig;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
@@ -127,25 +123,14 @@ public class SentinelApiClient {
     private static final String SYSTEM_RULE_TYPE = "system";
     private static final String AUTHORITY_TYPE = "authority";
 
-    private CloseableHttpAsyncClient httpClient;
-
     private static final SentinelVersion version160 = new SentinelVersion(1, 6, 0);
     private static final SentinelVersion version171 = new SentinelVersion(1, 7, 1);
     
     @Autowired
     private AppManagement appManagement;
 
-    public SentinelApiClient() {
-        IOReactorConfig ioConfig = IOReactorConfig.custom().setConnectTimeout(3000).setSoTimeout(10000)
-            .setIoThreadCount(Runtime.getRuntime().availableProcessors() * 2).build();
-        httpClient = HttpAsyncClients.custom().setRedirectStrategy(new DefaultRedirectStrategy() {
-            @Override
-            protected boolean isRedirectable(final String method) {
-                return false;
-            }
-        }).setMaxConnTotal(4000).setMaxConnPerRoute(1000).setDefaultIOReactorConfig(ioConfig).build();
-        httpClient.start();
-    }
+    @Autowired
+    private HttpClientManager httpClientManager;
 
     private boolean isSuccess(int statusCode) {
         return statusCode >= 200 && statusCode < 300;
@@ -317,7 +302,7 @@ public class SentinelApiClient {
     
     private CompletableFuture<String> executeCommand(HttpUriRequest request) {
         CompletableFuture<String> future = new CompletableFuture<>();
-        httpClient.execute(request, new FutureCallback<HttpResponse>() {
+        httpClientManager.execute(request, new FutureCallback<HttpResponse>() {
             @Override
             public void completed(final HttpResponse response) {
                 int statusCode = response.getStatusLine().getStatusCode();
@@ -353,10 +338,6 @@ public class SentinelApiClient {
         return future;
     }
     
-    public void close() throws Exception {
-        httpClient.close();
-    }
-    
     @Nullable
     private <T> CompletableFuture<List<T>> fetchItemsAsync(String ip, int port, String api, String type, Class<T> ruleType) {
         AssertUtil.notEmpty(ip, "Bad machine IP");
@@ -63,8 +63,167 @@ public class DashboardConfig {
      * Auto remove unhealthy machine after specific period in millisecond.
      */
     public static final String CONFIG_AUTO_REMOVE_MACHINE_MILLIS = "sentinel.dashboard.autoRemoveMachineMillis";
+    /**
+     * Interval in millisecond between two sweeps of the machine registry judging the health of machines and apps.
+     */
+    public static final String CONFIG_REAP_INTERVAL_MILLIS = "sentinel.dashboard.reapIntervalMillis";
+    /**
+     * File the machine registry is snapshotted to, and restored from at startup.
+     */
+    public static final String CONFIG_REGISTRY_SNAPSHOT_FILE = "sentinel.dashboard.registrySnapshotFile";
+    /**
+     * Interval in second between two snapshots of the machine registry.
+     */
+    public static final String CONFIG_REGISTRY_SNAPSHOT_INTERVAL_SECONDS =
+        "sentinel.dashboard.registrySnapshotIntervalSeconds";
+
+    /**
+     * Max connections of the HTTP client shared by the metric fetcher and the command client.
+     */
+    public static final String CONFIG_HTTP_MAX_CONN_TOTAL = "sentinel.dashboard.http.maxConnTotal";
+    /**
+     * Max connections per machine (route) of the shared HTTP client.
+     */
+    public static final String CONFIG_HTTP_MAX_CONN_PER_ROUTE = "sentinel.dashboard.http.maxConnPerRoute";
+    /**
+     * Connect timeout in millisecond of the shared HTTP client.
+     */
+    public static final String CONFIG_HTTP_CONNECT_TIMEOUT_MILLIS = "sentinel.dashboard.http.connectTimeoutMillis";
+    /**
+     * Socket timeout in millisecond of commands sent to Sentinel clients.
+     */
+    public static final String CONFIG_HTTP_COMMAND_TIMEOUT_MILLIS = "sentinel.dashboard.http.commandTimeoutMillis";
+    /**
+     * Socket timeout in millisecond of metric fetching.
+     */
+    public static final String CONFIG_HTTP_METRIC_TIMEOUT_MILLIS = "sentinel.dashboard.http.metricTimeoutMillis";
+    /**
+     * How long an idle connection is kept alive if the machine does not send a {@code Keep-Alive} header.
+     */
+    public static final String CONFIG_HTTP_KEEP_ALIVE_MILLIS = "sentinel.dashboard.http.keepAliveMillis";
+    /**
+     * Idle connections are evicted after specific period in millisecond.
+     */
+    public static final String CONFIG_HTTP_MAX_IDLE_MILLIS = "sentinel.dashboard.http.maxIdleMillis";
+    /**
+     * I/O reactor threads of the shared HTTP client.
+     */
+    public static final String CONFIG_HTTP_IO_THREADS = "sentinel.dashboard.http.ioThreads";
+
+    /**
+     * Seconds of metrics pulled from a machine in one fetch. Can be overridden per app by appending
+     * {@code .<appName>} to the key.
+     */
+    public static final String CONFIG_METRIC_FETCH_INTERVAL_SECONDS = "sentinel.dashboard.metric.fetchIntervalSeconds";
+    /**
+     * How far in seconds the metric fetch of an app catches up after it fell behind; older seconds are skipped.
+     * Can be overridden per app by appending {@code .<appName>} to the key.
+     */
+    public static final String CONFIG_METRIC_MAX_CATCH_UP_SECONDS = "sentinel.dashboard.metric.maxCatchUpSeconds";
+    /**
+     * Delay in millisecond before a second is fetched, giving clients time to flush it.
+     */
+    public static final String CONFIG_METRIC_FETCH_DELAY_MILLIS = "sentinel.dashboard.metric.fetchDelayMillis";
+    /**
+     * How long in seconds the windows of a machine that failed to be fetched are retried in the background.
+     */
+    public static final String CONFIG_METRIC_BACKFILL_HORIZON_SECONDS = "sentinel.dashboard.metric.backfillHorizonSeconds";
+    /**
+     * How metrics of apps reach the dashboard: {@code pull} fetches them from every machine, {@code push} accepts
+     * them posted by the machines to {@code /registry/metric}. Can be overridden per app by appending
+     * {@code .<appName>} to the key.
+     */
+    public static final String CONFIG_METRIC_INGEST_MODE = "sentinel.dashboard.metric.ingestMode";
+    /**
+     * Store of metrics: {@code map}, the default, keeps one
+     * {@link com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity} per resource and second, and
+     * {@code ring} keeps them in columnar ring buffers, both in memory; {@code segment} also persists them to
+     * segment files under {@link #CONFIG_METRIC_STORE_DIR}.
+     */
+    public static final String CONFIG_METRIC_STORE = "sentinel.dashboard.metric.store";
+    /**
+     * Directory of the metric segment files of the {@code segment} store.
+     */
+    public static final String CONFIG_METRIC_STORE_DIR = "sentinel.dashboard.metric.storeDir";
+    /**
+     * Days the metrics of the {@code segment} store are kept.
+     */
+    public static final String CONFIG_METRIC_RETENTION_DAYS = "sentinel.dashboard.metric.retentionDays";
+    /**
+     * Interval in seconds of the sync of the segment files of the {@code segment} store to the disk.
+     */
+    public static final String CONFIG_METRIC_SEGMENT_SYNC_INTERVAL_SECONDS = "sentinel.dashboard.metric.segmentSyncIntervalSeconds";
+    /**
+     * Minutes of metrics kept by the {@code map} store, the minutes older than 5 compressed.
+     */
+    public static final String CONFIG_METRIC_MEMORY_HISTORY_MINUTES = "sentinel.dashboard.metric.memoryHistoryMinutes";
+    /**
+     * Interval in seconds of the background sweep evicting expired metrics, empty series and apps.
+     */
+    public static final String CONFIG_METRIC_SWEEP_INTERVAL_SECONDS = "sentinel.dashboard.metric.sweepIntervalSeconds";
+    /**
+     * Percentage of the max heap used after collection above which the metric store retention is shrunk.
+     */
+    public static final String CONFIG_METRIC_HEAP_BUDGET_PERCENT = "sentinel.dashboard.metric.heapBudgetPercent";
+    /**
+     * Maximum count of active resources of an app whose metrics are saved. Can be overridden per app by appending
+     * {@code .<appName>} to the key.
+     */
+    public static final String CONFIG_METRIC_MAX_RESOURCES_PER_APP = "sentinel.dashboard.metric.maxResourcesPerApp";
+    /**
+     * Maximum count of active resources of all apps whose metrics are saved.
+     */
+    public static final String CONFIG_METRIC_MAX_RESOURCES = "sentinel.dashboard.metric.maxResources";
+    /**
+     * Handling of the metrics of new resources over the limits: {@code drop}, {@code evict} or {@code fold}. Can
+     * be overridden per app by appending {@code .<appName>} to the key.
+     */
+    public static final String CONFIG_METRIC_CARDINALITY_POLICY = "sentinel.dashboard.metric.cardinalityPolicy";
+    /**
+     * Consecutive failed metric fetches of a machine after which its fetch is suspended.
+     */
+    public static final String CONFIG_METRIC_BREAKER_FAILURE_THRESHOLD = "sentinel.dashboard.metric.breakerFailureThreshold";
+    /**
+     * Longest suspension in seconds of the metric fetch of a failing machine.
+     */
+    public static final String CONFIG_METRIC_BREAKER_MAX_BACKOFF_SECONDS = "sentinel.dashboard.metric.breakerMaxBackoffSeconds";
+
+    /**
+     * Address of this dashboard instance in {@code host:port} form, as listed in {@link #CONFIG_SHARD_MEMBERS}.
+     */
+    public static final String CONFIG_SHARD_SELF = "sentinel.dashboard.shard.self";
+    /**
+     * Comma separated addresses of all dashboard instances sharing the metric fetching. Sharding is disabled
+     * if empty.
+     */
+    public static final String CONFIG_SHARD_MEMBERS = "sentinel.dashboard.shard.members";
+    /**
+     * Secret shared by the dashboard instances to authenticate requests forwarded between them. Required if
+     * {@link #CONFIG_SHARD_MEMBERS} is set.
+     */
+    public static final String CONFIG_SHARD_TOKEN = "sentinel.dashboard.shard.token";
+    /**
+     * Interval in millisecond of probing the other dashboard instances.
+     */
+    public static final String CONFIG_SHARD_PROBE_INTERVAL_MILLIS = "sentinel.dashboard.shard.probeIntervalMillis";
+    /**
+     * Timeout in millisecond of a query forwarded to the instance owning the app.
+     */
+    public static final String CONFIG_SHARD_FORWARD_TIMEOUT_MILLIS = "sentinel.dashboard.shard.forwardTimeoutMillis";
+    /**
+     * Max count of queries forwarded to other instances and waiting for their results.
+     */
+    public static final String CONFIG_SHARD_MAX_CONCURRENT_FORWARDS = "sentinel.dashboard.shard.maxConcurrentForwards";
 
     private static final ConcurrentMap<String, Object> cacheMap = new ConcurrentHashMap<>();
+    /**
+     * Values of the per-app keys and of their global fallbacks, misses included, as they are read for every app
+     * on every fetch and write. Kept apart from {@link #cacheMap} and cleared once it holds
+     * {@link #MAX_APP_CACHE_ENTRIES} entries, since the app names come from the heartbeats of any client.
+     */
+    private static final ConcurrentMap<String, Object> appCacheMap = new ConcurrentHashMap<>();
+    private static final int MAX_APP_CACHE_ENTRIES = 4096;
+    private static final Object MISSING = new Object();
     
     @NonNull
     private static String getConfig(String name) {
@@ -110,6 +269,36 @@ public class DashboardConfig {
         return val;
     }
 
+    private static String getCachedConfigStr(String name) {
+        Object val = appCacheMap.get(name);
+        if (val == null) {
+            String config = getConfig(name);
+            val = StringUtils.isBlank(config) ? MISSING : config;
+            if (appCacheMap.size() >= MAX_APP_CACHE_ENTRIES) {
+                appCacheMap.clear();
+            }
+            appCacheMap.put(name, val);
+        }
+        return val == MISSING ? null : (String)val;
+    }
+
+    /**
+     * @return value of {@code name.app}, or of {@code name} if not set
+     */
+    protected static String getAppConfigStr(String name, String app) {
+        String val = getCachedConfigStr(name + "." + app);
+        return val == null ? getCachedConfigStr(name) : val;
+    }
+
+    /**
+     * @return value of {@code name.app}, or of {@code name} if not set, like {@link #getConfigInt}
+     */
+    protected static int getAppConfigInt(String name, String app, int defaultVal, int minVal) {
+        int globalVal = getConfigInt(name, defaultVal, minVal);
+        int val = NumberUtils.toInt(getCachedConfigStr(name + "." + app));
+        return val == 0 ? globalVal : Math.max(val, minVal);
+    }
+
     public static String getAuthUsername() {
         return getConfigStr(CONFIG_AUTH_USERNAME);
     }
@@ -133,8 +322,149 @@ public class DashboardConfig {
     public static int getUnhealthyMachineMillis() {
         return getConfigInt(CONFIG_UNHEALTHY_MACHINE_MILLIS, DEFAULT_MACHINE_HEALTHY_TIMEOUT_MS, 30000);
     }
+
+    public static int getReapIntervalMillis() {
+        return getConfigInt(CONFIG_REAP_INTERVAL_MILLIS, 5000, 1000);
+    }
+
+    public static String getRegistrySnapshotFile() {
+        String file = getConfigStr(CONFIG_REGISTRY_SNAPSHOT_FILE);
+        return file == null ? System.getProperty("user.home") + "/logs/csp/sentinel-dashboard/registry.snapshot"
+            : file;
+    }
+
+    public static int getRegistrySnapshotIntervalSeconds() {
+        return getConfigInt(CONFIG_REGISTRY_SNAPSHOT_INTERVAL_SECONDS, 30, 5);
+    }
     
+    public static int getHttpMaxConnTotal() {
+        return getConfigInt(CONFIG_HTTP_MAX_CONN_TOTAL, 4000, 1);
+    }
+
+    public static int getHttpMaxConnPerRoute() {
+        return getConfigInt(CONFIG_HTTP_MAX_CONN_PER_ROUTE, 1000, 1);
+    }
+
+    public static int getHttpConnectTimeoutMillis() {
+        return getConfigInt(CONFIG_HTTP_CONNECT_TIMEOUT_MILLIS, 3000, 100);
+    }
+
+    public static int getHttpCommandTimeoutMillis() {
+        return getConfigInt(CONFIG_HTTP_COMMAND_TIMEOUT_MILLIS, 10000, 100);
+    }
+
+    public static int getHttpMetricTimeoutMillis() {
+        return getConfigInt(CONFIG_HTTP_METRIC_TIMEOUT_MILLIS, 3000, 100);
+    }
+
+    public static int getHttpKeepAliveMillis() {
+        return getConfigInt(CONFIG_HTTP_KEEP_ALIVE_MILLIS, 30000, 1000);
+    }
+
+    public static int getHttpMaxIdleMillis() {
+        return getConfigInt(CONFIG_HTTP_MAX_IDLE_MILLIS, 60000, 1000);
+    }
+
+    public static int getHttpIoThreads() {
+        return getConfigInt(CONFIG_HTTP_IO_THREADS, Runtime.getRuntime().availableProcessors() * 2, 1);
+    }
+
+    public static int getMetricFetchIntervalSeconds(String app) {
+        return getAppConfigInt(CONFIG_METRIC_FETCH_INTERVAL_SECONDS, app, 6, 1);
+    }
+
+    public static int getMetricMaxCatchUpSeconds(String app) {
+        return getAppConfigInt(CONFIG_METRIC_MAX_CATCH_UP_SECONDS, app, 60, 1);
+    }
+
+    public static int getMetricFetchDelayMillis() {
+        return getConfigInt(CONFIG_METRIC_FETCH_DELAY_MILLIS, 2000, 1000);
+    }
+
+    public static int getMetricBackfillHorizonSeconds() {
+        return getConfigInt(CONFIG_METRIC_BACKFILL_HORIZON_SECONDS, 300, 10);
+    }
+
+    public static String getMetricStore() {
+        String store = getConfigStr(CONFIG_METRIC_STORE);
+        return store == null ? "map" : store;
+    }
+
+    public static String getMetricStoreDir() {
+        String dir = getConfigStr(CONFIG_METRIC_STORE_DIR);
+        return dir == null ? System.getProperty("user.home") + "/logs/csp/sentinel-dashboard/metrics" : dir;
+    }
+
+    public static int getMetricRetentionDays() {
+        return getConfigInt(CONFIG_METRIC_RETENTION_DAYS, 7, 1);
+    }
+
+    public static int getMetricSegmentSyncIntervalSeconds() {
+        return getConfigInt(CONFIG_METRIC_SEGMENT_SYNC_INTERVAL_SECONDS, 5, 1);
+    }
+
+    public static int getMetricMemoryHistoryMinutes() {
+        return getConfigInt(CONFIG_METRIC_MEMORY_HISTORY_MINUTES, 60, 5);
+    }
+
+    public static int getMetricSweepIntervalSeconds() {
+        return getConfigInt(CONFIG_METRIC_SWEEP_INTERVAL_SECONDS, 30, 1);
+    }
+
+    public static int getMetricHeapBudgetPercent() {
+        return getConfigInt(CONFIG_METRIC_HEAP_BUDGET_PERCENT, 80, 10);
+    }
+
+    public static int getMetricMaxResourcesPerApp(String app) {
+        return getAppConfigInt(CONFIG_METRIC_MAX_RESOURCES_PER_APP, app, 10000, 1);
+    }
+
+    public static int getMetricMaxResources() {
+        return getConfigInt(CONFIG_METRIC_MAX_RESOURCES, 100000, 1);
+    }
+
+    public static String getMetricCardinalityPolicy(String app) {
+        return getAppConfigStr(CONFIG_METRIC_CARDINALITY_POLICY, app);
+    }
+
+    public static int getMetricBreakerFailureThreshold() {
+        return getConfigInt(CONFIG_METRIC_BREAKER_FAILURE_THRESHOLD, 3, 1);
+    }
+
+    public static int getMetricBreakerMaxBackoffSeconds() {
+        return getConfigInt(CONFIG_METRIC_BREAKER_MAX_BACKOFF_SECONDS, 300, 5);
+    }
+
+    public static boolean isMetricPushMode(String app) {
+        return "push".equalsIgnoreCase(getAppConfigStr(CONFIG_METRIC_INGEST_MODE, app));
+    }
+
+    public static String getShardSelf() {
+        return getConfigStr(CONFIG_SHARD_SELF);
+    }
+
+    public static String getShardMembers() {
+        return getConfigStr(CONFIG_SHARD_MEMBERS);
+    }
+
+    public static String getShardToken() {
+        return getConfigStr(CONFIG_SHARD_TOKEN);
+    }
+
+    public static int getShardProbeIntervalMillis() {
+        return getConfigInt(CONFIG_SHARD_PROBE_INTERVAL_MILLIS, 2000, 500);
+    }
+
+    public static int getShardForwardTimeoutMillis() {
+        return getConfigInt(CONFIG_SHARD_FORWARD_TIMEOUT_MILLIS, 5000, 100);
+    }
+
+    public static int getShardMaxConcurrentForwards() {
+        return getConfigInt(CONFIG_SHARD_MAX_CONCURRENT_FORWARDS, 64, 1);
+    }
+
     public static void clearCache() {
         cacheMap.clear();
+        appCacheMap.clear();
     }
 }
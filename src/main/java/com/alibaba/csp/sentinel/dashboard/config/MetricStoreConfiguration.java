@@ -0,0 +1,61 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.InMemoryMetricsRepository;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.MetricsRepository;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.RingBufferMetricsRepository;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.RollupMetricsRepository;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.SegmentMetricsRepository;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Picks the metric store by {@link DashboardConfig#CONFIG_METRIC_STORE}, unless another repository is defined,
+ * and keeps downsampled rollups of it for long ranges.
+ */
+@Configuration
+public class MetricStoreConfiguration {
+
+    @Bean
+    @ConditionalOnMissingBean
+    public MetricsRepository<MetricEntity> metricsRepository() throws IOException {
+        String store = DashboardConfig.getMetricStore();
+        if ("ring".equalsIgnoreCase(store)) {
+            return new RollupMetricsRepository(new RingBufferMetricsRepository(),
+                RingBufferMetricsRepository.RETENTION_SECONDS);
+        }
+        if ("segment".equalsIgnoreCase(store)) {
+            int retentionDays = DashboardConfig.getMetricRetentionDays();
+            // Compact an hour only once the backfill of its seconds has given up.
+            SegmentMetricsRepository repository = new SegmentMetricsRepository(
+                new File(DashboardConfig.getMetricStoreDir()), retentionDays,
+                DashboardConfig.getMetricBackfillHorizonSeconds() + 60,
+                DashboardConfig.getMetricSegmentSyncIntervalSeconds());
+            repository.start();
+            return new RollupMetricsRepository(repository, TimeUnit.DAYS.toSeconds(retentionDays));
+        }
+        InMemoryMetricsRepository repository = new InMemoryMetricsRepository(
+            DashboardConfig.getMetricMemoryHistoryMinutes());
+        return new RollupMetricsRepository(repository, repository.getRetentionSeconds());
+    }
+}
@@ -15,11 +15,30 @@
  */
 package com.alibaba.csp.sentinel.dashboard.controller;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
+import com.alibaba.csp.sentinel.dashboard.discovery.AppInfo;
 import com.alibaba.csp.sentinel.dashboard.discovery.AppManagement;
+import com.alibaba.csp.sentinel.dashboard.metric.MetricPushIngestor;
 import com.alibaba.csp.sentinel.util.StringUtil;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONException;
+import com.alibaba.fastjson.JSONObject;
 
-import com.alibaba.csp.sentinel.dashboard.discovery.MachineInfo;
 import com.alibaba.csp.sentinel.dashboard.domain.Result;
+import com.alibaba.csp.sentinel.dashboard.shard.ShardManager;
 
 import org.apache.http.conn.util.InetAddressUtils;
 import org.slf4j.Logger;
@@ -28,6 +47,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
@@ -37,15 +57,82 @@ public class MachineRegistryController {
 
     private final Logger logger = LoggerFactory.getLogger(MachineRegistryController.class);
 
+    private static final int MAX_METRIC_BATCH_BYTES = 4 * 1024 * 1024;
+    private static final int MAX_HEARTBEAT_BATCH_BYTES = 1024 * 1024;
+
     @Autowired
     private AppManagement appManagement;
+    @Autowired
+    private ShardManager shardManager;
+    @Autowired
+    private MetricPushIngestor pushIngestor;
 
     @ResponseBody
     @RequestMapping("/machine")
-    public Result<?> receiveHeartBeat(String app,
+    public Result<?> receiveHeartBeat(HttpServletRequest request, String app,
                                       @RequestParam(value = "app_type", required = false, defaultValue = "0")
                                           Integer appType, Long version, String v, String hostname, String ip,
                                       Integer port) {
+        Result<?> result = register(app, appType, version, v, hostname, ip, port);
+        if (result.isSuccess() && request.getParameter(ShardManager.FORWARDED_PARAM) == null) {
+            shardManager.replicateHeartbeat(request.getParameterMap());
+        }
+        return result;
+    }
+
+    /**
+     * Receive the heartbeats of many machines, e.g. from a sidecar fronting them, posted as a JSON array of
+     * objects with the parameters of {@code /registry/machine}. Every entry is validated and registered on its
+     * own.
+     *
+     * @return results of the entries, in the order of the batch
+     */
+    @ResponseBody
+    @RequestMapping(value = "/machines", method = RequestMethod.POST)
+    public Result<?> receiveHeartBeats(HttpServletRequest request) {
+        if (request.getContentLengthLong() > MAX_HEARTBEAT_BATCH_BYTES) {
+            return Result.ofFail(-1, "heartbeat batch larger than " + MAX_HEARTBEAT_BATCH_BYTES + " bytes");
+        }
+        byte[] body;
+        JSONArray entries;
+        try {
+            body = readBody(request.getInputStream(), MAX_HEARTBEAT_BATCH_BYTES);
+            if (body == null) {
+                return Result.ofFail(-1, "heartbeat batch larger than " + MAX_HEARTBEAT_BATCH_BYTES + " bytes");
+            }
+            entries = JSON.parseArray(new String(body, StandardCharsets.UTF_8));
+        } catch (IOException | JSONException e) {
+            logger.warn("Failed to read heartbeat batch", e);
+            return Result.ofFail(-1, "failed to read heartbeat batch: " + e.getMessage());
+        }
+        if (entries == null) {
+            return Result.ofFail(-1, "heartbeat batch must be a JSON array");
+        }
+        List<Result<?>> results = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            Object entry = entries.get(i);
+            if (!(entry instanceof JSONObject)) {
+                results.add(Result.ofFail(-1, "invalid entry"));
+                continue;
+            }
+            JSONObject heartbeat = (JSONObject)entry;
+            try {
+                Integer appType = heartbeat.getInteger("app_type");
+                results.add(register(heartbeat.getString("app"), appType == null ? 0 : appType,
+                    heartbeat.getLong("version"), heartbeat.getString("v"), heartbeat.getString("hostname"),
+                    heartbeat.getString("ip"), heartbeat.getInteger("port")));
+            } catch (JSONException | NumberFormatException e) {
+                results.add(Result.ofFail(-1, "invalid entry: " + e.getMessage()));
+            }
+        }
+        if (request.getParameter(ShardManager.FORWARDED_PARAM) == null) {
+            shardManager.replicateHeartbeats(body);
+        }
+        return Result.ofSuccess(results);
+    }
+
+    private Result<?> register(String app, Integer appType, Long version, String v, String hostname, String ip,
+                               Integer port) {
         if (StringUtil.isBlank(app) || app.length() > 256) {
             return Result.ofFail(-1, "invalid appName");
         }
@@ -69,20 +156,74 @@ public class MachineRegistryController {
 
         version = version == null ? System.currentTimeMillis() : version;
         try {
-            MachineInfo machineInfo = new MachineInfo();
-            machineInfo.setApp(app);
-            machineInfo.setAppType(appType);
-            machineInfo.setHostname(hostname);
-            machineInfo.setIp(ip);
-            machineInfo.setPort(port);
-            machineInfo.setHeartbeatVersion(version);
-            machineInfo.setLastHeartbeat(System.currentTimeMillis());
-            machineInfo.setVersion(sentinelVersion);
-            appManagement.addMachine(machineInfo);
+            if (!appManagement.receiveHeartbeat(app, appType, hostname, ip, port, version, sentinelVersion)) {
+                logger.debug("Out of order heartbeat of {}:{} of app <{}> ignored, version={}", ip, port, app,
+                    version);
+            }
             return Result.ofSuccessMsg("success");
         } catch (Exception e) {
             logger.error("Receive heartbeat error", e);
             return Result.ofFail(-1, e.getMessage());
         }
     }
+
+    /**
+     * Receive a batch of metric lines in the thin format of the {@code metric} command, posted as the plain
+     * request body by a registered machine of an app in push mode.
+     */
+    @ResponseBody
+    @RequestMapping(value = "/metric", method = RequestMethod.POST)
+    public Result<?> receiveMetric(HttpServletRequest request, String app, String ip, Integer port) {
+        if (StringUtil.isBlank(app) || StringUtil.isBlank(ip) || port == null) {
+            return Result.ofFail(-1, "app, ip and port are required");
+        }
+        if (!DashboardConfig.isMetricPushMode(app)) {
+            return Result.ofFail(-1, "metrics of app " + app + " are pulled, not pushed");
+        }
+        AppInfo appInfo = appManagement.getDetailApp(app);
+        if (appInfo == null || !appInfo.getMachine(ip, port).isPresent()) {
+            return Result.ofFail(-1, "machine " + ip + ":" + port + " not registered, send heartbeat first");
+        }
+        if (!shardManager.isLocal(app)) {
+            return Result.ofFail(-1,
+                "metrics of app " + app + " are ingested by dashboard " + shardManager.ownerOf(app));
+        }
+        if (request.getContentLengthLong() > MAX_METRIC_BATCH_BYTES) {
+            return Result.ofFail(-1, "metric batch larger than " + MAX_METRIC_BATCH_BYTES + " bytes");
+        }
+        Charset charset;
+        try {
+            charset = request.getCharacterEncoding() == null ? StandardCharsets.UTF_8
+                : Charset.forName(request.getCharacterEncoding());
+        } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+            return Result.ofFail(-1, "unsupported charset of metric batch: " + request.getCharacterEncoding());
+        }
+        byte[] body;
+        try {
+            body = readBody(request.getInputStream(), MAX_METRIC_BATCH_BYTES);
+        } catch (IOException e) {
+            logger.warn("Failed to read metric batch of {}:{} of app <{}>", ip, port, app, e);
+            return Result.ofFail(-1, "failed to read metric batch: " + e.getMessage());
+        }
+        if (body == null) {
+            return Result.ofFail(-1, "metric batch larger than " + MAX_METRIC_BATCH_BYTES + " bytes");
+        }
+        return Result.ofSuccess(pushIngestor.ingest(app, body, charset));
+    }
+
+    /**
+     * @return the whole body, or null if it exceeds {@code maxBytes}
+     */
+    private static byte[] readBody(InputStream in, int maxBytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            if (out.size() + n > maxBytes) {
+                return null;
+            }
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
 }
@@ -16,16 +16,37 @@
 package com.alibaba.csp.sentinel.dashboard.controller;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 
+import javax.servlet.http.HttpServletRequest;
+
+import com.alibaba.csp.sentinel.dashboard.client.HttpClientManager;
+import com.alibaba.csp.sentinel.dashboard.client.HttpRouteStats;
+import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
+import com.alibaba.csp.sentinel.dashboard.discovery.AppInfo;
+import com.alibaba.csp.sentinel.dashboard.discovery.AppManagement;
+import com.alibaba.csp.sentinel.dashboard.discovery.MachineInfo;
 import com.alibaba.csp.sentinel.dashboard.domain.Result;
+import com.alibaba.csp.sentinel.dashboard.domain.vo.AppCardinalityVo;
+import com.alibaba.csp.sentinel.dashboard.domain.vo.AppFetchTelemetryVo;
+import com.alibaba.csp.sentinel.dashboard.domain.vo.MetricStoreTelemetryVo;
+import com.alibaba.csp.sentinel.dashboard.metric.AppFetchStats;
+import com.alibaba.csp.sentinel.dashboard.metric.CardinalityLimiter;
+import com.alibaba.csp.sentinel.dashboard.metric.CardinalityLimiter.AppResources;
+import com.alibaba.csp.sentinel.dashboard.metric.MetricFetcher;
+import com.alibaba.csp.sentinel.dashboard.metric.MetricStoreGovernor;
 import com.alibaba.csp.sentinel.dashboard.repository.metric.MetricsRepository;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.ResourceRank;
+import com.alibaba.csp.sentinel.dashboard.shard.ShardManager;
+import org.apache.http.pool.PoolStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -48,21 +69,49 @@ public class MetricController {
 
     private static Logger logger = LoggerFactory.getLogger(MetricController.class);
 
-    private static final long maxQueryIntervalMs = 1000 * 60 * 60;
+    private static final long maxQueryIntervalMs = 1000 * 60 * 60 * 24 * 7;
+    /**
+     * Points per resource of a query, longer ranges are served from downsampled metrics.
+     */
+    private static final int DEFAULT_MAX_POINTS = 600;
+    private static final int MAX_POINTS_LIMIT = 3600;
 
     @Autowired
     private MetricsRepository<MetricEntity> metricStore;
+    @Autowired
+    private MetricFetcher metricFetcher;
+    @Autowired
+    private MetricStoreGovernor metricStoreGovernor;
+    @Autowired
+    private CardinalityLimiter cardinalityLimiter;
+    @Autowired
+    private ShardManager shardManager;
+    @Autowired
+    private HttpClientManager httpClientManager;
+    @Autowired
+    private AppManagement appManagement;
 
     @ResponseBody
     @RequestMapping("/queryTopResourceMetric.json")
-    public Result<?> queryTopResourceMetric(final String app,
-                                            Integer pageIndex,
-                                            Integer pageSize,
-                                            Boolean desc,
-                                            Long startTime, Long endTime, String searchKey) {
+    public CompletableFuture<Result<?>> queryTopResourceMetric(HttpServletRequest request, final String app,
+                                                               Integer pageIndex,
+                                                               Integer pageSize,
+                                                               Boolean desc,
+                                                               Long startTime, Long endTime, String searchKey,
+                                                               Integer maxPoints, String orderBy) {
         if (StringUtil.isEmpty(app)) {
-            return Result.ofFail(-1, "app can't be null or empty");
+            return CompletableFuture.completedFuture(Result.ofFail(-1, "app can't be null or empty"));
         }
+        if (shouldForward(app, request)) {
+            return shardManager.forward(app, request);
+        }
+        return CompletableFuture.completedFuture(queryTopResourceMetricLocally(app, pageIndex, pageSize, desc,
+            startTime, endTime, searchKey, maxPoints, orderBy));
+    }
+
+    private Result<?> queryTopResourceMetricLocally(String app, Integer pageIndex, Integer pageSize, Boolean desc,
+                                                    Long startTime, Long endTime, String searchKey,
+                                                    Integer maxPoints, String orderBy) {
         if (pageIndex == null || pageIndex <= 0) {
             pageIndex = 1;
         }
@@ -82,68 +131,73 @@ public class MetricController {
             startTime = endTime - 1000 * 60 * 5;
         }
         if (endTime - startTime > maxQueryIntervalMs) {
-            return Result.ofFail(-1, "time intervalMs is too big, must <= 1h");
-        }
-        List<String> resources = metricStore.listResourcesOfApp(app);
-        logger.debug("queryTopResourceMetric(), resources.size()={}", resources.size());
-
-        if (resources == null || resources.isEmpty()) {
-            return Result.ofSuccess(null);
-        }
-        if (!desc) {
-            Collections.reverse(resources);
+            return Result.ofFail(-1, "time intervalMs is too big, must <= 7d");
         }
+        ResourceRank rank = ResourceRank.fromField(orderBy);
+        int totalCount;
+        List<String> topResource;
         if (StringUtil.isNotEmpty(searchKey)) {
-            List<String> searched = new ArrayList<>();
-            for (String resource : resources) {
-                if (resource.contains(searchKey)) {
-                    searched.add(resource);
-                }
+            // Only the resources matching the key are ranked.
+            List<String> searched = metricStore.searchResourcesOfApp(app, searchKey, rank, desc);
+            logger.debug("queryTopResourceMetric(), searched.size()={}", searched.size());
+            if (searched.isEmpty() && metricStore.countResourcesOfApp(app) == 0) {
+                return Result.ofSuccess(null);
             }
-            resources = searched;
-        }
-        int totalPage = (resources.size() + pageSize - 1) / pageSize;
-        List<String> topResource = new ArrayList<>();
-        if (pageIndex <= totalPage) {
-            topResource = resources.subList((pageIndex - 1) * pageSize,
-                Math.min(pageIndex * pageSize, resources.size()));
+            totalCount = searched.size();
+            int from = Math.min((pageIndex - 1) * pageSize, totalCount);
+            topResource = searched.subList(from, Math.min(from + pageSize, totalCount));
+        } else {
+            // Only the requested page is read from the ranking.
+            totalCount = metricStore.countResourcesOfApp(app);
+            logger.debug("queryTopResourceMetric(), resources.size()={}", totalCount);
+            if (totalCount == 0) {
+                return Result.ofSuccess(null);
+            }
+            topResource = metricStore.listResourcesOfApp(app, rank, desc, (pageIndex - 1) * pageSize, pageSize);
         }
-        final Map<String, Iterable<MetricVo>> map = new ConcurrentHashMap<>();
+        int totalPage = (totalCount + pageSize - 1) / pageSize;
         logger.debug("topResource={}", topResource);
         long time = System.currentTimeMillis();
-        for (final String resource : topResource) {
-            List<MetricEntity> entities = metricStore.queryByAppAndResourceBetween(
-                app, resource, startTime, endTime);
-            logger.debug("resource={}, entities.size()={}", resource, entities == null ? "null" : entities.size());
-            List<MetricVo> vos = MetricVo.fromMetricEntities(entities, resource);
-            Iterable<MetricVo> vosSorted = sortMetricVoAndDistinct(vos);
-            map.put(resource, vosSorted);
-        }
+        // All series of the page are read in one pass over the app.
+        Map<String, List<MetricEntity>> series = metricStore.queryByAppAndResourcesBetween(
+            app, topResource, startTime, endTime, maxPointsOf(maxPoints));
         logger.debug("queryTopResourceMetric() total query time={} ms", System.currentTimeMillis() - time);
         Map<String, Object> resultMap = new HashMap<>(16);
-        resultMap.put("totalCount", resources.size());
+        resultMap.put("totalCount", totalCount);
         resultMap.put("totalPage", totalPage);
         resultMap.put("pageIndex", pageIndex);
         resultMap.put("pageSize", pageSize);
 
-        Map<String, Iterable<MetricVo>> map2 = new LinkedHashMap<>();
+        Map<String, Iterable<MetricVo>> map = new LinkedHashMap<>();
         // order matters.
         for (String identity : topResource) {
-            map2.put(identity, map.get(identity));
+            List<MetricVo> vos = MetricVo.fromMetricEntities(series.get(identity), identity);
+            map.put(identity, isSortedAndDistinct(vos) ? vos : sortMetricVoAndDistinct(vos));
         }
-        resultMap.put("metric", map2);
+        resultMap.put("metric", map);
         return Result.ofSuccess(resultMap);
     }
 
     @ResponseBody
     @RequestMapping("/queryByAppAndResource.json")
-    public Result<?> queryByAppAndResource(String app, String identity, Long startTime, Long endTime) {
+    public CompletableFuture<Result<?>> queryByAppAndResource(HttpServletRequest request, String app,
+                                                              String identity, Long startTime, Long endTime,
+                                                              Integer maxPoints) {
         if (StringUtil.isEmpty(app)) {
-            return Result.ofFail(-1, "app can't be null or empty");
+            return CompletableFuture.completedFuture(Result.ofFail(-1, "app can't be null or empty"));
         }
         if (StringUtil.isEmpty(identity)) {
-            return Result.ofFail(-1, "identity can't be null or empty");
+            return CompletableFuture.completedFuture(Result.ofFail(-1, "identity can't be null or empty"));
+        }
+        if (shouldForward(app, request)) {
+            return shardManager.forward(app, request);
         }
+        return CompletableFuture.completedFuture(queryByAppAndResourceLocally(app, identity, startTime, endTime,
+            maxPoints));
+    }
+
+    private Result<?> queryByAppAndResourceLocally(String app, String identity, Long startTime, Long endTime,
+                                                   Integer maxPoints) {
         if (endTime == null) {
             endTime = System.currentTimeMillis();
         }
@@ -151,14 +205,127 @@ public class MetricController {
             startTime = endTime - 1000 * 60;
         }
         if (endTime - startTime > maxQueryIntervalMs) {
-            return Result.ofFail(-1, "time intervalMs is too big, must <= 1h");
+            return Result.ofFail(-1, "time intervalMs is too big, must <= 7d");
         }
         List<MetricEntity> entities = metricStore.queryByAppAndResourceBetween(
-            app, identity, startTime, endTime);
+            app, identity, startTime, endTime, maxPointsOf(maxPoints));
         List<MetricVo> vos = MetricVo.fromMetricEntities(entities, identity);
         return Result.ofSuccess(sortMetricVoAndDistinct(vos));
     }
 
+    /**
+     * Telemetry of the metric fetch pipeline, ordered by lag descending.
+     *
+     * @param app optional app name, all fetched apps if empty
+     */
+    @ResponseBody
+    @RequestMapping("/fetchTelemetry.json")
+    public Result<List<AppFetchTelemetryVo>> queryFetchTelemetry(String app) {
+        long now = System.currentTimeMillis();
+        List<AppFetchTelemetryVo> vos = new ArrayList<>();
+        for (AppFetchStats stats : metricFetcher.getFetchStats()) {
+            if (StringUtil.isEmpty(app) || app.equals(stats.getApp())) {
+                vos.add(AppFetchTelemetryVo.fromStats(stats, metricFetcher.getScheduler(), now));
+            }
+        }
+        vos.sort(Comparator.comparingLong(AppFetchTelemetryVo::getLagMs).reversed());
+        return Result.ofSuccess(vos);
+    }
+
+    /**
+     * Request counters and connection pool stats of the shared HTTP client, per machine ordered by pending
+     * requests then leased connections, descending.
+     *
+     * @param app optional app name, only the machines of the app if not empty
+     */
+    @ResponseBody
+    @RequestMapping("/httpTelemetry.json")
+    public Result<Map<String, Object>> queryHttpTelemetry(String app) {
+        List<HttpRouteStats> routes = httpClientManager.getRouteStats();
+        if (StringUtil.isNotEmpty(app)) {
+            AppInfo appInfo = appManagement.getDetailApp(app);
+            Set<String> machines = new HashSet<>();
+            if (appInfo != null) {
+                for (MachineInfo machine : appInfo.getMachines()) {
+                    machines.add(machine.toHostPort());
+                }
+            }
+            routes.removeIf(route -> !machines.contains(route.getRoute()));
+        }
+        routes.sort(Comparator.comparingInt(HttpRouteStats::getPending)
+            .thenComparingInt(HttpRouteStats::getLeased).reversed());
+        PoolStats total = httpClientManager.getTotalStats();
+        Map<String, Object> totalMap = new LinkedHashMap<>(8);
+        totalMap.put("leased", total.getLeased());
+        totalMap.put("pending", total.getPending());
+        totalMap.put("available", total.getAvailable());
+        totalMap.put("max", total.getMax());
+        Map<String, Object> resultMap = new HashMap<>(4);
+        resultMap.put("total", totalMap);
+        resultMap.put("routes", routes);
+        return Result.ofSuccess(resultMap);
+    }
+
+    /**
+     * Eviction and heap budget telemetry of the metric store of this dashboard instance.
+     */
+    @ResponseBody
+    @RequestMapping("/storeTelemetry.json")
+    public Result<MetricStoreTelemetryVo> queryStoreTelemetry() {
+        return Result.ofSuccess(MetricStoreTelemetryVo.fromGovernor(metricStoreGovernor));
+    }
+
+    /**
+     * Resource cardinality limits of the apps of this dashboard instance, ordered by active resources descending.
+     *
+     * @param app optional app name, all apps if empty
+     */
+    @ResponseBody
+    @RequestMapping("/cardinality.json")
+    public Result<Map<String, Object>> queryCardinality(String app) {
+        List<AppCardinalityVo> vos = new ArrayList<>();
+        for (AppResources resources : cardinalityLimiter.getAppResources()) {
+            if (StringUtil.isEmpty(app) || app.equals(resources.getApp())) {
+                vos.add(AppCardinalityVo.fromResources(resources));
+            }
+        }
+        vos.sort(Comparator.comparingInt(AppCardinalityVo::getResources).reversed());
+        Map<String, Object> resultMap = new HashMap<>(8);
+        resultMap.put("totalResources", cardinalityLimiter.getTotalResources());
+        resultMap.put("maxResources", DashboardConfig.getMetricMaxResources());
+        resultMap.put("apps", vos);
+        return Result.ofSuccess(resultMap);
+    }
+
+    /**
+     * Metrics of an app are only kept by the dashboard instance fetching them. Forwarded requests are always
+     * served locally, so instances that briefly disagree on the owner cannot loop. Queries of other instances
+     * are answered asynchronously, see {@link ShardManager#forward(String, HttpServletRequest)}.
+     */
+    private boolean shouldForward(String app, HttpServletRequest request) {
+        return !shardManager.isLocal(app) && !ShardManager.isForwarded(request);
+    }
+
+    private static int maxPointsOf(Integer maxPoints) {
+        if (maxPoints == null || maxPoints <= 0) {
+            return DEFAULT_MAX_POINTS;
+        }
+        return Math.min(maxPoints, MAX_POINTS_LIMIT);
+    }
+
+    /**
+     * @return true if the metrics are ordered by strictly increasing timestamps, as returned by the built-in
+     * repositories, so that they need no sorting
+     */
+    private static boolean isSortedAndDistinct(List<MetricVo> vos) {
+        for (int i = 1; i < vos.size(); i++) {
+            if (vos.get(i).getTimestamp() <= vos.get(i - 1).getTimestamp()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private Iterable<MetricVo> sortMetricVoAndDistinct(List<MetricVo> vos) {
         if (vos == null) {
             return null;
@@ -81,8 +81,8 @@ public class ResourceController {
                 return Result.ofSuccess(null);
             }
             if (StringUtil.isNotEmpty(searchKey)) {
-                nodeVos = nodeVos.stream().filter(node -> node.getResource()
-                    .toLowerCase().contains(searchKey.toLowerCase()))
+                nodeVos = nodeVos.stream()
+                    .filter(node -> ResourceTreeNode.containsIgnoreCase(node.getResource(), searchKey))
                     .collect(Collectors.toList());
             }
             return Result.ofSuccess(ResourceVo.fromNodeVoList(nodeVos));
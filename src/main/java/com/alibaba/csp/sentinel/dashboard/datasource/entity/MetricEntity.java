@@ -61,6 +61,7 @@ public class MetricEntity {
         entity.setExceptionQps(oldEntity.getExceptionQps());
         entity.setRt(oldEntity.getRt());
         entity.setCount(oldEntity.getCount());
+        entity.setResourceCode(oldEntity.getResourceCode());
         return entity;
     }
 
@@ -189,6 +190,10 @@ public class MetricEntity {
         return resourceCode;
     }
 
+    public void setResourceCode(int resourceCode) {
+        this.resourceCode = resourceCode;
+    }
+
     public Long getSuccessQps() {
         return successQps;
     }
@@ -0,0 +1,55 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.discovery;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published by the {@link MachineReaper} when an app is shown in or hidden from the sidebar, or removed from the
+ * registry, see {@link AppInfo#isShown()} and {@link AppInfo#isDead()}.
+ */
+public class AppHealthEvent extends ApplicationEvent {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String app;
+    private final boolean shown;
+    private final boolean removed;
+
+    public AppHealthEvent(Object source, String app, boolean shown, boolean removed) {
+        super(source);
+        this.app = app;
+        this.shown = shown;
+        this.removed = removed;
+    }
+
+    public String getApp() {
+        return app;
+    }
+
+    public boolean isShown() {
+        return shown;
+    }
+
+    public boolean isRemoved() {
+        return removed;
+    }
+
+    @Override
+    public String toString() {
+        return "AppHealthEvent{" + "app='" + app + '\'' + ", shown=" + shown + ", removed=" + removed + '}';
+    }
+}
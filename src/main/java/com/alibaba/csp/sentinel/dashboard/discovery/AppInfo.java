@@ -15,12 +15,14 @@
  */
 package com.alibaba.csp.sentinel.dashboard.discovery;
 
-import java.util.Comparator;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Optional;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
 
@@ -30,7 +32,24 @@ public class AppInfo {
 
     private Integer appType = 0;
 
-    private Set<MachineInfo> machines = ConcurrentHashMap.newKeySet();
+    /**
+     * Machines indexed by ip, then port. Modified under the monitor of the app only.
+     */
+    private final ConcurrentMap<String, ConcurrentMap<Integer, MachineInfo>> machinesByIp =
+        new ConcurrentHashMap<>();
+    /**
+     * Immutable view of the machines, rebuilt by the first read after a modification.
+     */
+    private volatile Set<MachineInfo> machines = Collections.emptySet();
+
+    /**
+     * Health of the machines and of the app, judged by the {@link MachineReaper} and modified under the monitor
+     * of the app only.
+     */
+    private volatile int healthyCount;
+    private volatile int unhealthyCount;
+    private volatile boolean shown = true;
+    private volatile boolean dead;
 
     public AppInfo() {}
 
@@ -62,80 +81,161 @@ public class AppInfo {
     /**
      * Get the current machines.
      *
-     * @return a new copy of the current machines.
+     * @return an immutable snapshot of the current machines, not changed by later modifications
      */
     public Set<MachineInfo> getMachines() {
-        return new HashSet<>(machines);
+        Set<MachineInfo> current = machines;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            current = machines;
+            if (current == null) {
+                Set<MachineInfo> snapshot = new HashSet<>();
+                for (Map<Integer, MachineInfo> ports : machinesByIp.values()) {
+                    snapshot.addAll(ports.values());
+                }
+                current = Collections.unmodifiableSet(snapshot);
+                machines = current;
+            }
+            return current;
+        }
     }
 
     @Override
     public String toString() {
-        return "AppInfo{" + "app='" + app + ", machines=" + machines + '}';
+        return "AppInfo{" + "app='" + app + ", machines=" + getMachines() + '}';
     }
 
-    public boolean addMachine(MachineInfo machineInfo) {
-        machines.remove(machineInfo);
-        return machines.add(machineInfo);
+    public synchronized boolean addMachine(MachineInfo machineInfo) {
+        MachineInfo replaced = machinesByIp.computeIfAbsent(machineInfo.getIp(), k -> new ConcurrentHashMap<>(4))
+            .put(machineInfo.getPort(), machineInfo);
+        if (replaced != null && replaced != machineInfo) {
+            uncount(replaced);
+        }
+        machines = null;
+        return true;
     }
 
     public synchronized boolean removeMachine(String ip, int port) {
-        Iterator<MachineInfo> it = machines.iterator();
-        while (it.hasNext()) {
-            MachineInfo machine = it.next();
-            if (machine.getIp().equals(ip) && machine.getPort() == port) {
-                it.remove();
-                return true;
-            }
+        Map<Integer, MachineInfo> ports = ip == null ? null : machinesByIp.get(ip);
+        MachineInfo removed = ports == null ? null : ports.remove(port);
+        if (removed == null) {
+            return false;
+        }
+        if (ports.isEmpty()) {
+            machinesByIp.remove(ip);
         }
-        return false;
+        uncount(removed);
+        machines = null;
+        return true;
     }
 
     public Optional<MachineInfo> getMachine(String ip, int port) {
-        return machines.stream()
-            .filter(e -> e.getIp().equals(ip) && e.getPort().equals(port))
-            .findFirst();
+        Map<Integer, MachineInfo> ports = ip == null ? null : machinesByIp.get(ip);
+        return ports == null ? Optional.empty() : Optional.ofNullable(ports.get(port));
     }
 
     public Optional<MachineInfo> getMachine(String ip) {
-        return machines.stream()
-            .filter(e -> e.getIp().equals(ip))
-            .findFirst();
+        Map<Integer, MachineInfo> ports = ip == null ? null : machinesByIp.get(ip);
+        if (ports == null) {
+            return Optional.empty();
+        }
+        Iterator<MachineInfo> it = ports.values().iterator();
+        return it.hasNext() ? Optional.of(it.next()) : Optional.empty();
+    }
+
+    /**
+     * Record the health of a machine of this app judged by the reaper, updating the counts of the app.
+     *
+     * @return true if the health of the machine changed, false if not or if the machine is no longer registered
+     */
+    synchronized boolean judgeMachine(MachineInfo machine, boolean healthy) {
+        if (getMachine(machine.getIp(), machine.getPort()).orElse(null) != machine) {
+            return false;
+        }
+        Boolean judged = machine.getJudgedHealthy();
+        if (judged != null && judged == healthy) {
+            return false;
+        }
+        uncount(machine);
+        machine.setJudgedHealthy(healthy);
+        if (healthy) {
+            healthyCount++;
+        } else {
+            unhealthyCount++;
+        }
+        return true;
+    }
+
+    /**
+     * Judge whether this app is shown and dead from the counts of its machines. Machines not judged yet are only
+     * accounted for by their last heartbeat.
+     */
+    synchronized void judgeApp(long now) {
+        shown = heartbeatJudge(DashboardConfig.getHideAppNoMachineMillis(), now);
+        dead = !heartbeatJudge(DashboardConfig.getRemoveAppNoMachineMillis(), now);
     }
 
-    private boolean heartbeatJudge(final int threshold) {
-        if (machines.size() == 0) {
+    private void uncount(MachineInfo machine) {
+        Boolean judged = machine.getJudgedHealthy();
+        if (judged == null) {
+            return;
+        }
+        if (judged) {
+            healthyCount--;
+        } else {
+            unhealthyCount--;
+        }
+        machine.setJudgedHealthy(null);
+    }
+
+    private boolean heartbeatJudge(final int threshold, long now) {
+        if (machinesByIp.isEmpty()) {
             return false;
         }
-        if (threshold > 0) {
-            long healthyCount = machines.stream()
-                .filter(MachineInfo::isHealthy)
-                .count();
-            if (healthyCount == 0) {
-                // No healthy machines.
-                return machines.stream()
-                    .max(Comparator.comparingLong(MachineInfo::getLastHeartbeat))
-                    .map(e -> System.currentTimeMillis() - e.getLastHeartbeat() < threshold)
-                    .orElse(false);
+        if (threshold > 0 && healthyCount == 0) {
+            // No healthy machines.
+            long lastHeartbeat = 0;
+            for (MachineInfo machine : getMachines()) {
+                lastHeartbeat = Math.max(lastHeartbeat, machine.getLastHeartbeat());
             }
+            return now - lastHeartbeat < threshold;
         }
         return true;
     }
 
     /**
-     * Check whether current application has no healthy machines and should not be displayed.
+     * @return count of the machines judged healthy by the last sweep of the reaper
+     */
+    public int getHealthyCount() {
+        return healthyCount;
+    }
+
+    /**
+     * @return count of the machines judged unhealthy by the last sweep of the reaper
+     */
+    public int getUnhealthyCount() {
+        return unhealthyCount;
+    }
+
+    /**
+     * Check whether current application has no healthy machines and should not be displayed, as judged by the
+     * last sweep of the {@link MachineReaper}.
      *
      * @return true if the application should be displayed in the sidebar, otherwise false
      */
     public boolean isShown() {
-        return heartbeatJudge(DashboardConfig.getHideAppNoMachineMillis());
+        return shown;
     }
 
     /**
-     * Check whether current application has no healthy machines and should be removed.
+     * Check whether current application has no healthy machines and should be removed, as judged by the last
+     * sweep of the {@link MachineReaper}.
      *
      * @return true if the application is dead and should be removed, otherwise false
      */
     public boolean isDead() {
-        return !heartbeatJudge(DashboardConfig.getRemoveAppNoMachineMillis());
+        return dead;
     }
 }
@@ -49,6 +49,12 @@ public class AppManagement implements MachineDiscovery {
     public long addMachine(MachineInfo machineInfo) {
         return machineDiscovery.addMachine(machineInfo);
     }
+
+    @Override
+    public boolean receiveHeartbeat(String app, Integer appType, String hostname, String ip, int port,
+                                    long heartbeatVersion, String version) {
+        return machineDiscovery.receiveHeartbeat(app, appType, hostname, ip, port, heartbeatVersion, version);
+    }
     
     @Override
     public boolean removeMachine(String app, String ip, int port) {
@@ -38,6 +38,47 @@ public interface MachineDiscovery {
 
     long addMachine(MachineInfo machineInfo);
 
+    /**
+     * Record a heartbeat of a machine instance, updating its registered record in place, host name and app type
+     * included, or registering it if it is seen for the first time. Only the first heartbeat of a machine allocates its record.
+     *
+     * @param app              the application name of the machine
+     * @param appType          the application type of the machine
+     * @param hostname         host name of the machine
+     * @param ip               machine IP
+     * @param port             machine port
+     * @param heartbeatVersion heartbeat version sent by the machine, ordering its heartbeats
+     * @param version          version of Sentinel client
+     * @return false if the heartbeat was out of order and ignored, otherwise true
+     * @see MachineInfo#receiveHeartbeat(long, long, String)
+     */
+    default boolean receiveHeartbeat(String app, Integer appType, String hostname, String ip, int port,
+                                     long heartbeatVersion, String version) {
+        long now = System.currentTimeMillis();
+        AppInfo appInfo = getDetailApp(app);
+        MachineInfo machine = appInfo == null ? null : appInfo.getMachine(ip, port).orElse(null);
+        if (machine != null) {
+            if (!machine.receiveHeartbeat(heartbeatVersion, now, version)) {
+                return false;
+            }
+            if (hostname != null && !hostname.equals(machine.getHostname())) {
+                machine.setHostname(hostname);
+            }
+            if (appType != null && !appType.equals(machine.getAppType())) {
+                machine.setAppType(appType);
+            }
+            return true;
+        }
+        machine = MachineInfo.of(app, ip, port);
+        machine.setAppType(appType);
+        machine.setHostname(hostname);
+        machine.setHeartbeatVersion(heartbeatVersion);
+        machine.setLastHeartbeat(now);
+        machine.setVersion(version);
+        addMachine(machine);
+        return true;
+    }
+
     /**
      * Remove the given machine instance from the application registry.
      *
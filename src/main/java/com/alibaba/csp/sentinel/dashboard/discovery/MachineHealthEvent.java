@@ -0,0 +1,58 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.discovery;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published by the {@link MachineReaper} when the health of a registered machine changes, or when it is removed
+ * after missing its heartbeats.
+ */
+public class MachineHealthEvent extends ApplicationEvent {
+
+    public enum Health {
+        HEALTHY,
+        UNHEALTHY,
+        /**
+         * Removed from the registry.
+         */
+        REMOVED
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    private final MachineInfo machine;
+    private final Health health;
+
+    public MachineHealthEvent(Object source, MachineInfo machine, Health health) {
+        super(source);
+        this.machine = machine;
+        this.health = health;
+    }
+
+    public MachineInfo getMachine() {
+        return machine;
+    }
+
+    public Health getHealth() {
+        return health;
+    }
+
+    @Override
+    public String toString() {
+        return "MachineHealthEvent{" + "machine=" + machine.toLogString() + ", health=" + health + '}';
+    }
+}
@@ -16,24 +16,40 @@
 package com.alibaba.csp.sentinel.dashboard.discovery;
 
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
 import com.alibaba.csp.sentinel.util.StringUtil;
 
 public class MachineInfo implements Comparable<MachineInfo> {
 
+    private static final AtomicLongFieldUpdater<MachineInfo> LAST_HEARTBEAT_UPDATER =
+        AtomicLongFieldUpdater.newUpdater(MachineInfo.class, "lastHeartbeat");
+    private static final AtomicLongFieldUpdater<MachineInfo> HEARTBEAT_VERSION_UPDATER =
+        AtomicLongFieldUpdater.newUpdater(MachineInfo.class, "heartbeatVersion");
+
     private String app = "";
-    private Integer appType = 0;
-    private String hostname = "";
+    private volatile Integer appType = 0;
+    private volatile String hostname = "";
     private String ip = "";
     private Integer port = -1;
-    private long lastHeartbeat;
-    private long heartbeatVersion;
+    private volatile long lastHeartbeat;
+    private volatile long heartbeatVersion;
 
     /**
      * Indicates the version of Sentinel client (since 0.2.0).
      */
-    private String version;
+    private volatile String version;
+
+    /**
+     * Whether this machine was restored from the registry snapshot and has not sent a heartbeat since.
+     */
+    private volatile boolean unconfirmed;
+
+    /**
+     * Guarded by the monitor of the app of this machine.
+     */
+    private Boolean judgedHealthy;
 
     public static MachineInfo of(String app, String ip, Integer port) {
         MachineInfo machineInfo = new MachineInfo();
@@ -105,7 +121,11 @@ public class MachineInfo implements Comparable<MachineInfo> {
     }
     
     public boolean isHealthy() {
-        long delta = System.currentTimeMillis() - lastHeartbeat;
+        return isHealthy(System.currentTimeMillis());
+    }
+
+    public boolean isHealthy(long now) {
+        long delta = now - lastHeartbeat;
         return delta < DashboardConfig.getUnhealthyMachineMillis();
     }
     
@@ -115,13 +135,67 @@ public class MachineInfo implements Comparable<MachineInfo> {
      * @return
      */
     public boolean isDead() {
+        return isDead(System.currentTimeMillis());
+    }
+
+    public boolean isDead(long now) {
         if (DashboardConfig.getAutoRemoveMachineMillis() > 0) {
-            long delta = System.currentTimeMillis() - lastHeartbeat;
+            long delta = now - lastHeartbeat;
             return delta > DashboardConfig.getAutoRemoveMachineMillis();
         }
         return false;
     }
+
+    /**
+     * @return health of this machine last judged by the {@link MachineReaper}, or null if not judged yet
+     */
+    Boolean getJudgedHealthy() {
+        return judgedHealthy;
+    }
+
+    void setJudgedHealthy(Boolean judgedHealthy) {
+        this.judgedHealthy = judgedHealthy;
+    }
     
+    /**
+     * Record a heartbeat of this machine in place, without locking. A heartbeat with an older heartbeat version
+     * than the last one is out of order and ignored, unless this machine is no longer healthy, e.g. when it
+     * restarted with an earlier clock. The last heartbeat time only moves forward.
+     *
+     * @param heartbeatVersion heartbeat version sent by the machine
+     * @param now              time the heartbeat was received
+     * @param version          version of Sentinel client
+     * @return false if the heartbeat was ignored
+     */
+    public boolean receiveHeartbeat(long heartbeatVersion, long now, String version) {
+        long current;
+        do {
+            current = this.heartbeatVersion;
+            if (heartbeatVersion < current && isHealthy()) {
+                return false;
+            }
+        } while (!HEARTBEAT_VERSION_UPDATER.compareAndSet(this, current, heartbeatVersion));
+        long last;
+        do {
+            last = lastHeartbeat;
+        } while (last < now && !LAST_HEARTBEAT_UPDATER.compareAndSet(this, last, now));
+        if (version != null && !version.equals(this.version)) {
+            this.version = version;
+        }
+        if (unconfirmed) {
+            unconfirmed = false;
+        }
+        return true;
+    }
+
+    public boolean isUnconfirmed() {
+        return unconfirmed;
+    }
+
+    public void setUnconfirmed(boolean unconfirmed) {
+        this.unconfirmed = unconfirmed;
+    }
+
     public long getLastHeartbeat() {
         return lastHeartbeat;
     }
@@ -155,6 +229,7 @@ public class MachineInfo implements Comparable<MachineInfo> {
             .append(", heartbeatVersion=").append(heartbeatVersion)
             .append(", lastHeartbeat=").append(lastHeartbeat)
             .append(", version='").append(version).append('\'')
+            .append(", unconfirmed=").append(unconfirmed)
             .append(", healthy=").append(isHealthy())
             .append('}').toString();
     }
@@ -0,0 +1,119 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.discovery;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
+import com.alibaba.csp.sentinel.dashboard.discovery.MachineHealthEvent.Health;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+/**
+ * <p>Sweeps the machine registry in the background, on its own schedule.</p>
+ * <p>
+ * Every {@link DashboardConfig#getReapIntervalMillis()} the machines missing their heartbeats for longer than
+ * {@link DashboardConfig#getAutoRemoveMachineMillis()} are removed, including the machines restored by the
+ * {@link RegistrySnapshotter} and never confirmed by a heartbeat since. The health of the others is judged
+ * and counted per app, see {@link AppInfo#getHealthyCount()}, and the apps are judged from these counts, see
+ * {@link AppInfo#isShown()}. Apps judged dead are removed. Changes are published as {@link MachineHealthEvent}s
+ * and {@link AppHealthEvent}s, so that readers of the registry neither rescan it nor remove anything themselves.
+ * </p>
+ */
+@Component
+public class MachineReaper {
+
+    private static final Logger logger = LoggerFactory.getLogger(MachineReaper.class);
+
+    private final MachineDiscovery machineDiscovery;
+    private final ApplicationEventPublisher publisher;
+
+    private ScheduledExecutorService reapService;
+
+    @Autowired
+    public MachineReaper(AppManagement appManagement, ApplicationEventPublisher publisher) {
+        this((MachineDiscovery)appManagement, publisher);
+    }
+
+    MachineReaper(MachineDiscovery machineDiscovery, ApplicationEventPublisher publisher) {
+        this.machineDiscovery = machineDiscovery;
+        this.publisher = publisher;
+    }
+
+    @PostConstruct
+    @SuppressWarnings("PMD.ThreadPoolCreationRule")
+    public void start() {
+        long interval = DashboardConfig.getReapIntervalMillis();
+        reapService = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("sentinel-dashboard-machine-reaper", true));
+        reapService.scheduleWithFixedDelay(() -> {
+            try {
+                reap(System.currentTimeMillis());
+            } catch (Throwable t) {
+                logger.warn("Failed to sweep the machine registry", t);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (reapService != null) {
+            reapService.shutdownNow();
+        }
+    }
+
+    /**
+     * Remove the dead machines, then judge the health of the other machines and of the apps.
+     */
+    synchronized void reap(long now) {
+        for (AppInfo appInfo : machineDiscovery.getBriefApps()) {
+            String app = appInfo.getApp();
+            for (MachineInfo machine : appInfo.getMachines()) {
+                if (machine.isDead(now)) {
+                    if (appInfo.removeMachine(machine.getIp(), machine.getPort())) {
+                        logger.info("Dead machine removed: {}:{} of {}", machine.getIp(), machine.getPort(), app);
+                        publisher.publishEvent(new MachineHealthEvent(this, machine, Health.REMOVED));
+                    }
+                    continue;
+                }
+                boolean healthy = machine.isHealthy(now);
+                if (appInfo.judgeMachine(machine, healthy)) {
+                    publisher.publishEvent(new MachineHealthEvent(this, machine,
+                        healthy ? Health.HEALTHY : Health.UNHEALTHY));
+                }
+            }
+            boolean shown = appInfo.isShown();
+            appInfo.judgeApp(now);
+            if (appInfo.isDead()) {
+                logger.info("Dead app removed: {}", app);
+                machineDiscovery.removeApp(app);
+                publisher.publishEvent(new AppHealthEvent(this, app, false, true));
+            } else if (shown != appInfo.isShown()) {
+                publisher.publishEvent(new AppHealthEvent(this, app, appInfo.isShown(), false));
+            }
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.discovery;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * <p>Snapshots the machine registry to {@link DashboardConfig#getRegistrySnapshotFile()}, so that a restarted
+ * dashboard lists the machines of the apps right away instead of waiting for their next heartbeats.</p>
+ * <pre>
+ * header:   magic(4) version(4) payloadLength(4)
+ * payload:  savedAt(8) apps(4), per app: app(utf) appType(4) machines(4),
+ *           per machine: ip(utf) port(4) hostname(utf) version(utf) heartbeatVersion(8) lastHeartbeat(8)
+ * trailer:  crc32 of the payload(8)
+ * </pre>
+ * <p>
+ * The snapshot is written every {@link DashboardConfig#getRegistrySnapshotIntervalSeconds()} and on shutdown, to
+ * a temporary file, synced and renamed, so a crash leaves either the old or the new snapshot. At startup every
+ * machine not yet past {@link DashboardConfig#getAutoRemoveMachineMillis()} is restored, marked
+ * {@link MachineInfo#isUnconfirmed() unconfirmed} until its next heartbeat, so that a long outage of the
+ * dashboard does not drop the machines whose heartbeats simply could not reach it. The {@link MachineReaper}
+ * judges them like any other machine, and removes those that never come back once they are dead. Snapshots
+ * failing their checks are ignored.
+ * </p>
+ */
+@Component
+public class RegistrySnapshotter {
+
+    private static final Logger logger = LoggerFactory.getLogger(RegistrySnapshotter.class);
+
+    private static final int MAGIC = 0x53524547;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int TRAILER_SIZE = 8;
+
+    private final MachineDiscovery machineDiscovery;
+    private final File file;
+
+    private ScheduledExecutorService snapshotService;
+
+    @Autowired
+    public RegistrySnapshotter(AppManagement appManagement) {
+        this(appManagement, new File(DashboardConfig.getRegistrySnapshotFile()));
+    }
+
+    RegistrySnapshotter(MachineDiscovery machineDiscovery, File file) {
+        this.machineDiscovery = machineDiscovery;
+        this.file = file;
+    }
+
+    @PostConstruct
+    @SuppressWarnings("PMD.ThreadPoolCreationRule")
+    public void start() {
+        int restored = load(System.currentTimeMillis());
+        if (restored > 0) {
+            logger.info("{} machines restored from the registry snapshot {}", restored, file);
+        }
+        long interval = DashboardConfig.getRegistrySnapshotIntervalSeconds();
+        snapshotService = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("sentinel-dashboard-registry-snapshot", true));
+        snapshotService.scheduleWithFixedDelay(this::saveQuietly, interval, interval, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (snapshotService != null) {
+            snapshotService.shutdownNow();
+            saveQuietly();
+        }
+    }
+
+    /**
+     * Write the registry to the snapshot file, replacing the previous snapshot.
+     *
+     * @return count of the machines written
+     */
+    synchronized int save(long now) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        bytes.write(new byte[HEADER_SIZE], 0, HEADER_SIZE);
+        DataOutputStream out = new DataOutputStream(bytes);
+        Set<AppInfo> apps = machineDiscovery.getBriefApps();
+        out.writeLong(now);
+        out.writeInt(apps.size());
+        int machines = 0;
+        for (AppInfo appInfo : apps) {
+            Set<MachineInfo> appMachines = appInfo.getMachines();
+            out.writeUTF(appInfo.getApp());
+            out.writeInt(appInfo.getAppType() == null ? 0 : appInfo.getAppType());
+            out.writeInt(appMachines.size());
+            for (MachineInfo machine : appMachines) {
+                out.writeUTF(machine.getIp());
+                out.writeInt(machine.getPort());
+                out.writeUTF(machine.getHostname() == null ? "" : machine.getHostname());
+                out.writeUTF(machine.getVersion() == null ? "" : machine.getVersion());
+                out.writeLong(machine.getHeartbeatVersion());
+                out.writeLong(machine.getLastHeartbeat());
+            }
+            machines += appMachines.size();
+        }
+        out.flush();
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.size() + TRAILER_SIZE);
+        buffer.put(bytes.toByteArray());
+        int payloadLength = buffer.position() - HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_SIZE, payloadLength);
+        buffer.putLong(crc.getValue());
+        buffer.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, payloadLength);
+        buffer.flip();
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("cannot create the directory of the registry snapshot: " + parent);
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        return machines;
+    }
+
+    /**
+     * Register the machines of the snapshot file not dead yet and not registered yet, as unconfirmed.
+     *
+     * @return count of the machines restored
+     */
+    synchronized int load(long now) {
+        if (!file.isFile()) {
+            return 0;
+        }
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            logger.warn("Failed to read the registry snapshot {}", file, e);
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length < HEADER_SIZE + TRAILER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+            || buffer.getInt(8) != bytes.length - HEADER_SIZE - TRAILER_SIZE) {
+            logger.warn("Registry snapshot ignored, not a snapshot of this version: {}", file);
+            return 0;
+        }
+        int payloadLength = buffer.getInt(8);
+        CRC32 crc = new CRC32();
+        crc.update(bytes, HEADER_SIZE, payloadLength);
+        if (crc.getValue() != buffer.getLong(HEADER_SIZE + payloadLength)) {
+            logger.warn("Registry snapshot ignored, checksum mismatch: {}", file);
+            return 0;
+        }
+        int restored = 0;
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, HEADER_SIZE, payloadLength))) {
+            in.readLong();
+            int apps = in.readInt();
+            for (int a = 0; a < apps; a++) {
+                String app = in.readUTF();
+                int appType = in.readInt();
+                int machines = in.readInt();
+                for (int m = 0; m < machines; m++) {
+                    MachineInfo machine = MachineInfo.of(app, in.readUTF(), in.readInt());
+                    String hostname = in.readUTF();
+                    String version = in.readUTF();
+                    machine.setAppType(appType);
+                    machine.setHostname(hostname.isEmpty() ? null : hostname);
+                    machine.setVersion(version.isEmpty() ? null : version);
+                    machine.setHeartbeatVersion(in.readLong());
+                    machine.setLastHeartbeat(in.readLong());
+                    if (!machine.isDead(now) && !isRegistered(machine)) {
+                        machine.setUnconfirmed(true);
+                        machineDiscovery.addMachine(machine);
+                        restored++;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Registry snapshot partially restored: {}", file, e);
+        }
+        return restored;
+    }
+
+    private boolean isRegistered(MachineInfo machine) {
+        AppInfo appInfo = machineDiscovery.getDetailApp(machine.getApp());
+        return appInfo != null && appInfo.getMachine(machine.getIp(), machine.getPort()).isPresent();
+    }
+
+    private void saveQuietly() {
+        try {
+            save(System.currentTimeMillis());
+        } catch (Throwable t) {
+            logger.warn("Failed to snapshot the machine registry to {}", file, t);
+        }
+    }
+}
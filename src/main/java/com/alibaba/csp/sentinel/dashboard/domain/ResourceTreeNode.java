@@ -90,14 +90,26 @@ public class ResourceTreeNode {
         search(this, searchKey);
     }
 
+    /**
+     * @return true if the resource contains the key ignoring case, without lower-casing the resource
+     */
+    public static boolean containsIgnoreCase(String resource, String searchKey) {
+        int length = searchKey.length();
+        for (int i = 0; i + length <= resource.length(); i++) {
+            if (resource.regionMatches(true, i, searchKey, 0, length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * This node is visible only when searchKey matches this.resource or at least
      * one of this's children is visible
      */
     private boolean search(ResourceTreeNode node, String searchKey) {
         // empty matches all
-        if (searchKey == null || searchKey.isEmpty() ||
-            node.resource.toLowerCase().contains(searchKey.toLowerCase())) {
+        if (searchKey == null || searchKey.isEmpty() || containsIgnoreCase(node.resource, searchKey)) {
             node.visible = true;
         } else {
             node.visible = false;
@@ -0,0 +1,120 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.domain.vo;
+
+import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
+import com.alibaba.csp.sentinel.dashboard.metric.CardinalityLimiter;
+import com.alibaba.csp.sentinel.dashboard.metric.CardinalityLimiter.AppResources;
+
+/**
+ * Resource cardinality limit statistics of one app.
+ */
+public class AppCardinalityVo {
+
+    private String app;
+    /**
+     * Count of the active resources of the app.
+     */
+    private int resources;
+    private int limit;
+    private String policy;
+    /**
+     * Count of the new resources found over the limits.
+     */
+    private long limitHits;
+    private long droppedMetrics;
+    private long foldedMetrics;
+    private long evictedResources;
+
+    public static AppCardinalityVo fromResources(AppResources resources) {
+        AppCardinalityVo vo = new AppCardinalityVo();
+        String app = resources.getApp();
+        vo.setApp(app);
+        vo.setResources(resources.getResources());
+        vo.setLimit(DashboardConfig.getMetricMaxResourcesPerApp(app));
+        vo.setPolicy(CardinalityLimiter.Policy.fromName(DashboardConfig.getMetricCardinalityPolicy(app)).name()
+            .toLowerCase());
+        vo.setLimitHits(resources.getLimitHits());
+        vo.setDroppedMetrics(resources.getDropped());
+        vo.setFoldedMetrics(resources.getFolded());
+        vo.setEvictedResources(resources.getEvicted());
+        return vo;
+    }
+
+    public String getApp() {
+        return app;
+    }
+
+    public void setApp(String app) {
+        this.app = app;
+    }
+
+    public int getResources() {
+        return resources;
+    }
+
+    public void setResources(int resources) {
+        this.resources = resources;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    public String getPolicy() {
+        return policy;
+    }
+
+    public void setPolicy(String policy) {
+        this.policy = policy;
+    }
+
+    public long getLimitHits() {
+        return limitHits;
+    }
+
+    public void setLimitHits(long limitHits) {
+        this.limitHits = limitHits;
+    }
+
+    public long getDroppedMetrics() {
+        return droppedMetrics;
+    }
+
+    public void setDroppedMetrics(long droppedMetrics) {
+        this.droppedMetrics = droppedMetrics;
+    }
+
+    public long getFoldedMetrics() {
+        return foldedMetrics;
+    }
+
+    public void setFoldedMetrics(long foldedMetrics) {
+        this.foldedMetrics = foldedMetrics;
+    }
+
+    public long getEvictedResources() {
+        return evictedResources;
+    }
+
+    public void setEvictedResources(long evictedResources) {
+        this.evictedResources = evictedResources;
+    }
+}
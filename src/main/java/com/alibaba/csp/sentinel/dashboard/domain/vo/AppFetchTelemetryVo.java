@@ -0,0 +1,264 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.domain.vo;
+
+import com.alibaba.csp.sentinel.dashboard.metric.AppFetchScheduler;
+import com.alibaba.csp.sentinel.dashboard.metric.AppFetchStats;
+import com.alibaba.csp.sentinel.dashboard.metric.LatencyHistogram;
+
+/**
+ * Metric fetch telemetry of one app.
+ */
+public class AppFetchTelemetryVo {
+
+    private String app;
+    /**
+     * End of the last fetched window, -1 if nothing was fetched yet.
+     */
+    private long lastFetchedTime;
+    /**
+     * How far the last fetched window lags the wall clock in milliseconds, -1 if nothing was fetched yet.
+     */
+    private long lagMs;
+    private long skippedSeconds;
+
+    private long fetches;
+    private long rejected;
+    private long machinesPolled;
+    private long machinesSucceeded;
+    private long machinesFailed;
+    private long machinesTimedOut;
+    private long machinesUnhealthy;
+    private long machinesSuspended;
+    private long bytes;
+    private long lines;
+    private long malformedLines;
+    private long windowsBackfilled;
+    private long windowsLost;
+
+    private long latencyAvgMs;
+    private long latencyP50Ms;
+    private long latencyP99Ms;
+    private long[] latencyBoundsMs;
+    private long[] latencyCounts;
+
+    public static AppFetchTelemetryVo fromStats(AppFetchStats stats, AppFetchScheduler scheduler, long now) {
+        AppFetchTelemetryVo vo = new AppFetchTelemetryVo();
+        String app = stats.getApp();
+        vo.setApp(app);
+        long lastFetchedTime = scheduler.getLastFetchedTime(app);
+        vo.setLastFetchedTime(lastFetchedTime);
+        vo.setLagMs(lastFetchedTime < 0 ? -1 : now - lastFetchedTime);
+        vo.setSkippedSeconds(scheduler.getSkippedSeconds(app));
+        vo.setFetches(stats.getFetches());
+        vo.setRejected(stats.getRejected());
+        vo.setMachinesPolled(stats.getMachinesPolled());
+        vo.setMachinesSucceeded(stats.getMachinesSucceeded());
+        vo.setMachinesFailed(stats.getMachinesFailed());
+        vo.setMachinesTimedOut(stats.getMachinesTimedOut());
+        vo.setMachinesUnhealthy(stats.getMachinesUnhealthy());
+        vo.setMachinesSuspended(stats.getMachinesSuspended());
+        vo.setBytes(stats.getBytes());
+        vo.setLines(stats.getLines());
+        vo.setMalformedLines(stats.getMalformedLines());
+        vo.setWindowsBackfilled(stats.getWindowsBackfilled());
+        vo.setWindowsLost(stats.getWindowsLost());
+        LatencyHistogram latency = stats.getLatency();
+        long fetches = stats.getFetches();
+        vo.setLatencyAvgMs(fetches == 0 ? 0 : latency.getSum() / fetches);
+        vo.setLatencyP50Ms(latency.getQuantileBound(0.5));
+        vo.setLatencyP99Ms(latency.getQuantileBound(0.99));
+        vo.setLatencyBoundsMs(LatencyHistogram.getBounds());
+        vo.setLatencyCounts(latency.getCounts());
+        return vo;
+    }
+
+    public String getApp() {
+        return app;
+    }
+
+    public void setApp(String app) {
+        this.app = app;
+    }
+
+    public long getLastFetchedTime() {
+        return lastFetchedTime;
+    }
+
+    public void setLastFetchedTime(long lastFetchedTime) {
+        this.lastFetchedTime = lastFetchedTime;
+    }
+
+    public long getLagMs() {
+        return lagMs;
+    }
+
+    public void setLagMs(long lagMs) {
+        this.lagMs = lagMs;
+    }
+
+    public long getSkippedSeconds() {
+        return skippedSeconds;
+    }
+
+    public void setSkippedSeconds(long skippedSeconds) {
+        this.skippedSeconds = skippedSeconds;
+    }
+
+    public long getFetches() {
+        return fetches;
+    }
+
+    public void setFetches(long fetches) {
+        this.fetches = fetches;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public void setRejected(long rejected) {
+        this.rejected = rejected;
+    }
+
+    public long getMachinesPolled() {
+        return machinesPolled;
+    }
+
+    public void setMachinesPolled(long machinesPolled) {
+        this.machinesPolled = machinesPolled;
+    }
+
+    public long getMachinesSucceeded() {
+        return machinesSucceeded;
+    }
+
+    public void setMachinesSucceeded(long machinesSucceeded) {
+        this.machinesSucceeded = machinesSucceeded;
+    }
+
+    public long getMachinesFailed() {
+        return machinesFailed;
+    }
+
+    public void setMachinesFailed(long machinesFailed) {
+        this.machinesFailed = machinesFailed;
+    }
+
+    public long getMachinesTimedOut() {
+        return machinesTimedOut;
+    }
+
+    public void setMachinesTimedOut(long machinesTimedOut) {
+        this.machinesTimedOut = machinesTimedOut;
+    }
+
+    public long getMachinesUnhealthy() {
+        return machinesUnhealthy;
+    }
+
+    public void setMachinesUnhealthy(long machinesUnhealthy) {
+        this.machinesUnhealthy = machinesUnhealthy;
+    }
+
+    public long getMachinesSuspended() {
+        return machinesSuspended;
+    }
+
+    public void setMachinesSuspended(long machinesSuspended) {
+        this.machinesSuspended = machinesSuspended;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public void setBytes(long bytes) {
+        this.bytes = bytes;
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    public void setLines(long lines) {
+        this.lines = lines;
+    }
+
+    public long getMalformedLines() {
+        return malformedLines;
+    }
+
+    public void setMalformedLines(long malformedLines) {
+        this.malformedLines = malformedLines;
+    }
+
+    public long getWindowsBackfilled() {
+        return windowsBackfilled;
+    }
+
+    public void setWindowsBackfilled(long windowsBackfilled) {
+        this.windowsBackfilled = windowsBackfilled;
+    }
+
+    public long getWindowsLost() {
+        return windowsLost;
+    }
+
+    public void setWindowsLost(long windowsLost) {
+        this.windowsLost = windowsLost;
+    }
+
+    public long getLatencyAvgMs() {
+        return latencyAvgMs;
+    }
+
+    public void setLatencyAvgMs(long latencyAvgMs) {
+        this.latencyAvgMs = latencyAvgMs;
+    }
+
+    public long getLatencyP50Ms() {
+        return latencyP50Ms;
+    }
+
+    public void setLatencyP50Ms(long latencyP50Ms) {
+        this.latencyP50Ms = latencyP50Ms;
+    }
+
+    public long getLatencyP99Ms() {
+        return latencyP99Ms;
+    }
+
+    public void setLatencyP99Ms(long latencyP99Ms) {
+        this.latencyP99Ms = latencyP99Ms;
+    }
+
+    public long[] getLatencyBoundsMs() {
+        return latencyBoundsMs;
+    }
+
+    public void setLatencyBoundsMs(long[] latencyBoundsMs) {
+        this.latencyBoundsMs = latencyBoundsMs;
+    }
+
+    public long[] getLatencyCounts() {
+        return latencyCounts;
+    }
+
+    public void setLatencyCounts(long[] latencyCounts) {
+        this.latencyCounts = latencyCounts;
+    }
+}
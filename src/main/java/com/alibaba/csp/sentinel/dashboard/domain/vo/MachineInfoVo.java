@@ -19,6 +19,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import com.alibaba.csp.sentinel.dashboard.discovery.MachineInfo;
+import com.alibaba.csp.sentinel.dashboard.metric.MachineCircuitBreaker;
 
 /**
  * @author leyou
@@ -32,6 +33,16 @@ public class MachineInfoVo {
     private long heartbeatVersion;
     private long lastHeartbeat;
     private boolean healthy;
+    /**
+     * Whether the machine was restored from the registry snapshot and has not sent a heartbeat since.
+     */
+    private boolean unconfirmed;
+    /**
+     * Whether the metric fetch of the machine is suspended after consecutive failures.
+     */
+    private boolean fetchSuspended;
+    private int fetchFailures;
+    private long fetchSuspendedUntil;
 
     private String version;
 
@@ -53,9 +64,25 @@ public class MachineInfoVo {
         vo.setHeartbeatVersion(machine.getHeartbeatVersion());
         vo.setVersion(machine.getVersion());
         vo.setHealthy(machine.isHealthy());
+        vo.setUnconfirmed(machine.isUnconfirmed());
         return vo;
     }
 
+    public static List<MachineInfoVo> fromMachineInfoList(List<MachineInfo> machines, MachineCircuitBreaker breaker) {
+        List<MachineInfoVo> list = new ArrayList<>();
+        for (MachineInfo machine : machines) {
+            MachineInfoVo vo = fromMachineInfo(machine);
+            MachineCircuitBreaker.Circuit circuit = breaker.getCircuit(machine.getIp(), machine.getPort());
+            if (circuit != null) {
+                vo.setFetchSuspended(circuit.getState() != MachineCircuitBreaker.State.CLOSED);
+                vo.setFetchFailures(circuit.getConsecutiveFailures());
+                vo.setFetchSuspendedUntil(circuit.getSuspendedUntil());
+            }
+            list.add(vo);
+        }
+        return list;
+    }
+
     public String getApp() {
         return app;
     }
@@ -120,4 +147,36 @@ public class MachineInfoVo {
     public void setHealthy(boolean healthy) {
         this.healthy = healthy;
     }
+
+    public boolean isUnconfirmed() {
+        return unconfirmed;
+    }
+
+    public void setUnconfirmed(boolean unconfirmed) {
+        this.unconfirmed = unconfirmed;
+    }
+
+    public boolean isFetchSuspended() {
+        return fetchSuspended;
+    }
+
+    public void setFetchSuspended(boolean fetchSuspended) {
+        this.fetchSuspended = fetchSuspended;
+    }
+
+    public int getFetchFailures() {
+        return fetchFailures;
+    }
+
+    public void setFetchFailures(int fetchFailures) {
+        this.fetchFailures = fetchFailures;
+    }
+
+    public long getFetchSuspendedUntil() {
+        return fetchSuspendedUntil;
+    }
+
+    public void setFetchSuspendedUntil(long fetchSuspendedUntil) {
+        this.fetchSuspendedUntil = fetchSuspendedUntil;
+    }
 }
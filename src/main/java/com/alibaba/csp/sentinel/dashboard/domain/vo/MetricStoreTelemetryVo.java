@@ -0,0 +1,170 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.domain.vo;
+
+import com.alibaba.csp.sentinel.dashboard.metric.MetricStoreGovernor;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.SweepStats;
+
+/**
+ * Eviction and heap budget telemetry of the metric store.
+ */
+public class MetricStoreTelemetryVo {
+
+    /**
+     * Share of the retention of the store currently kept, shrunk under heap pressure.
+     */
+    private double retentionFactor;
+    private int heapBudgetPercent;
+    private long heapMaxBytes;
+    /**
+     * Heap used after collection at the last sweep, -1 before the first sweep.
+     */
+    private long heapUsedBytes;
+
+    private long lastSweepTime;
+    private long lastEvictedPoints;
+    private long lastEvictedSeries;
+    private long lastEvictedApps;
+
+    private long sweeps;
+    private long pressureSweeps;
+    private long evictedPoints;
+    private long evictedSeries;
+    private long evictedApps;
+
+    public static MetricStoreTelemetryVo fromGovernor(MetricStoreGovernor governor) {
+        MetricStoreTelemetryVo vo = new MetricStoreTelemetryVo();
+        vo.setRetentionFactor(governor.getRetentionFactor());
+        vo.setHeapBudgetPercent(governor.getBudgetPercent());
+        vo.setHeapMaxBytes(governor.getMaxHeap());
+        vo.setHeapUsedBytes(governor.getLastUsedHeap());
+        vo.setLastSweepTime(governor.getLastSweepTime());
+        SweepStats last = governor.getLastStats();
+        vo.setLastEvictedPoints(last.getEvictedPoints());
+        vo.setLastEvictedSeries(last.getEvictedSeries());
+        vo.setLastEvictedApps(last.getEvictedApps());
+        vo.setSweeps(governor.getSweeps());
+        vo.setPressureSweeps(governor.getPressureSweeps());
+        vo.setEvictedPoints(governor.getEvictedPoints());
+        vo.setEvictedSeries(governor.getEvictedSeries());
+        vo.setEvictedApps(governor.getEvictedApps());
+        return vo;
+    }
+
+    public double getRetentionFactor() {
+        return retentionFactor;
+    }
+
+    public void setRetentionFactor(double retentionFactor) {
+        this.retentionFactor = retentionFactor;
+    }
+
+    public int getHeapBudgetPercent() {
+        return heapBudgetPercent;
+    }
+
+    public void setHeapBudgetPercent(int heapBudgetPercent) {
+        this.heapBudgetPercent = heapBudgetPercent;
+    }
+
+    public long getHeapMaxBytes() {
+        return heapMaxBytes;
+    }
+
+    public void setHeapMaxBytes(long heapMaxBytes) {
+        this.heapMaxBytes = heapMaxBytes;
+    }
+
+    public long getHeapUsedBytes() {
+        return heapUsedBytes;
+    }
+
+    public void setHeapUsedBytes(long heapUsedBytes) {
+        this.heapUsedBytes = heapUsedBytes;
+    }
+
+    public long getLastSweepTime() {
+        return lastSweepTime;
+    }
+
+    public void setLastSweepTime(long lastSweepTime) {
+        this.lastSweepTime = lastSweepTime;
+    }
+
+    public long getLastEvictedPoints() {
+        return lastEvictedPoints;
+    }
+
+    public void setLastEvictedPoints(long lastEvictedPoints) {
+        this.lastEvictedPoints = lastEvictedPoints;
+    }
+
+    public long getLastEvictedSeries() {
+        return lastEvictedSeries;
+    }
+
+    public void setLastEvictedSeries(long lastEvictedSeries) {
+        this.lastEvictedSeries = lastEvictedSeries;
+    }
+
+    public long getLastEvictedApps() {
+        return lastEvictedApps;
+    }
+
+    public void setLastEvictedApps(long lastEvictedApps) {
+        this.lastEvictedApps = lastEvictedApps;
+    }
+
+    public long getSweeps() {
+        return sweeps;
+    }
+
+    public void setSweeps(long sweeps) {
+        this.sweeps = sweeps;
+    }
+
+    public long getPressureSweeps() {
+        return pressureSweeps;
+    }
+
+    public void setPressureSweeps(long pressureSweeps) {
+        this.pressureSweeps = pressureSweeps;
+    }
+
+    public long getEvictedPoints() {
+        return evictedPoints;
+    }
+
+    public void setEvictedPoints(long evictedPoints) {
+        this.evictedPoints = evictedPoints;
+    }
+
+    public long getEvictedSeries() {
+        return evictedSeries;
+    }
+
+    public void setEvictedSeries(long evictedSeries) {
+        this.evictedSeries = evictedSeries;
+    }
+
+    public long getEvictedApps() {
+        return evictedApps;
+    }
+
+    public void setEvictedApps(long evictedApps) {
+        this.evictedApps = evictedApps;
+    }
+}
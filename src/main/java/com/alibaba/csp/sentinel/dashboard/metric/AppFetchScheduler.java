@@ -0,0 +1,239 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
+import com.alibaba.csp.sentinel.dashboard.util.HashedWheelTimer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Drives the metric fetch of every app on a {@link HashedWheelTimer}.</p>
+ * <p>
+ * Each app has a cursor (the first second not fetched yet) and at most one fetch in flight. A window of
+ * {@link DashboardConfig#getMetricFetchIntervalSeconds(String)} seconds is dispatched once its last second
+ * is older than {@link DashboardConfig#getMetricFetchDelayMillis()}. The cursor only moves when a fetch
+ * completes, so a slow or rejected fetch delays the following windows instead of dropping them; when an app
+ * falls behind, the missed windows are fetched back to back. Seconds older than
+ * {@link DashboardConfig#getMetricMaxCatchUpSeconds(String)} are skipped, counted and logged.
+ * </p>
+ */
+public class AppFetchScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(AppFetchScheduler.class);
+
+    private static final long SYNC_INTERVAL_MS = 1000;
+    private static final long RETRY_DELAY_MS = 1000;
+
+    private final Supplier<List<String>> appSupplier;
+    private final WindowFetcher fetcher;
+    private final HashedWheelTimer timer;
+
+    private final Map<String, AppState> states = new ConcurrentHashMap<>();
+
+    private final LongAdder skippedSeconds = new LongAdder();
+    private final LongAdder rejectedWindows = new LongAdder();
+
+    private volatile boolean stopped;
+
+    /**
+     * @param timer       timer driving the schedule, owned by the caller
+     * @param appSupplier names of the apps to fetch
+     * @param fetcher     fetches one window of an app
+     */
+    public AppFetchScheduler(HashedWheelTimer timer, Supplier<List<String>> appSupplier, WindowFetcher fetcher) {
+        this.timer = timer;
+        this.appSupplier = appSupplier;
+        this.fetcher = fetcher;
+    }
+
+    public void start(long initialDelayMs) {
+        timer.newTimeout(this::syncApps, initialDelayMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Track newly registered apps and forget removed ones.
+     */
+    private void syncApps() {
+        try {
+            List<String> apps = appSupplier.get();
+            Set<String> current = apps == null ? new HashSet<>() : new HashSet<>(apps);
+            for (String app : current) {
+                if (!states.containsKey(app)) {
+                    AppState state = new AppState(app);
+                    if (states.putIfAbsent(app, state) == null) {
+                        schedule(state, 0);
+                    }
+                }
+            }
+            Iterator<Map.Entry<String, AppState>> it = states.entrySet().iterator();
+            while (it.hasNext()) {
+                AppState state = it.next().getValue();
+                if (!current.contains(state.app)) {
+                    state.removed = true;
+                    it.remove();
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to sync apps for metric fetching", e);
+        } finally {
+            if (!stopped) {
+                timer.newTimeout(this::syncApps, SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void schedule(AppState state, long delayMs) {
+        if (stopped || state.removed) {
+            return;
+        }
+        timer.newTimeout(() -> onDue(state), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void onDue(AppState state) {
+        if (stopped || state.removed || !state.inFlight.compareAndSet(false, true)) {
+            return;
+        }
+        final String app = state.app;
+        long now = System.currentTimeMillis();
+        long intervalMs = DashboardConfig.getMetricFetchIntervalSeconds(app) * 1000L;
+        long catchUpMs = Math.max(DashboardConfig.getMetricMaxCatchUpSeconds(app) * 1000L, intervalMs);
+        long delayMs = DashboardConfig.getMetricFetchDelayMillis();
+        // The last second that clients have flushed.
+        long latest = (now - delayMs) / 1000 * 1000;
+        long lowerBound = latest - catchUpMs + 1000;
+
+        if (state.nextStart < 0) {
+            state.nextStart = lowerBound;
+        } else if (state.nextStart < lowerBound) {
+            long skipped = (lowerBound - state.nextStart) / 1000;
+            skippedSeconds.add(skipped);
+            state.skippedSeconds += skipped;
+            logger.warn("Metric fetch of app <{}> is {} s behind, skipping {} s before {}", app,
+                (latest - state.nextStart) / 1000, skipped, lowerBound);
+            state.nextStart = lowerBound;
+        }
+        final long startTime = state.nextStart;
+        final long endTime = startTime + intervalMs - 1000;
+        if (endTime > latest) {
+            // Not due yet.
+            state.inFlight.set(false);
+            schedule(state, endTime + delayMs - now);
+            return;
+        }
+        try {
+            fetcher.fetch(app, startTime, endTime, () -> onComplete(state, endTime));
+        } catch (RejectedExecutionException e) {
+            rejectedWindows.increment();
+            logger.warn("Metric fetch of app <{}> rejected, window [{}, {}] will be retried", app, startTime,
+                endTime);
+            state.inFlight.set(false);
+            schedule(state, RETRY_DELAY_MS);
+        } catch (Throwable t) {
+            logger.warn("Metric fetch of app <{}> failed, window [{}, {}] will be retried", app, startTime,
+                endTime, t);
+            state.inFlight.set(false);
+            schedule(state, RETRY_DELAY_MS);
+        }
+    }
+
+    private void onComplete(AppState state, long endTime) {
+        state.nextStart = endTime + 1000;
+        state.lastFetchedTime = endTime;
+        state.inFlight.set(false);
+        // Fetch the next window right away if the app is behind.
+        schedule(state, 0);
+    }
+
+    /**
+     * @return end of the last fetched window of the app in milliseconds, or -1 if nothing was fetched yet
+     */
+    public long getLastFetchedTime(String app) {
+        AppState state = states.get(app);
+        return state == null ? -1 : state.lastFetchedTime;
+    }
+
+    /**
+     * @return total seconds skipped because apps fell behind more than the catch-up window
+     */
+    public long getSkippedSeconds() {
+        return skippedSeconds.sum();
+    }
+
+    /**
+     * @return seconds of the app skipped because it fell behind more than the catch-up window
+     */
+    public long getSkippedSeconds(String app) {
+        AppState state = states.get(app);
+        return state == null ? 0 : state.skippedSeconds;
+    }
+
+    /**
+     * @return total windows that could not be dispatched and were retried later
+     */
+    public long getRejectedWindows() {
+        return rejectedWindows.sum();
+    }
+
+    /**
+     * Fetches one window of an app.
+     */
+    public interface WindowFetcher {
+
+        /**
+         * Fetch the metrics of the app in {@code [startTime, endTime]}, both side inclusive. {@code done} must be
+         * invoked exactly once when the fetch has finished, whether it succeeded or not.
+         *
+         * @throws RejectedExecutionException if the fetch cannot be started now
+         */
+        void fetch(String app, long startTime, long endTime, Runnable done);
+    }
+
+    private static final class AppState {
+
+        private final String app;
+        private final AtomicBoolean inFlight = new AtomicBoolean(false);
+
+        private volatile long nextStart = -1;
+        private volatile long lastFetchedTime = -1;
+        /**
+         * Only written while {@link #inFlight} is held.
+         */
+        private volatile long skippedSeconds;
+        private volatile boolean removed;
+
+        AppState(String app) {
+            this.app = app;
+        }
+    }
+}
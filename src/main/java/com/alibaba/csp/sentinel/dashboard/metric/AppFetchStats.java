@@ -0,0 +1,169 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cumulative metric fetch statistics of one app since the dashboard started.
+ */
+public class AppFetchStats {
+
+    private final String app;
+
+    private final LongAdder fetches = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder machinesPolled = new LongAdder();
+    private final LongAdder machinesSucceeded = new LongAdder();
+    private final LongAdder machinesFailed = new LongAdder();
+    private final LongAdder machinesTimedOut = new LongAdder();
+    private final LongAdder machinesUnhealthy = new LongAdder();
+    private final LongAdder machinesSuspended = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder lines = new LongAdder();
+    private final LongAdder malformedLines = new LongAdder();
+    private final LongAdder windowsBackfilled = new LongAdder();
+    private final LongAdder windowsLost = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    public AppFetchStats(String app) {
+        this.app = app;
+    }
+
+    void onFetchCompleted(long costMs) {
+        fetches.increment();
+        latency.record(costMs);
+    }
+
+    void onRejected() {
+        rejected.increment();
+    }
+
+    void onMachinePolled() {
+        machinesPolled.increment();
+    }
+
+    void onMachineUnhealthy() {
+        machinesUnhealthy.increment();
+    }
+
+    void onMachineSuspended() {
+        machinesSuspended.increment();
+    }
+
+    void onMachineSucceeded(ThinMetricDecoder.Result result) {
+        machinesSucceeded.increment();
+        if (result != null) {
+            bytes.add(result.getBytes());
+            lines.add(result.getLines());
+            malformedLines.add(result.getMalformedLines());
+        }
+    }
+
+    void onMachineFailed() {
+        machinesFailed.increment();
+    }
+
+    void onMachineTimedOut() {
+        machinesTimedOut.increment();
+    }
+
+    void onWindowBackfilled() {
+        windowsBackfilled.increment();
+    }
+
+    void onWindowLost() {
+        windowsLost.increment();
+    }
+
+    public String getApp() {
+        return app;
+    }
+
+    /**
+     * @return count of completed fetch windows
+     */
+    public long getFetches() {
+        return fetches.sum();
+    }
+
+    /**
+     * @return count of fetch windows rejected by the fetch executor and retried later
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getMachinesPolled() {
+        return machinesPolled.sum();
+    }
+
+    public long getMachinesSucceeded() {
+        return machinesSucceeded.sum();
+    }
+
+    public long getMachinesFailed() {
+        return machinesFailed.sum();
+    }
+
+    public long getMachinesTimedOut() {
+        return machinesTimedOut.sum();
+    }
+
+    public long getMachinesUnhealthy() {
+        return machinesUnhealthy.sum();
+    }
+
+    /**
+     * @return count of machine windows skipped because the fetches of the machine kept failing
+     */
+    public long getMachinesSuspended() {
+        return machinesSuspended.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public long getLines() {
+        return lines.sum();
+    }
+
+    public long getMalformedLines() {
+        return malformedLines.sum();
+    }
+
+    /**
+     * @return count of machine windows missed at first and re-fetched in the background
+     */
+    public long getWindowsBackfilled() {
+        return windowsBackfilled.sum();
+    }
+
+    /**
+     * @return count of machine windows given up by the backfill
+     */
+    public long getWindowsLost() {
+        return windowsLost.sum();
+    }
+
+    /**
+     * @return latency of whole fetch windows, from sending the requests to the last response or the deadline
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.util.TimeUtil;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * <p>Bounds the count of resources whose metrics are saved, per app and in total, so that one app reporting
+ * unbounded resource names (e.g. raw URLs with ids) cannot exhaust the memory of the dashboard.</p>
+ * <p>
+ * A resource is active while its metrics keep being written, and released once idle for
+ * {@link #IDLE_RELEASE_MS}. Metrics of a new resource beyond {@link DashboardConfig#getMetricMaxResourcesPerApp}
+ * or {@link DashboardConfig#getMetricMaxResources()} are handled by the {@link Policy} of the app. The total
+ * limit is checked without a global lock and can be exceeded by a few resources under concurrent writes.
+ * </p>
+ */
+@Component
+public class CardinalityLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(CardinalityLimiter.class);
+
+    /**
+     * Resource the metrics of the resources over the limit are folded into by {@link Policy#FOLD}.
+     */
+    public static final String OTHER_RESOURCE = "__other__";
+
+    /**
+     * Resources not written for this long are released, matching the retention of the recent metrics.
+     */
+    static final long IDLE_RELEASE_MS = 1000 * 60 * 5;
+    private static final long RELEASE_INTERVAL_MS = 1000 * 60;
+
+    private final ConcurrentMap<String, AppResources> apps = new ConcurrentHashMap<>();
+    private final AtomicInteger totalResources = new AtomicInteger();
+    private final AtomicLong lastReleaseTime = new AtomicLong();
+
+    /**
+     * Handling of the metrics of a new resource over the limits.
+     */
+    public enum Policy {
+        /**
+         * Drop the metrics of the new resource.
+         */
+        DROP,
+        /**
+         * Release the least recently written resource of the app to admit the new one; its saved metrics
+         * expire with the retention of the store. Dropped if the app has no resource to release.
+         */
+        EVICT,
+        /**
+         * Sum the metrics of the new resource into {@link #OTHER_RESOURCE} of the app, the default.
+         */
+        FOLD;
+
+        /**
+         * @return policy of the name, or {@link #FOLD} if unknown
+         */
+        public static Policy fromName(String name) {
+            for (Policy policy : values()) {
+                if (policy.name().equalsIgnoreCase(name)) {
+                    return policy;
+                }
+            }
+            return FOLD;
+        }
+    }
+
+    /**
+     * Apply the limits to the metrics about to be saved.
+     *
+     * @return the metrics of the admitted resources, followed by the folded ones
+     */
+    public List<MetricEntity> limit(List<MetricEntity> entities) {
+        return limit(entities, TimeUtil.currentTimeMillis());
+    }
+
+    List<MetricEntity> limit(List<MetricEntity> entities, long now) {
+        long lastRelease = lastReleaseTime.get();
+        if (now - lastRelease >= RELEASE_INTERVAL_MS && lastReleaseTime.compareAndSet(lastRelease, now)) {
+            release(now);
+        }
+        int maxResources = DashboardConfig.getMetricMaxResources();
+        List<MetricEntity> admitted = new ArrayList<>(entities.size());
+        // app + second -> folded metric
+        Map<String, MetricEntity> folded = null;
+        String app = null;
+        AppResources resources = null;
+        int appLimit = 0;
+        Policy policy = null;
+        for (MetricEntity entity : entities) {
+            if (!entity.getApp().equals(app)) {
+                app = entity.getApp();
+                resources = apps.computeIfAbsent(app, AppResources::new);
+                appLimit = DashboardConfig.getMetricMaxResourcesPerApp(app);
+                policy = Policy.fromName(DashboardConfig.getMetricCardinalityPolicy(app));
+            }
+            boolean admit;
+            while (!(admit = OTHER_RESOURCE.equals(entity.getResource())
+                || resources.admit(entity.getResource(), now, appLimit, maxResources, policy))
+                && resources.isRetired()) {
+                // Released by a concurrent release in between.
+                apps.remove(app, resources);
+                resources = apps.computeIfAbsent(app, AppResources::new);
+            }
+            if (admit) {
+                admitted.add(entity);
+            } else if (policy == Policy.FOLD) {
+                if (folded == null) {
+                    folded = new LinkedHashMap<>();
+                }
+                fold(folded, entity);
+                resources.folded.increment();
+            } else {
+                resources.dropped.increment();
+            }
+        }
+        if (folded != null) {
+            admitted.addAll(folded.values());
+        }
+        return admitted;
+    }
+
+    private static void fold(Map<String, MetricEntity> folded, MetricEntity entity) {
+        String key = entity.getApp() + '|' + entity.getTimestamp().getTime();
+        MetricEntity other = folded.get(key);
+        if (other == null) {
+            other = new MetricEntity();
+            other.setApp(entity.getApp());
+            other.setResource(OTHER_RESOURCE);
+            other.setTimestamp(entity.getTimestamp());
+            other.setPassQps(0L);
+            other.setSuccessQps(0L);
+            other.setBlockQps(0L);
+            other.setExceptionQps(0L);
+            other.setRt(0);
+            other.setCount(0);
+            folded.put(key, other);
+        }
+        other.setPassQps(other.getPassQps() + valueOf(entity.getPassQps()));
+        other.setSuccessQps(other.getSuccessQps() + valueOf(entity.getSuccessQps()));
+        other.setBlockQps(other.getBlockQps() + valueOf(entity.getBlockQps()));
+        other.setExceptionQps(other.getExceptionQps() + valueOf(entity.getExceptionQps()));
+        // Sums of the rt of every success, so they add up like the QPS.
+        other.setRt(other.getRt() + entity.getRt());
+        other.setCount(Math.max(other.getCount(), entity.getCount()));
+    }
+
+    private static long valueOf(Long value) {
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * Release the idle resources of every app, and retire the apps left without resources.
+     */
+    void release(long now) {
+        for (Map.Entry<String, AppResources> entry : apps.entrySet()) {
+            AppResources resources = entry.getValue();
+            if (resources.release(now)) {
+                apps.remove(entry.getKey(), resources);
+            }
+        }
+    }
+
+    /**
+     * @return count of the active resources of all apps
+     */
+    public int getTotalResources() {
+        return totalResources.get();
+    }
+
+    /**
+     * @return limit statistics of the apps with active resources or limit hits
+     */
+    public List<AppResources> getAppResources() {
+        return new ArrayList<>(apps.values());
+    }
+
+    /**
+     * Active resources of one app, in least recently written order, guarded by its monitor. Once retired by a
+     * release leaving it empty, it admits nothing and writers retry with a new one.
+     */
+    public final class AppResources {
+
+        private final String app;
+        private final LinkedHashMap<String, Long> lastWritten = new LinkedHashMap<>(16, 0.75f, true);
+
+        private final LongAdder limitHits = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder folded = new LongAdder();
+        private final LongAdder evicted = new LongAdder();
+
+        private volatile boolean retired;
+
+        AppResources(String app) {
+            this.app = app;
+        }
+
+        /**
+         * @return true if the metrics of the resource are saved as they are, false if not or if retired
+         */
+        synchronized boolean admit(String resource, long now, int appLimit, int maxResources, Policy policy) {
+            if (retired) {
+                return false;
+            }
+            if (lastWritten.containsKey(resource)) {
+                // Moves the resource to the most recently written end.
+                lastWritten.put(resource, now);
+                return true;
+            }
+            releaseIdle(now);
+            if (lastWritten.size() < appLimit && totalResources.get() < maxResources) {
+                lastWritten.put(resource, now);
+                totalResources.incrementAndGet();
+                return true;
+            }
+            limitHits.increment();
+            if (limitHits.sum() == 1) {
+                logger.warn("Resources of app {} over the limit of {} per app or {} in total, new resources are "
+                    + "handled by policy {}", app, appLimit, maxResources, policy);
+            }
+            if (policy != Policy.EVICT || lastWritten.isEmpty()) {
+                return false;
+            }
+            Iterator<Map.Entry<String, Long>> eldest = lastWritten.entrySet().iterator();
+            eldest.next();
+            eldest.remove();
+            evicted.increment();
+            lastWritten.put(resource, now);
+            return true;
+        }
+
+        /**
+         * @return true if the app has no resource left and is retired
+         */
+        synchronized boolean release(long now) {
+            releaseIdle(now);
+            retired = lastWritten.isEmpty();
+            return retired;
+        }
+
+        boolean isRetired() {
+            return retired;
+        }
+
+        private void releaseIdle(long now) {
+            Iterator<Map.Entry<String, Long>> it = lastWritten.entrySet().iterator();
+            while (it.hasNext()) {
+                if (it.next().getValue() > now - IDLE_RELEASE_MS) {
+                    break;
+                }
+                it.remove();
+                totalResources.decrementAndGet();
+            }
+        }
+
+        public String getApp() {
+            return app;
+        }
+
+        public synchronized int getResources() {
+            return lastWritten.size();
+        }
+
+        public long getLimitHits() {
+            return limitHits.sum();
+        }
+
+        public long getDropped() {
+            return dropped.sum();
+        }
+
+        public long getFolded() {
+            return folded.sum();
+        }
+
+        public long getEvicted() {
+            return evicted.sum();
+        }
+    }
+}
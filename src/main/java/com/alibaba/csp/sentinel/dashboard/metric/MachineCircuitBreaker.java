@@ -0,0 +1,236 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Suspends the metric fetch of machines whose command port keeps failing although they still heartbeat.</p>
+ * <p>
+ * After {@code failureThreshold} consecutive failed or timed out fetches, a machine is suspended for
+ * {@code baseBackoffMs}. Once the suspension elapses, a single fetch is let through as a probe: if it succeeds the
+ * machine is fetched normally again, otherwise it is suspended again for twice as long, up to
+ * {@code maxBackoffMs}.
+ * </p>
+ * <p>
+ * Windows of a machine that are not fetched while it is suspended are recorded with {@link #skip}, coalesced into
+ * contiguous ranges, and handed back by {@link #onSuccess} once the machine answers again, so that they are
+ * backfilled once rather than retried throughout the suspension.
+ * </p>
+ */
+public class MachineCircuitBreaker {
+
+    /**
+     * Max count of disjoint skipped ranges kept per machine.
+     */
+    static final int MAX_SKIPPED_RANGES = 16;
+
+    private final int failureThreshold;
+    private final long baseBackoffMs;
+    private final long maxBackoffMs;
+
+    private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+    public MachineCircuitBreaker(int failureThreshold, long baseBackoffMs, long maxBackoffMs) {
+        this.failureThreshold = failureThreshold;
+        this.baseBackoffMs = baseBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+    }
+
+    /**
+     * @return true if the machine may be fetched now
+     */
+    public boolean tryAcquire(String ip, int port, long now) {
+        Circuit circuit = circuits.get(keyOf(ip, port));
+        return circuit == null || circuit.tryAcquire(now);
+    }
+
+    /**
+     * @return windows skipped while the machine was suspended, to backfill, empty if none
+     */
+    public List<SkippedRange> onSuccess(String ip, int port) {
+        Circuit circuit = circuits.get(keyOf(ip, port));
+        return circuit == null ? Collections.emptyList() : circuit.onSuccess();
+    }
+
+    /**
+     * Record a window {@code [startTime, endTime]} of the machine that is not fetched because it is suspended.
+     * Suspended machines are not fetched by the backfill either, so this does not claim the probe.
+     *
+     * @return true if the window was recorded, false if the machine is not suspended or too many disjoint
+     * windows are recorded already
+     */
+    public boolean skip(String ip, int port, long startTime, long endTime) {
+        Circuit circuit = circuits.get(keyOf(ip, port));
+        return circuit != null && circuit.skip(startTime, endTime);
+    }
+
+    public void onFailure(String ip, int port, long now) {
+        circuits.computeIfAbsent(keyOf(ip, port), k -> new Circuit()).onFailure(now);
+    }
+
+    /**
+     * Forget a machine that was removed.
+     */
+    public void remove(String ip, int port) {
+        circuits.remove(keyOf(ip, port));
+    }
+
+    /**
+     * @return true if the fetches of the machine are suspended, or a probe is in flight
+     */
+    public boolean isSuspended(String ip, int port) {
+        Circuit circuit = circuits.get(keyOf(ip, port));
+        return circuit != null && circuit.getState() != State.CLOSED;
+    }
+
+    /**
+     * @return the circuit of the machine, or null if its fetches never failed
+     */
+    public Circuit getCircuit(String ip, int port) {
+        return circuits.get(keyOf(ip, port));
+    }
+
+    private static String keyOf(String ip, int port) {
+        return ip + ":" + port;
+    }
+
+    public enum State {
+        /**
+         * Fetched normally.
+         */
+        CLOSED,
+        /**
+         * Suspended until the backoff elapses.
+         */
+        OPEN,
+        /**
+         * A probe fetch is in flight.
+         */
+        HALF_OPEN
+    }
+
+    public final class Circuit {
+
+        private State state = State.CLOSED;
+        private int consecutiveFailures;
+        private long backoffMs;
+        private long suspendedUntil;
+        private List<SkippedRange> skipped;
+
+        synchronized boolean tryAcquire(long now) {
+            switch (state) {
+                case CLOSED:
+                    return true;
+                case OPEN:
+                    if (now < suspendedUntil) {
+                        return false;
+                    }
+                    state = State.HALF_OPEN;
+                    return true;
+                default:
+                    // Only one probe at a time.
+                    return false;
+            }
+        }
+
+        synchronized List<SkippedRange> onSuccess() {
+            state = State.CLOSED;
+            consecutiveFailures = 0;
+            backoffMs = 0;
+            suspendedUntil = 0;
+            List<SkippedRange> ranges = skipped;
+            skipped = null;
+            return ranges == null ? Collections.emptyList() : ranges;
+        }
+
+        synchronized boolean skip(long startTime, long endTime) {
+            if (state == State.CLOSED) {
+                return false;
+            }
+            if (skipped == null) {
+                skipped = new ArrayList<>(2);
+            }
+            for (SkippedRange range : skipped) {
+                // Fetch windows follow each other second by second.
+                if (startTime <= range.endTime + 1000 && endTime >= range.startTime - 1000) {
+                    range.startTime = Math.min(range.startTime, startTime);
+                    range.endTime = Math.max(range.endTime, endTime);
+                    return true;
+                }
+            }
+            if (skipped.size() >= MAX_SKIPPED_RANGES) {
+                return false;
+            }
+            skipped.add(new SkippedRange(startTime, endTime));
+            return true;
+        }
+
+        synchronized void onFailure(long now) {
+            consecutiveFailures++;
+            if (state == State.HALF_OPEN) {
+                backoffMs = Math.min(backoffMs * 2, maxBackoffMs);
+            } else if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+                backoffMs = Math.min(baseBackoffMs, maxBackoffMs);
+            } else {
+                return;
+            }
+            state = State.OPEN;
+            suspendedUntil = now + backoffMs;
+        }
+
+        public synchronized State getState() {
+            return state;
+        }
+
+        public synchronized int getConsecutiveFailures() {
+            return consecutiveFailures;
+        }
+
+        /**
+         * @return end of the current suspension, 0 if the machine is not suspended
+         */
+        public synchronized long getSuspendedUntil() {
+            return state == State.CLOSED ? 0 : suspendedUntil;
+        }
+    }
+
+    /**
+     * Contiguous windows {@code [startTime, endTime]} of a machine skipped while it was suspended.
+     */
+    public static final class SkippedRange {
+
+        private long startTime;
+        private long endTime;
+
+        SkippedRange(long startTime, long endTime) {
+            this.startTime = startTime;
+            this.endTime = endTime;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public long getEndTime() {
+            return endTime;
+        }
+    }
+}
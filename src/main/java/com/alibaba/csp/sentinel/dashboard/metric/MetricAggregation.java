@@ -0,0 +1,136 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+
+/**
+ * Aggregates the metric lines of all machines of an app within one fetch window by {@code resource -> second},
+ * ignoring ip and port. Values are summed into primitive arrays, and {@link MetricEntity} instances are only
+ * built once per resource and second when the window is written.
+ */
+public class MetricAggregation implements ThinMetricDecoder.MetricHandler {
+
+    private static final int PASS_QPS = 0;
+    private static final int BLOCK_QPS = 1;
+    private static final int SUCCESS_QPS = 2;
+    private static final int EXCEPTION_QPS = 3;
+    /**
+     * Summary rt of all success QPS, i.e. {@code avgRt * successQps}.
+     */
+    private static final int RT = 4;
+    private static final int COUNT = 5;
+    private static final int FIELDS = 6;
+
+    private final String app;
+    private final long startSecond;
+    private final int seconds;
+
+    /**
+     * {@code resource -> [second * FIELDS + field]}
+     */
+    private final ConcurrentMap<String, long[]> series = new ConcurrentHashMap<>(16);
+
+    public String getApp() {
+        return app;
+    }
+
+    /**
+     * @param app       application name
+     * @param startTime start of the window in milliseconds, inclusive
+     * @param endTime   end of the window in milliseconds, inclusive
+     */
+    public MetricAggregation(String app, long startTime, long endTime) {
+        if (endTime < startTime) {
+            throw new IllegalArgumentException("endTime must >= startTime");
+        }
+        this.app = app;
+        this.startSecond = startTime / 1000;
+        this.seconds = (int)(endTime / 1000 - startSecond) + 1;
+    }
+
+    @Override
+    public void onMetric(String resource, long timestamp, long passQps, long blockQps, long successQps,
+                         long exceptionQps, long rt) {
+        if (MetricFetcher.shouldFilterOut(resource)) {
+            return;
+        }
+        long second = timestamp / 1000 - startSecond;
+        if (second < 0 || second >= seconds) {
+            return;
+        }
+        long[] values = series.get(resource);
+        if (values == null) {
+            long[] newValues = new long[seconds * FIELDS];
+            values = series.putIfAbsent(resource, newValues);
+            if (values == null) {
+                values = newValues;
+            }
+        }
+        int base = (int)second * FIELDS;
+        synchronized (values) {
+            values[base + PASS_QPS] += passQps;
+            values[base + BLOCK_QPS] += blockQps;
+            values[base + SUCCESS_QPS] += successQps;
+            values[base + EXCEPTION_QPS] += exceptionQps;
+            values[base + RT] += rt * successQps;
+            values[base + COUNT]++;
+        }
+    }
+
+    public boolean isEmpty() {
+        return series.isEmpty();
+    }
+
+    /**
+     * Build the aggregated metrics of the window.
+     *
+     * @return one entity for every resource and second that received at least one line
+     */
+    public List<MetricEntity> toEntities() {
+        List<MetricEntity> entities = new ArrayList<>(series.size());
+        for (Map.Entry<String, long[]> entry : series.entrySet()) {
+            long[] values = entry.getValue();
+            synchronized (values) {
+                for (int second = 0; second < seconds; second++) {
+                    int base = second * FIELDS;
+                    if (values[base + COUNT] == 0) {
+                        continue;
+                    }
+                    MetricEntity entity = new MetricEntity();
+                    entity.setApp(app);
+                    entity.setResource(entry.getKey());
+                    entity.setTimestamp(new Date((startSecond + second) * 1000));
+                    entity.setPassQps(values[base + PASS_QPS]);
+                    entity.setBlockQps(values[base + BLOCK_QPS]);
+                    entity.setSuccessQps(values[base + SUCCESS_QPS]);
+                    entity.setExceptionQps(values[base + EXCEPTION_QPS]);
+                    entity.setRt(values[base + RT]);
+                    entity.setCount((int)values[base + COUNT]);
+                    entities.add(entity);
+                }
+            }
+        }
+        return entities;
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
+import com.alibaba.csp.sentinel.dashboard.util.HashedWheelTimer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Re-fetches the windows of machines whose metric fetch failed or timed out.</p>
+ * <p>
+ * Missed windows are retried in the background with exponential backoff, at most {@link #MAX_IN_FLIGHT} at a
+ * time, until they succeed or fall out of {@link DashboardConfig#getMetricBackfillHorizonSeconds()}. Windows
+ * partly out of the horizon are trimmed to it. Windows that are given up are reported as lost.
+ * </p>
+ */
+public class MetricBackfiller {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricBackfiller.class);
+
+    private static final long DRAIN_INTERVAL_MS = 1000;
+    private static final long FIRST_RETRY_DELAY_MS = 5000;
+    private static final long MAX_RETRY_DELAY_MS = 60_000;
+    private static final int MAX_IN_FLIGHT = 16;
+    private static final int MAX_PENDING = 100_000;
+
+    private final HashedWheelTimer timer;
+    private final WindowFetcher fetcher;
+    private final Consumer<MissedWindow> lostListener;
+
+    private final Queue<MissedWindow> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+
+    private final LongAdder backfilled = new LongAdder();
+    private final LongAdder lost = new LongAdder();
+
+    private volatile boolean stopped;
+
+    /**
+     * @param timer        timer driving the retries, owned by the caller
+     * @param fetcher      re-fetches one missed window
+     * @param lostListener notified of every window given up
+     */
+    public MetricBackfiller(HashedWheelTimer timer, WindowFetcher fetcher, Consumer<MissedWindow> lostListener) {
+        this.timer = timer;
+        this.fetcher = fetcher;
+        this.lostListener = lostListener;
+    }
+
+    public void start() {
+        timer.newTimeout(this::drain, DRAIN_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Record a window of a machine that could not be fetched.
+     */
+    public void onMissed(String app, String ip, int port, long startTime, long endTime) {
+        MissedWindow window = new MissedWindow(app, ip, port, startTime, endTime);
+        window.nextAttempt = System.currentTimeMillis() + FIRST_RETRY_DELAY_MS;
+        if (pendingCount.incrementAndGet() > MAX_PENDING) {
+            pendingCount.decrementAndGet();
+            giveUp(window, "too many missed windows pending");
+            return;
+        }
+        pending.offer(window);
+    }
+
+    private void drain() {
+        try {
+            long now = System.currentTimeMillis();
+            long horizon = now - DashboardConfig.getMetricBackfillHorizonSeconds() * 1000L;
+            for (int i = pendingCount.get(); i > 0; i--) {
+                MissedWindow window = pending.poll();
+                if (window == null) {
+                    break;
+                }
+                pendingCount.decrementAndGet();
+                if (window.endTime < horizon) {
+                    giveUp(window, "out of the backfill horizon");
+                    continue;
+                }
+                if (window.startTime < horizon) {
+                    window.startTime = Math.min((horizon + 999) / 1000 * 1000, window.endTime);
+                }
+                if (window.nextAttempt > now || !inFlight.tryAcquire()) {
+                    requeue(window);
+                } else {
+                    dispatch(window);
+                }
+            }
+        } catch (Throwable t) {
+            logger.warn("Failed to drain missed metric windows", t);
+        } finally {
+            if (!stopped) {
+                timer.newTimeout(this::drain, DRAIN_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void dispatch(final MissedWindow window) {
+        CompletableFuture<Boolean> future;
+        try {
+            future = fetcher.fetch(window);
+        } catch (Throwable t) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(t);
+        }
+        future.whenComplete((done, ex) -> {
+            inFlight.release();
+            if (ex == null && Boolean.TRUE.equals(done)) {
+                backfilled.increment();
+                return;
+            }
+            window.attempts++;
+            long delay = Math.min(FIRST_RETRY_DELAY_MS << Math.min(window.attempts, 10), MAX_RETRY_DELAY_MS);
+            window.nextAttempt = System.currentTimeMillis() + delay;
+            requeue(window);
+        });
+    }
+
+    private void requeue(MissedWindow window) {
+        pendingCount.incrementAndGet();
+        pending.offer(window);
+    }
+
+    private void giveUp(MissedWindow window, String reason) {
+        lost.increment();
+        logger.warn("Metric of {}:{} of app <{}> in [{}, {}] lost after {} attempts: {}", window.ip, window.port,
+            window.app, window.startTime, window.endTime, window.attempts, reason);
+        lostListener.accept(window);
+    }
+
+    /**
+     * @return count of missed windows waiting to be re-fetched
+     */
+    public int getPending() {
+        return pendingCount.get();
+    }
+
+    /**
+     * @return total missed windows re-fetched successfully
+     */
+    public long getBackfilled() {
+        return backfilled.sum();
+    }
+
+    /**
+     * @return total missed windows given up
+     */
+    public long getLost() {
+        return lost.sum();
+    }
+
+    /**
+     * Re-fetches one missed window.
+     */
+    public interface WindowFetcher {
+
+        /**
+         * @return future of true if the window is settled (fetched, or the machine is gone), or false to retry it
+         */
+        CompletableFuture<Boolean> fetch(MissedWindow window);
+    }
+
+    /**
+     * A window {@code [startTime, endTime]} of one machine that has not been fetched.
+     */
+    public static final class MissedWindow {
+
+        private final String app;
+        private final String ip;
+        private final int port;
+        private final long endTime;
+
+        private volatile long startTime;
+
+        private volatile int attempts;
+        private volatile long nextAttempt;
+
+        MissedWindow(String app, String ip, int port, long startTime, long endTime) {
+            this.app = app;
+            this.ip = ip;
+            this.port = port;
+            this.startTime = startTime;
+            this.endTime = endTime;
+        }
+
+        public String getApp() {
+            return app;
+        }
+
+        public String getIp() {
+            return ip;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public long getEndTime() {
+            return endTime;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+    }
+}
@@ -15,50 +15,60 @@
  */
 package com.alibaba.csp.sentinel.dashboard.metric;
 
+import java.io.InputStream;
 import java.net.ConnectException;
 import java.net.SocketTimeoutException;
 import java.nio.charset.Charset;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.ThreadPoolExecutor.DiscardPolicy;
+import java.util.concurrent.ThreadPoolExecutor.AbortPolicy;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import javax.annotation.PreDestroy;
 
 import com.alibaba.csp.sentinel.Constants;
 import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
 import com.alibaba.csp.sentinel.config.SentinelConfig;
-import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.dashboard.client.HttpClientManager;
+import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
+import com.alibaba.csp.sentinel.dashboard.discovery.AppHealthEvent;
 import com.alibaba.csp.sentinel.dashboard.discovery.AppInfo;
 import com.alibaba.csp.sentinel.dashboard.discovery.AppManagement;
+import com.alibaba.csp.sentinel.dashboard.discovery.MachineHealthEvent;
 import com.alibaba.csp.sentinel.dashboard.discovery.MachineInfo;
-import com.alibaba.csp.sentinel.node.metric.MetricNode;
+import com.alibaba.csp.sentinel.dashboard.discovery.MachineReaper;
+import com.alibaba.csp.sentinel.dashboard.shard.ShardManager;
+import com.alibaba.csp.sentinel.dashboard.util.HashedWheelTimer;
 import com.alibaba.csp.sentinel.util.StringUtil;
 
-import com.alibaba.csp.sentinel.dashboard.repository.metric.MetricsRepository;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.entity.ContentType;
-import org.apache.http.impl.client.DefaultRedirectStrategy;
-import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
-import org.apache.http.impl.nio.client.HttpAsyncClients;
-import org.apache.http.impl.nio.reactor.IOReactorConfig;
-import org.apache.http.protocol.HTTP;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
 /**
@@ -71,229 +81,368 @@ public class MetricFetcher {
 
     public static final String NO_METRICS = "No metrics";
     private static final int HTTP_OK = 200;
-    private static final long MAX_LAST_FETCH_INTERVAL_MS = 1000 * 15;
-    private static final long FETCH_INTERVAL_SECOND = 6;
+    private static final long FETCH_INITIAL_DELAY_MS = 10_000;
+    private static final long FETCH_DEADLINE_MS = 5_000;
+    private static final long MAX_BACKFILL_WINDOW_MS = 60_000;
+    private static final long BREAKER_BASE_BACKOFF_MS = 5_000;
     private static final Charset DEFAULT_CHARSET = Charset.forName(SentinelConfig.charset());
     private final static String METRIC_URL_PATH = "metric";
     private static Logger logger = LoggerFactory.getLogger(MetricFetcher.class);
-    private final long intervalSecond = 1;
-
-    private Map<String, AtomicLong> appLastFetchTime = new ConcurrentHashMap<>();
 
     @Autowired
-    private MetricsRepository<MetricEntity> metricStore;
+    private MetricWriter metricWriter;
     @Autowired
     private AppManagement appManagement;
 
-    private CloseableHttpAsyncClient httpclient;
+    @Autowired
+    private HttpClientManager httpClientManager;
+    @Autowired
+    private ShardManager shardManager;
 
-    @SuppressWarnings("PMD.ThreadPoolCreationRule")
-    private ScheduledExecutorService fetchScheduleService = Executors.newScheduledThreadPool(1,
-        new NamedThreadFactory("sentinel-dashboard-metrics-fetch-task", true));
-    private ExecutorService fetchService;
+    private final ThinMetricDecoder decoder = new ThinMetricDecoder();
+
+    private final ConcurrentMap<String, AppFetchStats> fetchStats = new ConcurrentHashMap<>();
+
+    private final HashedWheelTimer timer = new HashedWheelTimer("sentinel-dashboard-metrics-fetch-timer",
+        100, TimeUnit.MILLISECONDS, 512);
+    private final AppFetchScheduler scheduler;
+    private final MetricBackfiller backfiller;
+    private final MachineCircuitBreaker breaker = new MachineCircuitBreaker(
+        DashboardConfig.getMetricBreakerFailureThreshold(), BREAKER_BASE_BACKOFF_MS,
+        DashboardConfig.getMetricBreakerMaxBackoffSeconds() * 1000L);
+    /**
+     * Starts the fetch of an app. Tasks only send requests and never wait for them.
+     */
     private ExecutorService fetchWorker;
+    /**
+     * Writes fetched windows to the repository. With at most one fetch in flight per app, the queue is bounded
+     * by the number of apps.
+     */
+    private ExecutorService writeExecutor;
 
+    @SuppressWarnings("PMD.ThreadPoolCreationRule")
     public MetricFetcher() {
-        int cores = Runtime.getRuntime().availableProcessors() * 2;
+        int cores = Runtime.getRuntime().availableProcessors();
         long keepAliveTime = 0;
         int queueSize = 2048;
-        RejectedExecutionHandler handler = new DiscardPolicy();
-        fetchService = new ThreadPoolExecutor(cores, cores,
-            keepAliveTime, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
-            new NamedThreadFactory("sentinel-dashboard-metrics-fetchService", true), handler);
+        // Rejected windows are retried by the scheduler, so they must not be dropped silently.
+        RejectedExecutionHandler handler = new AbortPolicy();
         fetchWorker = new ThreadPoolExecutor(cores, cores,
             keepAliveTime, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
             new NamedThreadFactory("sentinel-dashboard-metrics-fetchWorker",true), handler);
-        IOReactorConfig ioConfig = IOReactorConfig.custom()
-            .setConnectTimeout(3000)
-            .setSoTimeout(3000)
-            .setIoThreadCount(Runtime.getRuntime().availableProcessors() * 2)
-            .build();
-
-        httpclient = HttpAsyncClients.custom()
-            .setRedirectStrategy(new DefaultRedirectStrategy() {
-                @Override
-                protected boolean isRedirectable(final String method) {
-                    return false;
-                }
-            }).setMaxConnTotal(4000)
-            .setMaxConnPerRoute(1000)
-            .setDefaultIOReactorConfig(ioConfig)
-            .build();
-        httpclient.start();
+        writeExecutor = new ThreadPoolExecutor(cores, cores,
+            keepAliveTime, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+            new NamedThreadFactory("sentinel-dashboard-metrics-writer", true));
+        scheduler = new AppFetchScheduler(timer, this::getLocalApps, this::submitFetch);
+        backfiller = new MetricBackfiller(timer, this::backfill, window -> statsOf(window.getApp()).onWindowLost());
         start();
     }
 
     private void start() {
-        fetchScheduleService.scheduleAtFixedRate(() -> {
-            try {
-                fetchAllApp();
-            } catch (Exception e) {
-                logger.info("fetchAllApp error:", e);
-            }
-        }, 10, intervalSecond, TimeUnit.SECONDS);
+        scheduler.start(FETCH_INITIAL_DELAY_MS);
+        backfiller.start();
     }
 
-    private void writeMetric(Map<String, MetricEntity> map) {
-        if (map.isEmpty()) {
-            return;
-        }
-        Date date = new Date();
-        for (MetricEntity entity : map.values()) {
-            entity.setGmtCreate(date);
-            entity.setGmtModified(date);
-        }
-        metricStore.saveAll(map.values());
+    @PreDestroy
+    public void stop() {
+        scheduler.stop();
+        backfiller.stop();
+        timer.stop();
+        fetchWorker.shutdownNow();
+        writeExecutor.shutdownNow();
+    }
+
+    public AppFetchScheduler getScheduler() {
+        return scheduler;
+    }
+
+    public MachineCircuitBreaker getBreaker() {
+        return breaker;
     }
 
     /**
-     * Traverse each APP, and then pull the metric of all machines for that APP.
+     * @return fetch statistics of every app fetched since the dashboard started
      */
-    private void fetchAllApp() {
+    public Collection<AppFetchStats> getFetchStats() {
+        return Collections.unmodifiableCollection(fetchStats.values());
+    }
+
+    /**
+     * @return apps whose metrics are fetched by this dashboard instance, excluding the apps pushing their metrics
+     */
+    private List<String> getLocalApps() {
         List<String> apps = appManagement.getAppNames();
         if (apps == null) {
-            return;
+            return null;
         }
-        for (final String app : apps) {
-            fetchService.submit(() -> {
-                try {
-                    doFetchAppMetric(app);
-                } catch (Exception e) {
-                    logger.error("fetchAppMetric error", e);
-                }
-            });
+        return apps.stream()
+            .filter(app -> shardManager.isLocal(app) && !DashboardConfig.isMetricPushMode(app))
+            .collect(Collectors.toList());
+    }
+
+    private AppFetchStats statsOf(String app) {
+        return fetchStats.computeIfAbsent(app, AppFetchStats::new);
+    }
+
+    /**
+     * Release the route and the breaker of a machine removed by the {@link MachineReaper}.
+     */
+    @EventListener
+    public void onMachineHealth(MachineHealthEvent event) {
+        if (event.getHealth() == MachineHealthEvent.Health.REMOVED) {
+            MachineInfo machine = event.getMachine();
+            httpClientManager.removeRoute(machine.getIp(), machine.getPort());
+            breaker.remove(machine.getIp(), machine.getPort());
         }
     }
 
     /**
-     * fetch metric between [startTime, endTime], both side inclusive
+     * Release the fetch stats of an app removed by the {@link MachineReaper}.
      */
-    private void fetchOnce(String app, long startTime, long endTime, int maxWaitSeconds) {
-        if (maxWaitSeconds <= 0) {
-            throw new IllegalArgumentException("maxWaitSeconds must > 0, but " + maxWaitSeconds);
+    @EventListener
+    public void onAppHealth(AppHealthEvent event) {
+        if (event.isRemoved()) {
+            fetchStats.remove(event.getApp());
         }
+    }
+
+    /**
+     * Fetch the metrics of all machines of the app between [startTime, endTime], both side inclusive.
+     * Requests are sent in parallel and responses are aggregated on the I/O threads as they arrive; the
+     * returned future completes once every machine answered or the deadline passed, whichever comes first.
+     * No thread waits for the network in between. Machines that failed or timed out are added to {@code missed}.
+     */
+    private CompletableFuture<MetricAggregation> fetchOnce(String app, long startTime, long endTime,
+                                                           long deadlineMs, Queue<MachineInfo> missed) {
+        final MetricAggregation aggregation = new MetricAggregation(app, startTime, endTime);
         AppInfo appInfo = appManagement.getDetailApp(app);
-        // auto remove for app
-        if (appInfo.isDead()) {
-            logger.info("Dead app removed: {}", app);
-            appManagement.removeApp(app);
-            return;
+        if (appInfo == null) {
+            return CompletableFuture.completedFuture(aggregation);
         }
         Set<MachineInfo> machines = appInfo.getMachines();
         logger.debug("enter fetchOnce(" + app + "), machines.size()=" + machines.size()
             + ", time intervalMs [" + startTime + ", " + endTime + "]");
-        if (machines.isEmpty()) {
-            return;
-        }
-        final String msg = "fetch";
-        AtomicLong unhealthy = new AtomicLong();
-        final AtomicLong success = new AtomicLong();
-        final AtomicLong fail = new AtomicLong();
-
-        long start = System.currentTimeMillis();
-        /** app_resource_timeSecond -> metric */
-        final Map<String, MetricEntity> metricMap = new ConcurrentHashMap<>(16);
-        final CountDownLatch latch = new CountDownLatch(machines.size());
+        final AppFetchStats stats = statsOf(app);
+        final long start = System.currentTimeMillis();
+        final List<MachineFetch> fetches = new ArrayList<>(machines.size());
+        final List<CompletableFuture<?>> outcomes = new ArrayList<>(machines.size());
         for (final MachineInfo machine : machines) {
-            // auto remove
-            if (machine.isDead()) {
-                latch.countDown();
-                appManagement.getDetailApp(app).removeMachine(machine.getIp(), machine.getPort());
-                logger.info("Dead machine removed: {}:{} of {}", machine.getIp(), machine.getPort(), app);
+            // Dead machines are unhealthy until the reaper removes them.
+            if (!machine.isHealthy()) {
+                stats.onMachineUnhealthy();
                 continue;
             }
-            if (!machine.isHealthy()) {
-                latch.countDown();
-                unhealthy.incrementAndGet();
+            if (!breaker.tryAcquire(machine.getIp(), machine.getPort(), start)) {
+                stats.onMachineSuspended();
+                // The window is backfilled once the machine answers again, rather than retried meanwhile.
+                if (!breaker.skip(machine.getIp(), machine.getPort(), startTime, endTime)) {
+                    missed.add(machine);
+                }
                 continue;
             }
-            final String url = "http://" + machine.getIp() + ":" + machine.getPort() + "/" + METRIC_URL_PATH
-                + "?startTime=" + startTime + "&endTime=" + endTime + "&refetch=" + false;
-            final HttpGet httpGet = new HttpGet(url);
-            httpGet.setHeader(HTTP.CONN_DIRECTIVE, HTTP.CONN_CLOSE);
-            httpclient.execute(httpGet, new FutureCallback<HttpResponse>() {
-                @Override
-                public void completed(final HttpResponse response) {
-                    try {
-                        handleResponse(response, machine, metricMap);
-                        success.incrementAndGet();
-                    } catch (Exception e) {
-                        logger.error(msg + " metric " + url + " error:", e);
-                    } finally {
-                        latch.countDown();
-                    }
+            stats.onMachinePolled();
+            final MachineFetch fetch = fetchMachine(machine, startTime, endTime, aggregation, false);
+            fetches.add(fetch);
+            outcomes.add(fetch.outcome.thenAccept(outcome -> {
+                switch (outcome) {
+                    case SUCCEEDED:
+                        stats.onMachineSucceeded(fetch.decoded);
+                        return;
+                    case TIMED_OUT:
+                        stats.onMachineTimedOut();
+                        break;
+                    default:
+                        stats.onMachineFailed();
                 }
+                missed.add(machine);
+            }));
+        }
+        if (fetches.isEmpty()) {
+            return CompletableFuture.completedFuture(aggregation);
+        }
+        final CompletableFuture<MetricAggregation> result = new CompletableFuture<>();
+        final HashedWheelTimer.Timeout deadline = timer.newTimeout(() -> {
+            int timedOut = 0;
+            for (MachineFetch fetch : fetches) {
+                if (fetch.timeout()) {
+                    timedOut++;
+                }
+            }
+            if (timedOut > 0) {
+                logger.warn("Metric fetch of app <{}> exceeded {} ms, {} of {} machines timed out", app,
+                    deadlineMs, timedOut, fetches.size());
+            }
+        }, deadlineMs, TimeUnit.MILLISECONDS);
+        CompletableFuture.allOf(outcomes.toArray(new CompletableFuture<?>[0])).whenComplete((v, ex) -> {
+            deadline.cancel();
+            stats.onFetchCompleted(System.currentTimeMillis() - start);
+            result.complete(aggregation);
+        });
+        return result;
+    }
 
-                @Override
-                public void failed(final Exception ex) {
-                    latch.countDown();
-                    fail.incrementAndGet();
-                    httpGet.abort();
-                    if (ex instanceof SocketTimeoutException) {
-                        logger.error("Failed to fetch metric from <{}>: socket timeout", url);
-                    } else if (ex instanceof ConnectException) {
-                        logger.error("Failed to fetch metric from <{}> (ConnectionException: {})", url, ex.getMessage());
-                    } else {
-                        logger.error(msg + " metric " + url + " error", ex);
-                    }
+    /**
+     * Send the metric request of one machine, decoding the response into the aggregation.
+     */
+    private MachineFetch fetchMachine(final MachineInfo machine, long startTime, long endTime,
+                                      final MetricAggregation aggregation, boolean refetch) {
+        final MachineFetch fetch = doFetchMachine(machine, startTime, endTime, aggregation, refetch);
+        fetch.outcome.thenAccept(outcome -> {
+            if (outcome == FetchOutcome.SUCCEEDED) {
+                for (MachineCircuitBreaker.SkippedRange range : breaker.onSuccess(machine.getIp(),
+                    machine.getPort())) {
+                    onSkipped(machine, range.getStartTime(), range.getEndTime());
+                }
+            } else {
+                breaker.onFailure(machine.getIp(), machine.getPort(), System.currentTimeMillis());
+            }
+        });
+        return fetch;
+    }
+
+    private MachineFetch doFetchMachine(final MachineInfo machine, long startTime, long endTime,
+                                        final MetricAggregation aggregation, boolean refetch) {
+        final String url = "http://" + machine.getIp() + ":" + machine.getPort() + "/" + METRIC_URL_PATH
+            + "?startTime=" + startTime + "&endTime=" + endTime + "&refetch=" + refetch;
+        final String msg = refetch ? "refetch" : "fetch";
+        final MachineFetch fetch = new MachineFetch(new HttpGet(url));
+        httpClientManager.executeMetric(fetch.httpGet, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(final HttpResponse httpResponse) {
+                if (!fetch.claim()) {
+                    // Timed out at the deadline.
+                    return;
                 }
+                try {
+                    fetch.decoded = handleResponse(httpResponse, machine, aggregation);
+                    fetch.outcome.complete(FetchOutcome.SUCCEEDED);
+                } catch (Exception e) {
+                    logger.error(msg + " metric " + url + " error:", e);
+                    fetch.outcome.complete(FetchOutcome.FAILED);
+                }
+            }
 
-                @Override
-                public void cancelled() {
-                    latch.countDown();
-                    fail.incrementAndGet();
-                    httpGet.abort();
+            @Override
+            public void failed(final Exception ex) {
+                if (!fetch.claim()) {
+                    return;
                 }
-            });
-        }
-        try {
-            latch.await(maxWaitSeconds, TimeUnit.SECONDS);
-        } catch (Exception e) {
-            logger.info(msg + " metric, wait http client error:", e);
+                if (ex instanceof SocketTimeoutException) {
+                    logger.error("Failed to fetch metric from <{}>: socket timeout", url);
+                    fetch.outcome.complete(FetchOutcome.TIMED_OUT);
+                    return;
+                }
+                if (ex instanceof ConnectException) {
+                    logger.error("Failed to fetch metric from <{}> (ConnectionException: {})", url, ex.getMessage());
+                } else {
+                    logger.error(msg + " metric " + url + " error", ex);
+                }
+                fetch.outcome.complete(FetchOutcome.FAILED);
+            }
+
+            @Override
+            public void cancelled() {
+                if (fetch.claim()) {
+                    fetch.outcome.complete(FetchOutcome.FAILED);
+                }
+            }
+        });
+        return fetch;
+    }
+
+    /**
+     * Hand the windows skipped while the machine was suspended to the backfill, in windows of at most
+     * {@link #MAX_BACKFILL_WINDOW_MS} so that a long suspension does not end in one huge response.
+     */
+    private void onSkipped(MachineInfo machine, long startTime, long endTime) {
+        for (long from = startTime; from <= endTime; from += MAX_BACKFILL_WINDOW_MS) {
+            backfiller.onMissed(machine.getApp(), machine.getIp(), machine.getPort(), from,
+                Math.min(from + MAX_BACKFILL_WINDOW_MS - 1000, endTime));
         }
-        //long cost = System.currentTimeMillis() - start;
-        //logger.info("finished " + msg + " metric for " + app + ", time intervalMs [" + startTime + ", " + endTime
-        //    + "], total machines=" + machines.size() + ", dead=" + dead + ", fetch success="
-        //    + success + ", fetch fail=" + fail + ", time cost=" + cost + " ms");
-        writeMetric(metricMap);
     }
 
-    private void doFetchAppMetric(final String app) {
-        long now = System.currentTimeMillis();
-        long lastFetchMs = now - MAX_LAST_FETCH_INTERVAL_MS;
-        if (appLastFetchTime.containsKey(app)) {
-            lastFetchMs = Math.max(lastFetchMs, appLastFetchTime.get(app).get() + 1000);
+    /**
+     * Re-fetch a window of one machine and add it to the metrics already saved for the window. Windows of a
+     * suspended machine join its skipped windows instead, leaving the probe to the regular fetch.
+     */
+    private CompletableFuture<Boolean> backfill(final MetricBackfiller.MissedWindow window) {
+        AppInfo appInfo = appManagement.getDetailApp(window.getApp());
+        Optional<MachineInfo> machine = appInfo == null ? Optional.empty()
+            : appInfo.getMachine(window.getIp(), window.getPort());
+        if (!machine.isPresent() || machine.get().isDead() || !shardManager.isLocal(window.getApp())) {
+            // Nothing to backfill for a machine that is gone or an app fetched by another instance.
+            return CompletableFuture.completedFuture(true);
+        }
+        if (!machine.get().isHealthy()) {
+            return CompletableFuture.completedFuture(false);
         }
-        // trim milliseconds
-        lastFetchMs = lastFetchMs / 1000 * 1000;
-        long endTime = lastFetchMs + FETCH_INTERVAL_SECOND * 1000;
-        if (endTime > now - 1000 * 2) {
-            // too near
-            return;
+        if (breaker.isSuspended(window.getIp(), window.getPort())) {
+            return CompletableFuture.completedFuture(
+                breaker.skip(window.getIp(), window.getPort(), window.getStartTime(), window.getEndTime()));
         }
-        // update last_fetch in advance.
-        appLastFetchTime.computeIfAbsent(app, a -> new AtomicLong()).set(endTime);
-        final long finalLastFetchMs = lastFetchMs;
-        final long finalEndTime = endTime;
+        final MetricAggregation aggregation = new MetricAggregation(window.getApp(), window.getStartTime(),
+            window.getEndTime());
+        final MachineFetch fetch = fetchMachine(machine.get(), window.getStartTime(), window.getEndTime(),
+            aggregation, true);
+        final HashedWheelTimer.Timeout deadline = timer.newTimeout(fetch::timeout, FETCH_DEADLINE_MS,
+            TimeUnit.MILLISECONDS);
+        return fetch.outcome.thenApplyAsync(outcome -> {
+            deadline.cancel();
+            if (outcome != FetchOutcome.SUCCEEDED) {
+                return false;
+            }
+            metricWriter.merge(aggregation);
+            statsOf(window.getApp()).onWindowBackfilled();
+            return true;
+        }, writeExecutor);
+    }
+
+    private void submitFetch(final String app, final long startTime, final long endTime, final Runnable done) {
         try {
-            // do real fetch async
-            fetchWorker.submit(() -> {
+            doSubmitFetch(app, startTime, endTime, done);
+        } catch (RejectedExecutionException e) {
+            statsOf(app).onRejected();
+            throw e;
+        }
+    }
+
+    private void doSubmitFetch(final String app, final long startTime, final long endTime, final Runnable done) {
+        fetchWorker.execute(() -> {
+            final Queue<MachineInfo> missed = new ConcurrentLinkedQueue<>();
+            CompletableFuture<MetricAggregation> future;
+            try {
+                future = fetchOnce(app, startTime, endTime, FETCH_DEADLINE_MS, missed);
+            } catch (Throwable e) {
+                logger.info("fetchOnce(" + app + ") error", e);
+                done.run();
+                return;
+            }
+            // Write on the worker pool rather than on the I/O or timer thread that completed the fetch.
+            future.whenCompleteAsync((aggregation, ex) -> {
                 try {
-                    fetchOnce(app, finalLastFetchMs, finalEndTime, 5);
+                    if (aggregation != null) {
+                        metricWriter.write(aggregation);
+                    }
                 } catch (Exception e) {
-                    logger.info("fetchOnce(" + app + ") error", e);
+                    logger.info("write metric of app <" + app + "> error", e);
+                } finally {
+                    // Missed machines are only backfilled once the window is saved, so that they are merged
+                    // into it rather than overwritten by it.
+                    for (MachineInfo machine : missed) {
+                        backfiller.onMissed(app, machine.getIp(), machine.getPort(), startTime, endTime);
+                    }
+                    done.run();
                 }
-            });
-        } catch (Exception e) {
-            logger.info("submit fetchOnce(" + app + ") fail, intervalMs [" + lastFetchMs + ", " + endTime + "]", e);
-        }
+            }, writeExecutor);
+        });
     }
 
-    private void handleResponse(final HttpResponse response, MachineInfo machine,
-                                Map<String, MetricEntity> metricMap) throws Exception {
+    private ThinMetricDecoder.Result handleResponse(final HttpResponse response, MachineInfo machine,
+                                                    MetricAggregation aggregation) throws Exception {
         int code = response.getStatusLine().getStatusCode();
         if (code != HTTP_OK) {
-            return;
+            EntityUtils.consumeQuietly(response.getEntity());
+            throw new IllegalStateException("unexpected status code " + code);
         }
         Charset charset = null;
         try {
@@ -304,63 +453,61 @@ public class MetricFetcher {
             }
         } catch (Exception ignore) {
         }
-        String body = EntityUtils.toString(response.getEntity(), charset != null ? charset : DEFAULT_CHARSET);
-        if (StringUtil.isEmpty(body) || body.startsWith(NO_METRICS)) {
-            //logger.info(machine.getApp() + ":" + machine.getIp() + ":" + machine.getPort() + ", bodyStr is empty");
-            return;
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return null;
         }
-        String[] lines = body.split("\n");
-        //logger.info(machine.getApp() + ":" + machine.getIp() + ":" + machine.getPort() +
-        //    ", bodyStr.length()=" + body.length() + ", lines=" + lines.length);
-        handleBody(lines, machine, metricMap);
-    }
-
-    private void handleBody(String[] lines, MachineInfo machine, Map<String, MetricEntity> map) {
-        //logger.info("handleBody() lines=" + lines.length + ", machine=" + machine);
-        if (lines.length < 1) {
-            return;
+        ThinMetricDecoder.Result result;
+        try (InputStream in = entity.getContent()) {
+            result = decoder.decode(in, charset != null ? charset : DEFAULT_CHARSET, aggregation);
         }
-
-        for (String line : lines) {
-            try {
-                MetricNode node = MetricNode.fromThinString(line);
-                if (shouldFilterOut(node.getResource())) {
-                    continue;
-                }
-                /*
-                 * aggregation metrics by app_resource_timeSecond, ignore ip and port.
-                 */
-                String key = buildMetricKey(machine.getApp(), node.getResource(), node.getTimestamp());
-
-                MetricEntity metricEntity = map.computeIfAbsent(key, s -> {
-                    MetricEntity initMetricEntity = new MetricEntity();
-                    initMetricEntity.setApp(machine.getApp());
-                    initMetricEntity.setTimestamp(new Date(node.getTimestamp()));
-                    initMetricEntity.setPassQps(0L);
-                    initMetricEntity.setBlockQps(0L);
-                    initMetricEntity.setRtAndSuccessQps(0, 0L);
-                    initMetricEntity.setExceptionQps(0L);
-                    initMetricEntity.setCount(0);
-                    initMetricEntity.setResource(node.getResource());
-                    return initMetricEntity;
-                });
-                metricEntity.addPassQps(node.getPassQps());
-                metricEntity.addBlockQps(node.getBlockQps());
-                metricEntity.addRtAndSuccessQps(node.getRt(), node.getSuccessQps());
-                metricEntity.addExceptionQps(node.getExceptionQps());
-                metricEntity.addCount(1);
-            } catch (Exception e) {
-                logger.warn("handleBody line exception, machine: {}, line: {}", machine.toLogString(), line);
-            }
+        if (result.getMalformedLines() > 0) {
+            logger.warn("handleBody malformed lines: {}, machine: {}", result.getMalformedLines(),
+                machine.toLogString());
         }
+        return result;
     }
 
-    private String buildMetricKey(String app, String resource, long timestamp) {
-        return app + "__" + resource + "__" + (timestamp / 1000);
+    static boolean shouldFilterOut(String resource) {
+        return RES_EXCLUSION_SET.contains(resource);
     }
 
-    private boolean shouldFilterOut(String resource) {
-        return RES_EXCLUSION_SET.contains(resource);
+    private enum FetchOutcome {
+        SUCCEEDED,
+        FAILED,
+        TIMED_OUT
+    }
+
+    /**
+     * Metric request of one machine. It is settled exactly once, by its response or by the deadline, so a
+     * machine is either fully decoded into the aggregation or reported as missed, never both.
+     */
+    private static final class MachineFetch {
+
+        private final HttpGet httpGet;
+        private final CompletableFuture<FetchOutcome> outcome = new CompletableFuture<>();
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+        private volatile ThinMetricDecoder.Result decoded;
+
+        MachineFetch(HttpGet httpGet) {
+            this.httpGet = httpGet;
+        }
+
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        /**
+         * @return true if the request was still pending and has been aborted
+         */
+        boolean timeout() {
+            if (!claim()) {
+                return false;
+            }
+            httpGet.abort();
+            outcome.complete(FetchOutcome.TIMED_OUT);
+            return true;
+        }
     }
 
     private static final Set<String> RES_EXCLUSION_SET = new HashSet<String>() {{
@@ -370,6 +517,3 @@ public class MetricFetcher {
     }};
 
 }
-
-
-
@@ -0,0 +1,324 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
+import com.alibaba.csp.sentinel.dashboard.discovery.AppHealthEvent;
+import com.alibaba.csp.sentinel.dashboard.discovery.MachineReaper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * <p>Ingests metric lines pushed by the machines of apps in push mode, see
+ * {@link DashboardConfig#CONFIG_METRIC_INGEST_MODE}.</p>
+ * <p>
+ * Pushed lines are aggregated per app and second like fetched ones. A second is written once it is older than
+ * {@link DashboardConfig#getMetricFetchDelayMillis()}; lines arriving for a second already written are added to
+ * it. Lines out of {@link DashboardConfig#getMetricBackfillHorizonSeconds()} or from the future are dropped.
+ * </p>
+ * <p>
+ * The buffer of an app is released once it is empty and its last written second is out of the horizon, since no
+ * line accepted later can be merged into it, and when the app is removed by the {@link MachineReaper}.
+ * </p>
+ */
+@Component
+public class MetricPushIngestor {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricPushIngestor.class);
+
+    private static final long FLUSH_INTERVAL_MS = 1000;
+    /**
+     * Clock skew tolerated for lines ahead of the dashboard.
+     */
+    private static final long MAX_FUTURE_MS = 5000;
+
+    @Autowired
+    private MetricWriter metricWriter;
+
+    private final ThinMetricDecoder decoder = new ThinMetricDecoder();
+    private final ConcurrentMap<String, AppBuffer> buffers = new ConcurrentHashMap<>();
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder lines = new LongAdder();
+    private final LongAdder droppedLines = new LongAdder();
+
+    private ScheduledExecutorService flushService;
+
+    public MetricPushIngestor() {}
+
+    public MetricPushIngestor(MetricWriter metricWriter) {
+        this.metricWriter = metricWriter;
+    }
+
+    @PostConstruct
+    @SuppressWarnings("PMD.ThreadPoolCreationRule")
+    public void start() {
+        flushService = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("sentinel-dashboard-metrics-push-flush", true));
+        flushService.scheduleWithFixedDelay(() -> {
+            try {
+                flush(System.currentTimeMillis() - DashboardConfig.getMetricFetchDelayMillis());
+            } catch (Throwable t) {
+                logger.warn("Failed to flush pushed metrics", t);
+            }
+        }, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (flushService != null) {
+            flushService.shutdownNow();
+        }
+    }
+
+    /**
+     * Aggregate a batch of metric lines pushed by one machine of the app. The batch is read fully before, so that
+     * slow senders do not hold up the flush.
+     *
+     * @return statistics of the decoded batch
+     */
+    public PushResult ingest(String app, byte[] body, Charset charset) {
+        BatchHandler handler;
+        ThinMetricDecoder.Result result;
+        for (;;) {
+            AppBuffer buffer = buffers.computeIfAbsent(app, AppBuffer::new);
+            long now = System.currentTimeMillis();
+            handler = new BatchHandler(buffer,
+                now - DashboardConfig.getMetricBackfillHorizonSeconds() * 1000L, now + MAX_FUTURE_MS);
+            buffer.lock.readLock().lock();
+            try {
+                if (buffer.released) {
+                    // Released by the flush since it was looked up.
+                    continue;
+                }
+                result = decoder.decode(body, 0, body.length, charset, handler);
+                break;
+            } finally {
+                buffer.lock.readLock().unlock();
+            }
+        }
+        batches.increment();
+        lines.add(result.getLines());
+        droppedLines.add(handler.dropped);
+        return new PushResult(result, handler.dropped);
+    }
+
+    /**
+     * Write the seconds of all apps ended before the given time.
+     */
+    public void flush(long before) {
+        long dueSecond = before / 1000;
+        long horizonSecond = dueSecond - DashboardConfig.getMetricBackfillHorizonSeconds();
+        for (AppBuffer buffer : buffers.values()) {
+            List<Map.Entry<Long, MetricAggregation>> due = new ArrayList<>();
+            buffer.lock.writeLock().lock();
+            try {
+                Iterator<Map.Entry<Long, MetricAggregation>> it = buffer.seconds.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<Long, MetricAggregation> entry = it.next();
+                    if (entry.getKey() < dueSecond) {
+                        due.add(entry);
+                        it.remove();
+                    }
+                }
+            } finally {
+                buffer.lock.writeLock().unlock();
+            }
+            due.sort(Map.Entry.comparingByKey());
+            for (Map.Entry<Long, MetricAggregation> entry : due) {
+                // Seconds flushed before only receive late lines, which are added to what is saved.
+                if (entry.getKey() > buffer.lastFlushedSecond) {
+                    metricWriter.write(entry.getValue());
+                    buffer.lastFlushedSecond = entry.getKey();
+                } else {
+                    metricWriter.merge(entry.getValue());
+                }
+            }
+            if (buffer.lastFlushedSecond < horizonSecond && buffer.seconds.isEmpty()) {
+                release(buffer, true);
+            }
+        }
+    }
+
+    /**
+     * Release the buffer of an app removed by the {@link MachineReaper}.
+     */
+    @EventListener
+    public void onAppHealth(AppHealthEvent event) {
+        if (event.isRemoved()) {
+            AppBuffer buffer = buffers.get(event.getApp());
+            if (buffer != null) {
+                release(buffer, false);
+            }
+        }
+    }
+
+    private void release(AppBuffer buffer, boolean onlyIfEmpty) {
+        buffer.lock.writeLock().lock();
+        try {
+            if (onlyIfEmpty && !buffer.seconds.isEmpty()) {
+                return;
+            }
+            buffer.released = true;
+            buffers.remove(buffer.app, buffer);
+        } finally {
+            buffer.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return count of the apps with a buffer
+     */
+    int getBufferedApps() {
+        return buffers.size();
+    }
+
+    /**
+     * @return total batches ingested
+     */
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    /**
+     * @return total valid lines ingested, including dropped ones
+     */
+    public long getLines() {
+        return lines.sum();
+    }
+
+    /**
+     * @return total lines dropped for being out of the accepted time range
+     */
+    public long getDroppedLines() {
+        return droppedLines.sum();
+    }
+
+    private static final class AppBuffer {
+
+        private final String app;
+        /**
+         * Held shared while batches are aggregated, and exclusively while due seconds are taken out, so that no
+         * line is added to a second after it was written.
+         */
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final ConcurrentMap<Long, MetricAggregation> seconds = new ConcurrentHashMap<>();
+        /**
+         * Only accessed by the flush thread.
+         */
+        private long lastFlushedSecond = -1;
+        /**
+         * Set under the write lock once the buffer is removed, batches then look the buffer of the app up again.
+         */
+        private boolean released;
+
+        AppBuffer(String app) {
+            this.app = app;
+        }
+
+        MetricAggregation secondOf(long second) {
+            return seconds.computeIfAbsent(second, s -> new MetricAggregation(app, s * 1000, s * 1000));
+        }
+    }
+
+    /**
+     * Routes the lines of one batch to the aggregations of their seconds. Lines of a batch are mostly sorted by
+     * time, so the last aggregation is kept to avoid a map lookup per line.
+     */
+    private static final class BatchHandler implements ThinMetricDecoder.MetricHandler {
+
+        private final AppBuffer buffer;
+        private final long minTime;
+        private final long maxTime;
+
+        private long lastSecond = -1;
+        private MetricAggregation last;
+        private int dropped;
+
+        BatchHandler(AppBuffer buffer, long minTime, long maxTime) {
+            this.buffer = buffer;
+            this.minTime = minTime;
+            this.maxTime = maxTime;
+        }
+
+        @Override
+        public void onMetric(String resource, long timestamp, long passQps, long blockQps, long successQps,
+                             long exceptionQps, long rt) {
+            if (timestamp < minTime || timestamp > maxTime) {
+                dropped++;
+                return;
+            }
+            long second = timestamp / 1000;
+            if (second != lastSecond) {
+                last = buffer.secondOf(second);
+                lastSecond = second;
+            }
+            last.onMetric(resource, timestamp, passQps, blockQps, successQps, exceptionQps, rt);
+        }
+    }
+
+    /**
+     * Statistics of one pushed batch.
+     */
+    public static final class PushResult {
+
+        private final ThinMetricDecoder.Result result;
+        private final int droppedLines;
+
+        PushResult(ThinMetricDecoder.Result result, int droppedLines) {
+            this.result = result;
+            this.droppedLines = droppedLines;
+        }
+
+        public long getBytes() {
+            return result.getBytes();
+        }
+
+        public int getLines() {
+            return result.getLines();
+        }
+
+        public int getMalformedLines() {
+            return result.getMalformedLines();
+        }
+
+        public int getDroppedLines() {
+            return droppedLines;
+        }
+    }
+}
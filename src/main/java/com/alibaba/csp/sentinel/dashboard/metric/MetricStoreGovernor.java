@@ -0,0 +1,249 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.MetricsRepository;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.SweepStats;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * <p>Sweeps the metric store in the background and keeps it within a heap budget.</p>
+ * <p>
+ * Every {@link DashboardConfig#getMetricSweepIntervalSeconds()} the store evicts its expired metrics, and the
+ * series and apps left without metrics, see {@link MetricsRepository#sweep(long, double)}. The heap used after
+ * the last collection is then compared with {@link DashboardConfig#getMetricHeapBudgetPercent()} of the max heap:
+ * above it, the retention factor of the store is halved, down to {@link #MIN_RETENTION_FACTOR}, and the store
+ * swept again; below {@link #RELAX_RATIO} of it, the factor is doubled back up to 1. As the heap used after the
+ * last collection only reflects an eviction once the old generation is collected again, the factor is not shrunk
+ * again before a major collection has happened since the last shrink.
+ * </p>
+ */
+@Component
+public class MetricStoreGovernor {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricStoreGovernor.class);
+
+    static final double MIN_RETENTION_FACTOR = 0.125;
+    /**
+     * Share of the budget below which the retention is grown back.
+     */
+    static final double RELAX_RATIO = 0.75;
+
+    @Autowired
+    private MetricsRepository<MetricEntity> metricStore;
+
+    private final int budgetPercent;
+    private final LongSupplier usedHeap;
+    private final LongSupplier collections;
+    private final long maxHeap;
+
+    private volatile double retentionFactor = 1;
+    private volatile long lastSweepTime = -1;
+    private volatile long lastUsedHeap = -1;
+    /**
+     * Major collections counted at the last shrink, -1 before the first one.
+     */
+    private long shrinkCollections = -1;
+    private volatile SweepStats lastStats = new SweepStats();
+
+    private final LongAdder sweeps = new LongAdder();
+    private final LongAdder pressureSweeps = new LongAdder();
+    private final LongAdder evictedPoints = new LongAdder();
+    private final LongAdder evictedSeries = new LongAdder();
+    private final LongAdder evictedApps = new LongAdder();
+
+    private ScheduledExecutorService sweepService;
+
+    public MetricStoreGovernor() {
+        this(null, DashboardConfig.getMetricHeapBudgetPercent(), MetricStoreGovernor::usedHeapAfterCollection,
+            MetricStoreGovernor::majorCollections, Runtime.getRuntime().maxMemory());
+    }
+
+    MetricStoreGovernor(MetricsRepository<MetricEntity> metricStore, int budgetPercent, LongSupplier usedHeap,
+                        LongSupplier collections, long maxHeap) {
+        this.metricStore = metricStore;
+        this.budgetPercent = budgetPercent;
+        this.usedHeap = usedHeap;
+        this.collections = collections;
+        this.maxHeap = maxHeap;
+    }
+
+    @PostConstruct
+    @SuppressWarnings("PMD.ThreadPoolCreationRule")
+    public void start() {
+        long interval = DashboardConfig.getMetricSweepIntervalSeconds();
+        sweepService = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("sentinel-dashboard-metrics-sweep", true));
+        sweepService.scheduleWithFixedDelay(() -> {
+            try {
+                govern(System.currentTimeMillis());
+            } catch (Throwable t) {
+                logger.warn("Failed to sweep the metric store", t);
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (sweepService != null) {
+            sweepService.shutdownNow();
+        }
+    }
+
+    /**
+     * Sweep the store, then shrink or grow back its retention by the heap used.
+     */
+    synchronized void govern(long now) {
+        SweepStats stats = metricStore.sweep(now, retentionFactor);
+        long used = usedHeap.getAsLong();
+        double budget = maxHeap * (budgetPercent / 100.0);
+        if (used > budget && retentionFactor > MIN_RETENTION_FACTOR) {
+            long collected = collections.getAsLong();
+            if (collected == shrinkCollections) {
+                logger.debug("Heap used {} over the metric store budget {}, retention factor {} held until the "
+                    + "next major collection", used, (long)budget, retentionFactor);
+            } else {
+                retentionFactor = Math.max(MIN_RETENTION_FACTOR, retentionFactor / 2);
+                stats.add(metricStore.sweep(now, retentionFactor));
+                shrinkCollections = collected;
+                pressureSweeps.increment();
+                logger.warn("Heap used {} over the metric store budget {}, retention factor shrunk to {}, "
+                    + "evicted {}", used, (long)budget, retentionFactor, stats);
+            }
+        } else if (used < budget * RELAX_RATIO && retentionFactor < 1) {
+            retentionFactor = Math.min(1, retentionFactor * 2);
+            logger.info("Heap used {} back within the metric store budget {}, retention factor grown to {}",
+                used, (long)budget, retentionFactor);
+        }
+        sweeps.increment();
+        evictedPoints.add(stats.getEvictedPoints());
+        evictedSeries.add(stats.getEvictedSeries());
+        evictedApps.add(stats.getEvictedApps());
+        lastStats = stats;
+        lastUsedHeap = used;
+        lastSweepTime = now;
+    }
+
+    /**
+     * Heap used after the last collection of every heap pool, which unlike the current usage does not grow with
+     * garbage not collected yet. Pools not collected yet count with their current usage.
+     */
+    static long usedHeapAfterCollection() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP) {
+                continue;
+            }
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (usage == null || usage.getUsed() == 0) {
+                usage = pool.getUsage();
+            }
+            used += usage.getUsed();
+        }
+        return used;
+    }
+
+    /**
+     * Collections of the collectors managing the most heap pools, the ones collecting the old generation and thus
+     * updating its usage after collection.
+     */
+    static long majorCollections() {
+        int most = 0;
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            int pools = collector.getMemoryPoolNames().length;
+            long collections = Math.max(0, collector.getCollectionCount());
+            if (pools > most) {
+                most = pools;
+                count = collections;
+            } else if (pools == most) {
+                count += collections;
+            }
+        }
+        return count;
+    }
+
+    public double getRetentionFactor() {
+        return retentionFactor;
+    }
+
+    public int getBudgetPercent() {
+        return budgetPercent;
+    }
+
+    public long getMaxHeap() {
+        return maxHeap;
+    }
+
+    /**
+     * @return heap used at the last sweep, -1 before the first sweep
+     */
+    public long getLastUsedHeap() {
+        return lastUsedHeap;
+    }
+
+    /**
+     * @return time of the last sweep, -1 before the first sweep
+     */
+    public long getLastSweepTime() {
+        return lastSweepTime;
+    }
+
+    public SweepStats getLastStats() {
+        return lastStats;
+    }
+
+    public long getSweeps() {
+        return sweeps.sum();
+    }
+
+    public long getPressureSweeps() {
+        return pressureSweeps.sum();
+    }
+
+    public long getEvictedPoints() {
+        return evictedPoints.sum();
+    }
+
+    public long getEvictedSeries() {
+        return evictedSeries.sum();
+    }
+
+    public long getEvictedApps() {
+        return evictedApps.sum();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.MetricsRepository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Saves aggregated metrics, either as the complete metrics of their seconds or added to what is already saved.
+ * Metrics of resources over the limits of {@link CardinalityLimiter} are dropped or folded first. Writes and merges
+ * of the same app are serialized, so that a merge never reads a second that a write is replacing.
+ */
+@Component
+public class MetricWriter {
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    @Autowired
+    private MetricsRepository<MetricEntity> metricStore;
+    @Autowired
+    private CardinalityLimiter cardinalityLimiter;
+
+    public MetricWriter() {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    public MetricWriter(MetricsRepository<MetricEntity> metricStore) {
+        this(metricStore, new CardinalityLimiter());
+    }
+
+    public MetricWriter(MetricsRepository<MetricEntity> metricStore, CardinalityLimiter cardinalityLimiter) {
+        this();
+        this.metricStore = metricStore;
+        this.cardinalityLimiter = cardinalityLimiter;
+    }
+
+    /**
+     * Save the aggregation of seconds not saved yet. A metric saved for the same resource and second is
+     * replaced in the store, but still counted by the rollups; use {@link #merge} for seconds which may be saved.
+     */
+    public void write(MetricAggregation aggregation) {
+        if (aggregation.isEmpty()) {
+            return;
+        }
+        List<MetricEntity> entities = cardinalityLimiter.limit(aggregation.toEntities());
+        Date date = new Date();
+        for (MetricEntity entity : entities) {
+            entity.setGmtCreate(date);
+            entity.setGmtModified(date);
+        }
+        synchronized (lockOf(aggregation.getApp())) {
+            metricStore.saveAll(entities);
+        }
+    }
+
+    /**
+     * Add the aggregation to the metrics saved for the same resources and seconds, for machines whose metrics
+     * arrive after their seconds were saved.
+     */
+    public void merge(MetricAggregation aggregation) {
+        if (aggregation.isEmpty()) {
+            return;
+        }
+        List<MetricEntity> entities = cardinalityLimiter.limit(aggregation.toEntities());
+        synchronized (lockOf(aggregation.getApp())) {
+            doMerge(entities);
+        }
+    }
+
+    private void doMerge(List<MetricEntity> entities) {
+        Date date = new Date();
+        List<MetricEntity> replaced = new ArrayList<>(entities.size());
+        for (MetricEntity entity : entities) {
+            long time = entity.getTimestamp().getTime();
+            List<MetricEntity> saved = metricStore.queryByAppAndResourceBetween(entity.getApp(),
+                entity.getResource(), time, time);
+            MetricEntity old = saved.isEmpty() ? null : saved.get(0);
+            replaced.add(old);
+            entity.setGmtCreate(date);
+            if (old != null) {
+                entity.setGmtCreate(old.getGmtCreate());
+                entity.setPassQps(entity.getPassQps() + old.getPassQps());
+                entity.setBlockQps(entity.getBlockQps() + old.getBlockQps());
+                entity.setSuccessQps(entity.getSuccessQps() + old.getSuccessQps());
+                entity.setExceptionQps(entity.getExceptionQps() + old.getExceptionQps());
+                entity.setRt(entity.getRt() + old.getRt());
+                entity.setCount(entity.getCount() + old.getCount());
+            }
+            entity.setGmtModified(date);
+        }
+        metricStore.saveAll(entities, replaced);
+    }
+
+    private Object lockOf(String app) {
+        return locks[(app.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>Streaming decoder for the thin metric format returned by the {@code metric} command of Sentinel clients:</p>
+ * <pre>
+ * timestamp|resource|passQps|blockQps|successQps|exceptionQps|rt[|occupiedPassQps|concurrency|classification]
+ * </pre>
+ * <p>
+ * Lines are parsed straight from the response bytes into primitives. Resource names are resolved through a
+ * content-addressed cache, so decoding a body of already known resources does not allocate per line.
+ * Lines without any field separator (e.g. {@code No metrics}) are skipped.
+ * </p>
+ */
+public class ThinMetricDecoder {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int DEFAULT_NAME_CACHE_SIZE = 1 << 14;
+
+    private static final int FIELD_TIMESTAMP = 0;
+    private static final int FIELD_RESOURCE = 1;
+    private static final int FIELD_PASS_QPS = 2;
+    private static final int FIELD_BLOCK_QPS = 3;
+    private static final int FIELD_SUCCESS_QPS = 4;
+    private static final int FIELD_EXCEPTION_QPS = 5;
+    private static final int FIELD_RT = 6;
+    /**
+     * Fields after rt are optional and ignored by the dashboard.
+     */
+    private static final int REQUIRED_FIELDS = 7;
+
+    private final ResourceNameCache nameCache;
+
+    public ThinMetricDecoder() {
+        this(DEFAULT_NAME_CACHE_SIZE);
+    }
+
+    public ThinMetricDecoder(int nameCacheSize) {
+        this.nameCache = new ResourceNameCache(nameCacheSize);
+    }
+
+    /**
+     * Decode all metric lines of the stream. The stream is read until the end but not closed.
+     *
+     * @param in      stream of the response body
+     * @param charset charset of resource names
+     * @param handler receives every valid metric line
+     * @return statistics of the decoded body
+     * @throws IOException if reading the stream fails
+     */
+    public Result decode(InputStream in, Charset charset, MetricHandler handler) throws IOException {
+        LineParser parser = new LineParser(charset, handler);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            parser.bytes += n;
+            for (int i = 0; i < n; i++) {
+                parser.accept(buffer[i]);
+            }
+        }
+        parser.endOfStream();
+        return parser;
+    }
+
+    /**
+     * Decode metric lines of a byte array, see {@link #decode(InputStream, Charset, MetricHandler)}.
+     */
+    public Result decode(byte[] body, int offset, int length, Charset charset, MetricHandler handler) {
+        LineParser parser = new LineParser(charset, handler);
+        parser.bytes = length;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            parser.accept(body[i]);
+        }
+        parser.endOfStream();
+        return parser;
+    }
+
+    /**
+     * Receiver of decoded metric lines. Implementations may be invoked from several I/O threads concurrently.
+     */
+    public interface MetricHandler {
+
+        /**
+         * @param resource     resource name
+         * @param timestamp    timestamp of the metric in milliseconds
+         * @param passQps      pass QPS
+         * @param blockQps     block QPS
+         * @param successQps   success QPS
+         * @param exceptionQps exception QPS
+         * @param rt           average rt of the success QPS
+         */
+        void onMetric(String resource, long timestamp, long passQps, long blockQps, long successQps,
+                      long exceptionQps, long rt);
+    }
+
+    /**
+     * Statistics of one decoded body.
+     */
+    public interface Result {
+
+        /**
+         * @return count of valid metric lines passed to the handler
+         */
+        int getLines();
+
+        /**
+         * @return count of lines that could not be parsed
+         */
+        int getMalformedLines();
+
+        /**
+         * @return count of bytes read
+         */
+        long getBytes();
+    }
+
+    private final class LineParser implements Result {
+
+        private final Charset charset;
+        private final MetricHandler handler;
+
+        private final long[] values = new long[REQUIRED_FIELDS];
+        private byte[] name = new byte[128];
+        private int nameLength;
+
+        private int field;
+        private long value;
+        private boolean hasContent;
+        private boolean malformed;
+
+        private int lines;
+        private int malformedLines;
+        private long bytes;
+
+        LineParser(Charset charset, MetricHandler handler) {
+            this.charset = charset;
+            this.handler = handler;
+        }
+
+        void accept(byte b) {
+            switch (b) {
+                case '\n':
+                    endLine();
+                    break;
+                case '\r':
+                    break;
+                case '|':
+                    endField();
+                    break;
+                default:
+                    if (malformed || field >= REQUIRED_FIELDS) {
+                        return;
+                    }
+                    if (field == FIELD_RESOURCE) {
+                        appendName(b);
+                    } else if (b >= '0' && b <= '9') {
+                        value = value * 10 + (b - '0');
+                        hasContent = true;
+                    } else {
+                        malformed = true;
+                    }
+            }
+        }
+
+        private void appendName(byte b) {
+            if (nameLength == name.length) {
+                byte[] newName = new byte[name.length << 1];
+                System.arraycopy(name, 0, newName, 0, nameLength);
+                name = newName;
+            }
+            name[nameLength++] = b;
+            hasContent = true;
+        }
+
+        private void endField() {
+            if (field < REQUIRED_FIELDS) {
+                if (!hasContent) {
+                    malformed = true;
+                } else if (field != FIELD_RESOURCE) {
+                    values[field] = value;
+                }
+            }
+            field++;
+            value = 0;
+            hasContent = false;
+        }
+
+        private void endLine() {
+            if (field == 0) {
+                // Blank line or status message such as "No metrics".
+                reset();
+                return;
+            }
+            endField();
+            if (malformed || field < REQUIRED_FIELDS) {
+                malformedLines++;
+            } else {
+                String resource = nameCache.resolve(name, nameLength, charset);
+                handler.onMetric(resource, values[FIELD_TIMESTAMP], values[FIELD_PASS_QPS],
+                    values[FIELD_BLOCK_QPS], values[FIELD_SUCCESS_QPS], values[FIELD_EXCEPTION_QPS],
+                    values[FIELD_RT]);
+                lines++;
+            }
+            reset();
+        }
+
+        void endOfStream() {
+            if (field > 0 || hasContent) {
+                endLine();
+            }
+        }
+
+        private void reset() {
+            field = 0;
+            value = 0;
+            hasContent = false;
+            malformed = false;
+            nameLength = 0;
+        }
+
+        @Override
+        public int getLines() {
+            return lines;
+        }
+
+        @Override
+        public int getMalformedLines() {
+            return malformedLines;
+        }
+
+        @Override
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+    /**
+     * Direct-mapped cache from the encoded bytes of a resource name to the name. Entries are immutable, so
+     * concurrent decoders may race on a slot without corrupting it; a lost race only costs a cache miss.
+     */
+    static final class ResourceNameCache {
+
+        private final AtomicReferenceArray<Entry> table;
+        private final int mask;
+
+        ResourceNameCache(int size) {
+            int capacity = Integer.highestOneBit(Math.max(size, 16) - 1) << 1;
+            this.table = new AtomicReferenceArray<>(capacity);
+            this.mask = capacity - 1;
+        }
+
+        String resolve(byte[] bytes, int length, Charset charset) {
+            int hash = 1;
+            for (int i = 0; i < length; i++) {
+                hash = 31 * hash + bytes[i];
+            }
+            int index = (hash ^ (hash >>> 16)) & mask;
+            Entry entry = table.get(index);
+            if (entry != null && entry.hash == hash && entry.matches(bytes, length)) {
+                return entry.name;
+            }
+            byte[] key = new byte[length];
+            System.arraycopy(bytes, 0, key, 0, length);
+            String name = new String(key, charset);
+            table.lazySet(index, new Entry(key, hash, name));
+            return name;
+        }
+
+        private static final class Entry {
+            private final byte[] bytes;
+            private final int hash;
+            private final String name;
+
+            Entry(byte[] bytes, int hash, String name) {
+                this.bytes = bytes;
+                this.hash = hash;
+                this.name = name;
+            }
+
+            boolean matches(byte[] other, int length) {
+                if (bytes.length != length) {
+                    return false;
+                }
+                for (int i = 0; i < length; i++) {
+                    if (bytes[i] != other[i]) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Append-only segment file receiving the metric seconds of one app and one hour, see {@link SegmentRecords}.</p>
+ * <p>
+ * Records are appended in write order; a second written again is appended again and the last record wins. The
+ * positions of every resource are indexed in memory with the offset of their second in the hour, and records
+ * are read through a memory mapping of the file that is extended as the file grows. On open, the file is scanned
+ * and truncated after its last complete and valid record, so a crash in the middle of an append loses at most
+ * that append.
+ * </p>
+ */
+final class ActiveSegment {
+
+    private static final Logger logger = LoggerFactory.getLogger(ActiveSegment.class);
+
+    private static final int SCAN_BUFFER_RECORDS = 1024;
+
+    private final File file;
+    private final long startSecond;
+    private final FileChannel channel;
+
+    /**
+     * {@code resourceId -> positions}, guarded by {@code this}.
+     */
+    private final Map<Integer, SeriesIndex> index = new HashMap<>();
+    private int records;
+    private MappedByteBuffer mapped;
+    private boolean dirty;
+    private boolean closed;
+
+    private ActiveSegment(File file, long startSecond, FileChannel channel) {
+        this.file = file;
+        this.startSecond = startSecond;
+        this.channel = channel;
+    }
+
+    /**
+     * Open or create the segment, recovering the records it already holds.
+     *
+     * @param knownResources tells whether a resource id was persisted, records of unknown ids end the recovery
+     */
+    static ActiveSegment open(File file, long startSecond, IntFunction<Boolean> knownResources) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        ActiveSegment segment = new ActiveSegment(file, startSecond, channel);
+        try {
+            segment.recover(knownResources);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return segment;
+    }
+
+    private void recover(IntFunction<Boolean> knownResources) throws IOException {
+        long size = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate(SegmentRecords.SIZE * SCAN_BUFFER_RECORDS);
+        long position = 0;
+        scan:
+        while (position + SegmentRecords.SIZE <= size) {
+            buffer.clear();
+            while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0) {
+                // Fill the buffer.
+            }
+            int complete = buffer.position() / SegmentRecords.SIZE;
+            for (int i = 0; i < complete; i++) {
+                int offset = i * SegmentRecords.SIZE;
+                long second = SegmentRecords.second(buffer, offset);
+                int id = SegmentRecords.resourceId(buffer, offset);
+                if (!SegmentRecords.isValid(buffer, offset) || !contains(second) || !knownResources.apply(id)) {
+                    break scan;
+                }
+                indexRecord(id, records++, second);
+                position += SegmentRecords.SIZE;
+            }
+            if (complete == 0) {
+                break;
+            }
+        }
+        if (position < size) {
+            logger.warn("Metric segment {} truncated from {} to {} bytes after an incomplete write", file, size,
+                position);
+            channel.truncate(position);
+            channel.force(true);
+        }
+    }
+
+    boolean contains(long second) {
+        return second >= startSecond && second < startSecond + SegmentRecords.SECONDS_PER_SEGMENT;
+    }
+
+    /**
+     * Append records encoded by {@link SegmentRecords#put}, all within the hour of this segment.
+     */
+    synchronized void append(ByteBuffer batch) throws IOException {
+        if (closed) {
+            throw new IOException("segment closed: " + file);
+        }
+        int count = batch.remaining() / SegmentRecords.SIZE;
+        int start = batch.position();
+        long position = (long)records * SegmentRecords.SIZE;
+        ByteBuffer toWrite = batch.duplicate();
+        while (toWrite.hasRemaining()) {
+            position += channel.write(toWrite, position);
+        }
+        for (int i = 0; i < count; i++) {
+            int offset = start + i * SegmentRecords.SIZE;
+            indexRecord(SegmentRecords.resourceId(batch, offset), records++, SegmentRecords.second(batch, offset));
+        }
+        dirty = true;
+    }
+
+    /**
+     * Put the seconds of the resource within {@code [fromSecond, toSecond]} into {@code out}, replacing the
+     * seconds already there.
+     */
+    synchronized void read(int resourceId, long fromSecond, long toSecond, String app, String resource,
+                           Map<Long, MetricEntity> out) throws IOException {
+        SeriesIndex series = index.get(resourceId);
+        if (series == null || closed) {
+            return;
+        }
+        long limit = (long)records * SegmentRecords.SIZE;
+        if (mapped == null || mapped.capacity() < limit) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, limit);
+        }
+        for (int i = 0; i < series.size; i++) {
+            long second = startSecond + series.offsets[i];
+            if (second >= fromSecond && second <= toSecond) {
+                MetricEntity entity = SegmentRecords.toEntity(mapped, series.positions[i] * SegmentRecords.SIZE,
+                    app, resource);
+                out.put(second, entity);
+            }
+        }
+    }
+
+    /**
+     * @return read-only mapping of all records, for compaction
+     */
+    synchronized ByteBuffer mapRecords() throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, (long)records * SegmentRecords.SIZE);
+    }
+
+    synchronized int getRecords() {
+        return records;
+    }
+
+    /**
+     * Sync the records appended since the last sync. The sync does not hold the monitor, so appends and reads of
+     * the segment go on meanwhile.
+     */
+    void force() throws IOException {
+        synchronized (this) {
+            if (!dirty || closed) {
+                return;
+            }
+            dirty = false;
+        }
+        try {
+            channel.force(false);
+        } catch (ClosedChannelException e) {
+            // Closed in between by a compaction or the retention, which are done with the file.
+        } catch (IOException e) {
+            synchronized (this) {
+                dirty = true;
+            }
+            throw e;
+        }
+    }
+
+    synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            mapped = null;
+            channel.close();
+        }
+    }
+
+    long getStartSecond() {
+        return startSecond;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    private void indexRecord(int resourceId, int position, long second) {
+        index.computeIfAbsent(resourceId, k -> new SeriesIndex()).add(position, (short)(second - startSecond));
+    }
+
+    private static final class SeriesIndex {
+
+        private int[] positions = new int[16];
+        private short[] offsets = new short[16];
+        private int size;
+
+        void add(int position, short offset) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size << 1);
+                offsets = Arrays.copyOf(offsets, size << 1);
+            }
+            positions[size] = position;
+            offsets[size] = offset;
+            size++;
+        }
+    }
+}
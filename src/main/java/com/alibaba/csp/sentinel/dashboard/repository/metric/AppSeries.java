@@ -0,0 +1,178 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+
+/**
+ * <p>Series of the resources of one app, indexed by the id of the resource in the dictionary of the app.</p>
+ * <p>
+ * The series array is copied on growth and published through a volatile field, so it is read without locking;
+ * only creating or evicting a series takes the lock of the app. A series swept empty retires itself under its own
+ * monitor and is replaced by the next writer. An app swept without series is retired, and its writers retry with
+ * a new one.
+ * </p>
+ * <p>
+ * The id of an evicted series is released from the dictionary under the lock of the app, and reused by the next
+ * new resource. A series found by name stays the one of the resource until it is retired, so writers holding a
+ * series which is not retired under its monitor write to the right resource, even if they looked its id up
+ * before the id was released and reused.
+ * </p>
+ *
+ * @param <S> type of the series
+ */
+class AppSeries<S extends AppSeries.ResourceSeries> {
+
+    /**
+     * Series of one resource, which can be retired by a sweep.
+     */
+    abstract static class ResourceSeries {
+
+        private final int id;
+        /**
+         * Set under the monitor of the series once it is swept empty, it must not be written anymore.
+         */
+        protected volatile boolean retired;
+
+        protected ResourceSeries(int id) {
+            this.id = id;
+        }
+
+        /**
+         * @return id of the resource in the dictionary of the app, while the series is not retired
+         */
+        int getId() {
+            return id;
+        }
+
+        boolean isRetired() {
+            return retired;
+        }
+    }
+
+    private final ResourceDictionary dictionary = new ResourceDictionary();
+    private final IntFunction<S> seriesFactory;
+    private final IntFunction<S[]> arrayFactory;
+
+    private volatile S[] series;
+    private volatile boolean retired;
+
+    AppSeries(IntFunction<S> seriesFactory, IntFunction<S[]> arrayFactory) {
+        this.seriesFactory = seriesFactory;
+        this.arrayFactory = arrayFactory;
+        this.series = arrayFactory.apply(16);
+    }
+
+    ResourceDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * @return upper bound of the ids with a series
+     */
+    int size() {
+        return Math.min(dictionary.size(), series.length);
+    }
+
+    S getSeries(int id) {
+        S[] current = series;
+        return id >= 0 && id < current.length ? current[id] : null;
+    }
+
+    /**
+     * @return series of the resource, created if absent or retired, or null if the app is retired
+     */
+    S seriesOf(String resource) {
+        int id = dictionary.find(resource);
+        S metrics = getSeries(id);
+        // A series read before the check is the one of the resource unless retired, as ids are only reused
+        // once their series is retired.
+        if (metrics != null && !metrics.isRetired() && resource.equals(dictionary.nameOf(id))) {
+            return metrics;
+        }
+        synchronized (this) {
+            if (retired) {
+                return null;
+            }
+            // Interned under the lock, so that the id is not released before its series is published.
+            id = dictionary.intern(resource);
+            S[] current = series;
+            if (id >= current.length) {
+                S[] grown = arrayFactory.apply(Math.max(current.length << 1, id + 1));
+                System.arraycopy(current, 0, grown, 0, current.length);
+                current = grown;
+            }
+            metrics = current[id];
+            if (metrics == null || metrics.isRetired()) {
+                metrics = seriesFactory.apply(id);
+                current[id] = metrics;
+                created(id);
+            }
+            // Republish so that readers see the new series.
+            series = current;
+            return metrics;
+        }
+    }
+
+    /**
+     * Evict the series for which {@code expire} returns true, {@code expire} having retired them, and release
+     * their ids.
+     *
+     * @return true if the app has no series left and is retired
+     */
+    boolean sweep(Predicate<S> expire, SweepStats stats) {
+        S[] current = series;
+        for (int id = 0; id < current.length; id++) {
+            S metrics = current[id];
+            if (metrics != null && expire.test(metrics)) {
+                stats.addSeries(1);
+                remove(id, metrics);
+            }
+        }
+        synchronized (this) {
+            for (S metrics : series) {
+                if (metrics != null) {
+                    return false;
+                }
+            }
+            retired = true;
+            return true;
+        }
+    }
+
+    private synchronized void remove(int id, S metrics) {
+        S[] current = series;
+        if (current[id] == metrics) {
+            current[id] = null;
+            series = current;
+            removed(id);
+            dictionary.release(id);
+        }
+    }
+
+    /**
+     * Called under the lock of the app when a series is created for the resource.
+     */
+    protected void created(int id) {
+    }
+
+    /**
+     * Called under the lock of the app when the series of the resource is evicted, before its id is released.
+     */
+    protected void removed(int id) {
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+
+/**
+ * <p>Immutable, memory-mapped segment of one app and one hour, written by compacting an {@link ActiveSegment}
+ * and the previous compacted segment of the hour, if any.</p>
+ * <pre>
+ * header:   magic(4) version(4) startSecond(8) records(4) resources(4) indexOffset(8)
+ * records:  sorted by resource id and second, one per second, see {@link SegmentRecords}
+ * index:    per resource, sorted by id: resourceId(4) firstRecord(4) records(4)
+ * </pre>
+ * <p>
+ * A range read finds the block of the resource in the index and the first second in the block by binary search,
+ * then reads the block sequentially. Segments are written to a temporary file, synced and renamed, so a crash
+ * leaves either the old or the new segment.
+ * </p>
+ */
+final class CompactedSegment {
+
+    private static final int MAGIC = 0x534d5347;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int INDEX_ENTRY_SIZE = 12;
+    private static final int WRITE_BUFFER_SIZE = SegmentRecords.SIZE * 1024;
+
+    private final File file;
+    private final long startSecond;
+    private final ByteBuffer buffer;
+    private final int records;
+    private final int resources;
+    private final int indexOffset;
+
+    private CompactedSegment(File file, ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("not a compacted metric segment: " + file);
+        }
+        this.startSecond = buffer.getLong(8);
+        this.records = buffer.getInt(16);
+        this.resources = buffer.getInt(20);
+        long offset = buffer.getLong(24);
+        if (offset != HEADER_SIZE + (long)records * SegmentRecords.SIZE
+            || buffer.capacity() != offset + (long)resources * INDEX_ENTRY_SIZE) {
+            throw new IOException("corrupted compacted metric segment: " + file);
+        }
+        this.indexOffset = (int)offset;
+    }
+
+    static CompactedSegment open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new CompactedSegment(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Put the seconds of the resource within {@code [fromSecond, toSecond]} into {@code out}.
+     */
+    void read(int resourceId, long fromSecond, long toSecond, String app, String resource,
+              Map<Long, MetricEntity> out) {
+        int entry = findResource(resourceId);
+        if (entry < 0) {
+            return;
+        }
+        int first = buffer.getInt(indexOffset + entry * INDEX_ENTRY_SIZE + 4);
+        int end = first + buffer.getInt(indexOffset + entry * INDEX_ENTRY_SIZE + 8);
+        // First record of the block at or after fromSecond.
+        int low = first;
+        int high = end;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (SegmentRecords.second(buffer, offsetOf(mid)) < fromSecond) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int i = low; i < end; i++) {
+            long second = SegmentRecords.second(buffer, offsetOf(i));
+            if (second > toSecond) {
+                break;
+            }
+            out.put(second, SegmentRecords.toEntity(buffer, offsetOf(i), app, resource));
+        }
+    }
+
+    private int findResource(int resourceId) {
+        int low = 0;
+        int high = resources - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int id = buffer.getInt(indexOffset + mid * INDEX_ENTRY_SIZE);
+            if (id < resourceId) {
+                low = mid + 1;
+            } else if (id > resourceId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private static int offsetOf(int record) {
+        return HEADER_SIZE + record * SegmentRecords.SIZE;
+    }
+
+    long getStartSecond() {
+        return startSecond;
+    }
+
+    int getRecords() {
+        return records;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Merge the previous compacted segment of the hour (may be null) and the records of the active segment into
+     * a new compacted segment, keeping the last record of every resource and second.
+     */
+    static CompactedSegment compact(File target, long startSecond, CompactedSegment previous, ByteBuffer active,
+                                    int activeRecords) throws IOException {
+        int previousRecords = previous == null ? 0 : previous.records;
+        int total = previousRecords + activeRecords;
+        // Records sorted by resourceId(32 bits) | sequence(32 bits). Records of the previous segment come first in
+        // sequence, so the last record of a second is the latest one.
+        long[] byResource = new long[total];
+        for (int i = 0; i < total; i++) {
+            int id = SegmentRecords.resourceId(i < previousRecords ? previous.buffer : active,
+                recordOffset(i, previousRecords));
+            if (id < 0) {
+                throw new IOException("invalid resource id: " + id);
+            }
+            byResource[i] = ((long)id << 32) | i;
+        }
+        Arrays.sort(byResource);
+
+        File tmp = new File(target.getPath() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer chunk = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+            long position = HEADER_SIZE;
+            int[] indexIds = new int[16];
+            int[] indexFirst = new int[16];
+            int resources = 0;
+            int written = 0;
+            long[] seconds = new long[16];
+            for (int first = 0, end; first < total; first = end) {
+                int id = (int)(byResource[first] >>> 32);
+                end = first + 1;
+                while (end < total && (int)(byResource[end] >>> 32) == id) {
+                    end++;
+                }
+                // Records of the resource sorted by second in the hour(12 bits) | sequence(31 bits).
+                int size = end - first;
+                if (seconds.length < size) {
+                    seconds = new long[Math.max(size, seconds.length << 1)];
+                }
+                for (int i = 0; i < size; i++) {
+                    int sequence = (int)byResource[first + i];
+                    long second = SegmentRecords.second(sequence < previousRecords ? previous.buffer : active,
+                        recordOffset(sequence, previousRecords)) - startSecond;
+                    seconds[i] = (second << 31) | sequence;
+                }
+                Arrays.sort(seconds, 0, size);
+                if (resources == indexIds.length) {
+                    indexIds = Arrays.copyOf(indexIds, resources << 1);
+                    indexFirst = Arrays.copyOf(indexFirst, resources << 1);
+                }
+                indexIds[resources] = id;
+                indexFirst[resources] = written;
+                resources++;
+                for (int i = 0; i < size; i++) {
+                    if (i + 1 < size && seconds[i + 1] >>> 31 == seconds[i] >>> 31) {
+                        // A later record of the same second follows.
+                        continue;
+                    }
+                    int sequence = (int)(seconds[i] & Integer.MAX_VALUE);
+                    int offset = recordOffset(sequence, previousRecords);
+                    ByteBuffer record = (sequence < previousRecords ? previous.buffer : active).duplicate();
+                    record.limit(offset + SegmentRecords.SIZE).position(offset);
+                    if (chunk.remaining() < SegmentRecords.SIZE) {
+                        position = flush(out, chunk, position);
+                    }
+                    chunk.put(record);
+                    written++;
+                }
+            }
+            position = flush(out, chunk, position);
+            long indexOffset = position;
+            for (int r = 0; r < resources; r++) {
+                if (chunk.remaining() < INDEX_ENTRY_SIZE) {
+                    position = flush(out, chunk, position);
+                }
+                int next = r + 1 < resources ? indexFirst[r + 1] : written;
+                chunk.putInt(indexIds[r]).putInt(indexFirst[r]).putInt(next - indexFirst[r]);
+            }
+            flush(out, chunk, position);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(startSecond).putInt(written).putInt(resources)
+                .putLong(indexOffset);
+            flush(out, header, 0);
+            out.force(true);
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        return open(target);
+    }
+
+    /**
+     * @return offset of the record of the sequence in the previous segment or in the active records
+     */
+    private static int recordOffset(int sequence, int previousRecords) {
+        return sequence < previousRecords ? offsetOf(sequence) : (sequence - previousRecords) * SegmentRecords.SIZE;
+    }
+
+    /**
+     * Write the bytes put into the chunk, {@code [0, position)}, at {@code position} of the file and clear it.
+     */
+    private static long flush(FileChannel out, ByteBuffer chunk, long position) throws IOException {
+        chunk.flip();
+        while (chunk.hasRemaining()) {
+            position += out.write(chunk, position);
+        }
+        chunk.clear();
+        return position;
+    }
+}
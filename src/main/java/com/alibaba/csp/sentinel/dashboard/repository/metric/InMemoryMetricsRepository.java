@@ -18,56 +18,98 @@ package com.alibaba.csp.sentinel.dashboard.repository.metric;
 import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
 import com.alibaba.csp.sentinel.util.StringUtil;
 import com.alibaba.csp.sentinel.util.TimeUtil;
-import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 
 /**
  * Caches metrics data in a period of time in memory.
+ * <p>
+ * The metrics of the last {@link #OPEN_WINDOW_MS} of a series are kept as they were saved. Older minutes are
+ * sealed into {@link MetricChunk}s, which take a few bytes per metric, and kept for the history of the
+ * repository. A metric saved late for a sealed minute, as the backfill does, is encoded again into the chunk of
+ * its minute; metrics older than the history are dropped.
+ * </p>
+ * <p>
+ * Resource names are interned per app by a {@link ResourceDictionary}, and series are indexed by the resource
+ * id. Names are only looked up on the way in and resolved back when listing resources.
+ * </p>
+ * <p>
+ * There is no repository-wide lock: every series is guarded by its own monitor, so writers and readers of
+ * different apps and resources never wait for each other. The resource listing reads the open metrics of the
+ * series, a concurrent sorted map, without locking.
+ * </p>
+ * <p>
+ * Writes only seal and trim the series written. Series of resources which stopped reporting, and apps left without
+ * series, are evicted by {@link #sweep(long, double)}: a swept series or app is retired under its monitor, and
+ * writers finding it retired retry with a new one. The ids of evicted series are released from the dictionary of the
+ * app and reused by new resources.
+ * </p>
  *
  * @author Carpenter Lee
  * @author Eric Zhao
  */
-@Component
 public class InMemoryMetricsRepository implements MetricsRepository<MetricEntity> {
 
-    private static final long MAX_METRIC_LIVE_TIME_MS = 1000 * 60 * 5;
+    /**
+     * Metrics of this period are kept as saved, and can still be replaced.
+     */
+    static final long OPEN_WINDOW_MS = 1000 * 60 * 5;
+    static final long CHUNK_MS = 1000 * 60;
 
     /**
-     * {@code app -> resource -> timestamp -> metric}
+     * {@code app -> resourceId -> series}
      */
-    private Map<String, Map<String, LinkedHashMap<Long, MetricEntity>>> allMetrics = new ConcurrentHashMap<>();
+    private Map<String, AppSeries<Series>> allMetrics = new ConcurrentHashMap<>();
 
-    private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+    private final long historyMs;
 
+    public InMemoryMetricsRepository() {
+        this(5);
+    }
+
+    /**
+     * @param historyMinutes minutes of metrics kept, the last 5 as saved and the older ones sealed
+     */
+    public InMemoryMetricsRepository(int historyMinutes) {
+        this.historyMs = Math.max(OPEN_WINDOW_MS, TimeUnit.MINUTES.toMillis(historyMinutes));
+    }
+
+    /**
+     * @return how long the metrics can be queried, in seconds
+     */
+    public long getRetentionSeconds() {
+        return historyMs / 1000;
+    }
 
     @Override
     public void save(MetricEntity entity) {
-        if (entity == null || StringUtil.isBlank(entity.getApp())) {
+        if (entity == null || StringUtil.isBlank(entity.getApp()) || entity.getResource() == null) {
             return;
         }
-        readWriteLock.writeLock().lock();
-        try {
-            allMetrics.computeIfAbsent(entity.getApp(), e -> new HashMap<>(16))
-                    .computeIfAbsent(entity.getResource(), e -> new LinkedHashMap<Long, MetricEntity>() {
-                        @Override
-                        protected boolean removeEldestEntry(Entry<Long, MetricEntity> eldest) {
-                            // Metric older than {@link #MAX_METRIC_LIVE_TIME_MS} will be removed.
-                            return eldest.getKey() < TimeUtil.currentTimeMillis() - MAX_METRIC_LIVE_TIME_MS;
-                        }
-                    }).put(entity.getTimestamp().getTime(), entity);
-        } finally {
-            readWriteLock.writeLock().unlock();
+        while (true) {
+            AppSeries<Series> appMetrics = allMetrics.computeIfAbsent(entity.getApp(),
+                e -> new AppSeries<>(Series::new, Series[]::new));
+            Series series;
+            while ((series = appMetrics.seriesOf(entity.getResource())) != null) {
+                entity.setResourceCode(series.getId());
+                if (series.put(entity.getTimestamp().getTime(), entity, historyMs)) {
+                    return;
+                }
+            }
+            // Retired by a sweep in between.
+            allMetrics.remove(entity.getApp(), appMetrics);
         }
-
     }
 
     @Override
@@ -75,39 +117,43 @@ public class InMemoryMetricsRepository implements MetricsRepository<MetricEntity
         if (metrics == null) {
             return;
         }
-        readWriteLock.writeLock().lock();
-        try {
-            metrics.forEach(this::save);
-        } finally {
-            readWriteLock.writeLock().unlock();
-        }
+        metrics.forEach(this::save);
     }
 
     @Override
     public List<MetricEntity> queryByAppAndResourceBetween(String app, String resource,
                                                            long startTime, long endTime) {
         List<MetricEntity> results = new ArrayList<>();
-        if (StringUtil.isBlank(app)) {
+        if (StringUtil.isBlank(app) || endTime < startTime) {
             return results;
         }
-        Map<String, LinkedHashMap<Long, MetricEntity>> resourceMap = allMetrics.get(app);
-        if (resourceMap == null) {
-            return results;
+        read(app, allMetrics.get(app), resource, startTime, endTime, results);
+        return results;
+    }
+
+    @Override
+    public Map<String, List<MetricEntity>> queryByAppAndResourcesBetween(String app, Collection<String> resources,
+                                                                         long startTime, long endTime,
+                                                                         int maxPoints) {
+        AppSeries<Series> appMetrics = StringUtil.isBlank(app) || endTime < startTime ? null : allMetrics.get(app);
+        Map<String, List<MetricEntity>> results = new LinkedHashMap<>();
+        for (String resource : resources) {
+            List<MetricEntity> metrics = new ArrayList<>();
+            read(app, appMetrics, resource, startTime, endTime, metrics);
+            results.put(resource, metrics);
         }
-        LinkedHashMap<Long, MetricEntity> metricsMap = resourceMap.get(resource);
-        if (metricsMap == null) {
-            return results;
+        return results;
+    }
+
+    private static void read(String app, AppSeries<Series> appMetrics, String resource, long startTime,
+                             long endTime, List<MetricEntity> results) {
+        if (appMetrics == null) {
+            return;
         }
-        readWriteLock.readLock().lock();
-        try {
-            for (Entry<Long, MetricEntity> entry : metricsMap.entrySet()) {
-                if (entry.getKey() >= startTime && entry.getKey() <= endTime) {
-                    results.add(entry.getValue());
-                }
-            }
-            return results;
-        } finally {
-            readWriteLock.readLock().unlock();
+        int id = appMetrics.getDictionary().find(resource);
+        Series series = id == ResourceDictionary.UNKNOWN ? null : appMetrics.getSeries(id);
+        if (series != null) {
+            series.read(app, resource, id, startTime, endTime, results);
         }
     }
 
@@ -117,50 +163,176 @@ public class InMemoryMetricsRepository implements MetricsRepository<MetricEntity
         if (StringUtil.isBlank(app)) {
             return results;
         }
-        // resource -> timestamp -> metric
-        Map<String, LinkedHashMap<Long, MetricEntity>> resourceMap = allMetrics.get(app);
-        if (resourceMap == null) {
+        // resourceId -> timestamp -> metric
+        AppSeries<Series> appMetrics = allMetrics.get(app);
+        if (appMetrics == null) {
             return results;
         }
         final long minTimeMs = System.currentTimeMillis() - 1000 * 60;
-        Map<String, MetricEntity> resourceCount = new ConcurrentHashMap<>(32);
-
-        readWriteLock.readLock().lock();
-        try {
-            for (Entry<String, LinkedHashMap<Long, MetricEntity>> resourceMetrics : resourceMap.entrySet()) {
-                for (Entry<Long, MetricEntity> metrics : resourceMetrics.getValue().entrySet()) {
-                    if (metrics.getKey() < minTimeMs) {
-                        continue;
+
+        int size = appMetrics.size();
+        // Summary of the last minute, indexed by resource id.
+        long[] passQps = new long[size];
+        long[] blockQps = new long[size];
+        boolean[] present = new boolean[size];
+        for (int id = 0; id < size; id++) {
+            Series series = appMetrics.getSeries(id);
+            if (series == null) {
+                continue;
+            }
+            for (MetricEntity entity : series.metrics.tailMap(minTimeMs).values()) {
+                passQps[id] += entity.getPassQps();
+                blockQps[id] += entity.getBlockQps();
+                present[id] = true;
+            }
+        }
+        // Order by last minute b_qps DESC.
+        IntStream.range(0, size)
+                .filter(id -> present[id])
+                .boxed()
+                .sorted((id1, id2) -> {
+                    int t = Long.compare(blockQps[id2], blockQps[id1]);
+                    if (t != 0) {
+                        return t;
                     }
-                    MetricEntity newEntity = metrics.getValue();
-                    if (resourceCount.containsKey(resourceMetrics.getKey())) {
-                        MetricEntity oldEntity = resourceCount.get(resourceMetrics.getKey());
-                        oldEntity.addPassQps(newEntity.getPassQps());
-                        oldEntity.addRtAndSuccessQps(newEntity.getRt(), newEntity.getSuccessQps());
-                        oldEntity.addBlockQps(newEntity.getBlockQps());
-                        oldEntity.addExceptionQps(newEntity.getExceptionQps());
-                        oldEntity.addCount(1);
-                    } else {
-                        resourceCount.put(resourceMetrics.getKey(), MetricEntity.copyOf(newEntity));
+                    return Long.compare(passQps[id2], passQps[id1]);
+                })
+                .forEach(id -> results.add(appMetrics.getDictionary().nameOf(id)));
+        return results;
+    }
+
+    @Override
+    public SweepStats sweep(long now, double retentionFactor) {
+        SweepStats stats = new SweepStats();
+        long expireTime = now - (long)(historyMs * retentionFactor);
+        for (Entry<String, AppSeries<Series>> entry : allMetrics.entrySet()) {
+            AppSeries<Series> appMetrics = entry.getValue();
+            if (appMetrics.sweep(series -> series.expire(now - OPEN_WINDOW_MS, expireTime, stats), stats)) {
+                allMetrics.remove(entry.getKey(), appMetrics);
+                stats.addApps(1);
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * @return resource dictionary of the app, or null if no metric of the app has been saved
+     */
+    public ResourceDictionary getResourceDictionary(String app) {
+        AppSeries<Series> appMetrics = allMetrics.get(app);
+        return appMetrics == null ? null : appMetrics.getDictionary();
+    }
+
+    /**
+     * Metrics of one resource: the open ones ordered by timestamp, and the sealed chunks by their start time.
+     * Writes, reads and evictions are guarded by the series monitor.
+     */
+    private static final class Series extends AppSeries.ResourceSeries {
+
+        private final ConcurrentSkipListMap<Long, MetricEntity> metrics = new ConcurrentSkipListMap<>();
+        private final NavigableMap<Long, MetricChunk> chunks = new TreeMap<>();
+        /**
+         * Metrics before this time are sealed.
+         */
+        private long sealedTime = Long.MIN_VALUE;
+
+        Series(int id) {
+            super(id);
+        }
+
+        /**
+         * @return false if the series is retired
+         */
+        synchronized boolean put(long timestamp, MetricEntity entity, long historyMs) {
+            if (retired) {
+                return false;
+            }
+            long now = TimeUtil.currentTimeMillis();
+            if (timestamp < now - historyMs) {
+                return true;
+            }
+            if (timestamp < sealedTime) {
+                long chunkTime = Math.floorDiv(timestamp, CHUNK_MS) * CHUNK_MS;
+                MetricChunk chunk = chunks.get(chunkTime);
+                if (chunk == null) {
+                    MetricChunk.Builder builder = new MetricChunk.Builder();
+                    builder.add(entity);
+                    chunk = builder.build();
+                } else {
+                    chunk = chunk.with(entity);
+                }
+                chunks.put(chunkTime, chunk);
+                return true;
+            }
+            metrics.put(timestamp, entity);
+            // Sealed by the latest metric rather than the clock, so that a catching up series is not sealed early.
+            long sealTime = metrics.lastKey() - OPEN_WINDOW_MS;
+            if (metrics.firstKey() < Math.floorDiv(sealTime, CHUNK_MS) * CHUNK_MS) {
+                seal(sealTime, now - historyMs, null);
+            }
+            return true;
+        }
+
+        synchronized void read(String app, String resource, int id, long startTime, long endTime,
+                               List<MetricEntity> results) {
+            if (!chunks.isEmpty() && startTime < sealedTime) {
+                Long from = chunks.floorKey(startTime);
+                long fromSecond = -Math.floorDiv(-startTime, 1000);
+                long toSecond = Math.floorDiv(endTime, 1000);
+                for (MetricChunk chunk : chunks.tailMap(from == null ? startTime : from, true).values()) {
+                    if (chunk.firstSecond() > toSecond) {
+                        break;
                     }
+                    chunk.read(app, resource, id, fromSecond, toSecond, results);
+                }
+            }
+            results.addAll(metrics.subMap(startTime, true, endTime, true).values());
+        }
+
+        /**
+         * @return true if the series is left empty and is retired
+         */
+        synchronized boolean expire(long sealTime, long expireTime, SweepStats stats) {
+            seal(sealTime, expireTime, stats);
+            retired = metrics.isEmpty() && chunks.isEmpty();
+            return retired;
+        }
+
+        /**
+         * Seal the whole minutes before {@code sealTime} into chunks, and evict the metrics and the chunks
+         * before {@code expireTime}.
+         */
+        private void seal(long sealTime, long expireTime, SweepStats stats) {
+            NavigableMap<Long, MetricEntity> expired = metrics.headMap(expireTime, false);
+            if (!expired.isEmpty()) {
+                addPoints(stats, expired.size());
+                expired.clear();
+            }
+            long sealTo = Math.floorDiv(sealTime, CHUNK_MS) * CHUNK_MS;
+            Long first;
+            while ((first = metrics.isEmpty() ? null : metrics.firstKey()) != null && first < sealTo) {
+                long chunkTime = Math.floorDiv(first, CHUNK_MS) * CHUNK_MS;
+                NavigableMap<Long, MetricEntity> window = metrics.headMap(chunkTime + CHUNK_MS, false);
+                MetricChunk.Builder builder = new MetricChunk.Builder();
+                for (MetricEntity entity : window.values()) {
+                    builder.add(entity);
                 }
+                chunks.put(chunkTime, builder.build());
+                window.clear();
+            }
+            sealedTime = Math.max(sealedTime, sealTo);
+            // A chunk is evicted once all of its minute is expired.
+            NavigableMap<Long, MetricChunk> expiredChunks = chunks.headMap(expireTime - CHUNK_MS, true);
+            for (MetricChunk chunk : expiredChunks.values()) {
+                addPoints(stats, chunk.size());
+            }
+            expiredChunks.clear();
+        }
+
+        private static void addPoints(SweepStats stats, int points) {
+            if (stats != null) {
+                stats.addPoints(points);
             }
-            // Order by last minute b_qps DESC.
-            return resourceCount.entrySet()
-                    .stream()
-                    .sorted((o1, o2) -> {
-                        MetricEntity e1 = o1.getValue();
-                        MetricEntity e2 = o2.getValue();
-                        int t = e2.getBlockQps().compareTo(e1.getBlockQps());
-                        if (t != 0) {
-                            return t;
-                        }
-                        return e2.getPassQps().compareTo(e1.getPassQps());
-                    })
-                    .map(Entry::getKey)
-                    .collect(Collectors.toList());
-        } finally {
-            readWriteLock.readLock().unlock();
         }
     }
 }
@@ -0,0 +1,293 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+
+/**
+ * <p>Sealed window of the metrics of one series, compressed for long in-memory history.</p>
+ * <p>
+ * Metrics are encoded in second order, each field against the same field of the previous metric, so that the
+ * slowly changing and mostly zero series of most resources take a byte or two per field:
+ * <ul>
+ *     <li>seconds as zigzag varints of the delta of deltas, a single zero byte for consecutive seconds;</li>
+ *     <li>QPS and machine counts as zigzag varints of the delta;</li>
+ *     <li>rt as the bits of the double XORed with the previous one, in the spirit of Gorilla but byte-aligned:
+ *     a zero byte if equal, else a byte holding the count of leading zero bytes and of meaningful bytes, followed
+ *     by the meaningful bytes;</li>
+ *     <li>write time as a zigzag varint of the delta of its offset from the second.</li>
+ * </ul>
+ * Chunks are immutable and decoded sequentially.
+ * </p>
+ */
+final class MetricChunk {
+
+    private final long firstSecond;
+    private final long lastSecond;
+    private final int size;
+    private final byte[] data;
+
+    private MetricChunk(long firstSecond, long lastSecond, int size, byte[] data) {
+        this.firstSecond = firstSecond;
+        this.lastSecond = lastSecond;
+        this.size = size;
+        this.data = data;
+    }
+
+    long firstSecond() {
+        return firstSecond;
+    }
+
+    long lastSecond() {
+        return lastSecond;
+    }
+
+    /**
+     * @return count of the metrics of the chunk
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return size of the encoded metrics in bytes
+     */
+    int bytes() {
+        return data.length;
+    }
+
+    /**
+     * Decode the metrics of the seconds within {@code [fromSecond, toSecond]} into {@code results}.
+     */
+    void read(String app, String resource, int id, long fromSecond, long toSecond, List<MetricEntity> results) {
+        if (toSecond < firstSecond || fromSecond > lastSecond) {
+            return;
+        }
+        Decoder decoder = new Decoder(data);
+        long second = 0;
+        long secondDelta = 0;
+        long passQps = 0;
+        long successQps = 0;
+        long blockQps = 0;
+        long exceptionQps = 0;
+        long rtBits = 0;
+        long count = 0;
+        long writeOffset = 0;
+        for (int i = 0; i < size; i++) {
+            secondDelta += decoder.readZigzag();
+            second += secondDelta;
+            passQps += decoder.readZigzag();
+            successQps += decoder.readZigzag();
+            blockQps += decoder.readZigzag();
+            exceptionQps += decoder.readZigzag();
+            rtBits ^= decoder.readXor();
+            count += decoder.readZigzag();
+            writeOffset += decoder.readZigzag();
+            if (second > toSecond) {
+                return;
+            }
+            if (second < fromSecond) {
+                continue;
+            }
+            MetricEntity entity = new MetricEntity();
+            entity.setApp(app);
+            entity.setResource(resource);
+            entity.setResourceCode(id);
+            entity.setTimestamp(new Date(second * 1000));
+            Date written = new Date(second * 1000 + writeOffset);
+            entity.setGmtCreate(written);
+            entity.setGmtModified(written);
+            entity.setPassQps(passQps);
+            entity.setSuccessQps(successQps);
+            entity.setBlockQps(blockQps);
+            entity.setExceptionQps(exceptionQps);
+            entity.setRt(Double.longBitsToDouble(rtBits));
+            entity.setCount((int)count);
+            results.add(entity);
+        }
+    }
+
+    /**
+     * Encode the chunk again with the metric of the second of {@code entity}, replacing the one saved for it.
+     *
+     * @return the new chunk
+     */
+    MetricChunk with(MetricEntity entity) {
+        long second = Math.floorDiv(entity.getTimestamp().getTime(), 1000);
+        List<MetricEntity> metrics = new ArrayList<>(size + 1);
+        read("", "", 0, firstSecond, lastSecond, metrics);
+        Builder builder = new Builder();
+        boolean added = false;
+        for (MetricEntity metric : metrics) {
+            long metricSecond = metric.getTimestamp().getTime() / 1000;
+            if (!added && metricSecond >= second) {
+                builder.add(entity);
+                added = true;
+                if (metricSecond == second) {
+                    continue;
+                }
+            }
+            builder.add(metric);
+        }
+        if (!added) {
+            builder.add(entity);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Encodes metrics added in strictly increasing second order.
+     */
+    static final class Builder {
+
+        private byte[] buffer = new byte[256];
+        private int length;
+        private int size;
+
+        private long firstSecond;
+        private long second;
+        private long secondDelta;
+        private long passQps;
+        private long successQps;
+        private long blockQps;
+        private long exceptionQps;
+        private long rtBits;
+        private long count;
+        private long writeOffset;
+
+        void add(MetricEntity entity) {
+            long time = entity.getTimestamp().getTime();
+            Date modified = entity.getGmtModified() != null ? entity.getGmtModified() : entity.getGmtCreate();
+            add(Math.floorDiv(time, 1000), valueOf(entity.getPassQps()), valueOf(entity.getSuccessQps()),
+                valueOf(entity.getBlockQps()), valueOf(entity.getExceptionQps()), entity.getRt(), entity.getCount(),
+                modified != null ? modified.getTime() : time);
+        }
+
+        void add(long second, long passQps, long successQps, long blockQps, long exceptionQps, double rt,
+                 int count, long writeTime) {
+            if (size == 0) {
+                firstSecond = second;
+            } else if (second <= this.second) {
+                throw new IllegalArgumentException("second " + second + " not after " + this.second);
+            }
+            long delta = second - this.second;
+            writeZigzag(delta - secondDelta);
+            secondDelta = delta;
+            this.second = second;
+            writeZigzag(passQps - this.passQps);
+            this.passQps = passQps;
+            writeZigzag(successQps - this.successQps);
+            this.successQps = successQps;
+            writeZigzag(blockQps - this.blockQps);
+            this.blockQps = blockQps;
+            writeZigzag(exceptionQps - this.exceptionQps);
+            this.exceptionQps = exceptionQps;
+            long bits = Double.doubleToLongBits(rt);
+            writeXor(bits ^ rtBits);
+            rtBits = bits;
+            writeZigzag(count - this.count);
+            this.count = count;
+            long offset = writeTime - second * 1000;
+            writeZigzag(offset - writeOffset);
+            writeOffset = offset;
+            size++;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        MetricChunk build() {
+            return new MetricChunk(firstSecond, second, size, Arrays.copyOf(buffer, length));
+        }
+
+        private void writeZigzag(long value) {
+            long v = (value << 1) ^ (value >> 63);
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buffer[length++] = (byte)((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buffer[length++] = (byte)v;
+        }
+
+        private void writeXor(long xor) {
+            ensure(9);
+            if (xor == 0) {
+                buffer[length++] = 0;
+                return;
+            }
+            int leading = Long.numberOfLeadingZeros(xor) >>> 3;
+            int trailing = Long.numberOfTrailingZeros(xor) >>> 3;
+            int meaningful = 8 - leading - trailing;
+            buffer[length++] = (byte)(leading << 4 | meaningful);
+            for (int i = meaningful - 1; i >= 0; i--) {
+                buffer[length++] = (byte)(xor >>> ((trailing + i) << 3));
+            }
+        }
+
+        private void ensure(int bytes) {
+            if (length + bytes > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, length + bytes));
+            }
+        }
+
+        private static long valueOf(Long value) {
+            return value == null ? 0 : value;
+        }
+    }
+
+    private static final class Decoder {
+
+        private final byte[] data;
+        private int position;
+
+        Decoder(byte[] data) {
+            this.data = data;
+        }
+
+        long readZigzag() {
+            long v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[position++];
+                v |= (long)(b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        long readXor() {
+            int header = data[position++] & 0xFF;
+            if (header == 0) {
+                return 0;
+            }
+            int leading = header >>> 4;
+            int meaningful = header & 0x0F;
+            long v = 0;
+            for (int i = 0; i < meaningful; i++) {
+                v = v << 8 | (data[position++] & 0xFF);
+            }
+            return v << ((8 - leading - meaningful) << 3);
+        }
+    }
+}
@@ -15,7 +15,13 @@
  */
 package com.alibaba.csp.sentinel.dashboard.repository.metric;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * Repository interface for aggregated metrics data.
@@ -39,6 +45,19 @@ public interface MetricsRepository<T> {
      */
     void saveAll(Iterable<T> metrics);
 
+    /**
+     * Save all metrics to the storage repository, replacing the metrics already saved for the same resources and
+     * seconds, as looked up by the caller. Repositories keeping aggregates of the saved metrics only add the
+     * differences, where {@link #saveAll(Iterable)} counts every metric as new.
+     *
+     * @param metrics  metrics to save
+     * @param replaced metrics saved before for the resource and second of the metric at the same index, or null
+     *                 where none was
+     */
+    default void saveAll(List<T> metrics, List<T> replaced) {
+        saveAll(metrics);
+    }
+
     /**
      * Get all metrics by {@code appName} and {@code resourceName} between a period of time.
      *
@@ -50,6 +69,58 @@ public interface MetricsRepository<T> {
      */
     List<T> queryByAppAndResourceBetween(String app, String resource, long startTime, long endTime);
 
+    /**
+     * Get metrics by {@code appName} and {@code resourceName} between a period of time, with at most about
+     * {@code maxPoints} points. Repositories keeping downsampled metrics may return one point per bucket of the
+     * finest resolution within the budget; others return all metrics.
+     *
+     * @param app       application name for Sentinel
+     * @param resource  resource name
+     * @param startTime start timestamp
+     * @param endTime   end timestamp
+     * @param maxPoints expected maximum count of points
+     * @return metrics in query conditions, ordered by timestamp
+     */
+    default List<T> queryByAppAndResourceBetween(String app, String resource, long startTime, long endTime,
+                                                 int maxPoints) {
+        return queryByAppAndResourceBetween(app, resource, startTime, endTime);
+    }
+
+    /**
+     * Get metrics of several resources of {@code appName} between a period of time, with at most about
+     * {@code maxPoints} points per resource, like {@link #queryByAppAndResourceBetween(String, String, long, long,
+     * int)} does for each of them. Repositories override it to resolve the app and the resolution once for all
+     * resources; the repositories of this package return the metrics of each resource ordered by timestamp, with
+     * one metric per timestamp.
+     *
+     * @param app       application name for Sentinel
+     * @param resources resource names
+     * @param startTime start timestamp
+     * @param endTime   end timestamp
+     * @param maxPoints expected maximum count of points per resource
+     * @return metrics of every resource in the order of {@code resources}, empty for resources without metrics
+     */
+    default Map<String, List<T>> queryByAppAndResourcesBetween(String app, Collection<String> resources,
+                                                               long startTime, long endTime, int maxPoints) {
+        Map<String, List<T>> results = new LinkedHashMap<>();
+        for (String resource : resources) {
+            results.put(resource, queryByAppAndResourceBetween(app, resource, startTime, endTime, maxPoints));
+        }
+        return results;
+    }
+
+    /**
+     * Pass the metrics saved between a period of time to {@code consumer} without collecting them, app by app and
+     * resource by resource, ordered by timestamp within a resource. It lets the aggregates kept over a persistent
+     * repository be rebuilt on a restart; repositories keeping nothing across restarts pass nothing.
+     *
+     * @param startTime start timestamp
+     * @param endTime   end timestamp
+     * @param consumer  consumer of the metrics
+     */
+    default void scanBetween(long startTime, long endTime, Consumer<T> consumer) {
+    }
+
     /**
      * List resource name of provided application name.
      *
@@ -57,4 +128,67 @@ public interface MetricsRepository<T> {
      * @return list of resources
      */
     List<String> listResourcesOfApp(String app);
+
+    /**
+     * List a page of the resources of provided application name having metrics in the last minute, ranked by
+     * their metrics of the last minute. Repositories without rankings order them by block QPS.
+     *
+     * @param app    application name
+     * @param rank   order of the resources
+     * @param desc   whether the highest come first
+     * @param offset count of the resources to skip
+     * @param limit  maximum count of resources to list
+     * @return page of the ranked resources
+     */
+    default List<String> listResourcesOfApp(String app, ResourceRank rank, boolean desc, int offset, int limit) {
+        List<String> resources = listResourcesOfApp(app);
+        if (!desc) {
+            Collections.reverse(resources);
+        }
+        int from = Math.min(offset, resources.size());
+        return resources.subList(from, (int)Math.min((long)from + limit, resources.size()));
+    }
+
+    /**
+     * List the resources of provided application name having metrics in the last minute and a name containing
+     * the key ignoring case, ranked by their metrics of the last minute.
+     *
+     * @param app       application name
+     * @param searchKey key to search, not empty
+     * @param rank      order of the resources
+     * @param desc      whether the highest come first
+     * @return ranked resources matching the key
+     */
+    default List<String> searchResourcesOfApp(String app, String searchKey, ResourceRank rank, boolean desc) {
+        String key = searchKey.toLowerCase();
+        List<String> results = new ArrayList<>();
+        for (String resource : listResourcesOfApp(app, rank, desc, 0, Integer.MAX_VALUE)) {
+            if (resource.toLowerCase().contains(key)) {
+                results.add(resource);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Count the resources of provided application name having metrics in the last minute.
+     *
+     * @param app application name
+     * @return count of resources
+     */
+    default int countResourcesOfApp(String app) {
+        return listResourcesOfApp(app).size();
+    }
+
+    /**
+     * Evict the metrics older than the retention of the repository multiplied by {@code retentionFactor}, then
+     * the series and apps left without metrics. Repositories only evicting on write evict nothing.
+     *
+     * @param now             current time in milliseconds
+     * @param retentionFactor share of the retention to keep, within {@code (0, 1]}
+     * @return counts of what was evicted
+     */
+    default SweepStats sweep(long now, double retentionFactor) {
+        return new SweepStats();
+    }
 }
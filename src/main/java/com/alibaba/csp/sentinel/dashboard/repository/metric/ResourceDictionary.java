@@ -0,0 +1,120 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Interns the resource names of one app into dense int ids, starting from 0.</p>
+ * <p>
+ * Lookups are lock-free; only the first occurrence of a name and releases take a lock. A released id is reused by
+ * the next new name, so ids stay dense as resources come and go and can index plain arrays. Owners releasing ids
+ * must make sure that the ids are no longer used, see {@link AppSeries}; owners never releasing them can rely on
+ * an id naming the same resource for the lifetime of the dictionary.
+ * </p>
+ */
+public class ResourceDictionary {
+
+    public static final int UNKNOWN = -1;
+
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>(64);
+    private volatile String[] names = new String[64];
+    /**
+     * Upper bound of the ids assigned, written under {@code this}.
+     */
+    private volatile int size;
+    /**
+     * Released ids, guarded by {@code this}.
+     */
+    private int[] free = new int[16];
+    private int freeCount;
+
+    /**
+     * @return id of the resource, assigning a released or the next id if the resource is new
+     * @throws IllegalArgumentException if the resource is null
+     */
+    public int intern(String resource) {
+        if (resource == null) {
+            throw new IllegalArgumentException("resource name cannot be null");
+        }
+        Integer id = ids.get(resource);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(resource);
+            if (id != null) {
+                return id;
+            }
+            int next = freeCount > 0 ? free[--freeCount] : size;
+            String[] current = names;
+            if (next == current.length) {
+                current = Arrays.copyOf(current, next << 1);
+            }
+            current[next] = resource;
+            // Publish the name before the id becomes visible through the map.
+            names = current;
+            size = Math.max(size, next + 1);
+            ids.put(resource, next);
+            return next;
+        }
+    }
+
+    /**
+     * Release the id, so that it is reused by the next new resource.
+     */
+    public synchronized void release(int id) {
+        String[] current = names;
+        if (id < 0 || id >= size || current[id] == null) {
+            return;
+        }
+        ids.remove(current[id], id);
+        current[id] = null;
+        names = current;
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, freeCount << 1);
+        }
+        free[freeCount++] = id;
+    }
+
+    /**
+     * @return id of the resource, or {@link #UNKNOWN} if it has never been interned
+     */
+    public int find(String resource) {
+        if (resource == null) {
+            return UNKNOWN;
+        }
+        Integer id = ids.get(resource);
+        return id == null ? UNKNOWN : id;
+    }
+
+    /**
+     * @return name of the id, or null if the id is unknown or released
+     */
+    public String nameOf(int id) {
+        String[] current = names;
+        return id >= 0 && id < current.length ? current[id] : null;
+    }
+
+    /**
+     * @return upper bound of the ids assigned, ids in use are in {@code [0, size)}
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+/**
+ * Orders of the resources of an app, by their metrics of the last minute. Ties are broken by pass QPS.
+ */
+public enum ResourceRank {
+
+    /**
+     * Sum of block QPS, the default order.
+     */
+    BLOCK_QPS("blockQps"),
+    /**
+     * Sum of pass QPS.
+     */
+    PASS_QPS("passQps"),
+    /**
+     * Sum of exception QPS.
+     */
+    EXCEPTION_QPS("exceptionQps"),
+    /**
+     * Average rt of the successful requests.
+     */
+    RT("rt");
+
+    private final String field;
+
+    ResourceRank(String field) {
+        this.field = field;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    /**
+     * @return rank of the {@code MetricVo} field name, or {@link #BLOCK_QPS} if unknown
+     */
+    public static ResourceRank fromField(String field) {
+        for (ResourceRank rank : values()) {
+            if (rank.field.equalsIgnoreCase(field)) {
+                return rank;
+            }
+        }
+        return BLOCK_QPS;
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * <p>Ranks the resources of one app by their metrics of the last {@link #WINDOW_SECONDS} seconds.</p>
+ * <p>
+ * Every resource keeps the running sums of its metrics in the window, updated by the differences written.
+ * Resources with metrics in the window are kept in one sorted set per {@link ResourceRank}, and are re-sorted
+ * when their sums change, so a page of the ranking costs O(offset + page size) instead of summing and sorting
+ * every resource. The differences are logged per second of the window and subtracted from the resources written
+ * in a second when it leaves the window, so that advancing the window only touches those resources, and the
+ * ranking takes memory for the differences written rather than for every second of every resource.
+ * </p>
+ * <p>
+ * All methods are guarded by the monitor of the ranking. Seconds after the current one are not ranked.
+ * </p>
+ */
+final class ResourceRanking {
+
+    static final int WINDOW_SECONDS = 60;
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final long NO_SECOND = Long.MIN_VALUE;
+
+    private final ResourceDictionary dictionary;
+
+    private Window[] windows = new Window[INITIAL_CAPACITY];
+    private final Map<ResourceRank, NavigableSet<Window>> ranks = new EnumMap<>(ResourceRank.class);
+
+    /**
+     * Differences written in every second of the window, indexed by {@code second % WINDOW_SECONDS}.
+     */
+    private final SecondLog[] written = new SecondLog[WINDOW_SECONDS];
+    /**
+     * Seconds up to this one have left the window.
+     */
+    private long expiredSecond = NO_SECOND;
+
+    ResourceRanking(ResourceDictionary dictionary) {
+        this.dictionary = dictionary;
+        for (ResourceRank rank : ResourceRank.values()) {
+            ranks.put(rank, new TreeSet<>(comparatorOf(rank)));
+        }
+        for (int slot = 0; slot < WINDOW_SECONDS; slot++) {
+            written[slot] = new SecondLog();
+        }
+    }
+
+    /**
+     * Add the differences of the metrics of the resource in the second.
+     */
+    synchronized void add(int id, long second, long now, long passQps, long successQps, long blockQps,
+                          long exceptionQps, double rt) {
+        advance(now);
+        if (second <= expiredSecond || second > now) {
+            return;
+        }
+        Window window = windowOf(id);
+        unrank(window);
+        window.add(passQps, successQps, blockQps, exceptionQps, rt);
+        written[slotOf(second)].add(second, id, passQps, successQps, blockQps, exceptionQps, rt);
+        rank(window);
+    }
+
+    /**
+     * @return names of the resources within {@code [offset, offset + limit)} of the ranking, highest first if
+     * {@code desc}
+     */
+    synchronized List<String> page(ResourceRank rank, boolean desc, int offset, int limit, long now) {
+        advance(now);
+        NavigableSet<Window> ranked = ranks.get(rank);
+        List<String> results = new ArrayList<>(Math.max(0, Math.min(limit, ranked.size() - offset)));
+        Iterator<Window> it = desc ? ranked.iterator() : ranked.descendingIterator();
+        for (int skipped = 0; skipped < offset && it.hasNext(); skipped++) {
+            it.next();
+        }
+        while (results.size() < limit && it.hasNext()) {
+            results.add(dictionary.nameOf(it.next().id));
+        }
+        return results;
+    }
+
+    /**
+     * @return names of the resources of the ids having metrics in the window, highest first if {@code desc}
+     */
+    synchronized List<String> rank(int[] ids, ResourceRank rank, boolean desc, long now) {
+        advance(now);
+        List<Window> ranked = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            if (id < windows.length && windows[id] != null && windows[id].entries > 0) {
+                ranked.add(windows[id]);
+            }
+        }
+        Comparator<Window> comparator = comparatorOf(rank);
+        ranked.sort(desc ? comparator : comparator.reversed());
+        List<String> results = new ArrayList<>(ranked.size());
+        for (Window window : ranked) {
+            results.add(dictionary.nameOf(window.id));
+        }
+        return results;
+    }
+
+    /**
+     * @return count of the resources with metrics in the window
+     */
+    synchronized int size(long now) {
+        advance(now);
+        return ranks.get(ResourceRank.BLOCK_QPS).size();
+    }
+
+    /**
+     * Release the windows of the resources without metrics in the window, and shrink the window array and the
+     * logs of the seconds left mostly empty.
+     */
+    synchronized void sweep(long now) {
+        advance(now);
+        int used = 0;
+        for (int id = 0; id < windows.length; id++) {
+            if (windows[id] != null && windows[id].entries == 0) {
+                windows[id] = null;
+            } else if (windows[id] != null) {
+                used = id + 1;
+            }
+        }
+        if (windows.length > INITIAL_CAPACITY && used <= windows.length >> 2) {
+            windows = Arrays.copyOf(windows, Math.max(INITIAL_CAPACITY, used << 1));
+        }
+        for (SecondLog log : written) {
+            log.trim();
+        }
+    }
+
+    /**
+     * @return length of the window array, for tests
+     */
+    synchronized int capacity() {
+        return windows.length;
+    }
+
+    private void advance(long now) {
+        long expireTo = now - WINDOW_SECONDS;
+        if (expireTo <= expiredSecond) {
+            return;
+        }
+        for (SecondLog log : written) {
+            if (log.second == NO_SECOND || log.second > expireTo) {
+                continue;
+            }
+            for (int i = 0; i < log.size; i++) {
+                Window window = windows[log.ids[i]];
+                unrank(window);
+                window.subtract(log, i);
+                rank(window);
+            }
+            log.clear();
+        }
+        expiredSecond = expireTo;
+    }
+
+    private Window windowOf(int id) {
+        if (id >= windows.length) {
+            windows = Arrays.copyOf(windows, Math.max(windows.length << 1, id + 1));
+        }
+        Window window = windows[id];
+        if (window == null) {
+            window = new Window(id);
+            windows[id] = window;
+        }
+        return window;
+    }
+
+    private void unrank(Window window) {
+        if (window.entries > 0) {
+            for (NavigableSet<Window> ranked : ranks.values()) {
+                ranked.remove(window);
+            }
+        }
+    }
+
+    private void rank(Window window) {
+        if (window.entries > 0) {
+            for (NavigableSet<Window> ranked : ranks.values()) {
+                ranked.add(window);
+            }
+        }
+    }
+
+    private static Comparator<Window> comparatorOf(ResourceRank rank) {
+        Comparator<Window> byPass = Comparator.comparingLong(w -> -w.passQps);
+        Comparator<Window> byRank;
+        switch (rank) {
+            case PASS_QPS:
+                byRank = byPass;
+                break;
+            case EXCEPTION_QPS:
+                byRank = Comparator.<Window>comparingLong(w -> -w.exceptionQps).thenComparing(byPass);
+                break;
+            case RT:
+                byRank = Comparator.<Window>comparingDouble(w -> -w.averageRt()).thenComparing(byPass);
+                break;
+            default:
+                byRank = Comparator.<Window>comparingLong(w -> -w.blockQps).thenComparing(byPass);
+        }
+        return byRank.thenComparingInt(w -> w.id);
+    }
+
+    private static int slotOf(long second) {
+        return (int)Math.floorMod(second, (long)WINDOW_SECONDS);
+    }
+
+    /**
+     * Sums of the metrics of one resource in the window.
+     */
+    private static final class Window {
+
+        private final int id;
+        /**
+         * Differences of the resource logged in the window.
+         */
+        private int entries;
+        private long passQps;
+        private long successQps;
+        private long blockQps;
+        private long exceptionQps;
+        private double rt;
+
+        Window(int id) {
+            this.id = id;
+        }
+
+        void add(long pass, long success, long block, long exception, double rtSum) {
+            entries++;
+            passQps += pass;
+            successQps += success;
+            blockQps += block;
+            exceptionQps += exception;
+            rt += rtSum;
+        }
+
+        void subtract(SecondLog log, int i) {
+            entries--;
+            passQps -= log.passQps[i];
+            successQps -= log.successQps[i];
+            blockQps -= log.blockQps[i];
+            exceptionQps -= log.exceptionQps[i];
+            rt -= log.rt[i];
+        }
+
+        double averageRt() {
+            return successQps <= 0 ? 0 : rt / successQps;
+        }
+    }
+
+    /**
+     * Differences written in one second of the window, in columns indexed by entry.
+     */
+    private static final class SecondLog {
+
+        private long second = NO_SECOND;
+        private int size;
+        private int[] ids = new int[INITIAL_CAPACITY];
+        private long[] passQps = new long[INITIAL_CAPACITY];
+        private long[] successQps = new long[INITIAL_CAPACITY];
+        private long[] blockQps = new long[INITIAL_CAPACITY];
+        private long[] exceptionQps = new long[INITIAL_CAPACITY];
+        private double[] rt = new double[INITIAL_CAPACITY];
+
+        void add(long second, int id, long pass, long success, long block, long exception, double rtSum) {
+            // The slot only holds seconds of the window, and older ones have left it and were cleared.
+            this.second = second;
+            if (size == ids.length) {
+                resize(size << 1);
+            }
+            ids[size] = id;
+            passQps[size] = pass;
+            successQps[size] = success;
+            blockQps[size] = block;
+            exceptionQps[size] = exception;
+            rt[size] = rtSum;
+            size++;
+        }
+
+        void clear() {
+            second = NO_SECOND;
+            size = 0;
+        }
+
+        /**
+         * Shrink the columns if they are mostly unused.
+         */
+        void trim() {
+            if (ids.length > INITIAL_CAPACITY && size <= ids.length >> 2) {
+                resize(Math.max(INITIAL_CAPACITY, size << 1));
+            }
+        }
+
+        private void resize(int capacity) {
+            ids = Arrays.copyOf(ids, capacity);
+            passQps = Arrays.copyOf(passQps, capacity);
+            successQps = Arrays.copyOf(successQps, capacity);
+            blockQps = Arrays.copyOf(blockQps, capacity);
+            exceptionQps = Arrays.copyOf(exceptionQps, capacity);
+            rt = Arrays.copyOf(rt, capacity);
+        }
+    }
+}
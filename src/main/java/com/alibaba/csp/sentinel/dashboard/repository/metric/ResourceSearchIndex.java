@@ -0,0 +1,181 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>Trigram index over the resource names of one app, answering case-insensitive substring searches.</p>
+ * <p>
+ * Every lower-cased trigram of a name maps to the sorted ids of the names containing it. A search only verifies the
+ * names of the rarest trigram of the key, instead of every name of the app; keys shorter than a trigram scan the
+ * names. Ids are those of the {@link ResourceDictionary} of the app, which reuses released ids, so a removed
+ * resource is unindexed before its id is released.
+ * </p>
+ * <p>
+ * All methods are guarded by the monitor of the index.
+ * </p>
+ */
+final class ResourceSearchIndex {
+
+    static final int GRAM = 3;
+
+    private static final int[] NONE = new int[0];
+
+    private final ResourceDictionary dictionary;
+
+    private final Map<Long, Postings> postings = new HashMap<>();
+    private final BitSet live = new BitSet();
+
+    ResourceSearchIndex(ResourceDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Make the resource searchable, indexing its name.
+     */
+    synchronized void add(int id) {
+        if (live.get(id)) {
+            return;
+        }
+        live.set(id);
+        String name = dictionary.nameOf(id);
+        for (int i = 0; i + GRAM <= name.length(); i++) {
+            postings.computeIfAbsent(gramOf(name, i), k -> new Postings()).add(id);
+        }
+    }
+
+    /**
+     * Unindex the resource, while its id still names it.
+     */
+    synchronized void remove(int id) {
+        if (!live.get(id)) {
+            return;
+        }
+        live.clear(id);
+        String name = dictionary.nameOf(id);
+        for (int i = 0; i + GRAM <= name.length(); i++) {
+            long gram = gramOf(name, i);
+            Postings ids = postings.get(gram);
+            if (ids != null && ids.remove(id) && ids.size == 0) {
+                postings.remove(gram);
+            }
+        }
+    }
+
+    /**
+     * @return ids of the searchable resources whose names contain the key ignoring case
+     */
+    synchronized int[] search(String key) {
+        if (key.length() < GRAM) {
+            return scan(key);
+        }
+        Postings rarest = null;
+        for (int i = 0; i + GRAM <= key.length(); i++) {
+            Postings candidates = postings.get(gramOf(key, i));
+            if (candidates == null) {
+                return NONE;
+            }
+            if (rarest == null || candidates.size < rarest.size) {
+                rarest = candidates;
+            }
+        }
+        int[] found = new int[rarest.size];
+        int count = 0;
+        for (int i = 0; i < rarest.size; i++) {
+            int id = rarest.ids[i];
+            if (live.get(id) && containsIgnoreCase(dictionary.nameOf(id), key)) {
+                found[count++] = id;
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * @return count of the searchable resources
+     */
+    synchronized int size() {
+        return live.cardinality();
+    }
+
+    private int[] scan(String key) {
+        int[] found = new int[live.cardinality()];
+        int count = 0;
+        for (int id = live.nextSetBit(0); id >= 0; id = live.nextSetBit(id + 1)) {
+            if (containsIgnoreCase(dictionary.nameOf(id), key)) {
+                found[count++] = id;
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    private static long gramOf(String text, int from) {
+        long gram = 0;
+        for (int i = from; i < from + GRAM; i++) {
+            gram = (gram << 16) | Character.toLowerCase(text.charAt(i));
+        }
+        return gram;
+    }
+
+    private static boolean containsIgnoreCase(String text, String key) {
+        for (int i = 0; i + key.length() <= text.length(); i++) {
+            if (text.regionMatches(true, i, key, 0, key.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sorted ids of the names containing one trigram.
+     */
+    private static final class Postings {
+
+        private int[] ids = new int[4];
+        private int size;
+
+        void add(int id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index >= 0) {
+                // The trigram occurs more than once in the name.
+                return;
+            }
+            index = -index - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size << 1);
+            }
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            ids[index] = id;
+            size++;
+        }
+
+        /**
+         * @return true if the id was removed
+         */
+        boolean remove(int id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            size--;
+            return true;
+        }
+    }
+}
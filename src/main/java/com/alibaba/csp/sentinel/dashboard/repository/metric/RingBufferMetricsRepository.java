@@ -0,0 +1,319 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.util.StringUtil;
+import com.alibaba.csp.sentinel.util.TimeUtil;
+
+/**
+ * <p>Keeps the metrics of the last {@link #RETENTION_SECONDS} seconds in columnar ring buffers.</p>
+ * <p>
+ * Every resource series holds one primitive array per field, indexed by {@code second % RETENTION_SECONDS}, next
+ * to the second each slot currently holds. Saving or reading a second is O(1), reading a range is O(range), and
+ * a full series costs a few bytes per field and second instead of a {@link MetricEntity} with its boxed fields,
+ * dates and map entry. Entities are only built for query results.
+ * </p>
+ * <p>
+ * Only the last write time of a second is kept, and returned as both its create and modify time.
+ * </p>
+ * <p>
+ * Series and apps without metrics are evicted by {@link #sweep(long, double)} like in
+ * {@link InMemoryMetricsRepository}.
+ * </p>
+ */
+public class RingBufferMetricsRepository implements MetricsRepository<MetricEntity> {
+
+    public static final int RETENTION_SECONDS = 300;
+
+    private static final long NO_SECOND = Long.MIN_VALUE;
+
+    private final Map<String, AppSeries<Series>> allMetrics = new ConcurrentHashMap<>();
+
+    @Override
+    public void save(MetricEntity entity) {
+        if (entity == null || StringUtil.isBlank(entity.getApp()) || entity.getResource() == null) {
+            return;
+        }
+        while (true) {
+            AppSeries<Series> appMetrics = allMetrics.computeIfAbsent(entity.getApp(),
+                e -> new AppSeries<>(Series::new, Series[]::new));
+            Series series;
+            while ((series = appMetrics.seriesOf(entity.getResource())) != null) {
+                entity.setResourceCode(series.getId());
+                if (series.put(entity)) {
+                    return;
+                }
+            }
+            // Retired by a sweep in between.
+            allMetrics.remove(entity.getApp(), appMetrics);
+        }
+    }
+
+    @Override
+    public void saveAll(Iterable<MetricEntity> metrics) {
+        if (metrics == null) {
+            return;
+        }
+        metrics.forEach(this::save);
+    }
+
+    @Override
+    public List<MetricEntity> queryByAppAndResourceBetween(String app, String resource,
+                                                           long startTime, long endTime) {
+        List<MetricEntity> results = new ArrayList<>();
+        if (StringUtil.isBlank(app) || endTime < startTime) {
+            return results;
+        }
+        read(app, allMetrics.get(app), resource, startTime, endTime, results);
+        return results;
+    }
+
+    @Override
+    public Map<String, List<MetricEntity>> queryByAppAndResourcesBetween(String app, Collection<String> resources,
+                                                                         long startTime, long endTime,
+                                                                         int maxPoints) {
+        AppSeries<Series> appMetrics = StringUtil.isBlank(app) || endTime < startTime ? null : allMetrics.get(app);
+        Map<String, List<MetricEntity>> results = new LinkedHashMap<>();
+        for (String resource : resources) {
+            List<MetricEntity> metrics = new ArrayList<>();
+            read(app, appMetrics, resource, startTime, endTime, metrics);
+            results.put(resource, metrics);
+        }
+        return results;
+    }
+
+    private static void read(String app, AppSeries<Series> appMetrics, String resource, long startTime,
+                             long endTime, List<MetricEntity> results) {
+        if (appMetrics == null) {
+            return;
+        }
+        int id = appMetrics.getDictionary().find(resource);
+        Series series = id == ResourceDictionary.UNKNOWN ? null : appMetrics.getSeries(id);
+        if (series != null) {
+            series.read(app, resource, id, startTime, endTime, results);
+        }
+    }
+
+    @Override
+    public List<String> listResourcesOfApp(String app) {
+        List<String> results = new ArrayList<>();
+        if (StringUtil.isBlank(app)) {
+            return results;
+        }
+        AppSeries<Series> appMetrics = allMetrics.get(app);
+        if (appMetrics == null) {
+            return results;
+        }
+        final long minSecond = (System.currentTimeMillis() - 1000 * 60) / 1000;
+
+        int size = appMetrics.size();
+        // Summary of the last minute, indexed by resource id.
+        long[] passQps = new long[size];
+        long[] blockQps = new long[size];
+        boolean[] present = new boolean[size];
+        long[] sum = new long[2];
+        for (int id = 0; id < size; id++) {
+            Series series = appMetrics.getSeries(id);
+            if (series != null && series.sumSince(minSecond, sum)) {
+                passQps[id] = sum[0];
+                blockQps[id] = sum[1];
+                present[id] = true;
+            }
+        }
+        // Order by last minute b_qps DESC.
+        IntStream.range(0, size)
+            .filter(id -> present[id])
+            .boxed()
+            .sorted((id1, id2) -> {
+                int t = Long.compare(blockQps[id2], blockQps[id1]);
+                if (t != 0) {
+                    return t;
+                }
+                return Long.compare(passQps[id2], passQps[id1]);
+            })
+            .forEach(id -> results.add(appMetrics.getDictionary().nameOf(id)));
+        return results;
+    }
+
+    @Override
+    public SweepStats sweep(long now, double retentionFactor) {
+        SweepStats stats = new SweepStats();
+        long expireSecond = now / 1000 - (long)(RETENTION_SECONDS * retentionFactor);
+        for (Map.Entry<String, AppSeries<Series>> entry : allMetrics.entrySet()) {
+            AppSeries<Series> appMetrics = entry.getValue();
+            if (appMetrics.sweep(series -> series.expire(expireSecond, stats), stats)) {
+                allMetrics.remove(entry.getKey(), appMetrics);
+                stats.addApps(1);
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * @return resource dictionary of the app, or null if no metric of the app has been saved
+     */
+    public ResourceDictionary getResourceDictionary(String app) {
+        AppSeries<Series> appMetrics = allMetrics.get(app);
+        return appMetrics == null ? null : appMetrics.getDictionary();
+    }
+
+    private static long expireSecond() {
+        return TimeUtil.currentTimeMillis() / 1000 - RETENTION_SECONDS;
+    }
+
+    /**
+     * Ring buffers of one resource. Slots are guarded by the series monitor, which is only held while slots are
+     * copied in or out, so writers and readers of different series never wait for each other.
+     */
+    private static final class Series extends AppSeries.ResourceSeries {
+
+        private final long[] seconds = new long[RETENTION_SECONDS];
+        private final long[] passQps = new long[RETENTION_SECONDS];
+        private final long[] successQps = new long[RETENTION_SECONDS];
+        private final long[] blockQps = new long[RETENTION_SECONDS];
+        private final long[] exceptionQps = new long[RETENTION_SECONDS];
+        private final double[] rt = new double[RETENTION_SECONDS];
+        private final int[] count = new int[RETENTION_SECONDS];
+        private final long[] writeTime = new long[RETENTION_SECONDS];
+        private long latestSecond = NO_SECOND;
+
+        Series(int id) {
+            super(id);
+            Arrays.fill(seconds, NO_SECOND);
+        }
+
+        /**
+         * @return false if the series is retired
+         */
+        synchronized boolean put(MetricEntity entity) {
+            if (retired) {
+                return false;
+            }
+            long second = entity.getTimestamp().getTime() / 1000;
+            if (second < expireSecond()) {
+                return true;
+            }
+            int slot = slotOf(second);
+            if (seconds[slot] > second) {
+                // The slot already holds a newer second.
+                return true;
+            }
+            seconds[slot] = second;
+            latestSecond = Math.max(latestSecond, second);
+            passQps[slot] = valueOf(entity.getPassQps());
+            successQps[slot] = valueOf(entity.getSuccessQps());
+            blockQps[slot] = valueOf(entity.getBlockQps());
+            exceptionQps[slot] = valueOf(entity.getExceptionQps());
+            rt[slot] = entity.getRt();
+            count[slot] = entity.getCount();
+            Date modified = entity.getGmtModified() != null ? entity.getGmtModified() : entity.getGmtCreate();
+            writeTime[slot] = modified != null ? modified.getTime() : System.currentTimeMillis();
+            return true;
+        }
+
+        /**
+         * @return true if the series is left empty and is retired
+         */
+        synchronized boolean expire(long expireSecond, SweepStats stats) {
+            boolean empty = true;
+            for (int slot = 0; slot < RETENTION_SECONDS; slot++) {
+                if (seconds[slot] == NO_SECOND) {
+                    continue;
+                }
+                if (seconds[slot] < expireSecond) {
+                    seconds[slot] = NO_SECOND;
+                    stats.addPoints(1);
+                } else {
+                    empty = false;
+                }
+            }
+            retired = empty;
+            return retired;
+        }
+
+        synchronized void read(String app, String resource, int id, long startTime, long endTime,
+                               List<MetricEntity> results) {
+            if (latestSecond == NO_SECOND) {
+                return;
+            }
+            long to = Math.min(Math.floorDiv(endTime, 1000), latestSecond);
+            long from = Math.max(Math.max(ceilSecond(startTime), expireSecond()), to - RETENTION_SECONDS + 1);
+            for (long second = from; second <= to; second++) {
+                int slot = slotOf(second);
+                if (seconds[slot] != second) {
+                    continue;
+                }
+                MetricEntity entity = new MetricEntity();
+                entity.setApp(app);
+                entity.setResource(resource);
+                entity.setResourceCode(id);
+                entity.setTimestamp(new Date(second * 1000));
+                Date written = new Date(writeTime[slot]);
+                entity.setGmtCreate(written);
+                entity.setGmtModified(written);
+                entity.setPassQps(passQps[slot]);
+                entity.setSuccessQps(successQps[slot]);
+                entity.setBlockQps(blockQps[slot]);
+                entity.setExceptionQps(exceptionQps[slot]);
+                entity.setRt(rt[slot]);
+                entity.setCount(count[slot]);
+                results.add(entity);
+            }
+        }
+
+        /**
+         * Sum pass and block QPS of the seconds since {@code minSecond} into {@code sum}.
+         *
+         * @return true if any second since {@code minSecond} is present
+         */
+        synchronized boolean sumSince(long minSecond, long[] sum) {
+            sum[0] = 0;
+            sum[1] = 0;
+            boolean present = false;
+            for (int slot = 0; slot < RETENTION_SECONDS; slot++) {
+                if (seconds[slot] >= minSecond) {
+                    sum[0] += passQps[slot];
+                    sum[1] += blockQps[slot];
+                    present = true;
+                }
+            }
+            return present;
+        }
+
+        private static int slotOf(long second) {
+            return (int)Math.floorMod(second, (long)RETENTION_SECONDS);
+        }
+
+        private static long ceilSecond(long time) {
+            return -Math.floorDiv(-time, 1000);
+        }
+
+        private static long valueOf(Long value) {
+            return value == null ? 0 : value;
+        }
+    }
+}
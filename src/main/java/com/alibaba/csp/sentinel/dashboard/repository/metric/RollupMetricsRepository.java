@@ -0,0 +1,606 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.util.StringUtil;
+import com.alibaba.csp.sentinel.util.TimeUtil;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Keeps downsampled tiers of the metrics saved to another repository, so that long ranges can be queried
+ * with a bounded count of points.</p>
+ * <p>
+ * Every resource has one ring of buckets per tier in {@link #TIER_SECONDS}, holding the sums of the seconds of
+ * each bucket. Tiers are updated as metrics are saved: {@link #saveAll(Iterable)} adds the metrics as new seconds,
+ * while {@link #saveAll(List, List)} only adds the difference with the metrics they replace, so a second saved
+ * again (merged late metrics) is not counted twice.
+ * </p>
+ * <p>
+ * A query with a point budget is served from the finest resolution, the seconds of the delegate included, that
+ * covers the start of the range and returns at most {@code maxPoints} points, or from the coarsest tier if none
+ * does. A bucket is returned as one metric at the start of the bucket, with the average QPS of the bucket. The
+ * tiers are rebuilt on creation from the seconds the delegate kept, scanned resource by resource, so a store
+ * persisting its seconds serves long ranges from the tiers again after a restart, without reading them back per
+ * query.
+ * </p>
+ * <p>
+ * The differences also feed a {@link ResourceRanking} of the last minute per app, which answers the resource
+ * listings instead of the delegate, and a {@link ResourceSearchIndex} of the resources with series, which narrows
+ * the resource searches down to the matching names before ranking them.
+ * </p>
+ * <p>
+ * Tiers are allocated on first write, with a few buckets, and grow up to {@link #TIER_BUCKETS} as the span of
+ * their buckets does. Series only exist for the resources admitted by the cardinality limits of the writer.
+ * {@link #sweep(long, double)} sweeps the delegate, then releases the
+ * buckets out of the retention of their tier, the tiers left empty, and the series and apps left without tiers.
+ * The retention factor of the last sweep also shortens the ranges each tier serves, so that longer ranges fall
+ * back to coarser tiers.
+ * </p>
+ */
+public class RollupMetricsRepository implements MetricsRepository<MetricEntity> {
+
+    private static final Logger logger = LoggerFactory.getLogger(RollupMetricsRepository.class);
+
+    /**
+     * Seconds per bucket of every tier, finest first.
+     */
+    static final int[] TIER_SECONDS = {10, 60, 3600};
+    /**
+     * Buckets kept per tier: 1 hour of 10 seconds, 10 hours of 1 minute and 7 days of 1 hour.
+     */
+    static final int[] TIER_BUCKETS = {360, 600, 168};
+    /**
+     * Buckets of a new tier.
+     */
+    static final int INITIAL_BUCKETS = 8;
+
+    private static final long NO_BUCKET = Long.MIN_VALUE;
+
+    private final MetricsRepository<MetricEntity> delegate;
+    private final long delegateRetentionSeconds;
+
+    private final Map<String, AppRollups> allRollups = new ConcurrentHashMap<>();
+
+    private volatile double retentionFactor = 1;
+
+    /**
+     * Create the rollups of the seconds already kept by the delegate, if any.
+     *
+     * @param delegateRetentionSeconds how long the seconds saved to the delegate can be queried
+     */
+    public RollupMetricsRepository(MetricsRepository<MetricEntity> delegate, long delegateRetentionSeconds) {
+        this.delegate = delegate;
+        this.delegateRetentionSeconds = delegateRetentionSeconds;
+        rebuild();
+    }
+
+    private void rebuild() {
+        long start = System.nanoTime();
+        long now = TimeUtil.currentTimeMillis();
+        long[] scanned = new long[1];
+        delegate.scanBetween(now - delegateRetentionSeconds * 1000, now, entity -> {
+            add(entity, null, now / 1000);
+            scanned[0]++;
+        });
+        if (scanned[0] > 0) {
+            logger.info("Rollups of {} apps rebuilt from {} metrics of the store in {} ms", allRollups.size(),
+                scanned[0], TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    public MetricsRepository<MetricEntity> getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Close the delegate if it is closeable, called by Spring as the inferred destroy method.
+     */
+    public void close() {
+        if (delegate instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable)delegate).close();
+            } catch (Exception e) {
+                logger.warn("Failed to close the metric store {}", delegate.getClass().getSimpleName(), e);
+            }
+        }
+    }
+
+    @Override
+    public void save(MetricEntity entity) {
+        if (entity == null) {
+            return;
+        }
+        saveAll(Collections.singletonList(entity));
+    }
+
+    /**
+     * The metrics are added to the tiers as new seconds.
+     */
+    @Override
+    public void saveAll(Iterable<MetricEntity> metrics) {
+        if (metrics == null) {
+            return;
+        }
+        delegate.saveAll(metrics);
+        addAll(metrics, null);
+    }
+
+    /**
+     * Only the differences with the replaced metrics are added to the tiers.
+     */
+    @Override
+    public void saveAll(List<MetricEntity> metrics, List<MetricEntity> replaced) {
+        if (metrics == null) {
+            return;
+        }
+        delegate.saveAll(metrics, replaced);
+        addAll(metrics, replaced);
+    }
+
+    private void addAll(Iterable<MetricEntity> metrics, List<MetricEntity> replaced) {
+        long now = TimeUtil.currentTimeMillis() / 1000;
+        int i = 0;
+        for (MetricEntity entity : metrics) {
+            MetricEntity previous = replaced == null ? null : replaced.get(i);
+            i++;
+            add(entity, previous, now);
+        }
+    }
+
+    private void add(MetricEntity entity, MetricEntity previous, long now) {
+        if (entity == null || StringUtil.isBlank(entity.getApp()) || entity.getResource() == null
+            || entity.getTimestamp() == null) {
+            return;
+        }
+        AppRollups rollups;
+        while (!(rollups = allRollups.computeIfAbsent(entity.getApp(), e -> new AppRollups()))
+            .add(entity, previous, now)) {
+            // Retired by a sweep in between.
+            allRollups.remove(entity.getApp(), rollups);
+        }
+    }
+
+    @Override
+    public List<MetricEntity> queryByAppAndResourceBetween(String app, String resource, long startTime,
+                                                           long endTime) {
+        return delegate.queryByAppAndResourceBetween(app, resource, startTime, endTime);
+    }
+
+    @Override
+    public List<MetricEntity> queryByAppAndResourceBetween(String app, String resource, long startTime,
+                                                           long endTime, int maxPoints) {
+        int tier = tierOf(startTime, endTime, maxPoints);
+        if (tier < 0) {
+            return delegate.queryByAppAndResourceBetween(app, resource, startTime, endTime);
+        }
+        return read(tier, app, Collections.singletonList(resource), startTime, endTime).get(resource);
+    }
+
+    /**
+     * All resources are served from the same resolution, picked once for the range.
+     */
+    @Override
+    public Map<String, List<MetricEntity>> queryByAppAndResourcesBetween(String app, Collection<String> resources,
+                                                                         long startTime, long endTime,
+                                                                         int maxPoints) {
+        int tier = tierOf(startTime, endTime, maxPoints);
+        if (tier < 0) {
+            return delegate.queryByAppAndResourcesBetween(app, resources, startTime, endTime, maxPoints);
+        }
+        return read(tier, app, resources, startTime, endTime);
+    }
+
+    private Map<String, List<MetricEntity>> read(int tier, String app, Collection<String> resources, long startTime,
+                                                 long endTime) {
+        Map<String, List<MetricEntity>> results = new LinkedHashMap<>();
+        for (String resource : resources) {
+            results.put(resource, new ArrayList<>());
+        }
+        if (StringUtil.isBlank(app) || endTime < startTime) {
+            return results;
+        }
+        AppRollups rollups = allRollups.get(app);
+        for (String resource : resources) {
+            read(tier, app, rollups, resource, startTime, endTime, results.get(resource));
+        }
+        return results;
+    }
+
+    private static void read(int tier, String app, AppRollups rollups, String resource, long startTime,
+                             long endTime, List<MetricEntity> results) {
+        if (rollups == null) {
+            return;
+        }
+        int id = rollups.getDictionary().find(resource);
+        Series series = id == ResourceDictionary.UNKNOWN ? null : rollups.getSeries(id);
+        if (series != null) {
+            series.read(tier, app, resource, id, Math.floorDiv(startTime, 1000), Math.floorDiv(endTime, 1000),
+                results);
+        }
+    }
+
+    /**
+     * @return index of the tier serving the range, or -1 for the seconds of the delegate
+     */
+    int tierOf(long startTime, long endTime, int maxPoints) {
+        long rangeSeconds = Math.max(0, (endTime - startTime) / 1000);
+        long age = TimeUtil.currentTimeMillis() / 1000 - Math.floorDiv(startTime, 1000);
+        if (rangeSeconds <= maxPoints && age <= delegateRetentionSeconds) {
+            return -1;
+        }
+        double factor = retentionFactor;
+        for (int tier = 0; tier < TIER_SECONDS.length; tier++) {
+            if (rangeSeconds / TIER_SECONDS[tier] <= maxPoints
+                && age <= (long)(TIER_SECONDS[tier] * TIER_BUCKETS[tier] * factor)) {
+                return tier;
+            }
+        }
+        return TIER_SECONDS.length - 1;
+    }
+
+    @Override
+    public List<String> listResourcesOfApp(String app) {
+        return listResourcesOfApp(app, ResourceRank.BLOCK_QPS, true, 0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<String> listResourcesOfApp(String app, ResourceRank rank, boolean desc, int offset, int limit) {
+        AppRollups rollups = StringUtil.isBlank(app) ? null : allRollups.get(app);
+        if (rollups == null) {
+            return new ArrayList<>();
+        }
+        return rollups.ranking.page(rank, desc, offset, limit, TimeUtil.currentTimeMillis() / 1000);
+    }
+
+    @Override
+    public List<String> searchResourcesOfApp(String app, String searchKey, ResourceRank rank, boolean desc) {
+        AppRollups rollups = StringUtil.isBlank(app) ? null : allRollups.get(app);
+        if (rollups == null) {
+            return new ArrayList<>();
+        }
+        return rollups.ranking.rank(rollups.index.search(searchKey), rank, desc,
+            TimeUtil.currentTimeMillis() / 1000);
+    }
+
+    @Override
+    public int countResourcesOfApp(String app) {
+        AppRollups rollups = StringUtil.isBlank(app) ? null : allRollups.get(app);
+        return rollups == null ? 0 : rollups.ranking.size(TimeUtil.currentTimeMillis() / 1000);
+    }
+
+    @Override
+    public SweepStats sweep(long now, double retentionFactor) {
+        this.retentionFactor = retentionFactor;
+        SweepStats stats = delegate.sweep(now, retentionFactor);
+        long second = now / 1000;
+        for (Map.Entry<String, AppRollups> entry : allRollups.entrySet()) {
+            AppRollups rollups = entry.getValue();
+            boolean empty = rollups.sweep(series -> series.expire(second, retentionFactor, stats), stats);
+            rollups.ranking.sweep(second);
+            if (empty) {
+                allRollups.remove(entry.getKey(), rollups);
+                stats.addApps(1);
+            }
+        }
+        return stats;
+    }
+
+    private static long valueOf(Long value) {
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * Rollups of one app, with the ranking and the search index of its resources.
+     */
+    private static final class AppRollups extends AppSeries<Series> {
+
+        private final ResourceRanking ranking = new ResourceRanking(getDictionary());
+        private final ResourceSearchIndex index = new ResourceSearchIndex(getDictionary());
+
+        AppRollups() {
+            super(Series::new, Series[]::new);
+        }
+
+        /**
+         * Add the difference between the saved metric and the one it replaces, if any.
+         *
+         * @return false if the app is retired
+         */
+        boolean add(MetricEntity entity, MetricEntity previous, long now) {
+            long second = entity.getTimestamp().getTime() / 1000;
+            long passQps = valueOf(entity.getPassQps());
+            long successQps = valueOf(entity.getSuccessQps());
+            long blockQps = valueOf(entity.getBlockQps());
+            long exceptionQps = valueOf(entity.getExceptionQps());
+            double rt = entity.getRt();
+            if (previous != null) {
+                passQps -= valueOf(previous.getPassQps());
+                successQps -= valueOf(previous.getSuccessQps());
+                blockQps -= valueOf(previous.getBlockQps());
+                exceptionQps -= valueOf(previous.getExceptionQps());
+                rt -= previous.getRt();
+            }
+            Series rollups;
+            do {
+                rollups = seriesOf(entity.getResource());
+                if (rollups == null) {
+                    return false;
+                }
+            } while (!rollups.add(second, passQps, successQps, blockQps, exceptionQps, rt, entity.getCount()));
+            ranking.add(rollups.getId(), second, now, passQps, successQps, blockQps, exceptionQps, rt);
+            return true;
+        }
+
+        @Override
+        protected void created(int id) {
+            index.add(id);
+        }
+
+        @Override
+        protected void removed(int id) {
+            index.remove(id);
+        }
+    }
+
+    /**
+     * Tiers of one resource, allocated on first write and guarded by the series monitor.
+     */
+    private static final class Series extends AppSeries.ResourceSeries {
+
+        private final Tier[] tiers = new Tier[TIER_SECONDS.length];
+
+        Series(int id) {
+            super(id);
+        }
+
+        /**
+         * @return false if the series is retired
+         */
+        synchronized boolean add(long second, long passQps, long successQps, long blockQps, long exceptionQps,
+                                 double rt, int count) {
+            if (retired) {
+                return false;
+            }
+            for (int i = 0; i < tiers.length; i++) {
+                if (tiers[i] == null) {
+                    tiers[i] = new Tier(TIER_SECONDS[i], TIER_BUCKETS[i]);
+                }
+                tiers[i] = tiers[i].add(second, passQps, successQps, blockQps, exceptionQps, rt, count);
+            }
+            return true;
+        }
+
+        synchronized void read(int tier, String app, String resource, int id, long fromSecond, long toSecond,
+                               List<MetricEntity> results) {
+            if (tiers[tier] != null) {
+                tiers[tier].read(app, resource, id, fromSecond, toSecond, results);
+            }
+        }
+
+        /**
+         * Release the buckets out of the retention of their tier multiplied by {@code retentionFactor}, and the
+         * tiers left empty.
+         *
+         * @return true if no tier is left and the series is retired
+         */
+        synchronized boolean expire(long now, double retentionFactor, SweepStats stats) {
+            boolean empty = true;
+            for (int i = 0; i < tiers.length; i++) {
+                if (tiers[i] == null) {
+                    continue;
+                }
+                long keptBuckets = Math.max(1, (long)(TIER_BUCKETS[i] * retentionFactor));
+                if (tiers[i].expire(Math.floorDiv(now, TIER_SECONDS[i]) - keptBuckets + 1, stats)) {
+                    tiers[i] = null;
+                } else {
+                    empty = false;
+                }
+            }
+            retired = empty;
+            return retired;
+        }
+    }
+
+    /**
+     * Ring of the buckets of one tier, indexed by {@code bucket % capacity}, guarded by the monitor of its series.
+     * The ring starts with {@link #INITIAL_BUCKETS} buckets and is copied into a larger one while the span of its
+     * buckets exceeds its capacity, up to {@code maxCapacity}.
+     */
+    private static final class Tier {
+
+        private final int bucketSeconds;
+        private final int maxCapacity;
+        private final int capacity;
+        private final long[] buckets;
+        private final long[] passQps;
+        private final long[] successQps;
+        private final long[] blockQps;
+        private final long[] exceptionQps;
+        /**
+         * Sums of {@link MetricEntity#getRt()}, itself the rt of every success multiplied by the success QPS.
+         */
+        private final double[] rt;
+        /**
+         * Largest machine count of the seconds of the bucket.
+         */
+        private final int[] count;
+        private long latestBucket = NO_BUCKET;
+        /**
+         * Oldest bucket held, while the ring can still grow.
+         */
+        private long oldestBucket = NO_BUCKET;
+
+        Tier(int bucketSeconds, int maxCapacity) {
+            this(bucketSeconds, maxCapacity, Math.min(INITIAL_BUCKETS, maxCapacity));
+        }
+
+        private Tier(int bucketSeconds, int maxCapacity, int capacity) {
+            this.bucketSeconds = bucketSeconds;
+            this.maxCapacity = maxCapacity;
+            this.capacity = capacity;
+            this.buckets = new long[capacity];
+            this.passQps = new long[capacity];
+            this.successQps = new long[capacity];
+            this.blockQps = new long[capacity];
+            this.exceptionQps = new long[capacity];
+            this.rt = new double[capacity];
+            this.count = new int[capacity];
+            Arrays.fill(buckets, NO_BUCKET);
+        }
+
+        /**
+         * @return this tier, or the larger one the second was added to
+         */
+        Tier add(long second, long pass, long success, long block, long exception, double rtSum, int machines) {
+            long bucket = Math.floorDiv(second, bucketSeconds);
+            if (capacity < maxCapacity && latestBucket != NO_BUCKET) {
+                long newest = Math.max(latestBucket, bucket);
+                long span = newest - Math.min(oldestBucket, bucket) + 1;
+                if (span > capacity) {
+                    Tier grown = grow(span, newest);
+                    grown.add(second, pass, success, block, exception, rtSum, machines);
+                    return grown;
+                }
+            }
+            int slot = slotOf(bucket);
+            if (buckets[slot] > bucket) {
+                // The slot already holds a newer bucket.
+                return this;
+            }
+            if (buckets[slot] != bucket) {
+                buckets[slot] = bucket;
+                passQps[slot] = 0;
+                successQps[slot] = 0;
+                blockQps[slot] = 0;
+                exceptionQps[slot] = 0;
+                rt[slot] = 0;
+                count[slot] = 0;
+            }
+            latestBucket = Math.max(latestBucket, bucket);
+            oldestBucket = oldestBucket == NO_BUCKET ? bucket : Math.min(oldestBucket, bucket);
+            passQps[slot] += pass;
+            successQps[slot] += success;
+            blockQps[slot] += block;
+            exceptionQps[slot] += exception;
+            rt[slot] += rtSum;
+            count[slot] = Math.max(count[slot], machines);
+            return this;
+        }
+
+        /**
+         * @return copy of the buckets within the {@code newest} ones into a ring holding {@code span} buckets, or
+         * as many as it can
+         */
+        private Tier grow(long span, long newest) {
+            int grown = capacity;
+            while (grown < span && grown < maxCapacity) {
+                grown = (int)Math.min(maxCapacity, (long)grown << 1);
+            }
+            Tier tier = new Tier(bucketSeconds, maxCapacity, grown);
+            for (int slot = 0; slot < capacity; slot++) {
+                long bucket = buckets[slot];
+                if (bucket == NO_BUCKET || bucket <= newest - grown) {
+                    continue;
+                }
+                int to = tier.slotOf(bucket);
+                tier.buckets[to] = bucket;
+                tier.passQps[to] = passQps[slot];
+                tier.successQps[to] = successQps[slot];
+                tier.blockQps[to] = blockQps[slot];
+                tier.exceptionQps[to] = exceptionQps[slot];
+                tier.rt[to] = rt[slot];
+                tier.count[to] = count[slot];
+                tier.latestBucket = Math.max(tier.latestBucket, bucket);
+                tier.oldestBucket = tier.oldestBucket == NO_BUCKET ? bucket : Math.min(tier.oldestBucket, bucket);
+            }
+            return tier;
+        }
+
+        private int slotOf(long bucket) {
+            return (int)Math.floorMod(bucket, (long)capacity);
+        }
+
+        /**
+         * Release the buckets before {@code expireBucket}.
+         *
+         * @return true if the tier is left empty
+         */
+        boolean expire(long expireBucket, SweepStats stats) {
+            boolean empty = true;
+            long oldest = NO_BUCKET;
+            for (int slot = 0; slot < capacity; slot++) {
+                if (buckets[slot] == NO_BUCKET) {
+                    continue;
+                }
+                if (buckets[slot] < expireBucket) {
+                    buckets[slot] = NO_BUCKET;
+                    stats.addPoints(1);
+                } else {
+                    empty = false;
+                    oldest = oldest == NO_BUCKET ? buckets[slot] : Math.min(oldest, buckets[slot]);
+                }
+            }
+            oldestBucket = oldest;
+            return empty;
+        }
+
+        void read(String app, String resource, int id, long fromSecond, long toSecond,
+                  List<MetricEntity> results) {
+            if (latestBucket == NO_BUCKET) {
+                return;
+            }
+            long to = Math.min(Math.floorDiv(toSecond, bucketSeconds), latestBucket);
+            long from = Math.max(Math.floorDiv(fromSecond, bucketSeconds), to - capacity + 1);
+            for (long bucket = from; bucket <= to; bucket++) {
+                int slot = slotOf(bucket);
+                if (buckets[slot] != bucket) {
+                    continue;
+                }
+                MetricEntity entity = new MetricEntity();
+                entity.setApp(app);
+                entity.setResource(resource);
+                entity.setResourceCode(id);
+                Date timestamp = new Date(bucket * bucketSeconds * 1000);
+                entity.setTimestamp(timestamp);
+                entity.setGmtCreate(timestamp);
+                entity.setGmtModified(timestamp);
+                entity.setPassQps(Math.round((double)passQps[slot] / bucketSeconds));
+                entity.setSuccessQps(Math.round((double)successQps[slot] / bucketSeconds));
+                entity.setBlockQps(Math.round((double)blockQps[slot] / bucketSeconds));
+                entity.setExceptionQps(Math.round((double)exceptionQps[slot] / bucketSeconds));
+                // Scaled like the success QPS, so that rt / successQps stays the average rt of the bucket.
+                entity.setRt(entity.getSuccessQps() == 0 ? 0
+                    : rt[slot] * entity.getSuccessQps() / successQps[slot]);
+                entity.setCount(count[slot]);
+                results.add(entity);
+            }
+        }
+    }
+}
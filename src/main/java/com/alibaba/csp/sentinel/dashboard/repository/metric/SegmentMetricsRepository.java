@@ -0,0 +1,577 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.util.StringUtil;
+import com.alibaba.csp.sentinel.util.TimeUtil;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Persists metrics in append-only segment files, so that they survive restarts and can be queried for
+ * {@code retentionDays} days instead of the last minutes.</p>
+ * <p>
+ * Every app has a directory holding its resource dictionary ({@code resources.dict}, the resource names in id
+ * order) and one segment per hour. Seconds are appended to the {@code <hourStartSecond>.seg} segment of their
+ * hour, see {@link ActiveSegment}. Once the hour is over and late writes are no longer expected, the segment is
+ * compacted into {@code <hourStartSecond>.cseg}, sorted and indexed by resource, see {@link CompactedSegment}.
+ * Segments older than the retention are deleted.
+ * </p>
+ * <p>
+ * The last {@link RingBufferMetricsRepository#RETENTION_SECONDS} seconds are also kept in a
+ * {@link RingBufferMetricsRepository}, which serves the queries of recent ranges and the resource listing, so the
+ * realtime views do not touch the files.
+ * </p>
+ */
+public class SegmentMetricsRepository implements MetricsRepository<MetricEntity>, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentMetricsRepository.class);
+
+    static final String DICTIONARY_FILE = "resources.dict";
+    static final String ACTIVE_SUFFIX = ".seg";
+    static final String COMPACTED_SUFFIX = ".cseg";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final int MAX_RESOURCE_NAME_BYTES = Short.MAX_VALUE;
+
+    private final File directory;
+    private final long retentionSeconds;
+    private final long sealDelaySeconds;
+    private final int syncIntervalSeconds;
+    private final long startedAt = TimeUtil.currentTimeMillis();
+
+    private final RingBufferMetricsRepository recent = new RingBufferMetricsRepository();
+    private final Map<String, AppSegments> apps = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("PMD.ThreadPoolCreationRule")
+    private final ScheduledExecutorService maintainer = Executors.newSingleThreadScheduledExecutor(
+        new NamedThreadFactory("sentinel-dashboard-metrics-segment-maintain", true));
+
+    /**
+     * @param retentionDays       days after which segments are deleted
+     * @param sealDelaySeconds    seconds after the end of an hour before its segment is compacted, should exceed
+     *                            the delay of the latest expected writes
+     * @param syncIntervalSeconds interval of the sync of the written segments to the disk, the seconds written
+     *                            since the last sync may be lost on a crash of the host
+     */
+    public SegmentMetricsRepository(File directory, int retentionDays, long sealDelaySeconds,
+                                    int syncIntervalSeconds) {
+        this.directory = directory;
+        this.retentionSeconds = TimeUnit.DAYS.toSeconds(retentionDays);
+        this.sealDelaySeconds = sealDelaySeconds;
+        this.syncIntervalSeconds = Math.max(1, syncIntervalSeconds);
+    }
+
+    /**
+     * Recover the segments of the directory and start the periodic sync, compaction and retention.
+     */
+    public void start() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create metric directory: " + directory);
+        }
+        File[] appDirs = directory.listFiles(File::isDirectory);
+        if (appDirs != null) {
+            for (File appDir : appDirs) {
+                String app = decodeApp(appDir.getName());
+                try {
+                    apps.put(app, AppSegments.load(app, appDir));
+                } catch (IOException e) {
+                    logger.error("Failed to load metric segments of app {} from {}", app, appDir, e);
+                }
+            }
+        }
+        logger.info("Metric segments of {} apps loaded from {}", apps.size(), directory);
+        maintainer.scheduleWithFixedDelay(this::sync, syncIntervalSeconds, syncIntervalSeconds, TimeUnit.SECONDS);
+        maintainer.scheduleWithFixedDelay(() -> maintain(TimeUtil.currentTimeMillis()), 10, 60, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop the maintenance and close the segments.
+     */
+    @Override
+    public void close() {
+        maintainer.shutdown();
+        for (AppSegments segments : apps.values()) {
+            segments.close();
+        }
+    }
+
+    @Override
+    public void save(MetricEntity entity) {
+        saveAll(Collections.singletonList(entity));
+    }
+
+    @Override
+    public void saveAll(Iterable<MetricEntity> metrics) {
+        if (metrics == null) {
+            return;
+        }
+        recent.saveAll(metrics);
+        Map<String, List<MetricEntity>> byApp = new LinkedHashMap<>();
+        for (MetricEntity entity : metrics) {
+            if (entity == null || StringUtil.isBlank(entity.getApp())) {
+                continue;
+            }
+            byApp.computeIfAbsent(entity.getApp(), k -> new ArrayList<>()).add(entity);
+        }
+        long expireSecond = TimeUtil.currentTimeMillis() / 1000 - retentionSeconds;
+        for (Map.Entry<String, List<MetricEntity>> entry : byApp.entrySet()) {
+            String app = entry.getKey();
+            try {
+                AppSegments segments = apps.get(app);
+                if (segments == null) {
+                    segments = apps.computeIfAbsent(app, k -> new AppSegments(app, new File(directory,
+                        encodeApp(app))));
+                }
+                segments.append(entry.getValue(), expireSecond);
+            } catch (IOException e) {
+                logger.error("Failed to persist {} metrics of app {}", entry.getValue().size(), app, e);
+            }
+        }
+    }
+
+    @Override
+    public List<MetricEntity> queryByAppAndResourceBetween(String app, String resource,
+                                                           long startTime, long endTime) {
+        if (StringUtil.isBlank(app) || endTime < startTime) {
+            return new ArrayList<>();
+        }
+        if (isRecent(startTime)) {
+            return recent.queryByAppAndResourceBetween(app, resource, startTime, endTime);
+        }
+        return read(app, apps.get(app), resource, startTime, endTime);
+    }
+
+    @Override
+    public Map<String, List<MetricEntity>> queryByAppAndResourcesBetween(String app, Collection<String> resources,
+                                                                         long startTime, long endTime,
+                                                                         int maxPoints) {
+        if (!StringUtil.isBlank(app) && endTime >= startTime && isRecent(startTime)) {
+            return recent.queryByAppAndResourcesBetween(app, resources, startTime, endTime, maxPoints);
+        }
+        AppSegments segments = StringUtil.isBlank(app) || endTime < startTime ? null : apps.get(app);
+        Map<String, List<MetricEntity>> results = new LinkedHashMap<>();
+        for (String resource : resources) {
+            results.put(resource, read(app, segments, resource, startTime, endTime));
+        }
+        return results;
+    }
+
+    private boolean isRecent(long startTime) {
+        long now = TimeUtil.currentTimeMillis();
+        return startTime >= Math.max(startedAt, now - RingBufferMetricsRepository.RETENTION_SECONDS * 1000L);
+    }
+
+    private List<MetricEntity> read(String app, AppSegments segments, String resource, long startTime,
+                                    long endTime) {
+        if (segments == null) {
+            return new ArrayList<>();
+        }
+        Map<Long, MetricEntity> seconds = new TreeMap<>();
+        try {
+            segments.read(resource, -Math.floorDiv(-startTime, 1000), Math.floorDiv(endTime, 1000), seconds);
+        } catch (IOException e) {
+            logger.warn("Failed to read metrics of {}:{} from segments", app, resource, e);
+        }
+        return new ArrayList<>(seconds.values());
+    }
+
+    /**
+     * Scan the segments resource by resource, holding one hour of one resource at a time.
+     */
+    @Override
+    public void scanBetween(long startTime, long endTime, Consumer<MetricEntity> consumer) {
+        for (AppSegments segments : apps.values()) {
+            try {
+                segments.scan(-Math.floorDiv(-startTime, 1000), Math.floorDiv(endTime, 1000), consumer);
+            } catch (IOException e) {
+                logger.warn("Failed to scan metric segments of app {}", segments.app, e);
+            }
+        }
+    }
+
+    @Override
+    public List<String> listResourcesOfApp(String app) {
+        return recent.listResourcesOfApp(app);
+    }
+
+    /**
+     * Sweep the recent seconds kept in memory. Segments are only deleted by the retention of the store.
+     */
+    @Override
+    public SweepStats sweep(long now, double retentionFactor) {
+        return recent.sweep(now, retentionFactor);
+    }
+
+    /**
+     * Sync the segments written since the last sync to the disk.
+     */
+    void sync() {
+        for (AppSegments segments : apps.values()) {
+            try {
+                segments.force();
+            } catch (Throwable e) {
+                logger.warn("Failed to sync metric segments of app {}", segments.app, e);
+            }
+        }
+    }
+
+    /**
+     * Compact the segments of sealed hours and delete the segments older than the retention, as the periodic
+     * maintenance does every minute.
+     */
+    public void maintain(long now) {
+        long nowSecond = now / 1000;
+        for (AppSegments segments : apps.values()) {
+            try {
+                segments.compact(nowSecond - sealDelaySeconds);
+                segments.expire(nowSecond - retentionSeconds);
+            } catch (Throwable e) {
+                logger.warn("Failed to maintain metric segments of app {}", segments.app, e);
+            }
+        }
+    }
+
+    static String encodeApp(String app) {
+        try {
+            // "." and ".." must not be taken as directories.
+            return URLEncoder.encode(app, "UTF-8").replace(".", "%2E");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String decodeApp(String name) {
+        try {
+            return URLDecoder.decode(name, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Dictionary and segments of one app. Writes, retention and the swaps of compacted segments are serialized by
+     * the monitor; the compaction itself runs outside of it. Reads only go through the concurrent segment maps and
+     * the segment monitors.
+     */
+    private static final class AppSegments {
+
+        private final String app;
+        private final File dir;
+        private final ResourceDictionary dictionary = new ResourceDictionary();
+        private final ConcurrentSkipListMap<Long, ActiveSegment> active = new ConcurrentSkipListMap<>();
+        private final ConcurrentSkipListMap<Long, CompactedSegment> compacted = new ConcurrentSkipListMap<>();
+        /**
+         * Resource ids persisted to the dictionary file, guarded by {@code this}.
+         */
+        private int persistedIds;
+        private FileChannel dictionaryChannel;
+
+        AppSegments(String app, File dir) {
+            this.app = app;
+            this.dir = dir;
+        }
+
+        static AppSegments load(String app, File dir) throws IOException {
+            AppSegments segments = new AppSegments(app, dir);
+            segments.loadDictionary();
+            File[] files = dir.listFiles(File::isFile);
+            if (files == null) {
+                return segments;
+            }
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(TMP_SUFFIX)) {
+                    // Left by an interrupted compaction, the segments it merged are still there.
+                    if (!file.delete()) {
+                        logger.warn("Failed to delete {}", file);
+                    }
+                    continue;
+                }
+                try {
+                    if (name.endsWith(COMPACTED_SUFFIX)) {
+                        CompactedSegment segment = CompactedSegment.open(file);
+                        segments.compacted.put(segment.getStartSecond(), segment);
+                    } else if (name.endsWith(ACTIVE_SUFFIX)) {
+                        long start = Long.parseLong(name.substring(0, name.length() - ACTIVE_SUFFIX.length()));
+                        int known = segments.persistedIds;
+                        segments.active.put(start, ActiveSegment.open(file, start, id -> id >= 0 && id < known));
+                    }
+                } catch (IOException | NumberFormatException e) {
+                    logger.error("Skipped unreadable metric segment {}", file, e);
+                }
+            }
+            return segments;
+        }
+
+        private void loadDictionary() throws IOException {
+            File file = new File(dir, DICTIONARY_FILE);
+            dictionaryChannel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+            long size = dictionaryChannel.size();
+            ByteBuffer content = dictionaryChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            // Entries: length(2) name(UTF-8), in id order.
+            int position = 0;
+            while (position + 2 <= size) {
+                int length = content.getShort(position) & 0xffff;
+                if (position + 2 + length > size) {
+                    break;
+                }
+                byte[] name = new byte[length];
+                content.position(position + 2);
+                content.get(name);
+                dictionary.intern(new String(name, StandardCharsets.UTF_8));
+                position += 2 + length;
+            }
+            if (position < size) {
+                logger.warn("Resource dictionary {} truncated from {} to {} bytes after an incomplete write", file,
+                    size, position);
+                dictionaryChannel.truncate(position);
+            }
+            persistedIds = dictionary.size();
+        }
+
+        synchronized void append(List<MetricEntity> entities, long expireSecond) throws IOException {
+            if (dictionaryChannel == null) {
+                if (!dir.isDirectory() && !dir.mkdirs()) {
+                    throw new IOException("cannot create metric directory: " + dir);
+                }
+                loadDictionary();
+            }
+            Map<Long, ByteBuffer> batches = new TreeMap<>();
+            for (MetricEntity entity : entities) {
+                if (entity.getTimestamp() == null || entity.getResource() == null) {
+                    continue;
+                }
+                long second = entity.getTimestamp().getTime() / 1000;
+                if (second < expireSecond || isTooLong(entity.getResource())) {
+                    continue;
+                }
+                ByteBuffer batch = batches.computeIfAbsent(SegmentRecords.segmentOf(second),
+                    k -> ByteBuffer.allocate(entities.size() * SegmentRecords.SIZE));
+                SegmentRecords.put(batch, dictionary.intern(entity.getResource()), entity);
+            }
+            // Ids must be persisted before the records referring to them.
+            persistDictionary();
+            for (Map.Entry<Long, ByteBuffer> entry : batches.entrySet()) {
+                ByteBuffer batch = entry.getValue();
+                batch.flip();
+                activeSegmentOf(entry.getKey()).append(batch);
+            }
+        }
+
+        private static boolean isTooLong(String resource) {
+            return resource.length() * 3 > MAX_RESOURCE_NAME_BYTES
+                && resource.getBytes(StandardCharsets.UTF_8).length > MAX_RESOURCE_NAME_BYTES;
+        }
+
+        private void persistDictionary() throws IOException {
+            int size = dictionary.size();
+            if (persistedIds == size) {
+                return;
+            }
+            List<byte[]> names = new ArrayList<>(size - persistedIds);
+            int bytes = 0;
+            for (int id = persistedIds; id < size; id++) {
+                byte[] name = dictionary.nameOf(id).getBytes(StandardCharsets.UTF_8);
+                names.add(name);
+                bytes += 2 + name.length;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(bytes);
+            for (byte[] name : names) {
+                buffer.putShort((short)name.length).put(name);
+            }
+            buffer.flip();
+            long position = dictionaryChannel.size();
+            while (buffer.hasRemaining()) {
+                position += dictionaryChannel.write(buffer, position);
+            }
+            dictionaryChannel.force(false);
+            persistedIds = size;
+        }
+
+        private ActiveSegment activeSegmentOf(long start) throws IOException {
+            ActiveSegment segment = active.get(start);
+            if (segment == null) {
+                segment = ActiveSegment.open(new File(dir, start + ACTIVE_SUFFIX), start,
+                    id -> id >= 0 && id < persistedIds);
+                active.put(start, segment);
+            }
+            return segment;
+        }
+
+        void read(String resource, long fromSecond, long toSecond, Map<Long, MetricEntity> out)
+            throws IOException {
+            int id = dictionary.find(resource);
+            if (id == ResourceDictionary.UNKNOWN || toSecond < fromSecond) {
+                return;
+            }
+            long fromSegment = SegmentRecords.segmentOf(fromSecond);
+            // Seconds appended after the compaction of their hour override the compacted ones.
+            for (CompactedSegment segment : compacted.subMap(fromSegment, true, toSecond, true).values()) {
+                segment.read(id, fromSecond, toSecond, app, resource, out);
+            }
+            for (ActiveSegment segment : active.subMap(fromSegment, true, toSecond, true).values()) {
+                segment.read(id, fromSecond, toSecond, app, resource, out);
+            }
+        }
+
+        void scan(long fromSecond, long toSecond, Consumer<MetricEntity> consumer) throws IOException {
+            if (toSecond < fromSecond) {
+                return;
+            }
+            long fromSegment = SegmentRecords.segmentOf(fromSecond);
+            NavigableSet<Long> hours = new TreeSet<>(compacted.subMap(fromSegment, true, toSecond, true).keySet());
+            hours.addAll(active.subMap(fromSegment, true, toSecond, true).keySet());
+            Map<Long, MetricEntity> seconds = new TreeMap<>();
+            int size = dictionary.size();
+            for (int id = 0; id < size; id++) {
+                String resource = dictionary.nameOf(id);
+                if (resource == null) {
+                    continue;
+                }
+                for (long hour : hours) {
+                    CompactedSegment compactedSegment = compacted.get(hour);
+                    if (compactedSegment != null) {
+                        compactedSegment.read(id, fromSecond, toSecond, app, resource, seconds);
+                    }
+                    ActiveSegment activeSegment = active.get(hour);
+                    if (activeSegment != null) {
+                        activeSegment.read(id, fromSecond, toSecond, app, resource, seconds);
+                    }
+                    seconds.values().forEach(consumer);
+                    seconds.clear();
+                }
+            }
+        }
+
+        void force() throws IOException {
+            for (ActiveSegment segment : active.values()) {
+                segment.force();
+            }
+        }
+
+        /**
+         * Compact the segments of the hours ended before {@code sealedBefore}. Segments are merged without holding
+         * the monitor, so that the writes of the app go on; an active segment written during its compaction is
+         * kept and compacted again by the next maintenance, its seconds overriding the compacted ones meanwhile.
+         */
+        void compact(long sealedBefore) throws IOException {
+            List<ActiveSegment> sealed;
+            synchronized (this) {
+                sealed = new ArrayList<>(active.headMap(sealedBefore - SegmentRecords.SECONDS_PER_SEGMENT, true)
+                    .values());
+            }
+            for (ActiveSegment segment : sealed) {
+                long start = segment.getStartSecond();
+                ByteBuffer records = segment.mapRecords();
+                int count = records.capacity() / SegmentRecords.SIZE;
+                if (count == 0) {
+                    // Nothing was appended, e.g. left empty by a crash: there is nothing to compact.
+                    synchronized (this) {
+                        if (active.get(start) == segment && segment.getRecords() == 0) {
+                            active.remove(start);
+                            segment.close();
+                            delete(segment.getFile());
+                        }
+                    }
+                    continue;
+                }
+                CompactedSegment merged = CompactedSegment.compact(new File(dir, start + COMPACTED_SUFFIX), start,
+                    compacted.get(start), records, count);
+                synchronized (this) {
+                    // Publish the compacted segment before the active one goes away, so readers never miss both.
+                    compacted.put(start, merged);
+                    if (active.get(start) == segment && segment.getRecords() == count) {
+                        active.remove(start);
+                        segment.close();
+                        delete(segment.getFile());
+                    }
+                }
+            }
+        }
+
+        synchronized void expire(long expireSecond) throws IOException {
+            long before = expireSecond - SegmentRecords.SECONDS_PER_SEGMENT;
+            Iterator<ActiveSegment> activeIt = active.headMap(before, true).values().iterator();
+            while (activeIt.hasNext()) {
+                ActiveSegment segment = activeIt.next();
+                activeIt.remove();
+                segment.close();
+                delete(segment.getFile());
+            }
+            Iterator<CompactedSegment> compactedIt = compacted.headMap(before, true).values().iterator();
+            while (compactedIt.hasNext()) {
+                CompactedSegment segment = compactedIt.next();
+                compactedIt.remove();
+                delete(segment.getFile());
+            }
+        }
+
+        synchronized void close() {
+            for (ActiveSegment segment : active.values()) {
+                try {
+                    segment.force();
+                    segment.close();
+                } catch (IOException e) {
+                    logger.warn("Failed to close metric segment {}", segment.getFile(), e);
+                }
+            }
+            try {
+                if (dictionaryChannel != null) {
+                    dictionaryChannel.close();
+                }
+            } catch (IOException e) {
+                logger.warn("Failed to close resource dictionary of app {}", app, e);
+            }
+        }
+
+        private static void delete(File file) {
+            if (!file.delete()) {
+                logger.warn("Failed to delete metric segment {}", file);
+            }
+        }
+    }
+}
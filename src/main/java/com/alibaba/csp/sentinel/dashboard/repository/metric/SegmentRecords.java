@@ -0,0 +1,110 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.zip.CRC32;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+
+/**
+ * Fixed-size binary layout of one metric second in segment files, big-endian:
+ * <pre>
+ * second(8) resourceId(4) passQps(8) successQps(8) blockQps(8) exceptionQps(8) rt(8) count(4) crc32(4)
+ * </pre>
+ */
+final class SegmentRecords {
+
+    static final int SIZE = 60;
+
+    private static final int SECOND = 0;
+    private static final int RESOURCE_ID = 8;
+    private static final int PASS_QPS = 12;
+    private static final int SUCCESS_QPS = 20;
+    private static final int BLOCK_QPS = 28;
+    private static final int EXCEPTION_QPS = 36;
+    private static final int RT = 44;
+    private static final int COUNT = 52;
+    private static final int CRC = 56;
+
+    static final long SECONDS_PER_SEGMENT = 3600;
+
+    /**
+     * Append the entity at the position of the buffer, which must be backed by an array.
+     */
+    static void put(ByteBuffer buffer, int resourceId, MetricEntity entity) {
+        int offset = buffer.position();
+        buffer.putLong(entity.getTimestamp().getTime() / 1000);
+        buffer.putInt(resourceId);
+        buffer.putLong(valueOf(entity.getPassQps()));
+        buffer.putLong(valueOf(entity.getSuccessQps()));
+        buffer.putLong(valueOf(entity.getBlockQps()));
+        buffer.putLong(valueOf(entity.getExceptionQps()));
+        buffer.putDouble(entity.getRt());
+        buffer.putInt(entity.getCount());
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), buffer.arrayOffset() + offset, CRC);
+        buffer.putInt((int)crc.getValue());
+    }
+
+    static boolean isValid(ByteBuffer buffer, int offset) {
+        ByteBuffer record = buffer.duplicate();
+        record.limit(offset + CRC).position(offset);
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        return (int)crc.getValue() == buffer.getInt(offset + CRC);
+    }
+
+    static long second(ByteBuffer buffer, int offset) {
+        return buffer.getLong(offset + SECOND);
+    }
+
+    static int resourceId(ByteBuffer buffer, int offset) {
+        return buffer.getInt(offset + RESOURCE_ID);
+    }
+
+    static MetricEntity toEntity(ByteBuffer buffer, int offset, String app, String resource) {
+        MetricEntity entity = new MetricEntity();
+        entity.setApp(app);
+        entity.setResource(resource);
+        entity.setResourceCode(resourceId(buffer, offset));
+        Date timestamp = new Date(second(buffer, offset) * 1000);
+        entity.setTimestamp(timestamp);
+        entity.setGmtCreate(timestamp);
+        entity.setGmtModified(timestamp);
+        entity.setPassQps(buffer.getLong(offset + PASS_QPS));
+        entity.setSuccessQps(buffer.getLong(offset + SUCCESS_QPS));
+        entity.setBlockQps(buffer.getLong(offset + BLOCK_QPS));
+        entity.setExceptionQps(buffer.getLong(offset + EXCEPTION_QPS));
+        entity.setRt(buffer.getDouble(offset + RT));
+        entity.setCount(buffer.getInt(offset + COUNT));
+        return entity;
+    }
+
+    /**
+     * @return start second of the segment holding the second
+     */
+    static long segmentOf(long second) {
+        return Math.floorDiv(second, SECONDS_PER_SEGMENT) * SECONDS_PER_SEGMENT;
+    }
+
+    private static long valueOf(Long value) {
+        return value == null ? 0 : value;
+    }
+
+    private SegmentRecords() {}
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+/**
+ * Counts of what a {@link MetricsRepository#sweep(long, double)} evicted. Downsampled buckets count as points.
+ */
+public final class SweepStats {
+
+    private long evictedPoints;
+    private long evictedSeries;
+    private long evictedApps;
+
+    public void addPoints(long points) {
+        evictedPoints += points;
+    }
+
+    public void addSeries(long series) {
+        evictedSeries += series;
+    }
+
+    public void addApps(long apps) {
+        evictedApps += apps;
+    }
+
+    public SweepStats add(SweepStats other) {
+        evictedPoints += other.evictedPoints;
+        evictedSeries += other.evictedSeries;
+        evictedApps += other.evictedApps;
+        return this;
+    }
+
+    public long getEvictedPoints() {
+        return evictedPoints;
+    }
+
+    public long getEvictedSeries() {
+        return evictedSeries;
+    }
+
+    public long getEvictedApps() {
+        return evictedApps;
+    }
+
+    @Override
+    public String toString() {
+        return "SweepStats{" +
+            "evictedPoints=" + evictedPoints +
+            ", evictedSeries=" + evictedSeries +
+            ", evictedApps=" + evictedApps +
+            '}';
+    }
+}
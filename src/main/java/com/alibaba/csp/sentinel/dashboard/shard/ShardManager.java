@@ -0,0 +1,425 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.shard;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.dashboard.client.HttpClientManager;
+import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
+import com.alibaba.csp.sentinel.dashboard.domain.Result;
+import com.alibaba.csp.sentinel.util.StringUtil;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * <p>Splits the metric fetching of apps across several dashboard instances.</p>
+ * <p>
+ * The instances are listed in {@link DashboardConfig#CONFIG_SHARD_MEMBERS}. Each instance probes the others and
+ * assigns apps over the live ones with a {@link ShardRing}, so the apps of an instance that leaves are picked up
+ * by the others within a few probe intervals, and handed back when it returns. Heartbeats are replicated to the
+ * live peers so that every instance knows every machine, and metric queries of an app are forwarded to its owner.
+ * </p>
+ * <p>
+ * Forwarded queries carry {@link DashboardConfig#CONFIG_SHARD_TOKEN}, which is therefore required when sharding is
+ * configured. They do not hold a request thread while the owner answers, and at most
+ * {@link DashboardConfig#getShardMaxConcurrentForwards()} of them are pending at once, so an unreachable peer
+ * cannot exhaust the request threads.
+ * </p>
+ */
+@Component
+public class ShardManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardManager.class);
+
+    /**
+     * Header carrying {@link DashboardConfig#CONFIG_SHARD_TOKEN} on requests between instances.
+     */
+    public static final String TOKEN_HEADER = "X-Sentinel-Shard-Token";
+    /**
+     * Parameter marking a heartbeat replicated from another instance.
+     */
+    public static final String FORWARDED_PARAM = "shard_forwarded";
+
+    /**
+     * Servlet paths of the queries forwarded to the owner of the app, the only ones the token grants access to.
+     */
+    public static final Set<String> FORWARDED_PATHS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+        "/metric/queryTopResourceMetric.json", "/metric/queryByAppAndResource.json")));
+
+    private static final String PROBE_PATH = "/version";
+    private static final String REGISTRY_PATH = "/registry/machine";
+    private static final String REGISTRY_BATCH_PATH = "/registry/machines";
+    private static final int MISSED_PROBES_TO_LEAVE = 3;
+
+    private final HttpClientManager httpClientManager;
+
+    private final String self;
+    private final List<String> peers;
+    private final long probeIntervalMs;
+    private final String token;
+    private final Semaphore forwardPermits;
+    private final RequestConfig forwardRequestConfig;
+    private final Map<String, Long> lastSeen = new ConcurrentHashMap<>();
+
+    private volatile ShardRing ring;
+
+    private ScheduledExecutorService probeService;
+
+    @Autowired
+    public ShardManager(HttpClientManager httpClientManager) {
+        this(httpClientManager, DashboardConfig.getShardSelf(), DashboardConfig.getShardMembers(),
+            DashboardConfig.getShardToken(), DashboardConfig.getShardProbeIntervalMillis(),
+            DashboardConfig.getShardMaxConcurrentForwards());
+    }
+
+    ShardManager(HttpClientManager httpClientManager, String self, String members, String token,
+                 long probeIntervalMs, int maxConcurrentForwards) {
+        this.httpClientManager = httpClientManager;
+        this.probeIntervalMs = probeIntervalMs;
+        this.token = token;
+        this.forwardPermits = new Semaphore(maxConcurrentForwards);
+        int forwardTimeoutMs = DashboardConfig.getShardForwardTimeoutMillis();
+        this.forwardRequestConfig = RequestConfig.custom()
+            .setConnectTimeout(forwardTimeoutMs)
+            .setConnectionRequestTimeout(forwardTimeoutMs)
+            .setSocketTimeout(forwardTimeoutMs)
+            .build();
+        Set<String> all = new LinkedHashSet<>();
+        if (StringUtil.isNotBlank(members)) {
+            for (String member : members.split(",")) {
+                if (StringUtil.isNotBlank(member)) {
+                    all.add(member.trim());
+                }
+            }
+        }
+        if (!all.isEmpty() && StringUtil.isBlank(token)) {
+            throw new IllegalStateException(DashboardConfig.CONFIG_SHARD_TOKEN + " is required when "
+                + DashboardConfig.CONFIG_SHARD_MEMBERS + " is set");
+        }
+        if (all.isEmpty() || StringUtil.isBlank(self)) {
+            this.self = null;
+            this.peers = Collections.emptyList();
+            return;
+        }
+        this.self = self.trim();
+        all.add(this.self);
+        List<String> others = new ArrayList<>(all);
+        others.remove(this.self);
+        this.peers = Collections.unmodifiableList(others);
+        // Configured members are assumed alive until they miss their first probes.
+        long now = System.currentTimeMillis();
+        for (String peer : peers) {
+            lastSeen.put(peer, now);
+        }
+        this.ring = new ShardRing(all);
+    }
+
+    @PostConstruct
+    @SuppressWarnings("PMD.ThreadPoolCreationRule")
+    public void start() {
+        if (!isEnabled()) {
+            return;
+        }
+        logger.info("Metric fetching sharded as {} across {}", self, ring);
+        probeService = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("sentinel-dashboard-shard-probe", true));
+        probeService.scheduleWithFixedDelay(() -> {
+            try {
+                probe();
+            } catch (Throwable t) {
+                logger.warn("Failed to probe dashboard peers", t);
+            }
+        }, probeIntervalMs, probeIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (probeService != null) {
+            probeService.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return self != null;
+    }
+
+    /**
+     * @return true if this instance fetches the metrics of the app
+     */
+    public boolean isLocal(String app) {
+        return !isEnabled() || self.equals(ring.ownerOf(app));
+    }
+
+    /**
+     * @return address of the instance owning the app, this instance if sharding is disabled
+     */
+    public String ownerOf(String app) {
+        return isEnabled() ? ring.ownerOf(app) : self;
+    }
+
+    public ShardRing getRing() {
+        return ring;
+    }
+
+    private void probe() {
+        for (final String peer : peers) {
+            httpClientManager.execute(new HttpGet("http://" + peer + PROBE_PATH), new FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(HttpResponse response) {
+                    if (response.getStatusLine().getStatusCode() == 200) {
+                        onProbe(peer, System.currentTimeMillis());
+                    }
+                    EntityUtils.consumeQuietly(response.getEntity());
+                }
+
+                @Override
+                public void failed(Exception ex) {
+                    logger.debug("Dashboard peer {} unreachable: {}", peer, ex.toString());
+                }
+
+                @Override
+                public void cancelled() {
+                }
+            });
+        }
+        refreshRing(System.currentTimeMillis());
+    }
+
+    void onProbe(String peer, long now) {
+        lastSeen.put(peer, now);
+    }
+
+    /**
+     * Rebuild the ring from the peers seen within the last probes.
+     */
+    void refreshRing(long now) {
+        Set<String> live = new LinkedHashSet<>();
+        live.add(self);
+        for (String peer : peers) {
+            Long seen = lastSeen.get(peer);
+            if (seen != null && now - seen <= probeIntervalMs * MISSED_PROBES_TO_LEAVE) {
+                live.add(peer);
+            }
+        }
+        ShardRing current = ring;
+        if (!new HashSet<>(current.getMembers()).equals(live)) {
+            ring = new ShardRing(live);
+            logger.info("Dashboard shard members changed from {} to {}", current, ring);
+        }
+    }
+
+    /**
+     * Replicate a heartbeat received from a machine to the other live instances, without waiting for them.
+     */
+    public void replicateHeartbeat(Map<String, String[]> params) {
+        if (!isEnabled()) {
+            return;
+        }
+        String query = buildQuery(params) + "&" + FORWARDED_PARAM + "=true";
+        for (final String member : ring.getMembers()) {
+            if (!member.equals(self)) {
+                replicate(member, new HttpGet("http://" + member + REGISTRY_PATH + "?" + query));
+            }
+        }
+    }
+
+    /**
+     * Replicate a batch of heartbeats, as posted to {@code /registry/machines}, to the live peers.
+     *
+     * @param body request body of the batch
+     */
+    public void replicateHeartbeats(byte[] body) {
+        if (!isEnabled()) {
+            return;
+        }
+        for (final String member : ring.getMembers()) {
+            if (!member.equals(self)) {
+                HttpPost httpPost = new HttpPost(
+                    "http://" + member + REGISTRY_BATCH_PATH + "?" + FORWARDED_PARAM + "=true");
+                httpPost.setEntity(new ByteArrayEntity(body, ContentType.APPLICATION_JSON));
+                replicate(member, httpPost);
+            }
+        }
+    }
+
+    private void replicate(final String member, HttpUriRequest request) {
+        httpClientManager.execute(request, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                EntityUtils.consumeQuietly(response.getEntity());
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                logger.debug("Failed to replicate heartbeat to {}: {}", member, ex.toString());
+            }
+
+            @Override
+            public void cancelled() {
+            }
+        });
+    }
+
+    /**
+     * Forward a query about the app to the instance owning it, without waiting for the answer.
+     *
+     * @return future of the result of the owner, completed with a failed result if the owner could not be
+     * reached, or right away if the path is not forwarded or too many queries are pending
+     */
+    public CompletableFuture<Result<?>> forward(String app, HttpServletRequest request) {
+        String path = request.getServletPath();
+        if (!FORWARDED_PATHS.contains(path)) {
+            return CompletableFuture.completedFuture(Result.ofFail(-1, path + " cannot be forwarded"));
+        }
+        String owner = ownerOf(app);
+        if (!forwardPermits.tryAcquire()) {
+            logger.warn("Too many forwarded queries pending, {} of app {} rejected", path, app);
+            return CompletableFuture.completedFuture(
+                Result.ofFail(-1, "too many queries pending on dashboard " + owner + " owning app " + app));
+        }
+        final CompletableFuture<Result<?>> future = new CompletableFuture<>();
+        String url = "http://" + owner + path + "?" + buildQuery(request.getParameterMap());
+        HttpGet httpGet = new HttpGet(url);
+        httpGet.setHeader(TOKEN_HEADER, token);
+        httpGet.setConfig(forwardRequestConfig);
+        try {
+            httpClientManager.execute(httpGet, new FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(HttpResponse response) {
+                    forwardPermits.release();
+                    try {
+                        future.complete(resultOf(owner, app, response));
+                    } catch (Exception e) {
+                        logger.warn("Bad answer of dashboard {} owning app {} to {}", owner, app, path, e);
+                        future.complete(unreachable(owner, app));
+                    }
+                }
+
+                @Override
+                public void failed(Exception ex) {
+                    forwardPermits.release();
+                    logger.warn("Failed to forward {} to dashboard {} owning app {}", path, owner, app, ex);
+                    future.complete(unreachable(owner, app));
+                }
+
+                @Override
+                public void cancelled() {
+                    forwardPermits.release();
+                    future.complete(unreachable(owner, app));
+                }
+            });
+        } catch (RuntimeException e) {
+            forwardPermits.release();
+            logger.warn("Failed to forward {} to dashboard {} owning app {}", path, owner, app, e);
+            future.complete(unreachable(owner, app));
+        }
+        return future;
+    }
+
+    private static Result<?> unreachable(String owner, String app) {
+        return Result.ofFail(-1, "failed to reach dashboard " + owner + " owning app " + app);
+    }
+
+    private static Result<?> resultOf(String owner, String app, HttpResponse response) throws IOException {
+        int code = response.getStatusLine().getStatusCode();
+        String body = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+        if (code != 200) {
+            return Result.ofFail(-1, "dashboard " + owner + " owning app " + app + " returned " + code);
+        }
+        JSONObject json = JSON.parseObject(body);
+        Result<Object> result = json.getBooleanValue("success") ? Result.ofSuccess(json.get("data"))
+            : Result.ofFail(json.getIntValue("code"), null);
+        return result.setMsg(json.getString("msg"));
+    }
+
+    /**
+     * @return true if the request is one of the {@link #FORWARDED_PATHS} and was forwarded by another dashboard
+     * instance with the shared token
+     */
+    public static boolean isForwarded(HttpServletRequest request) {
+        if (!FORWARDED_PATHS.contains(request.getServletPath())) {
+            return false;
+        }
+        String token = DashboardConfig.getShardToken();
+        String header = request.getHeader(TOKEN_HEADER);
+        if (token == null || header == null) {
+            return false;
+        }
+        return MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8), header.getBytes(StandardCharsets.UTF_8));
+    }
+
+    int availableForwardPermits() {
+        return forwardPermits.availablePermits();
+    }
+
+    private static String buildQuery(Map<String, String[]> params) {
+        StringBuilder query = new StringBuilder();
+        try {
+            for (Map.Entry<String, String[]> entry : params.entrySet()) {
+                if (FORWARDED_PARAM.equals(entry.getKey())) {
+                    continue;
+                }
+                for (String value : entry.getValue()) {
+                    if (query.length() > 0) {
+                        query.append('&');
+                    }
+                    query.append(URLEncoder.encode(entry.getKey(), "UTF-8")).append('=')
+                        .append(URLEncoder.encode(value, "UTF-8"));
+                }
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return query.toString();
+    }
+}
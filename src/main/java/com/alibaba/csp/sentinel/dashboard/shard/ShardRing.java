@@ -0,0 +1,99 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.shard;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import com.alibaba.csp.sentinel.util.AssertUtil;
+
+/**
+ * <p>Immutable assignment of apps to dashboard instances by rendezvous (highest random weight) hashing.</p>
+ * <p>
+ * Every instance computes the same owner for an app from the same member set, without coordination. When a
+ * member leaves, only the apps it owned move; when a member joins, it only takes apps over from the others.
+ * </p>
+ */
+public final class ShardRing {
+
+    private final List<String> members;
+    private final long[] memberHashes;
+
+    /**
+     * @param members addresses of the live dashboard instances, in {@code host:port} form
+     */
+    public ShardRing(Collection<String> members) {
+        AssertUtil.isTrue(members != null && !members.isEmpty(), "members cannot be empty");
+        this.members = Collections.unmodifiableList(new ArrayList<>(new TreeSet<>(members)));
+        this.memberHashes = new long[this.members.size()];
+        for (int i = 0; i < memberHashes.length; i++) {
+            memberHashes[i] = hash(this.members.get(i), 0xcbf29ce484222325L);
+        }
+    }
+
+    /**
+     * @return address of the member that owns the app
+     */
+    public String ownerOf(String app) {
+        long appHash = hash(app, 0x84222325cbf29ce4L);
+        int owner = 0;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < memberHashes.length; i++) {
+            long weight = mix(memberHashes[i] ^ appHash);
+            if (weight > max) {
+                max = weight;
+                owner = i;
+            }
+        }
+        return members.get(owner);
+    }
+
+    public List<String> getMembers() {
+        return members;
+    }
+
+    /**
+     * FNV-1a over the chars of the string, stable across JVMs.
+     */
+    private static long hash(String s, long seed) {
+        long h = seed;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    /**
+     * Finalizer of MurmurHash3, spreads every input bit over the result.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return "ShardRing" + members;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.alibaba.csp.sentinel.dashboard.discovery.SimpleMachineDiscovery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Throughput of the heartbeats of registered machines received by {@link SimpleMachineDiscovery} from 4 threads,
+ * which should stay well above 50k heartbeats per second. Heartbeats are spread over the machines of
+ * {@code apps} apps, and are versioned by the clock as clients do, so concurrent ones may arrive out of order.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class HeartbeatBenchmark {
+
+    private static final String VERSION = "1.8.6";
+
+    @Param({"1", "10"})
+    private int apps;
+
+    @Param({"5000"})
+    private int machines;
+
+    private SimpleMachineDiscovery discovery;
+    private String[] appNames;
+    private String[] hostnames;
+    private String[] ips;
+
+    @Setup
+    public void setUp() {
+        discovery = new SimpleMachineDiscovery();
+        appNames = new String[machines];
+        hostnames = new String[machines];
+        ips = new String[machines];
+        for (int m = 0; m < machines; m++) {
+            appNames[m] = "benchmark-app-" + m % apps;
+            hostnames[m] = "host-" + m;
+            ips[m] = "10.0." + (m >> 8) + "." + (m & 0xff);
+            discovery.receiveHeartbeat(appNames[m], 0, hostnames[m], ips[m], 8719, System.currentTimeMillis(),
+                VERSION);
+        }
+    }
+
+    @Benchmark
+    public boolean receiveHeartbeat() {
+        int m = ThreadLocalRandom.current().nextInt(machines);
+        return discovery.receiveHeartbeat(appNames[m], 0, hostnames[m], ips[m], 8719, System.currentTimeMillis(),
+            VERSION);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder()
+            .include(HeartbeatBenchmark.class.getSimpleName())
+            .build();
+        new Runner(opt).run();
+    }
+}
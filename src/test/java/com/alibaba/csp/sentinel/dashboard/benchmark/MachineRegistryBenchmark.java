@@ -0,0 +1,128 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.benchmark;
+
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.alibaba.csp.sentinel.dashboard.discovery.AppInfo;
+import com.alibaba.csp.sentinel.dashboard.discovery.MachineInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Latency of the machine lookups of {@link AppInfo} done for every command sent to a machine, and of iterating the
+ * machines of an app as the metric fetcher does every second, while heartbeats keep re-registering machines
+ * ({@code heartbeatEvery} lookups per heartbeat, 0 for none).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MachineRegistryBenchmark {
+
+    private static final String APP = "benchmark-app";
+    private static final int PORTS_PER_IP = 2;
+
+    @Param({"5000"})
+    private int machines;
+
+    @Param({"0", "100"})
+    private int heartbeatEvery;
+
+    private AppInfo appInfo;
+    private String[] ips;
+    private long lookups;
+
+    @Setup
+    public void setUp() {
+        appInfo = new AppInfo(APP);
+        ips = new String[machines];
+        for (int m = 0; m < machines; m++) {
+            int host = m / PORTS_PER_IP;
+            ips[m] = "10.0." + (host >> 8) + "." + (host & 0xff);
+            appInfo.addMachine(machine(m));
+        }
+    }
+
+    @Benchmark
+    public Optional<MachineInfo> getMachineByIpAndPort() {
+        int m = nextMachine();
+        return appInfo.getMachine(ips[m], portOf(m));
+    }
+
+    @Benchmark
+    public Optional<MachineInfo> getMachineByIp() {
+        return appInfo.getMachine(ips[nextMachine()]);
+    }
+
+    @Benchmark
+    public int iterateMachines() {
+        heartbeat();
+        int healthy = 0;
+        for (MachineInfo machine : appInfo.getMachines()) {
+            if (machine.isHealthy()) {
+                healthy++;
+            }
+        }
+        return healthy;
+    }
+
+    private int nextMachine() {
+        heartbeat();
+        return ThreadLocalRandom.current().nextInt(machines);
+    }
+
+    private void heartbeat() {
+        if (heartbeatEvery > 0 && ++lookups % heartbeatEvery == 0) {
+            appInfo.addMachine(machine(ThreadLocalRandom.current().nextInt(machines)));
+        }
+    }
+
+    private MachineInfo machine(int m) {
+        MachineInfo machine = MachineInfo.of(APP, ips[m], portOf(m));
+        machine.setHostname("host-" + m);
+        machine.setLastHeartbeat(System.currentTimeMillis());
+        machine.setHeartbeatVersion(System.currentTimeMillis());
+        return machine;
+    }
+
+    private static int portOf(int m) {
+        return 8719 + m % PORTS_PER_IP;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder()
+            .include(MachineRegistryBenchmark.class.getSimpleName())
+            .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.benchmark;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.InMemoryMetricsRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compression of the sealed minutes of {@link InMemoryMetricsRepository}, and the throughput of decoding them.
+ * The heap retained by an hour of history is printed when the store is filled, for series that are
+ * {@code sparse} (a metric every 10 seconds, mostly zeros), {@code steady} (slowly changing) or {@code noisy}
+ * (random values). Decode throughput is the count of sealed metrics decoded per second by hour-long queries.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricChunkBenchmark {
+
+    private static final String APP = "benchmark-app";
+    private static final int SECONDS = 3600;
+
+    @Param({"sparse", "steady", "noisy"})
+    private String shape;
+
+    @Param({"1000"})
+    private int resources;
+
+    private InMemoryMetricsRepository repository;
+    private String[] names;
+    private long now;
+
+    @Setup
+    public void setUp() {
+        long before = usedHeap();
+        repository = new InMemoryMetricsRepository(SECONDS / 60 + 1);
+        now = System.currentTimeMillis() / 1000 * 1000;
+        long metrics = fill();
+        long retained = usedHeap() - before;
+        System.out.printf("%n%s series, %d resources x %d s: %d metrics, %.1f MB retained, %.1f bytes per metric%n",
+            shape, resources, SECONDS, metrics, retained / 1024.0 / 1024.0, (double)retained / metrics);
+    }
+
+    /**
+     * Decode an hour of a series, all of it sealed but the last 5 minutes.
+     */
+    @Benchmark
+    public List<MetricEntity> queryHour() {
+        String resource = names[ThreadLocalRandom.current().nextInt(resources)];
+        return repository.queryByAppAndResourceBetween(APP, resource, now - SECONDS * 1000L, now);
+    }
+
+    private long fill() {
+        names = new String[resources];
+        for (int r = 0; r < resources; r++) {
+            names[r] = "/api/v1/benchmark/resources/" + r;
+        }
+        Random random = new Random(7);
+        long metrics = 0;
+        for (int s = SECONDS - 1; s >= 0; s--) {
+            long timestamp = now - s * 1000L;
+            List<MetricEntity> window = new ArrayList<>(resources);
+            Date date = new Date(timestamp + 2000);
+            for (int r = 0; r < resources; r++) {
+                if ("sparse".equals(shape) && (s + r) % 10 != 0) {
+                    continue;
+                }
+                long passQps;
+                long blockQps;
+                double rt;
+                if ("noisy".equals(shape)) {
+                    passQps = random.nextInt(100_000);
+                    blockQps = random.nextInt(1000);
+                    rt = passQps * random.nextDouble() * 100;
+                } else if ("steady".equals(shape)) {
+                    passQps = 100 + r % 50 + (s / 60) % 5;
+                    blockQps = s % 30 == 0 ? 1 : 0;
+                    rt = passQps * 5.0;
+                } else {
+                    passQps = 1;
+                    blockQps = 0;
+                    rt = 3;
+                }
+                MetricEntity entity = new MetricEntity();
+                entity.setApp(APP);
+                entity.setResource(names[r]);
+                entity.setTimestamp(new Date(timestamp));
+                entity.setGmtCreate(date);
+                entity.setGmtModified(date);
+                entity.setPassQps(passQps);
+                entity.setBlockQps(blockQps);
+                entity.setSuccessQps(passQps);
+                entity.setExceptionQps(0L);
+                entity.setRt(rt);
+                entity.setCount(1);
+                window.add(entity);
+            }
+            repository.saveAll(window);
+            metrics += window.size();
+        }
+        return metrics;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder()
+            .include(MetricChunkBenchmark.class.getSimpleName())
+            .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.dashboard.metric.MetricAggregation;
+import com.alibaba.csp.sentinel.dashboard.metric.ThinMetricDecoder;
+import com.alibaba.csp.sentinel.node.metric.MetricNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares decoding one {@code /metric} response body into the per-app aggregation: the former
+ * {@code String.split} + {@link MetricNode#fromThinString(String)} + string key path against
+ * {@link ThinMetricDecoder}. Run with {@code -prof gc} to compare the allocation rate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MetricDecodeBenchmark {
+
+    private static final String APP = "benchmark-app";
+    private static final int SECONDS = 7;
+
+    @Param({"50", "300"})
+    private int resources;
+
+    private byte[] body;
+    private long startTime;
+    private ThinMetricDecoder decoder;
+
+    @Setup
+    public void setUp() {
+        startTime = System.currentTimeMillis() / 1000 * 1000;
+        StringBuilder sb = new StringBuilder();
+        for (int s = 0; s < SECONDS; s++) {
+            for (int r = 0; r < resources; r++) {
+                MetricNode node = new MetricNode();
+                node.setTimestamp(startTime + s * 1000L);
+                node.setResource("/api/v1/benchmark/resources/" + r + "/detail?with=some&long=query");
+                node.setPassQps(r * 13 % 1000);
+                node.setBlockQps(r % 7);
+                node.setSuccessQps(r * 13 % 1000);
+                node.setExceptionQps(r % 3);
+                node.setRt(r % 50);
+                sb.append(node.toThinString()).append('\n');
+            }
+        }
+        body = sb.toString().getBytes(StandardCharsets.UTF_8);
+        decoder = new ThinMetricDecoder();
+    }
+
+    @Benchmark
+    public Map<String, MetricEntity> splitAndFromThinString() {
+        Map<String, MetricEntity> map = new ConcurrentHashMap<>(16);
+        String[] lines = new String(body, StandardCharsets.UTF_8).split("\n");
+        for (String line : lines) {
+            MetricNode node = MetricNode.fromThinString(line);
+            String key = APP + "__" + node.getResource() + "__" + (node.getTimestamp() / 1000);
+            MetricEntity metricEntity = map.computeIfAbsent(key, k -> {
+                MetricEntity initMetricEntity = new MetricEntity();
+                initMetricEntity.setApp(APP);
+                initMetricEntity.setTimestamp(new Date(node.getTimestamp()));
+                initMetricEntity.setPassQps(0L);
+                initMetricEntity.setBlockQps(0L);
+                initMetricEntity.setRtAndSuccessQps(0, 0L);
+                initMetricEntity.setExceptionQps(0L);
+                initMetricEntity.setCount(0);
+                initMetricEntity.setResource(node.getResource());
+                return initMetricEntity;
+            });
+            metricEntity.addPassQps(node.getPassQps());
+            metricEntity.addBlockQps(node.getBlockQps());
+            metricEntity.addRtAndSuccessQps(node.getRt(), node.getSuccessQps());
+            metricEntity.addExceptionQps(node.getExceptionQps());
+            metricEntity.addCount(1);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public List<MetricEntity> streamingDecoder() throws Exception {
+        MetricAggregation aggregation = new MetricAggregation(APP, startTime, startTime + (SECONDS - 1) * 1000L);
+        decoder.decode(new ByteArrayInputStream(body), StandardCharsets.UTF_8, aggregation);
+        return aggregation.toEntities();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder()
+            .include(MetricDecodeBenchmark.class.getSimpleName())
+            .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import com.alibaba.csp.sentinel.dashboard.metric.MetricAggregation;
+import com.alibaba.csp.sentinel.dashboard.metric.MetricPushIngestor;
+import com.alibaba.csp.sentinel.dashboard.metric.MetricWriter;
+import com.alibaba.csp.sentinel.dashboard.metric.ThinMetricDecoder;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.InMemoryMetricsRepository;
+import com.alibaba.csp.sentinel.node.metric.MetricNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the dashboard side cost of ingesting one fetch interval of metrics of an app: pulling one response
+ * per instance into a window aggregation, against each instance pushing one batch per second to
+ * {@link MetricPushIngestor}. Both paths save into the same repository, so the score divided by
+ * {@code instances} is the ingest cost per instance. Network I/O is excluded.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MetricIngestBenchmark {
+
+    private static final String APP = "benchmark-app";
+    private static final int SECONDS = 6;
+    private static final int RESOURCES = 50;
+
+    @Param({"10", "100"})
+    private int instances;
+
+    /**
+     * Response of one instance covering the whole interval.
+     */
+    private byte[] windowBody;
+    /**
+     * Batches of one instance, one per second.
+     */
+    private byte[][] secondBodies;
+    private long startTime;
+    private ThinMetricDecoder decoder;
+    private MetricWriter writer;
+
+    @Setup
+    public void setUp() {
+        // Recent enough to stay within the accepted range of pushed lines during the whole trial.
+        startTime = System.currentTimeMillis() / 1000 * 1000 - SECONDS * 1000L;
+        StringBuilder window = new StringBuilder();
+        secondBodies = new byte[SECONDS][];
+        for (int s = 0; s < SECONDS; s++) {
+            StringBuilder second = new StringBuilder();
+            for (int r = 0; r < RESOURCES; r++) {
+                MetricNode node = new MetricNode();
+                node.setTimestamp(startTime + s * 1000L);
+                node.setResource("/api/v1/benchmark/resources/" + r);
+                node.setPassQps(r * 13 % 1000);
+                node.setBlockQps(r % 7);
+                node.setSuccessQps(r * 13 % 1000);
+                node.setExceptionQps(r % 3);
+                node.setRt(r % 50);
+                second.append(node.toThinString()).append('\n');
+            }
+            window.append(second);
+            secondBodies[s] = second.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        windowBody = window.toString().getBytes(StandardCharsets.UTF_8);
+        decoder = new ThinMetricDecoder();
+        writer = new MetricWriter(new InMemoryMetricsRepository());
+    }
+
+    @Benchmark
+    public MetricAggregation pull() throws Exception {
+        MetricAggregation aggregation = new MetricAggregation(APP, startTime, startTime + (SECONDS - 1) * 1000L);
+        for (int i = 0; i < instances; i++) {
+            decoder.decode(new ByteArrayInputStream(windowBody), StandardCharsets.UTF_8, aggregation);
+        }
+        writer.write(aggregation);
+        return aggregation;
+    }
+
+    @Benchmark
+    public MetricPushIngestor push() {
+        MetricPushIngestor ingestor = new MetricPushIngestor(writer);
+        for (int s = 0; s < SECONDS; s++) {
+            for (int i = 0; i < instances; i++) {
+                ingestor.ingest(APP, secondBodies[s], StandardCharsets.UTF_8);
+            }
+        }
+        ingestor.flush(Long.MAX_VALUE);
+        return ingestor;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder()
+            .include(MetricIngestBenchmark.class.getSimpleName())
+            .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.benchmark;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.InMemoryMetricsRepository;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.MetricsRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Writers saving fetch windows of many apps while polling UIs query charts and resource lists, against one
+ * shared repository: {@code perSeries} is {@link InMemoryMetricsRepository}, {@code globalLock} the former
+ * layout guarding every series with one read-write lock, where every write excludes every query. Compare the
+ * scores of both operations, e.g. with {@code -tg} to vary the writer and reader threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricRepositoryContentionBenchmark {
+
+    private static final int APPS = 200;
+    private static final int RESOURCES = 20;
+    private static final int SECONDS = 120;
+
+    @Param({"perSeries", "globalLock"})
+    private String impl;
+
+    private MetricsRepository<MetricEntity> repository;
+    private long startTime;
+
+    @Setup
+    public void setUp() {
+        repository = "perSeries".equals(impl) ? new InMemoryMetricsRepository() : new GlobalLockRepository();
+        startTime = System.currentTimeMillis() / 1000 * 1000 - SECONDS * 1000L;
+        for (int s = 0; s < SECONDS; s++) {
+            for (int app = 0; app < APPS; app++) {
+                repository.saveAll(window(app, startTime + s * 1000L));
+            }
+        }
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(8)
+    public void saveWindow() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        repository.saveAll(window(random.nextInt(APPS), startTime + random.nextInt(SECONDS) * 1000L));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(16)
+    public int queryChart() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String app = appName(random.nextInt(APPS));
+        int size = 0;
+        for (int r = 0; r < 6; r++) {
+            size += repository.queryByAppAndResourceBetween(app, resourceName(random.nextInt(RESOURCES)),
+                startTime, startTime + SECONDS * 1000L).size();
+        }
+        return size + repository.listResourcesOfApp(app).size();
+    }
+
+    private static List<MetricEntity> window(int app, long timestamp) {
+        List<MetricEntity> entities = new ArrayList<>(RESOURCES);
+        for (int r = 0; r < RESOURCES; r++) {
+            MetricEntity entity = new MetricEntity();
+            entity.setApp(appName(app));
+            entity.setResource(resourceName(r));
+            entity.setTimestamp(new Date(timestamp));
+            entity.setPassQps((long)r);
+            entity.setBlockQps((long)(r % 3));
+            entity.setSuccessQps((long)r);
+            entity.setExceptionQps(0L);
+            entity.setRt(r);
+            entity.setCount(1);
+            entities.add(entity);
+        }
+        return entities;
+    }
+
+    private static String appName(int app) {
+        return "benchmark-app-" + app;
+    }
+
+    private static String resourceName(int resource) {
+        return "/api/v1/benchmark/resources/" + resource;
+    }
+
+    /**
+     * The former repository layout: {@code app -> resource -> timestamp -> metric} behind one read-write lock.
+     * Time-based expiry is left out as the benchmark keeps a fixed set of seconds.
+     */
+    private static class GlobalLockRepository implements MetricsRepository<MetricEntity> {
+
+        private final Map<String, Map<String, LinkedHashMap<Long, MetricEntity>>> allMetrics
+            = new ConcurrentHashMap<>();
+        private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+
+        @Override
+        public void save(MetricEntity entity) {
+            readWriteLock.writeLock().lock();
+            try {
+                allMetrics.computeIfAbsent(entity.getApp(), e -> new ConcurrentHashMap<>(16))
+                    .computeIfAbsent(entity.getResource(), e -> new LinkedHashMap<>())
+                    .put(entity.getTimestamp().getTime(), entity);
+            } finally {
+                readWriteLock.writeLock().unlock();
+            }
+        }
+
+        @Override
+        public void saveAll(Iterable<MetricEntity> metrics) {
+            readWriteLock.writeLock().lock();
+            try {
+                metrics.forEach(this::save);
+            } finally {
+                readWriteLock.writeLock().unlock();
+            }
+        }
+
+        @Override
+        public List<MetricEntity> queryByAppAndResourceBetween(String app, String resource, long startTime,
+                                                               long endTime) {
+            List<MetricEntity> results = new ArrayList<>();
+            readWriteLock.readLock().lock();
+            try {
+                Map<String, LinkedHashMap<Long, MetricEntity>> resources = allMetrics.get(app);
+                LinkedHashMap<Long, MetricEntity> series = resources == null ? null : resources.get(resource);
+                if (series == null) {
+                    return results;
+                }
+                for (Map.Entry<Long, MetricEntity> entry : series.entrySet()) {
+                    if (entry.getKey() >= startTime && entry.getKey() <= endTime) {
+                        results.add(entry.getValue());
+                    }
+                }
+                return results;
+            } finally {
+                readWriteLock.readLock().unlock();
+            }
+        }
+
+        @Override
+        public List<String> listResourcesOfApp(String app) {
+            long minTimeMs = System.currentTimeMillis() - 1000 * 60;
+            Map<String, long[]> summary = new LinkedHashMap<>();
+            readWriteLock.readLock().lock();
+            try {
+                Map<String, LinkedHashMap<Long, MetricEntity>> resources = allMetrics.get(app);
+                if (resources == null) {
+                    return new ArrayList<>();
+                }
+                for (Map.Entry<String, LinkedHashMap<Long, MetricEntity>> series : resources.entrySet()) {
+                    for (Map.Entry<Long, MetricEntity> entry : series.getValue().entrySet()) {
+                        if (entry.getKey() < minTimeMs) {
+                            continue;
+                        }
+                        long[] qps = summary.computeIfAbsent(series.getKey(), k -> new long[2]);
+                        qps[0] += entry.getValue().getPassQps();
+                        qps[1] += entry.getValue().getBlockQps();
+                    }
+                }
+            } finally {
+                readWriteLock.readLock().unlock();
+            }
+            List<String> results = new ArrayList<>(summary.keySet());
+            results.sort((r1, r2) -> {
+                int t = Long.compare(summary.get(r2)[1], summary.get(r1)[1]);
+                return t != 0 ? t : Long.compare(summary.get(r2)[0], summary.get(r1)[0]);
+            });
+            return results;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder()
+            .include(MetricRepositoryContentionBenchmark.class.getSimpleName())
+            .build();
+        new Runner(opt).run();
+    }
+}
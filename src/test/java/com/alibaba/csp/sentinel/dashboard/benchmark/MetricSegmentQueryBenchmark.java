@@ -0,0 +1,159 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.RingBufferMetricsRepository;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.SegmentMetricsRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Latency of a one hour query of one resource from {@link SegmentMetricsRepository}, while the hour is still
+ * appended to ({@code active}) and once it is compacted ({@code compacted}), next to the five minute query of the
+ * in-memory {@link RingBufferMetricsRepository} it replaces for older ranges.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricSegmentQueryBenchmark {
+
+    private static final String APP = "benchmark-app";
+    private static final int SECONDS_PER_HOUR = 3600;
+    private static final int RING_SECONDS = 300;
+
+    @Param({"active", "compacted"})
+    private String segment;
+
+    @Param({"200"})
+    private int resources;
+
+    private File directory;
+    private SegmentMetricsRepository repository;
+    private RingBufferMetricsRepository ring;
+    private long hourStart;
+    private long now;
+
+    @Setup
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("metric-segments").toFile();
+        // Seal the hour right after it ends, so that maintaining compacts it.
+        repository = new SegmentMetricsRepository(directory, 1, 0, 1);
+        repository.start();
+        now = System.currentTimeMillis() / 1000 * 1000;
+        hourStart = (now / 3600_000 - 1) * 3600_000;
+        ring = new RingBufferMetricsRepository();
+        for (int s = 0; s < SECONDS_PER_HOUR; s++) {
+            repository.saveAll(window(hourStart + s * 1000L));
+        }
+        for (int s = RING_SECONDS; s > 0; s--) {
+            ring.saveAll(window(now - s * 1000L));
+        }
+        if ("compacted".equals(segment)) {
+            repository.maintain(now);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        repository.close();
+        File[] appDirs = directory.listFiles();
+        if (appDirs != null) {
+            for (File appDir : appDirs) {
+                File[] files = appDir.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        Files.delete(file.toPath());
+                    }
+                }
+                Files.delete(appDir.toPath());
+            }
+        }
+        Files.delete(directory.toPath());
+    }
+
+    @Benchmark
+    public List<MetricEntity> queryHourFromSegments() {
+        return repository.queryByAppAndResourceBetween(APP, randomResource(), hourStart,
+            hourStart + SECONDS_PER_HOUR * 1000L - 1);
+    }
+
+    @Benchmark
+    public List<MetricEntity> queryFiveMinutesFromRing() {
+        return ring.queryByAppAndResourceBetween(APP, randomResource(), now - 300_000, now);
+    }
+
+    private String randomResource() {
+        return resourceName(ThreadLocalRandom.current().nextInt(resources));
+    }
+
+    private List<MetricEntity> window(long timestamp) {
+        List<MetricEntity> window = new ArrayList<>(resources);
+        Date date = new Date();
+        for (int r = 0; r < resources; r++) {
+            MetricEntity entity = new MetricEntity();
+            entity.setApp(APP);
+            entity.setResource(resourceName(r));
+            entity.setTimestamp(new Date(timestamp));
+            entity.setGmtCreate(date);
+            entity.setGmtModified(date);
+            entity.setPassQps((long)(r * 13 % 1000));
+            entity.setBlockQps((long)(r % 7));
+            entity.setSuccessQps((long)(r * 13 % 1000));
+            entity.setExceptionQps((long)(r % 3));
+            entity.setRt(r % 50);
+            entity.setCount(1);
+            window.add(entity);
+        }
+        return window;
+    }
+
+    private static String resourceName(int resource) {
+        return "/api/v1/benchmark/resources/" + resource;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder()
+            .include(MetricSegmentQueryBenchmark.class.getSimpleName())
+            .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.benchmark;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.InMemoryMetricsRepository;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.MetricsRepository;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.RingBufferMetricsRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Heap retained by a full retention window of metrics, and the cost of reading one minute of a series, for
+ * {@link RingBufferMetricsRepository} ({@code ring}) against {@link InMemoryMetricsRepository} ({@code map}).
+ * The retained heap is printed when the store is filled, measured as used heap after GC.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class MetricStoreMemoryBenchmark {
+
+    private static final String APP = "benchmark-app";
+    private static final int SECONDS = 300;
+
+    @Param({"ring", "map"})
+    private String store;
+
+    @Param({"1000", "5000"})
+    private int resources;
+
+    private MetricsRepository<MetricEntity> repository;
+    private long now;
+
+    @Setup
+    public void setUp() {
+        long before = usedHeap();
+        repository = "ring".equals(store) ? new RingBufferMetricsRepository() : new InMemoryMetricsRepository();
+        now = System.currentTimeMillis() / 1000 * 1000;
+        fill(repository, resources, now);
+        long retained = usedHeap() - before;
+        System.out.printf("%n%s store, %d resources x %d s: %.1f MB retained, %d bytes per resource second%n",
+            store, resources, SECONDS, retained / 1024.0 / 1024.0, retained / ((long)resources * SECONDS));
+    }
+
+    @Benchmark
+    public List<MetricEntity> queryMinute() {
+        String resource = resourceName(ThreadLocalRandom.current().nextInt(resources));
+        return repository.queryByAppAndResourceBetween(APP, resource, now - 60_000, now);
+    }
+
+    static void fill(MetricsRepository<MetricEntity> repository, int resources, long now) {
+        // Fetched resource names are shared through the decoder cache, so only one instance per name is kept.
+        String[] names = new String[resources];
+        for (int r = 0; r < resources; r++) {
+            names[r] = resourceName(r);
+        }
+        for (int s = SECONDS - 1; s >= 0; s--) {
+            List<MetricEntity> window = new ArrayList<>(resources);
+            Date date = new Date();
+            for (int r = 0; r < resources; r++) {
+                MetricEntity entity = new MetricEntity();
+                entity.setApp(APP);
+                entity.setResource(names[r]);
+                entity.setTimestamp(new Date(now - s * 1000L));
+                entity.setGmtCreate(date);
+                entity.setGmtModified(date);
+                entity.setPassQps((long)(r * 13 % 1000));
+                entity.setBlockQps((long)(r % 7));
+                entity.setSuccessQps((long)(r * 13 % 1000));
+                entity.setExceptionQps((long)(r % 3));
+                entity.setRt(r % 50);
+                entity.setCount(1);
+                window.add(entity);
+            }
+            repository.saveAll(window);
+        }
+    }
+
+    private static String resourceName(int resource) {
+        return "/api/v1/benchmark/resources/" + resource;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder()
+            .include(MetricStoreMemoryBenchmark.class.getSimpleName())
+            .build();
+        new Runner(opt).run();
+    }
+}
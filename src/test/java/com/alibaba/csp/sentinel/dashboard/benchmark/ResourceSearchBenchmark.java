@@ -0,0 +1,123 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.benchmark;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.ResourceRank;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.RingBufferMetricsRepository;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.RollupMetricsRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Latency of a resource search of the metric page over the resources of one app, through the trigram index of
+ * {@link RollupMetricsRepository} ({@code indexed}), next to filtering the whole ranking the way it was done
+ * before ({@code scanned}). The key matches one resource ({@code order-4711}), a tenth of them ({@code ORDER-47})
+ * or every one ({@code api}).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResourceSearchBenchmark {
+
+    private static final String APP = "benchmark-app";
+
+    @Param({"order-4711", "ORDER-47", "api"})
+    private String searchKey;
+
+    @Param({"50000"})
+    private int resources;
+
+    private RollupMetricsRepository repository;
+
+    @Setup
+    public void setUp() {
+        repository = new RollupMetricsRepository(new RingBufferMetricsRepository(),
+            RingBufferMetricsRepository.RETENTION_SECONDS);
+    }
+
+    /**
+     * Keep every resource within the ranked last minute.
+     */
+    @Setup(Level.Iteration)
+    public void saveSecond() {
+        long timestamp = System.currentTimeMillis() / 1000 * 1000 - 1000;
+        List<MetricEntity> window = new ArrayList<>(resources);
+        Date date = new Date();
+        for (int r = 0; r < resources; r++) {
+            MetricEntity entity = new MetricEntity();
+            entity.setApp(APP);
+            entity.setResource("/api/v1/order-" + r);
+            entity.setTimestamp(new Date(timestamp));
+            entity.setGmtCreate(date);
+            entity.setGmtModified(date);
+            entity.setPassQps((long)(r * 13 % 1000));
+            entity.setBlockQps((long)(r % 7));
+            entity.setSuccessQps((long)(r * 13 % 1000));
+            entity.setExceptionQps(0L);
+            entity.setRt(r % 50);
+            entity.setCount(1);
+            window.add(entity);
+        }
+        repository.saveAll(window);
+    }
+
+    @Benchmark
+    public List<String> indexed() {
+        return repository.searchResourcesOfApp(APP, searchKey, ResourceRank.BLOCK_QPS, true);
+    }
+
+    @Benchmark
+    public List<String> scanned() {
+        String key = searchKey.toLowerCase();
+        List<String> results = new ArrayList<>();
+        for (String resource : repository.listResourcesOfApp(APP, ResourceRank.BLOCK_QPS, true, 0,
+            Integer.MAX_VALUE)) {
+            if (resource.toLowerCase().contains(key)) {
+                results.add(resource);
+            }
+        }
+        return results;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder()
+            .include(ResourceSearchBenchmark.class.getSimpleName())
+            .build();
+        new Runner(opt).run();
+    }
+}
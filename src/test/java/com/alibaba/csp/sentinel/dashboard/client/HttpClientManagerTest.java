@@ -0,0 +1,141 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.client;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test cases for {@link HttpClientManager}.
+ */
+public class HttpClientManagerTest {
+
+    private HttpServer server;
+    private HttpClientManager manager;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/metric", exchange -> {
+            byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        manager = new HttpClientManager();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        manager.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void testSharedPoolKeepsConnectionsAlive() throws Exception {
+        String route = "127.0.0.1:" + server.getAddress().getPort();
+        for (int i = 0; i < 3; i++) {
+            CountDownLatch done = new CountDownLatch(1);
+            HttpResponse response = manager.executeMetric(new HttpGet("http://" + route + "/metric"),
+                countDown(done)).get(5, TimeUnit.SECONDS);
+            assertEquals("ok", EntityUtils.toString(response.getEntity()));
+            // The future completes before the callbacks, which count the request.
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+        }
+
+        List<HttpRouteStats> stats = manager.getRouteStats();
+        assertEquals(1, stats.size());
+        HttpRouteStats routeStats = stats.get(0);
+        assertEquals(route, routeStats.getRoute());
+        assertEquals(3, routeStats.getRequests());
+        assertEquals(3, routeStats.getCompleted());
+        assertEquals(0, routeStats.getLeased());
+        // The connection is back in the pool for the next request.
+        assertEquals(1, routeStats.getAvailable());
+        assertEquals(1, manager.getTotalStats().getAvailable());
+
+        manager.removeRoute("127.0.0.1", server.getAddress().getPort());
+        assertTrue(manager.getRouteStats().isEmpty());
+    }
+
+    @Test
+    public void testFailedRequestsCounted() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        try {
+            manager.execute(new HttpGet("http://127.0.0.1:" + port + "/metric"), null).get(5, TimeUnit.SECONDS);
+            fail("connection refused expected");
+        } catch (ExecutionException e) {
+            // expected
+        }
+        HttpRouteStats stats = manager.getRouteStats().get(0);
+        assertEquals(1, stats.getRequests());
+        assertEquals(1, stats.getFailed());
+        assertEquals(0, stats.getCompleted());
+    }
+
+    @Test
+    public void testClosedClientRejectsRequests() throws Exception {
+        manager.close();
+        try {
+            manager.execute(new HttpGet("http://127.0.0.1:" + server.getAddress().getPort() + "/metric"), null)
+                .get(5, TimeUnit.SECONDS);
+            fail("closed client expected to reject requests");
+        } catch (IllegalStateException | ExecutionException e) {
+            // expected
+        }
+    }
+
+    private static FutureCallback<HttpResponse> countDown(CountDownLatch latch) {
+        return new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse result) {
+                latch.countDown();
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                latch.countDown();
+            }
+
+            @Override
+            public void cancelled() {
+                latch.countDown();
+            }
+        };
+    }
+}
@@ -100,4 +100,40 @@ public class DashboardConfigTest {
         System.setProperty("t", "555");
         assertEquals(666, DashboardConfig.getConfigInt("t", 0, 1));
     }
+
+    @Test
+    public void testGetAppConfig() {
+        DashboardConfig.clearCache();
+
+        // neither set, default value
+        assertEquals(null, DashboardConfig.getAppConfigStr("p", "app"));
+        assertEquals(5, DashboardConfig.getAppConfigInt("n", "app", 5, 1));
+
+        // misses are cached too
+        System.setProperty("p", "global");
+        System.setProperty("n", "7");
+        assertEquals(null, DashboardConfig.getAppConfigStr("p", "app"));
+        assertEquals(5, DashboardConfig.getAppConfigInt("n", "app", 5, 1));
+
+        // global value, overridden per app
+        System.setProperty("p.app", "app");
+        System.setProperty("n.app", "-3");
+        DashboardConfig.clearCache();
+        assertEquals("app", DashboardConfig.getAppConfigStr("p", "app"));
+        assertEquals("global", DashboardConfig.getAppConfigStr("p", "other"));
+        assertEquals(1, DashboardConfig.getAppConfigInt("n", "app", 5, 1));
+        assertEquals(7, DashboardConfig.getAppConfigInt("n", "other", 5, 1));
+
+        // the per-app cache is bounded
+        for (int i = 0; i < 10000; i++) {
+            assertEquals("global", DashboardConfig.getAppConfigStr("p", "app" + i));
+        }
+        assertEquals("app", DashboardConfig.getAppConfigStr("p", "app"));
+
+        System.clearProperty("p");
+        System.clearProperty("p.app");
+        System.clearProperty("n");
+        System.clearProperty("n.app");
+        DashboardConfig.clearCache();
+    }
 }
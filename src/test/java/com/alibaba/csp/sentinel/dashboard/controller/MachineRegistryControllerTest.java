@@ -0,0 +1,209 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.controller;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+
+import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
+import com.alibaba.csp.sentinel.dashboard.discovery.AppManagement;
+import com.alibaba.csp.sentinel.dashboard.discovery.MachineInfo;
+import com.alibaba.csp.sentinel.dashboard.discovery.SimpleMachineDiscovery;
+import com.alibaba.csp.sentinel.dashboard.domain.Result;
+import com.alibaba.csp.sentinel.dashboard.shard.ShardManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the heartbeat batches of {@link MachineRegistryController}.
+ */
+public class MachineRegistryControllerTest {
+
+    private static final String APP = "test_app";
+    private static final String IP = "127.0.0.1";
+
+    private MachineRegistryController controller;
+    private AppManagement appManagement;
+    private final List<byte[]> replicated = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        appManagement = new AppManagement();
+        setField(appManagement, "machineDiscovery", new SimpleMachineDiscovery());
+        ShardManager shardManager = new ShardManager(null) {
+            @Override
+            public void replicateHeartbeats(byte[] body) {
+                replicated.add(body);
+            }
+        };
+        controller = new MachineRegistryController();
+        setField(controller, "appManagement", appManagement);
+        setField(controller, "shardManager", shardManager);
+    }
+
+    @Test
+    public void testMixedBatch() {
+        String batch = "["
+            + heartbeat(APP, 8719, 2000, "new") + ","
+            + heartbeat(" ", 8720, 2000, "blank") + ","
+            + "42,"
+            + "{\"app\":\"" + APP + "\",\"ip\":\"" + IP + "\",\"port\":\"not a port\"},"
+            + heartbeat(APP, 8719, 1000, "old")
+            + "]";
+        byte[] body = batch.getBytes(StandardCharsets.UTF_8);
+
+        Result<?> result = controller.receiveHeartBeats(request(body, body.length, false));
+
+        assertTrue(result.isSuccess());
+        List<?> results = (List<?>)result.getData();
+        assertEquals(5, results.size());
+        boolean[] success = {true, false, false, false, true};
+        for (int i = 0; i < success.length; i++) {
+            assertEquals("entry " + i, success[i], ((Result<?>)results.get(i)).isSuccess());
+        }
+        // The out of order heartbeat is accepted but does not roll the machine back.
+        MachineInfo machine = appManagement.getDetailApp(APP).getMachine(IP, 8719).get();
+        assertEquals("new", machine.getHostname());
+        assertEquals(2000, machine.getHeartbeatVersion());
+        assertFalse(appManagement.getDetailApp(APP).getMachine(IP, 8720).isPresent());
+        assertEquals(1, replicated.size());
+        assertTrue(Arrays.equals(body, replicated.get(0)));
+    }
+
+    @Test
+    public void testForwardedBatchIsNotReplicated() {
+        byte[] body = ("[" + heartbeat(APP, 8719, 1000, "host") + "]").getBytes(StandardCharsets.UTF_8);
+
+        Result<?> result = controller.receiveHeartBeats(request(body, body.length, true));
+
+        assertTrue(result.isSuccess());
+        assertTrue(appManagement.getDetailApp(APP).getMachine(IP, 8719).isPresent());
+        assertTrue(replicated.isEmpty());
+    }
+
+    @Test
+    public void testBatchOverLimitIsRejected() {
+        byte[] body = new byte[1024 * 1024 + 1];
+        Arrays.fill(body, (byte)' ');
+        body[0] = '[';
+        body[body.length - 1] = ']';
+
+        assertFalse(controller.receiveHeartBeats(request(body, body.length, false)).isSuccess());
+        // Without a content length the limit applies to the bytes read.
+        assertFalse(controller.receiveHeartBeats(request(body, -1, false)).isSuccess());
+        assertTrue(replicated.isEmpty());
+    }
+
+    @Test
+    public void testBodyNotAnArrayIsRejected() {
+        byte[] body = "{\"app\":\"test_app\"}".getBytes(StandardCharsets.UTF_8);
+
+        assertFalse(controller.receiveHeartBeats(request(body, body.length, false)).isSuccess());
+        assertTrue(replicated.isEmpty());
+    }
+
+    @Test
+    public void testMetricBatchOfUnknownCharsetIsRejected() {
+        System.setProperty(DashboardConfig.CONFIG_METRIC_INGEST_MODE, "push");
+        DashboardConfig.clearCache();
+        try {
+            byte[] heartbeats = ("[" + heartbeat(APP, 8719, 1000, "host") + "]").getBytes(StandardCharsets.UTF_8);
+            controller.receiveHeartBeats(request(heartbeats, heartbeats.length, true));
+            byte[] body = "1529998904000|resource|1|0|1|0|3|0|0|0".getBytes(StandardCharsets.UTF_8);
+
+            assertFalse(controller.receiveMetric(request(body, body.length, false, "no such charset"), APP, IP, 8719)
+                .isSuccess());
+            assertFalse(controller.receiveMetric(request(body, body.length, false, "x-unknown"), APP, IP, 8719)
+                .isSuccess());
+        } finally {
+            System.clearProperty(DashboardConfig.CONFIG_METRIC_INGEST_MODE);
+            DashboardConfig.clearCache();
+        }
+    }
+
+    private static String heartbeat(String app, int port, long version, String hostname) {
+        return "{\"app\":\"" + app + "\",\"ip\":\"" + IP + "\",\"port\":" + port + ",\"version\":" + version
+            + ",\"hostname\":\"" + hostname + "\",\"v\":\"1.8.6\"}";
+    }
+
+    private static HttpServletRequest request(byte[] body, long contentLength, boolean forwarded) {
+        return request(body, contentLength, forwarded, null);
+    }
+
+    private static HttpServletRequest request(byte[] body, long contentLength, boolean forwarded, String encoding) {
+        ByteArrayInputStream in = new ByteArrayInputStream(body);
+        ServletInputStream input = new ServletInputStream() {
+            @Override
+            public int read() {
+                return in.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                return in.read(b, off, len);
+            }
+
+            @Override
+            public boolean isFinished() {
+                return in.available() == 0;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        return (HttpServletRequest)Proxy.newProxyInstance(MachineRegistryControllerTest.class.getClassLoader(),
+            new Class<?>[] {HttpServletRequest.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getContentLengthLong":
+                        return contentLength;
+                    case "getInputStream":
+                        return input;
+                    case "getCharacterEncoding":
+                        return encoding;
+                    case "getParameter":
+                        return forwarded && ShardManager.FORWARDED_PARAM.equals(args[0]) ? "true" : null;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+
+    private static void setField(Object target, String name, Object value) throws Exception {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
@@ -117,6 +117,36 @@ public class AppInfoTest {
         assertEquals(0, appInfo.getMachines().size());
     }
 
+    @Test
+    public void testIndexedLookupAndSnapshot() {
+        AppInfo appInfo = new AppInfo("default");
+        appInfo.addMachine(MachineInfo.of("default", "127.0.0.1", 8719));
+        appInfo.addMachine(MachineInfo.of("default", "127.0.0.1", 8720));
+        appInfo.addMachine(MachineInfo.of("default", "127.0.0.2", 8719));
+
+        assertEquals(8720, appInfo.getMachine("127.0.0.1", 8720).get().getPort().intValue());
+        assertFalse(appInfo.getMachine("127.0.0.2", 8720).isPresent());
+        assertTrue(appInfo.getMachine("127.0.0.2").isPresent());
+        assertFalse(appInfo.getMachine("127.0.0.3").isPresent());
+        assertFalse(appInfo.getMachine(null).isPresent());
+
+        Set<MachineInfo> machines = appInfo.getMachines();
+        assertEquals(3, machines.size());
+        assertSame(machines, appInfo.getMachines());
+        try {
+            machines.clear();
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        assertTrue(appInfo.removeMachine("127.0.0.2", 8719));
+        assertFalse(appInfo.removeMachine("127.0.0.2", 8719));
+        assertFalse(appInfo.getMachine("127.0.0.2").isPresent());
+        assertEquals(3, machines.size());
+        assertEquals(2, appInfo.getMachines().size());
+    }
+
     @Test
     public void testHealthyAndDead() {
         System.setProperty(DashboardConfig.CONFIG_HIDE_APP_NO_MACHINE_MILLIS, "60000");
@@ -131,6 +161,7 @@ public class AppInfoTest {
             machineInfo.setLastHeartbeat(System.currentTimeMillis());
             appInfo.addMachine(machineInfo);
         }
+        appInfo.judgeApp(System.currentTimeMillis());
         assertTrue(appInfo.isShown());
         assertFalse(appInfo.isDead());
 
@@ -140,6 +171,7 @@ public class AppInfoTest {
             machineInfo.setLastHeartbeat(System.currentTimeMillis() - 70000);
             appInfo.addMachine(machineInfo);
         }
+        appInfo.judgeApp(System.currentTimeMillis());
         assertFalse(appInfo.isShown());
         assertFalse(appInfo.isDead());
 
@@ -149,6 +181,7 @@ public class AppInfoTest {
             machineInfo.setLastHeartbeat(System.currentTimeMillis() - 700000);
             appInfo.addMachine(machineInfo);
         }
+        appInfo.judgeApp(System.currentTimeMillis());
         assertFalse(appInfo.isShown());
         assertTrue(appInfo.isDead());
     }
@@ -45,4 +45,54 @@ public class MachineInfoTest {
         assertFalse(machineInfo.isHealthy());
         assertTrue(machineInfo.isDead());
     }
+
+    @Test
+    public void testReceiveHeartbeatInOrder() {
+        System.setProperty(DashboardConfig.CONFIG_UNHEALTHY_MACHINE_MILLIS, "60000");
+        DashboardConfig.clearCache();
+        long now = System.currentTimeMillis();
+        MachineInfo machineInfo = MachineInfo.of("app", "127.0.0.1", 8719);
+        machineInfo.setHeartbeatVersion(10);
+        machineInfo.setLastHeartbeat(now - 1000);
+        machineInfo.setVersion("1.8.0");
+
+        assertTrue(machineInfo.receiveHeartbeat(11, now, "1.8.1"));
+        assertEquals(11, machineInfo.getHeartbeatVersion());
+        assertEquals(now, machineInfo.getLastHeartbeat());
+        assertEquals("1.8.1", machineInfo.getVersion());
+
+        // Delivered late, after the heartbeat 11.
+        assertFalse(machineInfo.receiveHeartbeat(10, now + 5, "1.8.0"));
+        assertEquals(11, machineInfo.getHeartbeatVersion());
+        assertEquals(now, machineInfo.getLastHeartbeat());
+        assertEquals("1.8.1", machineInfo.getVersion());
+
+        // Restarted with an earlier clock once the machine is unhealthy.
+        machineInfo.setLastHeartbeat(now - 100000);
+        assertTrue(machineInfo.receiveHeartbeat(5, now, "1.8.1"));
+        assertEquals(5, machineInfo.getHeartbeatVersion());
+        assertEquals(now, machineInfo.getLastHeartbeat());
+    }
+
+    @Test
+    public void testReceiveHeartbeatUpdatesRegisteredMachine() {
+        System.setProperty(DashboardConfig.CONFIG_UNHEALTHY_MACHINE_MILLIS, "60000");
+        DashboardConfig.clearCache();
+        SimpleMachineDiscovery discovery = new SimpleMachineDiscovery();
+        assertTrue(discovery.receiveHeartbeat("app", 0, "host", "127.0.0.1", 8719, 1, "1.8.0"));
+        MachineInfo machineInfo = discovery.getDetailApp("app").getMachine("127.0.0.1", 8719).get();
+        assertEquals("host", machineInfo.getHostname());
+        assertTrue(machineInfo.isHealthy());
+
+        assertTrue(discovery.receiveHeartbeat("app", 0, "host", "127.0.0.1", 8719, 2, "1.8.0"));
+        assertFalse(discovery.receiveHeartbeat("app", 0, "host", "127.0.0.1", 8719, 1, "1.8.0"));
+        assertSame(machineInfo, discovery.getDetailApp("app").getMachine("127.0.0.1", 8719).get());
+        assertEquals(2, machineInfo.getHeartbeatVersion());
+        assertEquals(1, discovery.getDetailApp("app").getMachines().size());
+
+        // Host name and app type changed since the machine was registered are refreshed in place.
+        assertTrue(discovery.receiveHeartbeat("app", 1, "renamed", "127.0.0.1", 8719, 3, "1.8.0"));
+        assertEquals("renamed", machineInfo.getHostname());
+        assertEquals(Integer.valueOf(1), machineInfo.getAppType());
+    }
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.discovery;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
+import com.alibaba.csp.sentinel.dashboard.discovery.MachineHealthEvent.Health;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for {@link MachineReaper}.
+ */
+public class MachineReaperTest {
+
+    private SimpleMachineDiscovery discovery;
+    private List<Object> events;
+    private MachineReaper reaper;
+
+    @Before
+    public void setUp() {
+        System.setProperty(DashboardConfig.CONFIG_UNHEALTHY_MACHINE_MILLIS, "60000");
+        System.setProperty(DashboardConfig.CONFIG_AUTO_REMOVE_MACHINE_MILLIS, "600000");
+        System.setProperty(DashboardConfig.CONFIG_HIDE_APP_NO_MACHINE_MILLIS, "60000");
+        System.setProperty(DashboardConfig.CONFIG_REMOVE_APP_NO_MACHINE_MILLIS, "0");
+        DashboardConfig.clearCache();
+        discovery = new SimpleMachineDiscovery();
+        events = new ArrayList<>();
+        reaper = new MachineReaper(discovery, events::add);
+    }
+
+    @Test
+    public void testJudgesAndRemoves() {
+        long now = System.currentTimeMillis();
+        discovery.receiveHeartbeat("app", 0, "a", "127.0.0.1", 8719, now, "1.8.6");
+        discovery.receiveHeartbeat("app", 0, "b", "127.0.0.2", 8719, now, "1.8.6");
+        discovery.getDetailApp("app").getMachine("127.0.0.2", 8719).get().setLastHeartbeat(now - 70_000);
+
+        reaper.reap(now);
+        AppInfo appInfo = discovery.getDetailApp("app");
+        assertEquals(1, appInfo.getHealthyCount());
+        assertEquals(1, appInfo.getUnhealthyCount());
+        assertTrue(appInfo.isShown());
+        assertEquals(2, events.size());
+        assertEquals(1, count(Health.HEALTHY));
+        assertEquals(1, count(Health.UNHEALTHY));
+
+        // Nothing changed.
+        events.clear();
+        reaper.reap(now);
+        assertEquals(0, events.size());
+
+        // No healthy machine left, and the last heartbeat is older than the hide period.
+        reaper.reap(now + 65_000);
+        assertEquals(0, appInfo.getHealthyCount());
+        assertEquals(2, appInfo.getUnhealthyCount());
+        assertFalse(appInfo.isShown());
+        assertEquals(2, events.size());
+        assertEquals(1, count(Health.UNHEALTHY));
+        AppHealthEvent hidden = (AppHealthEvent)events.get(1);
+        assertFalse(hidden.isShown());
+        assertFalse(hidden.isRemoved());
+
+        // A heartbeat brings the app back at the next sweep.
+        events.clear();
+        appInfo.getMachine("127.0.0.1", 8719).get().receiveHeartbeat(now + 65_000, now + 65_000, "1.8.6");
+        reaper.reap(now + 65_000);
+        assertEquals(1, appInfo.getHealthyCount());
+        assertTrue(appInfo.isShown());
+        assertEquals(2, events.size());
+
+        // Both machines missed their heartbeats long enough to be removed, and the app with them.
+        events.clear();
+        reaper.reap(now + 700_000);
+        assertEquals(2, count(Health.REMOVED));
+        assertEquals(0, appInfo.getHealthyCount() + appInfo.getUnhealthyCount());
+        assertTrue(((AppHealthEvent)events.get(2)).isRemoved());
+        assertNull(discovery.getDetailApp("app"));
+    }
+
+    private int count(Health health) {
+        int count = 0;
+        for (Object event : events) {
+            if (event instanceof MachineHealthEvent && ((MachineHealthEvent)event).getHealth() == health) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.discovery;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for {@link RegistrySnapshotter}.
+ */
+public class RegistrySnapshotterTest {
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        System.setProperty(DashboardConfig.CONFIG_UNHEALTHY_MACHINE_MILLIS, "60000");
+        System.setProperty(DashboardConfig.CONFIG_AUTO_REMOVE_MACHINE_MILLIS, "600000");
+        DashboardConfig.clearCache();
+        dir = Files.createTempDirectory("registry-snapshot").toFile();
+        file = new File(dir, "registry.snapshot");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        long now = System.currentTimeMillis();
+        SimpleMachineDiscovery discovery = new SimpleMachineDiscovery();
+        discovery.receiveHeartbeat("app", 1, "a", "127.0.0.1", 8719, now, "1.8.6");
+        discovery.receiveHeartbeat("app", 1, null, "127.0.0.2", 8720, now, null);
+        discovery.receiveHeartbeat("other", 0, "c", "127.0.0.3", 8719, now, "1.8.6");
+        discovery.getDetailApp("other").getMachine("127.0.0.3", 8719).get().setLastHeartbeat(now - 610_000);
+        assertEquals(3, new RegistrySnapshotter(discovery, file).save(now));
+        assertTrue(file.isFile());
+
+        SimpleMachineDiscovery restarted = new SimpleMachineDiscovery();
+        RegistrySnapshotter snapshotter = new RegistrySnapshotter(restarted, file);
+        // The dead machine is not restored.
+        assertEquals(2, snapshotter.load(now));
+        assertNull(restarted.getDetailApp("other"));
+        AppInfo appInfo = restarted.getDetailApp("app");
+        assertEquals(Integer.valueOf(1), appInfo.getAppType());
+        MachineInfo machine = appInfo.getMachine("127.0.0.1", 8719).get();
+        assertEquals("a", machine.getHostname());
+        assertEquals("1.8.6", machine.getVersion());
+        assertEquals(now, machine.getHeartbeatVersion());
+        assertTrue(machine.isUnconfirmed());
+        MachineInfo other = appInfo.getMachine("127.0.0.2", 8720).get();
+        assertNull(other.getHostname());
+        assertNull(other.getVersion());
+
+        // Registered machines are kept, and the next heartbeat confirms the restored ones.
+        assertEquals(0, snapshotter.load(now));
+        assertTrue(restarted.receiveHeartbeat("app", 1, "a", "127.0.0.1", 8719, now + 1, "1.8.6"));
+        assertFalse(machine.isUnconfirmed());
+    }
+
+    @Test
+    public void testReaperRemovesUnconfirmedMachinesOnceDead() throws IOException {
+        long now = System.currentTimeMillis();
+        SimpleMachineDiscovery discovery = new SimpleMachineDiscovery();
+        discovery.receiveHeartbeat("app", 0, "a", "127.0.0.1", 8719, now, "1.8.6");
+        discovery.receiveHeartbeat("app", 0, "b", "127.0.0.2", 8719, now, "1.8.6");
+        new RegistrySnapshotter(discovery, file).save(now);
+
+        // Restarted after an outage longer than the unhealthy period, the machines are still restored.
+        long restart = now + 120_000;
+        SimpleMachineDiscovery restarted = new SimpleMachineDiscovery();
+        assertEquals(2, new RegistrySnapshotter(restarted, file).load(restart));
+        AppInfo appInfo = restarted.getDetailApp("app");
+        appInfo.getMachine("127.0.0.1", 8719).get().receiveHeartbeat(restart, restart, "1.8.6");
+
+        List<Object> events = new ArrayList<>();
+        MachineReaper reaper = new MachineReaper(restarted, events::add);
+        reaper.reap(restart);
+        assertEquals(1, appInfo.getHealthyCount());
+        assertEquals(1, appInfo.getUnhealthyCount());
+        assertTrue(appInfo.getMachine("127.0.0.2", 8719).get().isUnconfirmed());
+
+        // Never confirmed, it is removed once dead.
+        reaper.reap(now + 610_000);
+        assertTrue(appInfo.getMachine("127.0.0.1", 8719).isPresent());
+        assertFalse(appInfo.getMachine("127.0.0.2", 8719).isPresent());
+        assertTrue(events.stream().anyMatch(e -> e instanceof MachineHealthEvent
+            && ((MachineHealthEvent)e).getHealth() == MachineHealthEvent.Health.REMOVED));
+    }
+
+    @Test
+    public void testCorruptSnapshotIgnored() throws IOException {
+        long now = System.currentTimeMillis();
+        SimpleMachineDiscovery discovery = new SimpleMachineDiscovery();
+        discovery.receiveHeartbeat("app", 0, "a", "127.0.0.1", 8719, now, "1.8.6");
+        new RegistrySnapshotter(discovery, file).save(now);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(20);
+            int b = raf.read();
+            raf.seek(20);
+            raf.write(b ^ 0xff);
+        }
+
+        SimpleMachineDiscovery restarted = new SimpleMachineDiscovery();
+        assertEquals(0, new RegistrySnapshotter(restarted, file).load(now));
+        assertNull(restarted.getDetailApp("app"));
+        assertEquals(0, new RegistrySnapshotter(restarted, new File(dir, "missing")).load(now));
+    }
+}
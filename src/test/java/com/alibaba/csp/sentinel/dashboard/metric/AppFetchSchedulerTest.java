@@ -0,0 +1,99 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.alibaba.csp.sentinel.dashboard.util.HashedWheelTimer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AppFetchSchedulerTest {
+
+    private static final String APP = "app";
+
+    @Test
+    public void testCatchUpWithContiguousWindows() throws Exception {
+        final List<long[]> windows = new CopyOnWriteArrayList<>();
+        final AtomicBoolean inFlight = new AtomicBoolean(false);
+        final AtomicBoolean overlapped = new AtomicBoolean(false);
+        final CountDownLatch latch = new CountDownLatch(10);
+        HashedWheelTimer timer = new HashedWheelTimer("test-timer", 100, TimeUnit.MILLISECONDS, 64);
+        AppFetchScheduler scheduler = new AppFetchScheduler(timer, () -> Collections.singletonList(APP),
+            (app, startTime, endTime, done) -> {
+                if (!inFlight.compareAndSet(false, true)) {
+                    overlapped.set(true);
+                }
+                windows.add(new long[] {startTime, endTime});
+                new Thread(() -> {
+                    inFlight.set(false);
+                    done.run();
+                    latch.countDown();
+                }).start();
+            });
+        try {
+            scheduler.start(0);
+            // The default catch-up window of 60 seconds is fetched as 10 windows of 6 seconds back to back.
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } finally {
+            scheduler.stop();
+            timer.stop();
+        }
+        assertFalse(overlapped.get());
+        for (int i = 1; i < windows.size(); i++) {
+            assertEquals(windows.get(i - 1)[1] + 1000, windows.get(i)[0]);
+            assertEquals(5000, windows.get(i)[1] - windows.get(i)[0]);
+        }
+        assertEquals(windows.get(windows.size() - 1)[1], scheduler.getLastFetchedTime(APP));
+    }
+
+    @Test
+    public void testRejectedWindowIsRetried() throws Exception {
+        final List<long[]> windows = new CopyOnWriteArrayList<>();
+        final AtomicInteger attempts = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(1);
+        HashedWheelTimer timer = new HashedWheelTimer("test-timer", 100, TimeUnit.MILLISECONDS, 64);
+        AppFetchScheduler scheduler = new AppFetchScheduler(timer, () -> Collections.singletonList(APP),
+            (app, startTime, endTime, done) -> {
+                windows.add(new long[] {startTime, endTime});
+                if (attempts.incrementAndGet() == 1) {
+                    throw new RejectedExecutionException();
+                }
+                latch.countDown();
+            });
+        try {
+            scheduler.start(0);
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } finally {
+            scheduler.stop();
+            timer.stop();
+        }
+        assertEquals(1, scheduler.getRejectedWindows());
+        // The rejected window is not dropped: the cursor did not move past it.
+        assertTrue(windows.get(1)[0] <= windows.get(0)[1]);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test cases for {@link AppFetchStats}.
+ */
+public class AppFetchStatsTest {
+
+    @Test
+    public void testCounters() {
+        AppFetchStats stats = new AppFetchStats("app");
+        stats.onMachinePolled();
+        stats.onMachinePolled();
+        stats.onMachinePolled();
+        stats.onMachineSucceeded(result(3, 1, 128));
+        // Empty responses have no decode result.
+        stats.onMachineSucceeded(null);
+        stats.onMachineTimedOut();
+        stats.onMachineFailed();
+        stats.onMachineUnhealthy();
+        stats.onMachineSuspended();
+        stats.onRejected();
+        stats.onWindowBackfilled();
+        stats.onWindowLost();
+        stats.onFetchCompleted(7);
+        stats.onFetchCompleted(3000);
+
+        assertEquals("app", stats.getApp());
+        assertEquals(3, stats.getMachinesPolled());
+        assertEquals(2, stats.getMachinesSucceeded());
+        assertEquals(1, stats.getMachinesTimedOut());
+        assertEquals(1, stats.getMachinesFailed());
+        assertEquals(1, stats.getMachinesUnhealthy());
+        assertEquals(1, stats.getMachinesSuspended());
+        assertEquals(1, stats.getRejected());
+        assertEquals(1, stats.getWindowsBackfilled());
+        assertEquals(1, stats.getWindowsLost());
+        assertEquals(3, stats.getLines());
+        assertEquals(1, stats.getMalformedLines());
+        assertEquals(128, stats.getBytes());
+        assertEquals(2, stats.getFetches());
+        assertEquals(3007, stats.getLatency().getSum());
+        assertEquals(10, stats.getLatency().getQuantileBound(0.5));
+        assertEquals(5000, stats.getLatency().getQuantileBound(1));
+    }
+
+    private static ThinMetricDecoder.Result result(int lines, int malformedLines, long bytes) {
+        return new ThinMetricDecoder.Result() {
+            @Override
+            public int getLines() {
+                return lines;
+            }
+
+            @Override
+            public int getMalformedLines() {
+                return malformedLines;
+            }
+
+            @Override
+            public long getBytes() {
+                return bytes;
+            }
+        };
+    }
+}
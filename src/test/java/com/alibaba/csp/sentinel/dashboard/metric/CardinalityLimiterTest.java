@@ -0,0 +1,141 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.MetricEntities;
+import com.alibaba.csp.sentinel.dashboard.metric.CardinalityLimiter.AppResources;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+
+public class CardinalityLimiterTest {
+
+    private static final long NOW = 1_000_000_000L;
+
+    private CardinalityLimiter limiter;
+
+    @Before
+    public void setUp() {
+        System.setProperty(DashboardConfig.CONFIG_METRIC_MAX_RESOURCES_PER_APP, "2");
+        System.setProperty(DashboardConfig.CONFIG_METRIC_MAX_RESOURCES, "3");
+        DashboardConfig.clearCache();
+        limiter = new CardinalityLimiter();
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(DashboardConfig.CONFIG_METRIC_MAX_RESOURCES_PER_APP);
+        System.clearProperty(DashboardConfig.CONFIG_METRIC_MAX_RESOURCES);
+        System.clearProperty(DashboardConfig.CONFIG_METRIC_CARDINALITY_POLICY);
+        System.clearProperty(DashboardConfig.CONFIG_METRIC_CARDINALITY_POLICY + ".b");
+        DashboardConfig.clearCache();
+    }
+
+    @Test
+    public void testFoldIntoOther() {
+        List<MetricEntity> saved = limiter.limit(Arrays.asList(MetricEntities.of("a", "r0", NOW, 1),
+            MetricEntities.of("a", "r1", NOW, 2), MetricEntities.of("a", "r2", NOW, 3),
+            MetricEntities.of("a", "r3", NOW, 4), MetricEntities.of("a", "r3", NOW + 1000, 5)), NOW);
+
+        assertEquals(Arrays.asList("r0", "r1", CardinalityLimiter.OTHER_RESOURCE, CardinalityLimiter.OTHER_RESOURCE),
+            resourcesOf(saved));
+        assertEquals(7L, saved.get(2).getPassQps().longValue());
+        assertEquals(7.0, saved.get(2).getRt(), 0);
+        assertEquals(5L, saved.get(3).getPassQps().longValue());
+        AppResources resources = limiter.getAppResources().get(0);
+        assertEquals(2, resources.getResources());
+        assertEquals(3, resources.getLimitHits());
+        assertEquals(3, resources.getFolded());
+        assertEquals(2, limiter.getTotalResources());
+    }
+
+    @Test
+    public void testDropAndEvictPolicies() {
+        System.setProperty(DashboardConfig.CONFIG_METRIC_CARDINALITY_POLICY, "drop");
+        System.setProperty(DashboardConfig.CONFIG_METRIC_CARDINALITY_POLICY + ".b", "evict");
+        DashboardConfig.clearCache();
+
+        assertEquals(Arrays.asList("r0", "r1"), resourcesOf(limiter.limit(Arrays.asList(
+            MetricEntities.of("a", "r0", NOW, 1), MetricEntities.of("a", "r1", NOW, 1),
+            MetricEntities.of("a", "r2", NOW, 1)), NOW)));
+        // The total limit leaves one resource to app b, which then evicts its least recently written one.
+        assertEquals(Arrays.asList("r0", "r1"), resourcesOf(limiter.limit(Arrays.asList(
+            MetricEntities.of("b", "r0", NOW, 1), MetricEntities.of("b", "r1", NOW, 1)), NOW)));
+        assertEquals(3, limiter.getTotalResources());
+        assertEquals(Arrays.asList("r0"), resourcesOf(limiter.limit(Arrays.asList(MetricEntities.of("a", "r0", NOW, 1),
+            MetricEntities.of("a", "r3", NOW, 1)), NOW)));
+        AppResources a = resourcesOf("a");
+        assertEquals(2, a.getResources());
+        assertEquals(2, a.getLimitHits());
+        assertEquals(2, a.getDropped());
+        AppResources b = resourcesOf("b");
+        assertEquals(1, b.getResources());
+        assertEquals(1, b.getLimitHits());
+        assertEquals(1, b.getEvicted());
+
+        // Idle resources are released, and so is their app.
+        long later = NOW + CardinalityLimiter.IDLE_RELEASE_MS + 1;
+        assertEquals(Arrays.asList("r2", "r3"), resourcesOf(limiter.limit(Arrays.asList(
+            MetricEntities.of("a", "r2", later, 1), MetricEntities.of("a", "r3", later, 1)), later)));
+        assertEquals(2, limiter.getTotalResources());
+        assertEquals(1, limiter.getAppResources().size());
+    }
+
+    @Test
+    public void testReleasedAppAdmitsNothing() {
+        limiter.limit(Arrays.asList(MetricEntities.of("a", "r0", NOW, 1)), NOW);
+        AppResources released = resourcesOf("a");
+        long later = NOW + CardinalityLimiter.IDLE_RELEASE_MS;
+        limiter.release(later);
+        assertEquals(0, limiter.getTotalResources());
+
+        // A writer still holding the released app is not counted, and retries with a new one.
+        assertFalse(released.admit("r1", later, 2, 3, CardinalityLimiter.Policy.FOLD));
+        assertEquals(0, limiter.getTotalResources());
+        assertEquals(Arrays.asList("r1"), resourcesOf(limiter.limit(
+            Arrays.asList(MetricEntities.of("a", "r1", later, 1)), later)));
+        assertNotSame(released, resourcesOf("a"));
+        assertEquals(1, limiter.getTotalResources());
+    }
+
+    private AppResources resourcesOf(String app) {
+        for (AppResources resources : limiter.getAppResources()) {
+            if (resources.getApp().equals(app)) {
+                return resources;
+            }
+        }
+        return null;
+    }
+
+    private static List<String> resourcesOf(List<MetricEntity> entities) {
+        List<String> resources = new ArrayList<>();
+        for (MetricEntity entity : entities) {
+            resources.add(entity.getResource());
+        }
+        return resources;
+    }
+}
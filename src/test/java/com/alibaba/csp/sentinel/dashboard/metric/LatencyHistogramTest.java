@@ -0,0 +1,80 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test cases for {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketBoundaries() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] bounds = LatencyHistogram.getBounds();
+        for (long bound : bounds) {
+            // Bounds are inclusive, the next millisecond goes to the next bucket.
+            histogram.record(bound);
+            histogram.record(bound + 1);
+        }
+        histogram.record(0);
+
+        // 0 joins the first bound in the first bucket, and the last bound + 1 is alone in the unbounded one.
+        long[] expected = new long[bounds.length + 1];
+        Arrays.fill(expected, 2);
+        expected[bounds.length] = 1;
+        assertArrayEquals(expected, histogram.getCounts());
+
+        long sum = 0;
+        for (long bound : bounds) {
+            sum += 2 * bound + 1;
+        }
+        assertEquals(sum, histogram.getSum());
+    }
+
+    @Test
+    public void testBoundsAreCopied() {
+        LatencyHistogram.getBounds()[0] = -1;
+        assertEquals(5, LatencyHistogram.getBounds()[0]);
+    }
+
+    @Test
+    public void testQuantileBound() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(-1, histogram.getQuantileBound(0.5));
+
+        for (int i = 0; i < 90; i++) {
+            histogram.record(3);
+        }
+        for (int i = 0; i < 9; i++) {
+            histogram.record(120);
+        }
+        histogram.record(60_000);
+
+        assertEquals(5, histogram.getQuantileBound(0.5));
+        assertEquals(5, histogram.getQuantileBound(0.9));
+        assertEquals(250, histogram.getQuantileBound(0.91));
+        assertEquals(250, histogram.getQuantileBound(0.99));
+        // The slowest fetch is above the last bound.
+        assertEquals(Long.MAX_VALUE, histogram.getQuantileBound(1));
+    }
+}
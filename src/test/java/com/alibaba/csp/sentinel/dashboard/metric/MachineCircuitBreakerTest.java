@@ -0,0 +1,107 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MachineCircuitBreakerTest {
+
+    private static final String IP = "127.0.0.1";
+    private static final int PORT = 8719;
+
+    @Test
+    public void testSuspendAfterConsecutiveFailuresAndBackOff() {
+        MachineCircuitBreaker breaker = new MachineCircuitBreaker(3, 1000, 3000);
+        long now = 10_000;
+        breaker.onFailure(IP, PORT, now);
+        breaker.onFailure(IP, PORT, now);
+        assertTrue(breaker.tryAcquire(IP, PORT, now));
+        breaker.onFailure(IP, PORT, now);
+        assertEquals(MachineCircuitBreaker.State.OPEN, breaker.getCircuit(IP, PORT).getState());
+        assertEquals(now + 1000, breaker.getCircuit(IP, PORT).getSuspendedUntil());
+        assertFalse(breaker.tryAcquire(IP, PORT, now + 999));
+
+        // A single probe once the suspension elapses.
+        assertTrue(breaker.tryAcquire(IP, PORT, now + 1000));
+        assertFalse(breaker.tryAcquire(IP, PORT, now + 1000));
+        breaker.onFailure(IP, PORT, now + 1000);
+        assertEquals(now + 3000, breaker.getCircuit(IP, PORT).getSuspendedUntil());
+
+        // Backoff is capped.
+        assertTrue(breaker.tryAcquire(IP, PORT, now + 3000));
+        breaker.onFailure(IP, PORT, now + 3000);
+        assertEquals(now + 6000, breaker.getCircuit(IP, PORT).getSuspendedUntil());
+        assertEquals(5, breaker.getCircuit(IP, PORT).getConsecutiveFailures());
+    }
+
+    @Test
+    public void testProbeSuccessCloses() {
+        MachineCircuitBreaker breaker = new MachineCircuitBreaker(1, 1000, 60_000);
+        breaker.onFailure(IP, PORT, 0);
+        assertFalse(breaker.tryAcquire(IP, PORT, 500));
+        assertTrue(breaker.tryAcquire(IP, PORT, 1000));
+        breaker.onSuccess(IP, PORT);
+        assertEquals(MachineCircuitBreaker.State.CLOSED, breaker.getCircuit(IP, PORT).getState());
+        assertEquals(0, breaker.getCircuit(IP, PORT).getSuspendedUntil());
+        assertTrue(breaker.tryAcquire(IP, PORT, 1000));
+        assertTrue(breaker.tryAcquire(IP, PORT, 1000));
+
+        breaker.remove(IP, PORT);
+        assertNull(breaker.getCircuit(IP, PORT));
+    }
+
+    @Test
+    public void testSkippedWindowsCoalescedUntilSuccess() {
+        MachineCircuitBreaker breaker = new MachineCircuitBreaker(1, 1000, 60_000);
+        // Nothing is skipped while the machine is fetched normally.
+        assertFalse(breaker.skip(IP, PORT, 0, 999));
+        breaker.onFailure(IP, PORT, 0);
+        assertTrue(breaker.isSuspended(IP, PORT));
+
+        // Consecutive windows join one range, a window of an older failure stays apart.
+        assertTrue(breaker.skip(IP, PORT, 10_000, 14_000));
+        assertTrue(breaker.skip(IP, PORT, 15_000, 19_000));
+        assertTrue(breaker.skip(IP, PORT, 20_000, 24_000));
+        assertTrue(breaker.skip(IP, PORT, 0, 4000));
+        // The probe in flight does not stop recording.
+        assertTrue(breaker.tryAcquire(IP, PORT, 1000));
+        assertTrue(breaker.skip(IP, PORT, 25_000, 29_000));
+
+        List<MachineCircuitBreaker.SkippedRange> ranges = breaker.onSuccess(IP, PORT);
+        assertFalse(breaker.isSuspended(IP, PORT));
+        assertEquals(2, ranges.size());
+        assertEquals(10_000, ranges.get(0).getStartTime());
+        assertEquals(29_000, ranges.get(0).getEndTime());
+        assertEquals(0, ranges.get(1).getStartTime());
+        assertEquals(4000, ranges.get(1).getEndTime());
+        assertTrue(breaker.onSuccess(IP, PORT).isEmpty());
+
+        breaker.onFailure(IP, PORT, 30_000);
+        for (int i = 0; i < MachineCircuitBreaker.MAX_SKIPPED_RANGES; i++) {
+            assertTrue(breaker.skip(IP, PORT, i * 10_000L, i * 10_000L));
+        }
+        assertFalse(breaker.skip(IP, PORT, 1_000_000, 1_000_000));
+        assertEquals(MachineCircuitBreaker.MAX_SKIPPED_RANGES, breaker.onSuccess(IP, PORT).size());
+        assertTrue(breaker.onSuccess("127.0.0.2", PORT).isEmpty());
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
+import com.alibaba.csp.sentinel.dashboard.util.HashedWheelTimer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricBackfillerTest {
+
+    private HashedWheelTimer timer;
+
+    @Before
+    public void setUp() {
+        timer = new HashedWheelTimer("test-timer", 100, TimeUnit.MILLISECONDS, 64);
+    }
+
+    @After
+    public void tearDown() {
+        timer.stop();
+    }
+
+    @Test
+    public void testMissedWindowIsRefetched() throws Exception {
+        final List<MetricBackfiller.MissedWindow> fetched = new CopyOnWriteArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        MetricBackfiller backfiller = new MetricBackfiller(timer, window -> {
+            fetched.add(window);
+            latch.countDown();
+            return CompletableFuture.completedFuture(true);
+        }, window -> { });
+        backfiller.start();
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        backfiller.onMissed("app", "127.0.0.1", 8719, now - 5000, now);
+        assertEquals(1, backfiller.getPending());
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 100 && backfiller.getBackfilled() == 0; i++) {
+            Thread.sleep(10);
+        }
+        backfiller.stop();
+        assertEquals(1, fetched.size());
+        assertEquals(now - 5000, fetched.get(0).getStartTime());
+        assertEquals(8719, fetched.get(0).getPort());
+        assertEquals(1, backfiller.getBackfilled());
+        assertEquals(0, backfiller.getPending());
+    }
+
+    @Test
+    public void testWindowOutOfHorizonIsLost() throws Exception {
+        final CountDownLatch lost = new CountDownLatch(1);
+        MetricBackfiller backfiller = new MetricBackfiller(timer,
+            window -> CompletableFuture.completedFuture(true), window -> lost.countDown());
+        backfiller.start();
+        long old = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1);
+        backfiller.onMissed("app", "127.0.0.1", 8719, old, old + 5000);
+
+        assertTrue(lost.await(5, TimeUnit.SECONDS));
+        backfiller.stop();
+        assertEquals(1, backfiller.getLost());
+        assertEquals(0, backfiller.getBackfilled());
+    }
+
+    @Test
+    public void testWindowPartlyOutOfHorizonIsTrimmed() throws Exception {
+        final List<MetricBackfiller.MissedWindow> fetched = new CopyOnWriteArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        MetricBackfiller backfiller = new MetricBackfiller(timer, window -> {
+            fetched.add(window);
+            latch.countDown();
+            return CompletableFuture.completedFuture(true);
+        }, window -> { });
+        backfiller.start();
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        long horizonMs = DashboardConfig.getMetricBackfillHorizonSeconds() * 1000L;
+        backfiller.onMissed("app", "127.0.0.1", 8719, now - horizonMs - 60_000, now);
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        backfiller.stop();
+        MetricBackfiller.MissedWindow window = fetched.get(0);
+        assertTrue(window.getStartTime() >= now - horizonMs);
+        assertEquals(0, window.getStartTime() % 1000);
+        assertEquals(now, window.getEndTime());
+        assertEquals(0, backfiller.getLost());
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.dashboard.discovery.AppHealthEvent;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.InMemoryMetricsRepository;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricPushIngestorTest {
+
+    private static final String APP = "app";
+
+    private InMemoryMetricsRepository repository;
+    private MetricPushIngestor ingestor;
+
+    @Before
+    public void setUp() {
+        repository = new InMemoryMetricsRepository();
+        ingestor = new MetricPushIngestor(new MetricWriter(repository));
+    }
+
+    @Test
+    public void testPushedSecondsAreAggregatedAndMerged() {
+        long second = System.currentTimeMillis() / 1000 * 1000 - 10_000;
+        push(second + "|res|10|1|9|0|5\n" + (second + 1000) + "|res|20|0|20|0|5\n");
+        push(second + "|res|10|1|9|0|5\n");
+        assertTrue(query(second).isEmpty());
+
+        ingestor.flush(second + 1000);
+        List<MetricEntity> saved = query(second);
+        assertEquals(1, saved.size());
+        assertEquals(20, saved.get(0).getPassQps().longValue());
+        assertEquals(2, saved.get(0).getCount());
+        assertTrue(query(second + 1000).isEmpty());
+
+        // A late batch of a flushed second is added to it.
+        push(second + "|res|5|0|5|0|5\n");
+        ingestor.flush(second + 2000);
+        assertEquals(25, query(second).get(0).getPassQps().longValue());
+        assertEquals(3, query(second).get(0).getCount());
+        assertEquals(20, query(second + 1000).get(0).getPassQps().longValue());
+    }
+
+    @Test
+    public void testLinesOutOfRangeAreDropped() {
+        long now = System.currentTimeMillis();
+        long old = now - TimeUnit.HOURS.toMillis(1);
+        long future = now + TimeUnit.MINUTES.toMillis(1);
+        MetricPushIngestor.PushResult result = push(old + "|res|1|0|1|0|1\n" + future + "|res|1|0|1|0|1\nbad|line\n");
+        assertEquals(2, result.getLines());
+        assertEquals(2, result.getDroppedLines());
+        assertEquals(1, result.getMalformedLines());
+
+        ingestor.flush(Long.MAX_VALUE);
+        assertTrue(repository.listResourcesOfApp(APP).isEmpty());
+    }
+
+    @Test
+    public void testIdleAndRemovedAppsReleased() {
+        long second = System.currentTimeMillis() / 1000 * 1000 - 10_000;
+        push(second + "|res|10|1|9|0|5\n");
+        ingestor.flush(second + 1000);
+        assertEquals(1, ingestor.getBufferedApps());
+
+        // Kept while a late line may still be merged into the written second.
+        long horizonMs = DashboardConfig.getMetricBackfillHorizonSeconds() * 1000L;
+        ingestor.flush(second + horizonMs);
+        assertEquals(1, ingestor.getBufferedApps());
+        ingestor.flush(second + horizonMs + 2000);
+        assertEquals(0, ingestor.getBufferedApps());
+
+        // Batches after the release get a new buffer.
+        push(second + "|res|5|0|5|0|5\n");
+        assertEquals(1, ingestor.getBufferedApps());
+        ingestor.onAppHealth(new AppHealthEvent(this, APP, false, true));
+        assertEquals(0, ingestor.getBufferedApps());
+        ingestor.onAppHealth(new AppHealthEvent(this, "unknown", false, true));
+    }
+
+    private MetricPushIngestor.PushResult push(String lines) {
+        return ingestor.ingest(APP, lines.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+    }
+
+    private List<MetricEntity> query(long time) {
+        return repository.queryByAppAndResourceBetween(APP, "res", time, time);
+    }
+}
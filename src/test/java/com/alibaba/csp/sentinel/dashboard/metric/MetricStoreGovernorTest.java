@@ -0,0 +1,85 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.alibaba.csp.sentinel.dashboard.repository.metric.MetricEntities;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.RingBufferMetricsRepository;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class MetricStoreGovernorTest {
+
+    private final AtomicLong usedHeap = new AtomicLong();
+    private final AtomicLong collections = new AtomicLong();
+
+    private RingBufferMetricsRepository repository;
+    private MetricStoreGovernor governor;
+
+    @Before
+    public void setUp() {
+        repository = new RingBufferMetricsRepository();
+        governor = new MetricStoreGovernor(repository, 80, usedHeap::get, collections::get, 1000);
+    }
+
+    @Test
+    public void testRetentionShrinksUnderPressureAndGrowsBack() {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        repository.save(MetricEntities.of("app", "res", now - 200_000, 1));
+
+        usedHeap.set(500);
+        governor.govern(now);
+        assertEquals(1, governor.getRetentionFactor(), 0);
+        assertEquals(0, governor.getEvictedPoints());
+
+        // Over budget: the second sweep keeps the last 150 seconds only.
+        usedHeap.set(900);
+        governor.govern(now);
+        assertEquals(0.5, governor.getRetentionFactor(), 0);
+        assertEquals(1, governor.getPressureSweeps());
+        assertEquals(1, governor.getLastStats().getEvictedPoints());
+        assertEquals(1, governor.getEvictedSeries());
+        assertEquals(1, governor.getEvictedApps());
+
+        // Held until the old generation is collected again, the usage after collection is stale until then.
+        governor.govern(now);
+        assertEquals(0.5, governor.getRetentionFactor(), 0);
+        assertEquals(1, governor.getPressureSweeps());
+
+        for (int i = 0; i < 3; i++) {
+            collections.incrementAndGet();
+            governor.govern(now);
+        }
+        assertEquals(MetricStoreGovernor.MIN_RETENTION_FACTOR, governor.getRetentionFactor(), 0);
+        assertEquals(3, governor.getPressureSweeps());
+
+        // Within the budget but above the relax ratio of it.
+        usedHeap.set(700);
+        governor.govern(now);
+        assertEquals(MetricStoreGovernor.MIN_RETENTION_FACTOR, governor.getRetentionFactor(), 0);
+
+        usedHeap.set(500);
+        governor.govern(now);
+        assertEquals(0.25, governor.getRetentionFactor(), 0);
+        assertEquals(8, governor.getSweeps());
+        assertEquals(500, governor.getLastUsedHeap());
+        assertEquals(now, governor.getLastSweepTime());
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.alibaba.csp.sentinel.Constants;
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.node.metric.MetricNode;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ThinMetricDecoderTest {
+
+    private final ThinMetricDecoder decoder = new ThinMetricDecoder();
+
+    @Test
+    public void testDecodeSameAsMetricNode() throws Exception {
+        String body = "1529998904000|/api/users/中文|10|2|8|1|15|0|3|1\n"
+            + "1529998904000|com.foo.Bar:baz()|1|0|1|0|7\r\n"
+            + "1529998905000|/api/users/中文|3|0|3|0|11|0|1|1";
+        List<MetricNode> decoded = new ArrayList<>();
+        ThinMetricDecoder.Result result = decoder.decode(
+            new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8,
+            (resource, timestamp, passQps, blockQps, successQps, exceptionQps, rt) -> {
+                MetricNode node = new MetricNode();
+                node.setResource(resource);
+                node.setTimestamp(timestamp);
+                node.setPassQps(passQps);
+                node.setBlockQps(blockQps);
+                node.setSuccessQps(successQps);
+                node.setExceptionQps(exceptionQps);
+                node.setRt(rt);
+                decoded.add(node);
+            });
+
+        assertEquals(3, result.getLines());
+        assertEquals(0, result.getMalformedLines());
+        assertEquals(body.getBytes(StandardCharsets.UTF_8).length, result.getBytes());
+        String[] lines = body.split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            MetricNode expected = MetricNode.fromThinString(lines[i].trim());
+            MetricNode actual = decoded.get(i);
+            assertEquals(expected.getResource(), actual.getResource());
+            assertEquals(expected.getTimestamp(), actual.getTimestamp());
+            assertEquals(expected.getPassQps(), actual.getPassQps());
+            assertEquals(expected.getBlockQps(), actual.getBlockQps());
+            assertEquals(expected.getSuccessQps(), actual.getSuccessQps());
+            assertEquals(expected.getExceptionQps(), actual.getExceptionQps());
+            assertEquals(expected.getRt(), actual.getRt());
+        }
+        // Known resource names are served from the cache.
+        assertSame(decoded.get(0).getResource(), decoded.get(2).getResource());
+    }
+
+    @Test
+    public void testSkipStatusAndMalformedLines() {
+        byte[] body = (MetricFetcher.NO_METRICS + "\n"
+            + "\n"
+            + "1529998904000|res|abc|0|1|0|1\n"
+            + "1529998904000|res|1|0\n"
+            + "1529998904000||1|0|1|0|1\n"
+            + "1529998904000|res|1|0|1|0|1\n").getBytes(StandardCharsets.UTF_8);
+        List<String> resources = new ArrayList<>();
+        ThinMetricDecoder.Result result = decoder.decode(body, 0, body.length, StandardCharsets.UTF_8,
+            (resource, timestamp, passQps, blockQps, successQps, exceptionQps, rt) -> resources.add(resource));
+
+        assertEquals(1, result.getLines());
+        assertEquals(3, result.getMalformedLines());
+        assertEquals(1, resources.size());
+    }
+
+    @Test
+    public void testAggregateByResourceAndSecond() {
+        long start = 1529998904000L;
+        MetricAggregation aggregation = new MetricAggregation("app", start, start + 6000);
+        byte[] machine1 = ("1529998904000|res|10|2|8|1|10\n"
+            + "1529998905000|res|1|0|1|0|4\n"
+            + "1529998904000|" + Constants.TOTAL_IN_RESOURCE_NAME + "|10|2|8|1|10\n"
+            + "1529998911000|res|1|0|1|0|4\n").getBytes(StandardCharsets.UTF_8);
+        byte[] machine2 = "1529998904000|res|5|0|4|0|20\n".getBytes(StandardCharsets.UTF_8);
+        decoder.decode(machine1, 0, machine1.length, StandardCharsets.UTF_8, aggregation);
+        decoder.decode(machine2, 0, machine2.length, StandardCharsets.UTF_8, aggregation);
+
+        List<MetricEntity> entities = aggregation.toEntities();
+        assertEquals(2, entities.size());
+        MetricEntity first = entities.get(0).getTimestamp().getTime() == start ? entities.get(0) : entities.get(1);
+        assertEquals("app", first.getApp());
+        assertEquals("res", first.getResource());
+        assertEquals(15L, first.getPassQps().longValue());
+        assertEquals(2L, first.getBlockQps().longValue());
+        assertEquals(12L, first.getSuccessQps().longValue());
+        assertEquals(1L, first.getExceptionQps().longValue());
+        assertEquals(10 * 8 + 20 * 4, first.getRt(), 0.001);
+        assertEquals(2, first.getCount());
+    }
+}
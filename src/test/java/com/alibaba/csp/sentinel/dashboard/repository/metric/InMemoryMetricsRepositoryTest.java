@@ -98,6 +98,35 @@ public class InMemoryMetricsRepositoryTest {
         Assert.assertTrue(result.size() == entities.size());
     }
 
+    @Test
+    public void testResourceDictionary() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            MetricEntity entry = new MetricEntity();
+            entry.setApp(DEFAULT_APP);
+            entry.setResource(i == 2 ? DEFAULT_RESOURCE : DEFAULT_RESOURCE + i);
+            entry.setTimestamp(new Date(now - i * 1000));
+            entry.setPassQps(1L);
+            entry.setExceptionQps(0L);
+            entry.setBlockQps((long)i);
+            entry.setSuccessQps(1L);
+            inMemoryMetricsRepository.save(entry);
+        }
+        ResourceDictionary dictionary = inMemoryMetricsRepository.getResourceDictionary(DEFAULT_APP);
+        assertEquals(3, dictionary.size());
+        assertEquals(2, dictionary.find(DEFAULT_RESOURCE));
+        assertEquals(DEFAULT_RESOURCE + "1", dictionary.nameOf(1));
+        assertEquals(ResourceDictionary.UNKNOWN, dictionary.find("unknown"));
+
+        List<MetricEntity> list = inMemoryMetricsRepository.queryByAppAndResourceBetween(
+                DEFAULT_APP, DEFAULT_RESOURCE, now - 5000, now);
+        assertEquals(1, list.size());
+        assertEquals(2, list.get(0).getResourceCode());
+        // Names are resolved back in block QPS order.
+        List<String> resources = inMemoryMetricsRepository.listResourcesOfApp(DEFAULT_APP);
+        assertEquals(DEFAULT_RESOURCE, resources.get(0));
+        assertEquals(DEFAULT_RESOURCE + "0", resources.get(2));
+    }
 
     @Test
     public void testExpireMetric() {
@@ -176,6 +205,55 @@ public class InMemoryMetricsRepositoryTest {
         }
     }
 
+    @Test
+    public void testSweepEvictsStaleSeriesAndApps() {
+        long now = System.currentTimeMillis();
+        MetricEntity entry = new MetricEntity();
+        entry.setApp(DEFAULT_APP);
+        entry.setResource(DEFAULT_RESOURCE);
+        entry.setTimestamp(new Date(now - 1000));
+        entry.setPassQps(1L);
+        entry.setExceptionQps(0L);
+        entry.setBlockQps(0L);
+        entry.setSuccessQps(1L);
+        inMemoryMetricsRepository.save(entry);
+
+        SweepStats stats = inMemoryMetricsRepository.sweep(now, 1);
+        assertEquals(0, stats.getEvictedPoints());
+        assertNotNull(inMemoryMetricsRepository.getResourceDictionary(DEFAULT_APP));
+
+        stats = inMemoryMetricsRepository.sweep(now + EXPIRE_TIME, 1);
+        assertEquals(1, stats.getEvictedPoints());
+        assertEquals(1, stats.getEvictedSeries());
+        assertEquals(1, stats.getEvictedApps());
+        assertNull(inMemoryMetricsRepository.getResourceDictionary(DEFAULT_APP));
+
+        inMemoryMetricsRepository.save(entry);
+        assertEquals(1, inMemoryMetricsRepository.queryByAppAndResourceBetween(DEFAULT_APP, DEFAULT_RESOURCE,
+            now - 1000, now).size());
+    }
+
+    @Test
+    public void testIdsOfSweptSeriesAreReused() {
+        long now = System.currentTimeMillis();
+        inMemoryMetricsRepository.save(MetricEntities.of(DEFAULT_APP, "stale", now - 1000, 1));
+        inMemoryMetricsRepository.save(MetricEntities.of(DEFAULT_APP, "live", now + EXPIRE_TIME - 1000, 1));
+        ResourceDictionary dictionary = inMemoryMetricsRepository.getResourceDictionary(DEFAULT_APP);
+        int staleId = dictionary.find("stale");
+
+        SweepStats stats = inMemoryMetricsRepository.sweep(now + EXPIRE_TIME, 1);
+        assertEquals(1, stats.getEvictedSeries());
+        assertEquals(ResourceDictionary.UNKNOWN, dictionary.find("stale"));
+
+        MetricEntity fresh = MetricEntities.of(DEFAULT_APP, "fresh", now, 1);
+        inMemoryMetricsRepository.save(fresh);
+        assertEquals(staleId, fresh.getResourceCode());
+        assertEquals("fresh", dictionary.nameOf(staleId));
+        assertEquals(2, dictionary.size());
+        assertTrue(inMemoryMetricsRepository.queryByAppAndResourceBetween(DEFAULT_APP, "stale", now - 1000, now)
+            .isEmpty());
+    }
+
     private void batchSave() {
         for (int i = 0; i < 100; i++) {
             MetricEntity entry = new MetricEntity();
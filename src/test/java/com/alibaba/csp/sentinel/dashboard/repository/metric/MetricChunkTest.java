@@ -0,0 +1,140 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for {@link MetricChunk}.
+ */
+public class MetricChunkTest {
+
+    private static final long SECOND = 1_700_000_000L;
+
+    @Test
+    public void testRoundTrip() {
+        double[] rts = {0, 12.5, 12.5, -3, Double.MAX_VALUE, Double.NaN, 1e-300, 7};
+        long[] seconds = {SECOND, SECOND + 1, SECOND + 2, SECOND + 10, SECOND + 11, SECOND + 40, SECOND + 41,
+            SECOND + 59};
+        MetricChunk.Builder builder = new MetricChunk.Builder();
+        for (int i = 0; i < seconds.length; i++) {
+            long writeTime = seconds[i] * 1000 + 2000 + i * 7;
+            builder.add(seconds[i], i % 3 == 0 ? 0 : 1000L * i, i, i % 2 == 0 ? Long.MAX_VALUE : 0, -i, rts[i],
+                i + 1, writeTime);
+        }
+        MetricChunk chunk = builder.build();
+        assertEquals(SECOND, chunk.firstSecond());
+        assertEquals(SECOND + 59, chunk.lastSecond());
+        assertEquals(seconds.length, chunk.size());
+
+        List<MetricEntity> results = new ArrayList<>();
+        chunk.read("app", "res", 3, SECOND, SECOND + 59, results);
+        assertEquals(seconds.length, results.size());
+        for (int i = 0; i < seconds.length; i++) {
+            MetricEntity entity = results.get(i);
+            assertEquals(seconds[i] * 1000, entity.getTimestamp().getTime());
+            assertEquals(i % 3 == 0 ? 0 : 1000L * i, entity.getPassQps().longValue());
+            assertEquals(i, entity.getSuccessQps().longValue());
+            assertEquals(i % 2 == 0 ? Long.MAX_VALUE : 0, entity.getBlockQps().longValue());
+            assertEquals(-i, entity.getExceptionQps().longValue());
+            assertEquals(Double.doubleToLongBits(rts[i]), Double.doubleToLongBits(entity.getRt()));
+            assertEquals(i + 1, entity.getCount());
+            assertEquals(seconds[i] * 1000 + 2000 + i * 7, entity.getGmtModified().getTime());
+            assertEquals("res", entity.getResource());
+            assertEquals(3, entity.getResourceCode());
+        }
+
+        results.clear();
+        chunk.read("app", "res", 3, SECOND + 3, SECOND + 40, results);
+        assertEquals(3, results.size());
+        assertEquals((SECOND + 10) * 1000, results.get(0).getTimestamp().getTime());
+        results.clear();
+        chunk.read("app", "res", 3, SECOND + 60, SECOND + 120, results);
+        assertTrue(results.isEmpty());
+    }
+
+    @Test
+    public void testSteadySeriesIsCompact() {
+        MetricChunk.Builder builder = new MetricChunk.Builder();
+        for (int i = 0; i < 60; i++) {
+            builder.add(SECOND + i, 100, 100, 0, 0, 100 * 5.0, 2, (SECOND + i) * 1000 + 2000);
+        }
+        // One byte per field once the first metric is encoded.
+        assertTrue(builder.build().bytes() <= 8 * 60 + 16);
+    }
+
+    @Test
+    public void testSealedMinutesOfRepository() {
+        InMemoryMetricsRepository repository = new InMemoryMetricsRepository(60);
+        long minute = (System.currentTimeMillis() / 60_000 - 20) * 60_000;
+        for (int i = 0; i < 120; i++) {
+            repository.save(MetricEntities.of("app", "res", minute + i * 1000L, i));
+        }
+        // Saving a recent metric seals the older minutes.
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        repository.save(MetricEntities.of("app", "res", now, 1000));
+
+        List<MetricEntity> metrics = repository.queryByAppAndResourceBetween("app", "res", minute + 30_000,
+            now);
+        assertEquals(91, metrics.size());
+        assertEquals(minute + 30_000, metrics.get(0).getTimestamp().getTime());
+        assertEquals(30L, metrics.get(0).getPassQps().longValue());
+        assertEquals(119L, metrics.get(89).getPassQps().longValue());
+        assertEquals(now, metrics.get(90).getTimestamp().getTime());
+
+        // Late metrics of sealed minutes replace or join the sealed ones.
+        repository.save(MetricEntities.of("app", "res", minute, 5000));
+        repository.save(MetricEntities.of("app", "res", minute + 30_500, 6000));
+        repository.save(MetricEntities.of("app", "res", minute + 150_000, 7000));
+        metrics = repository.queryByAppAndResourceBetween("app", "res", minute, minute + 150_000);
+        assertEquals(121, metrics.size());
+        assertEquals(5000L, metrics.get(0).getPassQps().longValue());
+        assertEquals(1L, metrics.get(1).getPassQps().longValue());
+        assertEquals(6000L, metrics.get(30).getPassQps().longValue());
+        assertEquals(7000L, metrics.get(120).getPassQps().longValue());
+
+        SweepStats stats = repository.sweep(now + 3601_000L, 1);
+        assertEquals(122, stats.getEvictedPoints());
+        assertEquals(1, stats.getEvictedApps());
+    }
+
+    @Test
+    public void testWithReplacesOrInsertsTheSecond() {
+        MetricChunk.Builder builder = new MetricChunk.Builder();
+        builder.add(MetricEntities.of("app", "res", SECOND * 1000, 1));
+        builder.add(MetricEntities.of("app", "res", (SECOND + 2) * 1000, 2));
+        MetricChunk chunk = builder.build();
+
+        chunk = chunk.with(MetricEntities.of("app", "res", (SECOND + 1) * 1000, 10))
+            .with(MetricEntities.of("app", "res", (SECOND + 2) * 1000, 20))
+            .with(MetricEntities.of("app", "res", (SECOND + 5) * 1000, 50));
+        List<MetricEntity> metrics = new ArrayList<>();
+        chunk.read("app", "res", 1, SECOND, SECOND + 59, metrics);
+        assertEquals(4, metrics.size());
+        assertEquals(SECOND + 5, chunk.lastSecond());
+        long[] passQps = {1, 10, 20, 50};
+        for (int i = 0; i < passQps.length; i++) {
+            assertEquals(passQps[i], metrics.get(i).getPassQps().longValue());
+        }
+    }
+}
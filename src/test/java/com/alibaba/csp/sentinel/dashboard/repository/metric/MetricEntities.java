@@ -0,0 +1,51 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.Date;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+
+/**
+ * Builds the {@link MetricEntity}s saved by the metric test cases.
+ */
+public final class MetricEntities {
+
+    /**
+     * @return metric of requests all passed and successful, with {@code passQps} as rt
+     */
+    public static MetricEntity of(String app, String resource, long timestamp, long passQps) {
+        return of(app, resource, timestamp, passQps, 0, passQps, passQps);
+    }
+
+    public static MetricEntity of(String app, String resource, long timestamp, long passQps, long blockQps,
+                                  long successQps, double rt) {
+        MetricEntity entity = new MetricEntity();
+        entity.setApp(app);
+        entity.setResource(resource);
+        entity.setTimestamp(new Date(timestamp));
+        entity.setGmtCreate(new Date());
+        entity.setPassQps(passQps);
+        entity.setBlockQps(blockQps);
+        entity.setSuccessQps(successQps);
+        entity.setExceptionQps(0L);
+        entity.setRt(rt);
+        entity.setCount(1);
+        return entity;
+    }
+
+    private MetricEntities() {}
+}
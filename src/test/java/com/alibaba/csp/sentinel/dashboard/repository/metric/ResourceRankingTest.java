@@ -0,0 +1,123 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test cases for {@link ResourceRanking}.
+ */
+public class ResourceRankingTest {
+
+    private static final long NOW = 1_000_000;
+
+    private ResourceDictionary dictionary;
+    private ResourceRanking ranking;
+
+    @Before
+    public void setUp() {
+        dictionary = new ResourceDictionary();
+        ranking = new ResourceRanking(dictionary);
+    }
+
+    @Test
+    public void testRanksAndPages() {
+        // resource, pass, success, block, exception, rt sum (success * average rt)
+        add("a", NOW - 1, 10, 10, 5, 0, 10 * 50);
+        add("b", NOW - 1, 30, 30, 0, 2, 30 * 10);
+        add("c", NOW - 2, 20, 20, 5, 1, 20 * 20);
+        add("c", NOW - 1, 20, 20, 0, 0, 20 * 20);
+
+        assertEquals(3, ranking.size(NOW));
+        // Equal block QPS are ordered by pass QPS.
+        assertEquals(Arrays.asList("c", "a", "b"), ranking.page(ResourceRank.BLOCK_QPS, true, 0, 10, NOW));
+        assertEquals(Arrays.asList("b", "a", "c"), ranking.page(ResourceRank.BLOCK_QPS, false, 0, 10, NOW));
+        assertEquals(Arrays.asList("c", "b", "a"), ranking.page(ResourceRank.PASS_QPS, true, 0, 10, NOW));
+        assertEquals(Arrays.asList("b", "c", "a"), ranking.page(ResourceRank.EXCEPTION_QPS, true, 0, 10, NOW));
+        assertEquals(Arrays.asList("a", "c", "b"), ranking.page(ResourceRank.RT, true, 0, 10, NOW));
+
+        assertEquals(Arrays.asList("a"), ranking.page(ResourceRank.BLOCK_QPS, true, 1, 1, NOW));
+        assertEquals(0, ranking.page(ResourceRank.BLOCK_QPS, true, 3, 1, NOW).size());
+    }
+
+    @Test
+    public void testDifferencesAndExpiry() {
+        add("a", NOW - 30, 10, 10, 1, 0, 0);
+        add("b", NOW - 10, 0, 0, 2, 0, 0);
+        assertEquals(Arrays.asList("b", "a"), ranking.page(ResourceRank.BLOCK_QPS, true, 0, 10, NOW));
+
+        // Metrics of a late machine merged into the second of "a".
+        add("a", NOW - 30, 0, 0, 2, 0, 0);
+        assertEquals(Arrays.asList("a", "b"), ranking.page(ResourceRank.BLOCK_QPS, true, 0, 10, NOW));
+
+        // The second of "a" leaves the window first.
+        assertEquals(Arrays.asList("b"), ranking.page(ResourceRank.BLOCK_QPS, true, 0, 10, NOW + 31));
+        assertEquals(0, ranking.size(NOW + 51));
+
+        // Seconds already out of the window, or not over yet, are not ranked.
+        add("a", NOW + 51 - ResourceRanking.WINDOW_SECONDS, 1, 1, 1, 0, 0);
+        add("a", NOW + 52, 1, 1, 1, 0, 0);
+        assertEquals(0, ranking.size(NOW + 51));
+    }
+
+    @Test
+    public void testSweepReleasesIdleWindows() {
+        for (int i = 0; i < 100; i++) {
+            add("r" + i, NOW - 1, 1, 1, 0, 0, 0);
+        }
+        add("r3", NOW, 1, 1, 0, 0, 0);
+        assertEquals(128, ranking.capacity());
+
+        ranking.sweep(NOW + ResourceRanking.WINDOW_SECONDS - 1);
+        assertEquals(Arrays.asList("r3"), ranking.page(ResourceRank.PASS_QPS, true, 0, 10,
+            NOW + ResourceRanking.WINDOW_SECONDS - 1));
+        assertEquals(16, ranking.capacity());
+
+        // Written again after its window was released.
+        ranking.add(dictionary.intern("r99"), NOW + 59, NOW + 59, 5, 5, 0, 0, 0);
+        assertEquals(Arrays.asList("r99", "r3"), ranking.page(ResourceRank.PASS_QPS, true, 0, 10, NOW + 59));
+        assertEquals(0, ranking.size(NOW + 120));
+    }
+
+    @Test
+    public void testRollupRepositoryListsRankedResources() {
+        RollupMetricsRepository repository = new RollupMetricsRepository(new RingBufferMetricsRepository(),
+            RingBufferMetricsRepository.RETENTION_SECONDS);
+        long second = System.currentTimeMillis() / 1000 - 1;
+        repository.save(MetricEntities.of("app", "a", second * 1000, 1, 1, 1, 1));
+        repository.save(MetricEntities.of("app", "b", second * 1000, 1, 3, 1, 1));
+        repository.save(MetricEntities.of("app", "c", second * 1000, 1, 2, 1, 1));
+        // Saved again with more blocked requests.
+        repository.saveAll(Collections.singletonList(MetricEntities.of("app", "a", second * 1000, 1, 5, 1, 1)),
+            Collections.singletonList(MetricEntities.of("app", "a", second * 1000, 1, 1, 1, 1)));
+
+        assertEquals(Arrays.asList("a", "b", "c"), repository.listResourcesOfApp("app"));
+        assertEquals(Arrays.asList("b"), repository.listResourcesOfApp("app", ResourceRank.BLOCK_QPS, true, 1, 1));
+        assertEquals(3, repository.countResourcesOfApp("app"));
+        assertEquals(0, repository.countResourcesOfApp("unknown"));
+    }
+
+    private void add(String resource, long second, long pass, long success, long block, long exception,
+                     double rt) {
+        ranking.add(dictionary.intern(resource), second, NOW, pass, success, block, exception, rt);
+    }
+}
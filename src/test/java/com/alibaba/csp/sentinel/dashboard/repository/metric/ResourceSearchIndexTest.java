@@ -0,0 +1,117 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test cases for {@link ResourceSearchIndex}.
+ */
+public class ResourceSearchIndexTest {
+
+    private ResourceDictionary dictionary;
+    private ResourceSearchIndex index;
+
+    @Before
+    public void setUp() {
+        dictionary = new ResourceDictionary();
+        index = new ResourceSearchIndex(dictionary);
+    }
+
+    @Test
+    public void testSearchIgnoresCase() {
+        add("GET:/api/Orders");
+        add("GET:/api/users");
+        add("com.example.OrderService:create");
+
+        assertEquals(Arrays.asList("GET:/api/Orders", "com.example.OrderService:create"), search("order"));
+        assertEquals(Arrays.asList("GET:/api/Orders", "GET:/api/users"), search("GET:/API/"));
+        // The trigram "ers" occurs twice in the name.
+        assertEquals(Arrays.asList("GET:/api/users"), search("users"));
+        assertEquals(0, search("payments").size());
+        // Keys shorter than a trigram scan the names.
+        assertEquals(Arrays.asList("GET:/api/Orders", "GET:/api/users"), search("/A"));
+    }
+
+    @Test
+    public void testRemovedResourcesAreHidden() {
+        int orders = add("/orders");
+        add("/orders/detail");
+        index.remove(orders);
+        assertEquals(Arrays.asList("/orders/detail"), search("orders"));
+        assertEquals(1, index.size());
+
+        index.add(orders);
+        assertEquals(Arrays.asList("/orders", "/orders/detail"), search("orders"));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void testReleasedIdsAreUnindexed() {
+        int orders = add("/orders");
+        index.remove(orders);
+        dictionary.release(orders);
+        assertEquals(orders, add("/users"));
+        assertEquals(0, search("orders").size());
+        assertEquals(Arrays.asList("/users"), search("users"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullNamesAreRejected() {
+        dictionary.intern(null);
+    }
+
+    @Test
+    public void testRollupRepositorySearchesRankedResources() {
+        RollupMetricsRepository repository = new RollupMetricsRepository(new RingBufferMetricsRepository(),
+            RingBufferMetricsRepository.RETENTION_SECONDS);
+        long second = System.currentTimeMillis() / 1000 - 1;
+        repository.save(MetricEntities.of("app", "/Orders", second * 1000, 1, 1, 1, 1));
+        repository.save(MetricEntities.of("app", "/orders/detail", second * 1000, 1, 3, 1, 1));
+        repository.save(MetricEntities.of("app", "/users", second * 1000, 1, 2, 1, 1));
+
+        assertEquals(Arrays.asList("/orders/detail", "/Orders"),
+            repository.searchResourcesOfApp("app", "ORDERS", ResourceRank.BLOCK_QPS, true));
+        assertEquals(Arrays.asList("/Orders", "/orders/detail"),
+            repository.searchResourcesOfApp("app", "ORDERS", ResourceRank.BLOCK_QPS, false));
+        assertEquals(0, repository.searchResourcesOfApp("unknown", "orders", ResourceRank.BLOCK_QPS, true).size());
+
+        // Resources left without series are no longer found.
+        repository.sweep((second + 30 * 24 * 3600) * 1000, 1);
+        assertEquals(0, repository.searchResourcesOfApp("app", "orders", ResourceRank.BLOCK_QPS, true).size());
+    }
+
+    private int add(String resource) {
+        int id = dictionary.intern(resource);
+        index.add(id);
+        return id;
+    }
+
+    private List<String> search(String key) {
+        List<String> names = new ArrayList<>();
+        for (int id : index.search(key)) {
+            names.add(dictionary.nameOf(id));
+        }
+        return names;
+    }
+}
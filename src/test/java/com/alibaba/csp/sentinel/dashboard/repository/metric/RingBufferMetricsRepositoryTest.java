@@ -0,0 +1,154 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for {@link RingBufferMetricsRepository}.
+ */
+public class RingBufferMetricsRepositoryTest {
+
+    private static final String APP = "defaultApp";
+    private static final String RESOURCE = "defaultResource";
+
+    private RingBufferMetricsRepository repository;
+
+    @Before
+    public void setUp() {
+        repository = new RingBufferMetricsRepository();
+    }
+
+    @Test
+    public void testSaveAndQueryRange() {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        for (int i = 0; i < 10; i++) {
+            repository.save(MetricEntities.of(APP, RESOURCE, now - i * 1000L, i, 0, i, i));
+        }
+        // Saving a second again replaces it.
+        repository.save(MetricEntities.of(APP, RESOURCE, now - 3000, 30, 0, 30, 30));
+
+        List<MetricEntity> list = repository.queryByAppAndResourceBetween(APP, RESOURCE, now - 4500, now - 1000);
+        assertEquals(4, list.size());
+        assertEquals(now - 4000, list.get(0).getTimestamp().getTime());
+        assertEquals(4, list.get(0).getPassQps().longValue());
+        assertEquals(30, list.get(1).getPassQps().longValue());
+        assertEquals(now - 1000, list.get(3).getTimestamp().getTime());
+        assertEquals(APP, list.get(3).getApp());
+        assertEquals(RESOURCE, list.get(3).getResource());
+        assertEquals(1.0, list.get(3).getRt(), 0);
+        assertEquals(1, list.get(3).getCount());
+        assertTrue(list.get(3).getGmtCreate() != null);
+
+        assertTrue(repository.queryByAppAndResourceBetween(APP, "unknown", now - 4500, now).isEmpty());
+        assertEquals(10, repository.queryByAppAndResourceBetween(APP, RESOURCE, 0, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    public void testExpiredAndOverwrittenSlots() {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        long retention = RingBufferMetricsRepository.RETENTION_SECONDS * 1000L;
+        repository.save(MetricEntities.of(APP, RESOURCE, now - retention - 5000, 1, 0, 1, 1));
+        assertTrue(repository.queryByAppAndResourceBetween(APP, RESOURCE, 0, now).isEmpty());
+
+        // Both seconds share a slot, and the older one cannot replace the newer one.
+        repository.save(MetricEntities.of(APP, RESOURCE, now, 2, 0, 2, 2));
+        repository.save(MetricEntities.of(APP, RESOURCE, now - retention, 3, 0, 3, 3));
+        List<MetricEntity> list = repository.queryByAppAndResourceBetween(APP, RESOURCE, now - retention, now);
+        assertEquals(1, list.size());
+        assertEquals(2, list.get(0).getPassQps().longValue());
+    }
+
+    @Test
+    public void testListResourcesOfApp() {
+        long now = System.currentTimeMillis();
+        repository.save(MetricEntities.of(APP, RESOURCE + "0", now, 10, 0, 10, 10));
+        repository.save(MetricEntities.of(APP, RESOURCE + "1", now, 1, 5, 1, 1));
+        repository.save(MetricEntities.of(APP, RESOURCE + "2", now, 20, 0, 20, 20));
+        repository.save(MetricEntities.of(APP, RESOURCE + "3", now - 120_000, 100, 100, 100, 100));
+        List<String> resources = repository.listResourcesOfApp(APP);
+        assertEquals(3, resources.size());
+        assertEquals(RESOURCE + "1", resources.get(0));
+        assertEquals(RESOURCE + "2", resources.get(1));
+        assertEquals(RESOURCE + "0", resources.get(2));
+        assertEquals(3, repository.getResourceDictionary(APP).find(RESOURCE + "3"));
+    }
+
+    @Test
+    public void testBatchQueryKeepsResourceOrder() {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        for (int i = 0; i < 3; i++) {
+            repository.save(MetricEntities.of(APP, RESOURCE + "0", now - i * 1000, 1, 0, 1, 1));
+        }
+        repository.save(MetricEntities.of(APP, RESOURCE + "1", now, 2, 0, 2, 2));
+
+        Map<String, List<MetricEntity>> series = repository.queryByAppAndResourcesBetween(APP,
+            Arrays.asList(RESOURCE + "1", "unknown", RESOURCE + "0"), now - 1000, now, 600);
+        assertEquals(Arrays.asList(RESOURCE + "1", "unknown", RESOURCE + "0"), new ArrayList<>(series.keySet()));
+        assertEquals(1, series.get(RESOURCE + "1").size());
+        assertTrue(series.get("unknown").isEmpty());
+        List<MetricEntity> metrics = series.get(RESOURCE + "0");
+        assertEquals(2, metrics.size());
+        assertEquals(now - 1000, metrics.get(0).getTimestamp().getTime());
+        assertEquals(now, metrics.get(1).getTimestamp().getTime());
+
+        assertTrue(repository.queryByAppAndResourcesBetween("unknown", Arrays.asList(RESOURCE + "0"), now - 1000,
+            now, 600).get(RESOURCE + "0").isEmpty());
+    }
+
+    @Test
+    public void testSweepEvictsStaleSeriesAndApps() {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        repository.save(MetricEntities.of(APP, RESOURCE + "0", now - 200_000, 1, 0, 1, 1));
+        repository.save(MetricEntities.of(APP, RESOURCE + "0", now - 100_000, 1, 0, 1, 1));
+        repository.save(MetricEntities.of(APP, RESOURCE + "1", now, 1, 0, 1, 1));
+
+        SweepStats stats = repository.sweep(now, 1);
+        assertEquals(0, stats.getEvictedPoints());
+        assertEquals(0, stats.getEvictedSeries());
+
+        // Half the retention keeps the last 150 seconds.
+        stats = repository.sweep(now, 0.5);
+        assertEquals(1, stats.getEvictedPoints());
+        assertEquals(0, stats.getEvictedSeries());
+        assertEquals(1, repository.queryByAppAndResourceBetween(APP, RESOURCE + "0", now - 300_000, now).size());
+
+        stats = repository.sweep(now + 250_000, 1);
+        assertEquals(1, stats.getEvictedPoints());
+        assertEquals(1, stats.getEvictedSeries());
+        assertEquals(0, stats.getEvictedApps());
+        assertEquals(0, repository.queryByAppAndResourceBetween(APP, RESOURCE + "0", now - 300_000, now).size());
+
+        stats = repository.sweep(now + 400_000, 1);
+        assertEquals(1, stats.getEvictedSeries());
+        assertEquals(1, stats.getEvictedApps());
+        assertEquals(null, repository.getResourceDictionary(APP));
+
+        // Writes after the eviction start over.
+        repository.save(MetricEntities.of(APP, RESOURCE + "1", now, 1, 0, 1, 1));
+        assertEquals(1, repository.queryByAppAndResourceBetween(APP, RESOURCE + "1", now, now).size());
+    }
+}
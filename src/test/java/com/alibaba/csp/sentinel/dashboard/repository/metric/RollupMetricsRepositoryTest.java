@@ -0,0 +1,225 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for {@link RollupMetricsRepository}.
+ */
+public class RollupMetricsRepositoryTest {
+
+    private static final String APP = "defaultApp";
+    private static final String RESOURCE = "defaultResource";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private RollupMetricsRepository repository;
+
+    @Before
+    public void setUp() {
+        repository = new RollupMetricsRepository(new RingBufferMetricsRepository(),
+            RingBufferMetricsRepository.RETENTION_SECONDS);
+    }
+
+    @Test
+    public void testTierSelection() {
+        long now = System.currentTimeMillis();
+        assertEquals(-1, repository.tierOf(now - 60_000, now, 600));
+        // Too many seconds for the budget, or older than the seconds kept.
+        assertEquals(0, repository.tierOf(now - 3600_000, now, 600));
+        assertEquals(0, repository.tierOf(now - 600_000, now - 500_000, 600));
+        assertEquals(1, repository.tierOf(now - 6 * 3600_000L, now, 600));
+        assertEquals(2, repository.tierOf(now - 7 * 24 * 3600_000L, now, 600));
+        assertEquals(2, repository.tierOf(now - 30 * 24 * 3600_000L, now, 600));
+    }
+
+    @Test
+    public void testDownsampledQuery() {
+        long minute = (System.currentTimeMillis() / 60_000 - 2) * 60_000;
+        for (int i = 0; i < 60; i++) {
+            // 10 pass and 5 success per second with an rt of 20 ms.
+            repository.save(MetricEntities.of(APP, RESOURCE, minute + i * 1000L, 10, 0, 5, 100));
+        }
+        // The second is saved again with the metrics of a late machine merged in.
+        MetricEntity merged = MetricEntities.of(APP, RESOURCE, minute, 40, 0, 5, 100);
+        merged.setCount(2);
+        repository.saveAll(Collections.singletonList(merged),
+            Collections.singletonList(MetricEntities.of(APP, RESOURCE, minute, 10, 0, 5, 100)));
+
+        List<MetricEntity> tenSeconds = repository.queryByAppAndResourceBetween(APP, RESOURCE, minute,
+            minute + 59_000, 10);
+        assertEquals(6, tenSeconds.size());
+        assertEquals(minute, tenSeconds.get(0).getTimestamp().getTime());
+        assertEquals(13L, tenSeconds.get(0).getPassQps().longValue());
+        assertEquals(10L, tenSeconds.get(1).getPassQps().longValue());
+        assertEquals(5L, tenSeconds.get(1).getSuccessQps().longValue());
+        assertEquals(20.0, tenSeconds.get(1).getRt() / tenSeconds.get(1).getSuccessQps(), 0.001);
+
+        List<MetricEntity> minutes = repository.queryByAppAndResourceBetween(APP, RESOURCE,
+            minute - 3 * 3600_000L, minute + 59_000, 600);
+        assertEquals(1, minutes.size());
+        assertEquals(minute, minutes.get(0).getTimestamp().getTime());
+        assertEquals(11L, minutes.get(0).getPassQps().longValue());
+        assertEquals(20.0, minutes.get(0).getRt() / minutes.get(0).getSuccessQps(), 0.001);
+        assertEquals(2, minutes.get(0).getCount());
+
+        // Ranges within the budget still get every second.
+        assertEquals(60, repository.queryByAppAndResourceBetween(APP, RESOURCE, minute, minute + 59_000, 600)
+            .size());
+
+        Map<String, List<MetricEntity>> series = repository.queryByAppAndResourcesBetween(APP,
+            Arrays.asList(RESOURCE, "unknown"), minute, minute + 59_000, 10);
+        assertEquals(6, series.get(RESOURCE).size());
+        assertEquals(13L, series.get(RESOURCE).get(0).getPassQps().longValue());
+        assertTrue(series.get("unknown").isEmpty());
+        assertEquals(60, repository.queryByAppAndResourcesBetween(APP, Arrays.asList(RESOURCE), minute,
+            minute + 59_000, 600).get(RESOURCE).size());
+    }
+
+    @Test
+    public void testSweepReleasesExpiredTiers() {
+        long minute = (System.currentTimeMillis() / 60_000 - 2) * 60_000;
+        repository.save(MetricEntities.of(APP, RESOURCE, minute, 10, 0, 5, 100));
+
+        // The 10 seconds bucket, and the second with its series and app in the delegate.
+        SweepStats stats = repository.sweep(minute + 2 * 3600_000L, 1);
+        assertEquals(2, stats.getEvictedPoints());
+        assertEquals(1, stats.getEvictedSeries());
+        assertEquals(1, stats.getEvictedApps());
+        assertEquals(1, repository.queryByAppAndResourceBetween(APP, RESOURCE, minute - 3 * 3600_000L,
+            minute + 59_000, 600).size());
+
+        // An eighth of the retention drops the minute tier after 75 minutes.
+        stats = repository.sweep(minute + 2 * 3600_000L, 0.125);
+        assertEquals(1, stats.getEvictedPoints());
+        assertEquals(0, stats.getEvictedSeries());
+        assertEquals(2, repository.tierOf(minute - 3 * 3600_000L, minute, 600));
+
+        stats = repository.sweep(minute + 30 * 3600_000L, 0.125);
+        assertEquals(1, stats.getEvictedPoints());
+        assertEquals(1, stats.getEvictedSeries());
+        assertEquals(1, stats.getEvictedApps());
+        assertEquals(0, repository.countResourcesOfApp(APP));
+    }
+
+    @Test
+    public void testTiersGrowWithTheirSpan() {
+        long start = (System.currentTimeMillis() / 60_000 - 30) * 60_000;
+        for (int i = 0; i < 180; i++) {
+            repository.save(MetricEntities.of(APP, RESOURCE, start + i * 10_000L, 10, 0, 5, 100));
+        }
+        // A second saved again without the metric it replaces counts as new.
+        repository.save(MetricEntities.of(APP, RESOURCE, start, 10, 0, 5, 100));
+
+        List<MetricEntity> buckets = repository.queryByAppAndResourceBetween(APP, RESOURCE, start,
+            start + 1799_000, 180);
+        assertEquals(180, buckets.size());
+        assertEquals(start, buckets.get(0).getTimestamp().getTime());
+        assertEquals(2L, buckets.get(0).getPassQps().longValue());
+        assertEquals(start + 1790_000, buckets.get(179).getTimestamp().getTime());
+        assertEquals(1L, buckets.get(179).getPassQps().longValue());
+    }
+
+    @Test
+    public void testRollupsRebuiltFromTheStoreOnRestart() throws Exception {
+        long start = (System.currentTimeMillis() / 3600_000 - 3) * 3600_000;
+        SegmentMetricsRepository store = new SegmentMetricsRepository(folder.getRoot(), 7, 60, 5);
+        store.start();
+        List<MetricEntity> batch = new ArrayList<>();
+        for (int i = 0; i < 7200; i++) {
+            batch.add(MetricEntities.of(APP, RESOURCE, start + i * 1000L, 10, 0, 5, 100));
+        }
+        store.saveAll(batch);
+        store.close();
+
+        CountingStore restarted = new CountingStore(folder.getRoot());
+        restarted.start();
+        try {
+            RollupMetricsRepository rollups = new RollupMetricsRepository(restarted, TimeUnit.DAYS.toSeconds(7));
+            assertEquals(7200, restarted.scanned);
+
+            List<MetricEntity> minutes = rollups.queryByAppAndResourceBetween(APP, RESOURCE, start,
+                start + 7199_000, 120);
+            assertEquals(120, minutes.size());
+            assertEquals(start, minutes.get(0).getTimestamp().getTime());
+            assertEquals(10L, minutes.get(0).getPassQps().longValue());
+            assertEquals(5L, minutes.get(119).getSuccessQps().longValue());
+            assertEquals(20.0, minutes.get(119).getRt() / minutes.get(119).getSuccessQps(), 0.001);
+            assertEquals(120, rollups.queryByAppAndResourcesBetween(APP, Arrays.asList(RESOURCE), start,
+                start + 7199_000, 120).get(RESOURCE).size());
+            // Served from the rebuilt tiers, the seconds are not read back.
+            assertEquals(0, restarted.queries);
+        } finally {
+            restarted.close();
+        }
+    }
+
+    /**
+     * Segment store counting the seconds scanned and the queries of seconds.
+     */
+    private static final class CountingStore extends SegmentMetricsRepository {
+
+        private int scanned;
+        private int queries;
+
+        CountingStore(File directory) {
+            super(directory, 7, 60, 5);
+        }
+
+        @Override
+        public void scanBetween(long startTime, long endTime, Consumer<MetricEntity> consumer) {
+            super.scanBetween(startTime, endTime, entity -> {
+                scanned++;
+                consumer.accept(entity);
+            });
+        }
+
+        @Override
+        public List<MetricEntity> queryByAppAndResourceBetween(String app, String resource, long startTime,
+                                                               long endTime) {
+            queries++;
+            return super.queryByAppAndResourceBetween(app, resource, startTime, endTime);
+        }
+
+        @Override
+        public Map<String, List<MetricEntity>> queryByAppAndResourcesBetween(String app,
+                                                                             Collection<String> resources,
+                                                                             long startTime, long endTime,
+                                                                             int maxPoints) {
+            queries++;
+            return super.queryByAppAndResourcesBetween(app, resources, startTime, endTime, maxPoints);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for {@link SegmentMetricsRepository}.
+ */
+public class SegmentMetricsRepositoryTest {
+
+    private static final String APP = "default.App";
+    private static final String RESOURCE = "defaultResource";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SegmentMetricsRepository repository;
+    private File appDir;
+    /**
+     * Start of the previous hour, older than the seconds served from memory.
+     */
+    private long hourStart;
+
+    @Before
+    public void setUp() throws Exception {
+        repository = open();
+        appDir = new File(folder.getRoot(), SegmentMetricsRepository.encodeApp(APP));
+        hourStart = (System.currentTimeMillis() / 3600_000 - 1) * 3600_000;
+    }
+
+    @After
+    public void tearDown() {
+        repository.close();
+    }
+
+    @Test
+    public void testQueryAcrossHoursAndRestart() throws Exception {
+        List<MetricEntity> batch = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            // Ten seconds at the end of the first hour, ten at the start of the next one.
+            batch.add(MetricEntities.of(APP, RESOURCE, hourStart + 3590_000L + i * 1000L, i));
+            batch.add(MetricEntities.of(APP, "other", hourStart + 3590_000L + i * 1000L, 100 + i));
+        }
+        repository.saveAll(batch);
+        // Written again, the last value of a second wins.
+        repository.save(MetricEntities.of(APP, RESOURCE, hourStart + 3595_000L, 50));
+
+        assertSeconds(repository.queryByAppAndResourceBetween(APP, RESOURCE, hourStart, hourStart + 7200_000L));
+        assertEquals(2, appDir.listFiles((dir, name) -> name.endsWith(SegmentMetricsRepository.ACTIVE_SUFFIX))
+            .length);
+
+        repository.close();
+        repository = open();
+        List<MetricEntity> list = repository.queryByAppAndResourceBetween(APP, RESOURCE, hourStart + 3598_000L,
+            hourStart + 3601_000L);
+        assertEquals(4, list.size());
+        assertEquals(hourStart + 3598_000L, list.get(0).getTimestamp().getTime());
+        assertEquals(APP, list.get(0).getApp());
+        assertEquals(RESOURCE, list.get(0).getResource());
+        assertTrue(list.get(0).getGmtCreate() != null);
+        assertEquals(100L, repository.queryByAppAndResourceBetween(APP, "other", hourStart + 3590_000L,
+            hourStart + 3590_000L).get(0).getPassQps().longValue());
+    }
+
+    @Test
+    public void testCompactionAndLateWrites() throws Exception {
+        List<MetricEntity> batch = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            batch.add(MetricEntities.of(APP, RESOURCE, hourStart + 3590_000L + i * 1000L, i));
+        }
+        repository.saveAll(batch);
+        repository.save(MetricEntities.of(APP, RESOURCE, hourStart + 3595_000L, 50));
+
+        // Only the first hour is sealed, the current one may still receive late writes.
+        repository.maintain(hourStart + 3660_000L);
+        assertTrue(new File(appDir, (hourStart / 1000) + SegmentMetricsRepository.COMPACTED_SUFFIX).exists());
+        assertFalse(new File(appDir, (hourStart / 1000) + SegmentMetricsRepository.ACTIVE_SUFFIX).exists());
+        assertTrue(new File(appDir, (hourStart / 1000 + 3600) + SegmentMetricsRepository.ACTIVE_SUFFIX).exists());
+        assertSeconds(repository.queryByAppAndResourceBetween(APP, RESOURCE, hourStart, hourStart + 7200_000L));
+
+        // A late write to a compacted hour overrides it, and is merged by the next compaction.
+        repository.save(MetricEntities.of(APP, RESOURCE, hourStart + 3591_000L, 42));
+        assertEquals(42L, passQpsAt(hourStart + 3591_000L));
+        repository.maintain(hourStart + 3660_000L);
+        assertFalse(new File(appDir, (hourStart / 1000) + SegmentMetricsRepository.ACTIVE_SUFFIX).exists());
+        assertEquals(42L, passQpsAt(hourStart + 3591_000L));
+
+        repository.close();
+        repository = open();
+        assertEquals(42L, passQpsAt(hourStart + 3591_000L));
+        assertEquals(20, repository.queryByAppAndResourceBetween(APP, RESOURCE, hourStart, hourStart + 7200_000L)
+            .size());
+
+        // Segments older than the retention are deleted.
+        repository.maintain(System.currentTimeMillis() + 2 * 24 * 3600_000L);
+        assertTrue(repository.queryByAppAndResourceBetween(APP, RESOURCE, hourStart, hourStart + 7200_000L)
+            .isEmpty());
+        assertEquals(1, appDir.listFiles().length);
+    }
+
+    @Test
+    public void testRecoverFromTornWrite() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            repository.save(MetricEntities.of(APP, RESOURCE, hourStart + i * 1000L, i));
+        }
+        repository.close();
+        File segment = new File(appDir, (hourStart / 1000) + SegmentMetricsRepository.ACTIVE_SUFFIX);
+        long length = segment.length();
+        try (FileOutputStream out = new FileOutputStream(segment, true)) {
+            // Half of a record.
+            out.write(new byte[SegmentRecords.SIZE / 2]);
+        }
+
+        repository = open();
+        assertEquals(length, segment.length());
+        assertEquals(5, repository.queryByAppAndResourceBetween(APP, RESOURCE, hourStart, hourStart + 3600_000L)
+            .size());
+        repository.save(MetricEntities.of(APP, RESOURCE, hourStart + 5000, 5));
+        assertEquals(6, repository.queryByAppAndResourceBetween(APP, RESOURCE, hourStart, hourStart + 3600_000L)
+            .size());
+    }
+
+    @Test
+    public void testEmptyActiveSegmentDropped() throws Exception {
+        repository.save(MetricEntities.of(APP, RESOURCE, hourStart + 3600_000L, 1));
+        repository.close();
+        File empty = new File(appDir, (hourStart / 1000) + SegmentMetricsRepository.ACTIVE_SUFFIX);
+        assertTrue(empty.createNewFile());
+
+        repository = open();
+        repository.maintain(hourStart + 3660_000L);
+        assertFalse(empty.exists());
+        assertFalse(new File(appDir, (hourStart / 1000) + SegmentMetricsRepository.COMPACTED_SUFFIX).exists());
+        assertEquals(1, repository.queryByAppAndResourceBetween(APP, RESOURCE, hourStart, hourStart + 7200_000L)
+            .size());
+    }
+
+    @Test
+    public void testCompactResourceIdsBeyondTwentyBits() throws Exception {
+        long start = hourStart / 1000;
+        int[] ids = {(1 << 22) + 3, 5, (1 << 20) + 7, 5, Integer.MAX_VALUE};
+        ByteBuffer records = ByteBuffer.allocate(ids.length * SegmentRecords.SIZE);
+        for (int i = 0; i < ids.length; i++) {
+            // Both records of id 5 are for the same second, the last one wins.
+            long timestamp = hourStart + (ids[i] == 5 ? 0 : i * 1000L);
+            SegmentRecords.put(records, ids[i], MetricEntities.of(APP, RESOURCE, timestamp, i));
+        }
+        CompactedSegment segment = CompactedSegment.compact(new File(folder.getRoot(), start + ".cseg"), start,
+            null, records, ids.length);
+        assertEquals(4, segment.getRecords());
+        for (int i = 0; i < ids.length; i++) {
+            Map<Long, MetricEntity> seconds = new TreeMap<>();
+            segment.read(ids[i], start, start + 3599, APP, RESOURCE, seconds);
+            assertEquals(1, seconds.size());
+            assertEquals(i == 1 ? 3 : i, seconds.values().iterator().next().getPassQps().longValue());
+        }
+
+        // An hour without records compacts into a valid, empty segment.
+        File empty = new File(folder.getRoot(), (start + 3600) + ".cseg");
+        CompactedSegment.compact(empty, start + 3600, null, ByteBuffer.allocate(0), 0);
+        assertEquals(0, CompactedSegment.open(empty).getRecords());
+    }
+
+    private void assertSeconds(List<MetricEntity> list) {
+        assertEquals(20, list.size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(hourStart + 3590_000L + i * 1000L, list.get(i).getTimestamp().getTime());
+            assertEquals(i == 5 ? 50 : i, list.get(i).getPassQps().longValue());
+        }
+    }
+
+    private long passQpsAt(long time) {
+        return repository.queryByAppAndResourceBetween(APP, RESOURCE, time, time).get(0).getPassQps();
+    }
+
+    private SegmentMetricsRepository open() throws Exception {
+        SegmentMetricsRepository repository = new SegmentMetricsRepository(folder.getRoot(), 1, 60, 1);
+        repository.start();
+        return repository;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.shard;
+
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.alibaba.csp.sentinel.dashboard.client.HttpClientManager;
+import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
+import com.alibaba.csp.sentinel.dashboard.domain.Result;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test cases for {@link ShardManager}.
+ */
+public class ShardManagerTest {
+
+    private static final String SELF = "127.0.0.1:1";
+    private static final String QUERY_PATH = "/metric/queryByAppAndResource.json";
+
+    private HttpServer owner;
+    private CountDownLatch answer;
+    private HttpClientManager httpClientManager;
+
+    @Before
+    public void setUp() throws Exception {
+        System.setProperty(DashboardConfig.CONFIG_SHARD_TOKEN, "secret");
+        DashboardConfig.clearCache();
+        answer = new CountDownLatch(1);
+        owner = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        owner.createContext("/metric", exchange -> {
+            try {
+                answer.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            String token = exchange.getRequestHeaders().getFirst(ShardManager.TOKEN_HEADER);
+            byte[] body = ("{\"success\":true,\"code\":0,\"data\":\"" + token + "\"}")
+                .getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        owner.start();
+        httpClientManager = new HttpClientManager();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        answer.countDown();
+        httpClientManager.close();
+        owner.stop(0);
+        System.clearProperty(DashboardConfig.CONFIG_SHARD_TOKEN);
+        DashboardConfig.clearCache();
+    }
+
+    @Test
+    public void testTokenRequiredWithMembers() {
+        try {
+            new ShardManager(httpClientManager, SELF, SELF + ",127.0.0.1:2", " ", 1000, 1);
+            fail("token expected to be required");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains(DashboardConfig.CONFIG_SHARD_TOKEN));
+        }
+        assertFalse(new ShardManager(httpClientManager, SELF, "", null, 1000, 1).isEnabled());
+    }
+
+    @Test
+    public void testTokenOnlyGrantsForwardedPaths() {
+        assertTrue(ShardManager.isForwarded(request(QUERY_PATH, "secret", null)));
+        assertTrue(ShardManager.isForwarded(request("/metric/queryTopResourceMetric.json", "secret", null)));
+        assertFalse(ShardManager.isForwarded(request(QUERY_PATH, "wrong", null)));
+        assertFalse(ShardManager.isForwarded(request(QUERY_PATH, null, null)));
+        assertFalse(ShardManager.isForwarded(request("/app/names.json", "secret", null)));
+        assertFalse(ShardManager.isForwarded(request("/cluster/state_single_server.json", "secret", null)));
+    }
+
+    @Test
+    public void testConcurrentForwardsCapped() throws Exception {
+        String ownerAddress = "127.0.0.1:" + owner.getAddress().getPort();
+        ShardManager manager = new ShardManager(httpClientManager, SELF, SELF + "," + ownerAddress, "secret",
+            1000, 1);
+        String app = appOwnedBy(manager, ownerAddress);
+
+        CompletableFuture<Result<?>> pending = manager.forward(app, request(QUERY_PATH, null, app));
+        assertFalse(pending.isDone());
+        // The only permit is taken by the pending query.
+        Result<?> rejected = manager.forward(app, request(QUERY_PATH, null, app)).getNow(null);
+        assertFalse(rejected.isSuccess());
+        assertTrue(rejected.getMsg().contains("too many"));
+
+        answer.countDown();
+        Result<?> result = pending.get(5, TimeUnit.SECONDS);
+        assertTrue(result.isSuccess());
+        assertEquals("secret", result.getData());
+        assertEquals(1, manager.availableForwardPermits());
+
+        Result<?> notForwarded = manager.forward(app, request("/app/names.json", null, app)).getNow(null);
+        assertFalse(notForwarded.isSuccess());
+        assertEquals(1, manager.availableForwardPermits());
+    }
+
+    private static String appOwnedBy(ShardManager manager, String address) {
+        for (int i = 0; ; i++) {
+            if (address.equals(manager.ownerOf("app-" + i))) {
+                return "app-" + i;
+            }
+        }
+    }
+
+    private static HttpServletRequest request(String servletPath, String token, String app) {
+        Map<String, String[]> params = app == null ? Collections.emptyMap()
+            : Collections.singletonMap("app", new String[] {app});
+        return (HttpServletRequest)Proxy.newProxyInstance(ShardManagerTest.class.getClassLoader(),
+            new Class<?>[] {HttpServletRequest.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getServletPath":
+                        return servletPath;
+                    case "getHeader":
+                        return ShardManager.TOKEN_HEADER.equals(args[0]) ? token : null;
+                    case "getParameterMap":
+                        return params;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.shard;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ShardRingTest {
+
+    private static final String MEMBERS = "127.0.0.1:8081,127.0.0.1:8082,127.0.0.1:8083";
+    private static final int APPS = 3000;
+
+    @Test
+    public void testBalancedAndStableOnLeave() {
+        ShardRing ring = new ShardRing(Arrays.asList(MEMBERS.split(",")));
+        ShardRing shrunk = new ShardRing(Arrays.asList("127.0.0.1:8081", "127.0.0.1:8083"));
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < APPS; i++) {
+            String app = "app-" + i;
+            String owner = ring.ownerOf(app);
+            counts.merge(owner, 1, Integer::sum);
+            // Only the apps of the leaving member move.
+            if (!"127.0.0.1:8082".equals(owner)) {
+                assertEquals(owner, shrunk.ownerOf(app));
+            } else {
+                assertFalse(owner.equals(shrunk.ownerOf(app)));
+            }
+        }
+        assertEquals(3, counts.size());
+        for (int count : counts.values()) {
+            assertTrue(Math.abs(count - APPS / 3) < APPS / 10);
+        }
+        // Independent of the member order.
+        List<String> reversed = Arrays.asList("127.0.0.1:8083", "127.0.0.1:8082", "127.0.0.1:8081");
+        assertEquals(ring.ownerOf("app-1"), new ShardRing(reversed).ownerOf("app-1"));
+    }
+
+    @Test
+    public void testInstancesAgreeAndRebalance() {
+        long interval = 1000;
+        String[] addresses = MEMBERS.split(",");
+        ShardManager[] instances = new ShardManager[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            instances[i] = new ShardManager(null, addresses[i], MEMBERS, "token", interval, 1);
+        }
+        for (int i = 0; i < APPS; i++) {
+            String app = "app-" + i;
+            int local = 0;
+            for (ShardManager instance : instances) {
+                if (instance.isLocal(app)) {
+                    local++;
+                }
+            }
+            assertEquals(1, local);
+        }
+
+        // The third instance stops answering probes: the others take its apps over.
+        long now = System.currentTimeMillis() + interval * 4;
+        instances[0].onProbe(addresses[1], now);
+        instances[1].onProbe(addresses[0], now);
+        instances[0].refreshRing(now);
+        instances[1].refreshRing(now);
+        assertEquals(2, instances[0].getRing().getMembers().size());
+        for (int i = 0; i < APPS; i++) {
+            String app = "app-" + i;
+            assertTrue(instances[0].isLocal(app) ^ instances[1].isLocal(app));
+        }
+
+        // It comes back and gets its apps handed back.
+        instances[0].onProbe(addresses[2], now);
+        instances[0].refreshRing(now);
+        assertEquals(3, instances[0].getRing().getMembers().size());
+
+        ShardManager disabled = new ShardManager(null, null, "", null, interval, 1);
+        assertFalse(disabled.isEnabled());
+        assertTrue(disabled.isLocal("app-1"));
+    }
+}